@@ -78,6 +78,8 @@ public final class ChecksumChecker
      *            <dd>Report only errors in the logs</dd>
      *            <dt>-p</dt>
      *            <dd>Don't prune results before running checker</dd>
+     *            <dt>-t [threads]</dt>
+     *            <dd>number of threads checking bitstreams</dd>
      *            </dl>
      */
     public static void main(String[] args) throws SQLException {
@@ -96,6 +98,8 @@ public final class ChecksumChecker
         options.addOption("c", "count", true, "Check count");
         options.addOption("a", "handle", true, "Specify a handle to check");
         options.addOption("v", "verbose", false, "Report all processing");
+        options.addOption("t", "threads", true,
+                "Number of threads checking bitstreams (default checker.threads or 1)");
 
         OptionBuilder.withArgName("bitstream-ids").hasArgs().withDescription(
                 "Space separated list of bitstream ids");
@@ -227,6 +231,19 @@ public final class ChecksumChecker
         {
             checker.setReportVerbose(true);
         }
+        if (line.hasOption('t'))
+        {
+            try
+            {
+                checker.setThreads(Integer.parseInt(line.getOptionValue('t')));
+            }
+            catch (NumberFormatException nfe)
+            {
+                System.err.println("The number of threads: " + line.getOptionValue('t')
+                        + " is not an integer");
+                System.exit(1);
+            }
+        }
 
         checker.setProcessStartDate(processStart);
         checker.setDispatcher(dispatcher);
@@ -265,6 +282,7 @@ public final class ChecksumChecker
         System.out
                 .println("\nCheck a defined number of bitstreams: ChecksumChecker -c 10");
         System.out.println("\nReport all processing (verbose)(default reports only errors): ChecksumChecker -v");
+        System.out.println("\nCheck bitstreams with 4 threads: ChecksumChecker -l -t 4");
         System.out.println("\nDefault (no arguments) is equivalent to '-c 1'");
         System.exit(0);
     }
@@ -0,0 +1,165 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.mediafilter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.dspace.core.ConfigurationManager;
+
+/**
+ * Writer for the text extracted by the text filters. The text is spilled
+ * into a temporary file as it is written, instead of being kept on the
+ * heap, and is read back from there as the content of the new bitstream.
+ * Text beyond <code>filter.text.maxchars</code> characters (unlimited by
+ * default) is dropped.
+ */
+public class ExtractedTextWriter extends Writer
+{
+    /** Size of the chunks in which text held in a string is written */
+    private static final int CHUNK_SIZE = 8192;
+
+    private final File file;
+
+    private final Writer out;
+
+    private final long maxChars;
+
+    private long count = 0;
+
+    private boolean closed = false;
+
+    /**
+     * Create a writer truncating the text after the configured number of
+     * characters.
+     *
+     * @throws IOException if the temporary file cannot be created
+     */
+    public ExtractedTextWriter() throws IOException
+    {
+        this(ConfigurationManager.getLongProperty("filter.text.maxchars", 0));
+    }
+
+    /**
+     * @param maxChars
+     *            number of characters after which the text is truncated, 0
+     *            for no limit
+     * @throws IOException if the temporary file cannot be created
+     */
+    public ExtractedTextWriter(long maxChars) throws IOException
+    {
+        this.maxChars = maxChars > 0 ? maxChars : Long.MAX_VALUE;
+        file = File.createTempFile("dspacetextextract", ".txt");
+        file.deleteOnExit();
+        out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+        int kept = (int) Math.min(len, maxChars - count);
+        if (kept > 0)
+        {
+            out.write(cbuf, off, kept);
+            count += kept;
+        }
+    }
+
+    /**
+     * Write a whole string, in chunks so that no copy of it is made.
+     *
+     * @param text the text, may be null
+     * @throws IOException
+     */
+    public void writeText(String text) throws IOException
+    {
+        if (text == null)
+        {
+            return;
+        }
+        for (int start = 0; start < text.length() && !isFull(); start += CHUNK_SIZE)
+        {
+            write(text, start, Math.min(CHUNK_SIZE, text.length() - start));
+        }
+    }
+
+    /**
+     * @return true once as many characters as allowed have been written
+     */
+    public boolean isFull()
+    {
+        return count >= maxChars;
+    }
+
+    /**
+     * @return the number of characters kept so far
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!closed)
+        {
+            closed = true;
+            out.close();
+        }
+    }
+
+    /**
+     * Close the writer and open the text it received, encoded in UTF-8. The
+     * temporary file is deleted when the returned stream is closed.
+     *
+     * @return the extracted text
+     * @throws IOException
+     */
+    public InputStream getInputStream() throws IOException
+    {
+        close();
+        return new FileInputStream(file)
+        {
+            @Override
+            public void close() throws IOException
+            {
+                super.close();
+                file.delete();
+            }
+        };
+    }
+
+    /**
+     * Close the writer and delete the text it received, when it will not be
+     * used.
+     */
+    public void discard()
+    {
+        try
+        {
+            close();
+        }
+        catch (IOException e)
+        {
+            // only the file is left behind, and it is deleted below
+        }
+        file.delete();
+    }
+}
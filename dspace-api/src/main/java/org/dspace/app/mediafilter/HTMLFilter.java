@@ -7,10 +7,10 @@
  */
 package org.dspace.app.mediafilter;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 
 import javax.swing.text.Document;
+import javax.swing.text.Segment;
 import javax.swing.text.html.HTMLEditorKit;
 
 /*
@@ -70,12 +70,20 @@ public class HTMLFilter extends MediaFilter
 
         kit.read(source, doc, 0);
 
-        String extractedText = doc.getText(0, doc.getLength());
+        // copy the text of the document a segment at a time, instead of
+        // making a string of all of it
+        ExtractedTextWriter writer = new ExtractedTextWriter();
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        int offset = 0;
+        while (offset < doc.getLength() && !writer.isFull())
+        {
+            doc.getText(offset, doc.getLength() - offset, segment);
+            writer.write(segment.array, segment.offset, segment.count);
+            offset += segment.count;
+        }
 
         // generate an input stream with the extracted text
-        byte[] textBytes = extractedText.getBytes();
-        ByteArrayInputStream bais = new ByteArrayInputStream(textBytes);
-
-        return bais; // will this work? or will the byte array be out of scope?
+        return writer.getInputStream();
     }
 }
@@ -7,7 +7,11 @@
  */
 package org.dspace.app.mediafilter;
 
+import java.io.File;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -36,6 +40,9 @@ import org.dspace.content.DCDate;
 import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
 import org.dspace.content.ItemIterator;
+import org.dspace.content.MetadataField;
+import org.dspace.content.MetadataSchema;
+import org.dspace.content.Metadatum;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
@@ -67,6 +74,20 @@ public class MediaFilterManager
     //suffix (in dspace.cfg) for input formats supported by each filter
     public static final String INPUT_FORMATS_SUFFIX = "inputFormats";
 
+    //suffix (in dspace.cfg) for the number of threads running each filter
+    public static final String THREADS_SUFFIX = "threads";
+
+    //suffix (in dspace.cfg) for the version recorded on renditions made by each filter
+    public static final String VERSION_SUFFIX = "version";
+
+    //private field recording what each rendition was made from
+    static final String STAMP_SCHEMA = "dspace";
+    static final String STAMP_ELEMENT = "mediafilter";
+    static final String STAMP_QUALIFIER = "stamp";
+
+    //whether the missing stamp field was reported
+    private static volatile boolean stampUnregistered = false;
+
     static boolean isVerbose = false; // default to not verbose
 
     static boolean isQuiet = false; // default is noisy
@@ -79,7 +100,11 @@ public class MediaFilterManager
     
     static int processed = 0;   // number items processed
     
-    private static Item currentItem = null;   // current item being processed
+    // current item being processed, per thread as the concurrent
+    // pipeline runs filters on worker threads
+    private static final ThreadLocal<Item> currentItem = new ThreadLocal<Item>();
+
+    private static MediaFilterPipeline pipeline = null; // set when filtering concurrently
     
     private static FormatFilter[] filterClasses = null;
     
@@ -120,11 +145,14 @@ public class MediaFilterManager
         options.addOption("q", "quiet", false,
                 "do not print anything except in the event of errors.");
         options.addOption("f", "force", false,
-                "force all bitstreams to be processed");
+                "force all bitstreams to be processed, except those whose rendition was made from the same content by the same filter version");
         options.addOption("i", "identifier", true,
         		"ONLY process bitstreams belonging to identifier");
         options.addOption("m", "maximum", true,
 				"process no more than maximum items");
+        options.addOption("t", "threads", true,
+                "run the filters concurrently, each on this many threads unless\n" +
+                "set by filter.<class>[.<plugin>]." + THREADS_SUFFIX + " in dspace.cfg");
         options.addOption("h", "help", false, "help");
 
         //create a "plugin" option (to specify specific MediaFilter plugins to run)
@@ -199,6 +227,25 @@ public class MediaFilterManager
         	}
         }
 
+        int threads = 0;
+        if (line.hasOption('t'))
+        {
+            try
+            {
+                threads = Integer.parseInt(line.getOptionValue('t').trim());
+            }
+            catch (NumberFormatException e)
+            {
+                threads = 0;
+            }
+            if (threads < 1)
+            {
+                System.out.println("Invalid number of threads '" +
+                                   line.getOptionValue('t') + "' - ignoring");
+                threads = 0;
+            }
+        }
+
         String filterNames[] = null;
         if(line.hasOption('p'))
         {
@@ -334,6 +381,11 @@ public class MediaFilterManager
             // have to be super-user to do the filtering
             c.turnOffAuthorisationSystem();
 
+            if (threads > 0)
+            {
+                pipeline = new MediaFilterPipeline(c, filterClasses, threads);
+            }
+
             // now apply the filters
             if (identifier == null)
             {
@@ -362,6 +414,13 @@ public class MediaFilterManager
             	}
             }
 
+            if (pipeline != null)
+            {
+                // store the renditions still being made
+                pipeline.finish();
+                pipeline = null;
+            }
+
             c.complete();
             c = null;
         }
@@ -371,6 +430,10 @@ public class MediaFilterManager
         }
         finally
         {
+            if (pipeline != null)
+            {
+                pipeline.shutdown();
+            }
             if (c != null)
             {
                 c.abort();
@@ -461,9 +524,20 @@ public class MediaFilterManager
         //only apply filters if item not in skip-list
         if(!inSkipList(item.getHandle()))
         {
+          if (pipeline != null)
+          {
+              // filtered on worker threads, stored as the filters finish;
+              // the pipeline decaches the item once its renditions are stored
+              if (pipeline.filterItem(item))
+              {
+                  ++processed;
+              }
+              return;
+          }
+
     	  //cache this item in MediaFilterManager
     	  //so it can be accessed by MediaFilters as necessary
-    	  currentItem = item;
+    	  setCurrentItem(item);
     	
           if (filterItem(c, item))
           {
@@ -474,7 +548,7 @@ public class MediaFilterManager
           }
           // clear item objects from context cache and internal cache
           item.decache();
-          currentItem = null;
+          setCurrentItem(null);
         }  
     }
 
@@ -522,27 +596,7 @@ public class MediaFilterManager
     	// by more than one filter
     	for (int i = 0; i < filterClasses.length; i++)
     	{
-    		//List fmts = (List)filterFormats.get(filterClasses[i].getClass().getName());
-    	    String pluginName = null;
-    	               
-    	    //if this filter class is a SelfNamedPlugin,
-    	    //its list of supported formats is different for
-    	    //differently named "plugin"
-    	    if( SelfNamedPlugin.class.isAssignableFrom(filterClasses[i].getClass()) )
-    	    {
-    	        //get plugin instance name for this media filter
-    	        pluginName = ((SelfNamedPlugin)filterClasses[i]).getPluginInstanceName();
-    	    }
-    	               
-    	    //Get list of supported formats for the filter (and possibly named plugin)
-    	    //For SelfNamedPlugins, map key is:  
-    	    //  <class-name><separator><plugin-name>
-    	    //For other MediaFilters, map key is just:
-    	    //  <class-name>
-    	    List<String> fmts = filterFormats.get(filterClasses[i].getClass().getName() +
-    	                       (pluginName!=null ? FILTER_PLUGIN_SEPARATOR + pluginName : ""));
-    	   
-    	    if (fmts.contains(myBitstream.getFormat().getShortDescription()))
+    	    if (appliesTo(filterClasses[i], myBitstream))
     		{
             	try
             	{
@@ -556,102 +610,122 @@ public class MediaFilterManager
             	}
                 catch (Exception e)
                 {
-                	String handle = myItem.getHandle();
-                	Bundle[] bundles = myBitstream.getBundles();
-                	long size = myBitstream.getSize();
-                	String checksum = myBitstream.getChecksum() + " ("+myBitstream.getChecksumAlgorithm()+")";
-                	int assetstore = myBitstream.getStoreNumber();
-   
-                	// Printout helpful information to find the errored bitstream.
-                	System.out.println("ERROR filtering, skipping bitstream:\n");
-                	System.out.println("\tItem Handle: "+ handle);
-                	for (Bundle bundle : bundles)
-                	{
-                		System.out.println("\tBundle Name: " + bundle.getName());
-                	}
-                	System.out.println("\tFile Size: " + size);
-                	System.out.println("\tChecksum: " + checksum);
-                	System.out.println("\tAsset Store: " + assetstore);
-                	System.out.println(e);
-                    e.printStackTrace();
+                    printFilterError(myItem, myBitstream, e);
                 }
     		}
-            else if (filterClasses[i] instanceof SelfRegisterInputFormats)
-            {
-                // Filter implements self registration, so check to see if it should be applied
-                // given the formats it claims to support
-                SelfRegisterInputFormats srif = (SelfRegisterInputFormats)filterClasses[i];
-                boolean applyFilter = false;
-
-                // Check MIME type
-                String[] mimeTypes = srif.getInputMIMETypes();
-                if (mimeTypes != null)
-                {
-                    for (String mimeType : mimeTypes)
-                    {
-                        if (mimeType.equalsIgnoreCase(myBitstream.getFormat().getMIMEType()))
-                        {
-                            applyFilter = true;
-                        }
-                    }
-                }
+    	}
+        return filtered;
+    }
+
+    /**
+     * Check whether a filter accepts the format of a bitstream, either from
+     * its list of input formats in dspace.cfg or from the formats it
+     * registers itself.
+     * 
+     * @return true if the filter should be applied to the bitstream
+     */
+    static boolean appliesTo(FormatFilter filter, Bitstream myBitstream)
+    {
+        String pluginName = null;
+
+        //if this filter class is a SelfNamedPlugin,
+        //its list of supported formats is different for
+        //differently named "plugin"
+        if( SelfNamedPlugin.class.isAssignableFrom(filter.getClass()) )
+        {
+            //get plugin instance name for this media filter
+            pluginName = ((SelfNamedPlugin)filter).getPluginInstanceName();
+        }
+
+        //Get list of supported formats for the filter (and possibly named plugin)
+        //For SelfNamedPlugins, map key is:  
+        //  <class-name><separator><plugin-name>
+        //For other MediaFilters, map key is just:
+        //  <class-name>
+        List<String> fmts = filterFormats.get(filter.getClass().getName() +
+                           (pluginName!=null ? FILTER_PLUGIN_SEPARATOR + pluginName : ""));
+
+        if (fmts != null && fmts.contains(myBitstream.getFormat().getShortDescription()))
+        {
+            return true;
+        }
+
+        if (!(filter instanceof SelfRegisterInputFormats))
+        {
+            return false;
+        }
 
-                // Check description
-                if (!applyFilter)
+        // Filter implements self registration, so check to see if it should be applied
+        // given the formats it claims to support
+        SelfRegisterInputFormats srif = (SelfRegisterInputFormats)filter;
+
+        // Check MIME type
+        String[] mimeTypes = srif.getInputMIMETypes();
+        if (mimeTypes != null)
+        {
+            for (String mimeType : mimeTypes)
+            {
+                if (mimeType.equalsIgnoreCase(myBitstream.getFormat().getMIMEType()))
                 {
-                    String[] descriptions = srif.getInputDescriptions();
-                    if (descriptions != null)
-                    {
-                        for (String desc : descriptions)
-                        {
-                            if (desc.equalsIgnoreCase(myBitstream.getFormat().getShortDescription()))
-                            {
-                                applyFilter = true;
-                            }
-                        }
-                    }
+                    return true;
                 }
+            }
+        }
 
-                // Check extensions
-                if (!applyFilter)
+        // Check description
+        String[] descriptions = srif.getInputDescriptions();
+        if (descriptions != null)
+        {
+            for (String desc : descriptions)
+            {
+                if (desc.equalsIgnoreCase(myBitstream.getFormat().getShortDescription()))
                 {
-                    String[] extensions = srif.getInputExtensions();
-                    if (extensions != null)
-                    {
-                        for (String ext : extensions)
-                        {
-                            String[] formatExtensions = myBitstream.getFormat().getExtensions();
-                            if (formatExtensions != null && ArrayUtils.contains(formatExtensions, ext))
-                            {
-                                applyFilter = true;
-                            }
-                        }
-                    }
+                    return true;
                 }
+            }
+        }
 
-                // Filter claims to handle this type of file, so attempt to apply it
-                if (applyFilter)
+        // Check extensions
+        String[] extensions = srif.getInputExtensions();
+        if (extensions != null)
+        {
+            for (String ext : extensions)
+            {
+                String[] formatExtensions = myBitstream.getFormat().getExtensions();
+                if (formatExtensions != null && ArrayUtils.contains(formatExtensions, ext))
                 {
-                    try
-                    {
-                        // only update item if bitstream not skipped
-                        if (processBitstream(c, myItem, myBitstream, filterClasses[i]))
-                        {
-                               myItem.update(); // Make sure new bitstream has a sequence
-                                                 // number
-                               filtered = true;
-                        }
-                    }
-                    catch (Exception e)
-                    {
-                        System.out.println("ERROR filtering, skipping bitstream #"
-                                + myBitstream.getID() + " " + e);
-                        e.printStackTrace();
-                    }
+                    return true;
                 }
             }
-    	}
-        return filtered;
+        }
+
+        return false;
+    }
+
+    /**
+     * Print helpful information to find a bitstream whose filtering failed.
+     */
+    static void printFilterError(Item myItem, Bitstream myBitstream, Throwable e)
+            throws SQLException
+    {
+        String handle = myItem.getHandle();
+        Bundle[] bundles = myBitstream.getBundles();
+        long size = myBitstream.getSize();
+        String checksum = myBitstream.getChecksum() + " ("+myBitstream.getChecksumAlgorithm()+")";
+        int assetstore = myBitstream.getStoreNumber();
+
+        // Printout helpful information to find the errored bitstream.
+        System.out.println("ERROR filtering, skipping bitstream:\n");
+        System.out.println("\tItem Handle: "+ handle);
+        for (Bundle bundle : bundles)
+        {
+            System.out.println("\tBundle Name: " + bundle.getName());
+        }
+        System.out.println("\tFile Size: " + size);
+        System.out.println("\tChecksum: " + checksum);
+        System.out.println("\tAsset Store: " + assetstore);
+        System.out.println(e);
+        e.printStackTrace();
     }
     
     /**
@@ -676,48 +750,74 @@ public class MediaFilterManager
     public static boolean processBitstream(Context c, Item item, Bitstream source, FormatFilter formatFilter)
             throws Exception
     {
-        //do pre-processing of this bitstream, and if it fails, skip this bitstream!
-    	if(!formatFilter.preProcessBitstream(c, item, source))
+        if (!needsFiltering(c, item, source, formatFilter))
         {
             return false;
         }
-        	
-    	boolean overWrite = MediaFilterManager.isForce;
-        
-        // get bitstream filename, calculate destination filename
-        String newName = formatFilter.getFilteredName(source.getName());
 
-        Bitstream existingBitstream = null; // is there an existing rendition?
-        Bundle targetBundle = null; // bundle we're modifying
-
-        Bundle[] bundles = item.getBundles(formatFilter.getBundleName());
-
-        // check if destination bitstream exists
-        if (bundles.length > 0)
-        {
-            // only finds the last match (FIXME?)
-            for (int i = 0; i < bundles.length; i++)
+        InputStream destStream;
+        try {
+            System.out.println("File: " + formatFilter.getFilteredName(source.getName()));
+            destStream = formatFilter.getDestinationStream(source.retrieve());
+            if (destStream == null)
             {
-                Bitstream[] bitstreams = bundles[i].getBitstreams();
-
-                for (int j = 0; j < bitstreams.length; j++)
+                if (!isQuiet)
                 {
-                    if (bitstreams[j].getName().equals(newName))
-                    {
-                        targetBundle = bundles[i];
-                        existingBitstream = bitstreams[j];
-                    }
+                    System.out.println("SKIPPED: bitstream " + source.getID()
+                        + " (item: " + item.getHandle() + ") because filtering was unsuccessful");
                 }
+
+                return false;
             }
         }
+        catch (OutOfMemoryError oome)
+        {
+            System.out.println("!!! OutOfMemoryError !!!");
+            return false;
+        }
+
+        storeRendition(c, item, source, formatFilter, destStream);
+        return true;
+    }
+
+    /**
+     * Run the pre-processing of a filter on a bitstream, and check whether
+     * its rendition is missing (or is to be overwritten).
+     * 
+     * @return true if the filter is to be run on the bitstream
+     */
+    static boolean needsFiltering(Context c, Item item, Bitstream source, FormatFilter formatFilter)
+            throws Exception
+    {
+        //do pre-processing of this bitstream, and if it fails, skip this bitstream!
+    	if(!formatFilter.preProcessBitstream(c, item, source))
+        {
+            return false;
+        }
 
         // if exists and overwrite = false, exit
-        if (!overWrite && (existingBitstream != null))
+        Bitstream existingBitstream = findRendition(item, source, formatFilter);
+        if (!isForce && existingBitstream != null)
+        {
+            if (!isQuiet)
+            {
+                System.out.println("SKIPPED: bitstream " + source.getID()
+                        + " (item: " + item.getHandle() + ") because '"
+                        + formatFilter.getFilteredName(source.getName()) + "' already exists");
+            }
+
+            return false;
+        }
+
+        // even when overwriting, skip renditions made by the same version of
+        // the filter from the same content
+        if (existingBitstream != null && isUpToDate(existingBitstream, source, formatFilter))
         {
             if (!isQuiet)
             {
                 System.out.println("SKIPPED: bitstream " + source.getID()
-                        + " (item: " + item.getHandle() + ") because '" + newName + "' already exists");
+                        + " (item: " + item.getHandle() + ") because '"
+                        + formatFilter.getFilteredName(source.getName()) + "' is up to date");
             }
 
             return false;
@@ -728,27 +828,170 @@ public class MediaFilterManager
                 + " (item: " + item.getHandle() + ")");
         }
 
-        InputStream destStream;
-        try {
-            System.out.println("File: " + newName);
-            destStream = formatFilter.getDestinationStream(source.retrieve());
-            if (destStream == null)
+        return true;
+    }
+
+    /**
+     * Describe what a rendition is made from: the checksum of the source
+     * bitstream, and the name and version of the filter. Recorded in the
+     * dspace.mediafilter.stamp field of the rendition, so that forced runs
+     * only regenerate renditions whose source or filter has changed.
+     * <p>
+     * The version is <code>filter.&lt;class name&gt;[.&lt;plugin name&gt;].version</code>
+     * if set, else the implementation version of the filter's package, else
+     * the name and date of the jar the filter was loaded from.
+     *
+     * @return the stamp of a rendition of the source made by the filter, or
+     *         null if the version of the filter is unknown
+     */
+    static String getFilterStamp(Bitstream source, FormatFilter formatFilter)
+    {
+        String filterName = formatFilter.getClass().getName();
+        if (formatFilter instanceof SelfNamedPlugin)
+        {
+            filterName += "." + ((SelfNamedPlugin) formatFilter).getPluginInstanceName();
+        }
+
+        String version = ConfigurationManager.getProperty(FILTER_PREFIX + "." + filterName + "." + VERSION_SUFFIX);
+        if (version == null)
+        {
+            version = getImplementationVersion(formatFilter.getClass());
+        }
+        if (version == null)
+        {
+            return null;
+        }
+
+        return source.getChecksumAlgorithm() + ":" + source.getChecksum()
+                + " " + filterName + " " + version;
+    }
+
+    /**
+     * @return the implementation version of the package of a class, else the
+     *         name and date of its jar, so that a rebuilt jar without a
+     *         version still tells renditions apart; null if it was not
+     *         loaded from a jar
+     */
+    private static String getImplementationVersion(Class<?> filterClass)
+    {
+        Package filterPackage = filterClass.getPackage();
+        if (filterPackage != null && filterPackage.getImplementationVersion() != null)
+        {
+            return filterPackage.getImplementationVersion();
+        }
+
+        try
+        {
+            CodeSource codeSource = filterClass.getProtectionDomain().getCodeSource();
+            if (codeSource != null && codeSource.getLocation() != null)
             {
-                if (!isQuiet)
+                File jar = new File(codeSource.getLocation().toURI());
+                if (jar.isFile())
                 {
-                    System.out.println("SKIPPED: bitstream " + source.getID()
-                        + " (item: " + item.getHandle() + ") because filtering was unsuccessful");
+                    return jar.getName() + "@" + jar.lastModified();
                 }
+            }
+        }
+        catch (URISyntaxException e)
+        {
+            log.debug("Unable to locate the jar of " + filterClass.getName(), e);
+        }
+        catch (SecurityException e)
+        {
+            log.debug("Unable to locate the jar of " + filterClass.getName(), e);
+        }
+        return null;
+    }
 
-                return false;
+    /**
+     * @return true if the rendition was made from the same content by the
+     *         same, known, version of the filter
+     */
+    private static boolean isUpToDate(Bitstream rendition, Bitstream source, FormatFilter formatFilter)
+    {
+        String stamp = getFilterStamp(source, formatFilter);
+        Metadatum[] stamps = rendition.getMetadata(STAMP_SCHEMA, STAMP_ELEMENT, STAMP_QUALIFIER, Item.ANY);
+        return stamp != null && stamps.length > 0 && stamp.equals(stamps[0].value);
+    }
+
+    /**
+     * Record the stamp of a rendition, if the filter version is known and
+     * the stamp field is registered.
+     */
+    private static void stampRendition(Context c, Bitstream rendition, Bitstream source,
+            FormatFilter formatFilter) throws SQLException
+    {
+        String stamp = getFilterStamp(source, formatFilter);
+        if (stamp == null)
+        {
+            return;
+        }
+
+        MetadataSchema schema = MetadataSchema.find(c, STAMP_SCHEMA);
+        if (schema == null
+                || MetadataField.findByElement(c, schema.getSchemaID(), STAMP_ELEMENT, STAMP_QUALIFIER) == null)
+        {
+            if (!stampUnregistered)
+            {
+                stampUnregistered = true;
+                log.warn("The metadata field " + STAMP_SCHEMA + "." + STAMP_ELEMENT + "." + STAMP_QUALIFIER
+                        + " is not registered, renditions will be regenerated on each forced run");
             }
+            return;
         }
-        catch (OutOfMemoryError oome)
+        rendition.addMetadata(STAMP_SCHEMA, STAMP_ELEMENT, STAMP_QUALIFIER, null, stamp);
+    }
+
+    /**
+     * Find the existing rendition of a bitstream made by a filter.
+     * 
+     * @return the rendition, or null if there is none
+     */
+    private static Bitstream findRendition(Item item, Bitstream source, FormatFilter formatFilter)
+            throws SQLException
+    {
+        // get bitstream filename, calculate destination filename
+        String newName = formatFilter.getFilteredName(source.getName());
+
+        Bitstream existingBitstream = null; // is there an existing rendition?
+
+        Bundle[] bundles = item.getBundles(formatFilter.getBundleName());
+
+        // check if destination bitstream exists
+        // only finds the last match (FIXME?)
+        for (int i = 0; i < bundles.length; i++)
         {
-            System.out.println("!!! OutOfMemoryError !!!");
-            return false;
+            Bitstream[] bitstreams = bundles[i].getBitstreams();
+
+            for (int j = 0; j < bitstreams.length; j++)
+            {
+                if (bitstreams[j].getName().equals(newName))
+                {
+                    existingBitstream = bitstreams[j];
+                }
+            }
         }
 
+        return existingBitstream;
+    }
+
+    /**
+     * Store the output of a filter as the rendition of a bitstream, replacing
+     * any existing one, and set its format and permissions.
+     * 
+     * @param destStream
+     *            the output of the filter
+     */
+    static void storeRendition(Context c, Item item, Bitstream source, FormatFilter formatFilter,
+            InputStream destStream) throws Exception
+    {
+        String newName = formatFilter.getFilteredName(source.getName());
+
+        Bitstream existingBitstream = findRendition(item, source, formatFilter);
+        Bundle targetBundle = null; // bundle we're modifying
+
+        Bundle[] bundles = item.getBundles(formatFilter.getBundleName());
+
         // create new bundle if needed
         if (bundles.length < 1)
         {
@@ -767,6 +1010,7 @@ public class MediaFilterManager
         b.setSource("Written by FormatFilter " + formatFilter.getClass().getName() +
         			" on " + DCDate.getCurrent() + " (GMT)."); 
         b.setDescription(formatFilter.getDescription());
+        stampRendition(c, b, source, formatFilter);
 
         // Find the proper format
         BitstreamFormat bf = BitstreamFormat.findByShortDescription(c,
@@ -803,8 +1047,6 @@ public class MediaFilterManager
 
         //do post-processing of the generated bitstream
         formatFilter.postProcessBitstream(c, item, b);
-        
-        return true;
     }
     
     /**
@@ -819,7 +1061,25 @@ public class MediaFilterManager
      */
     public static Item getCurrentItem()
     {
-        return currentItem;
+        return currentItem.get();
+    }
+
+    /**
+     * Set the item being processed by the current thread.
+     * 
+     * @param item
+     *            the item, or null once it has been processed
+     */
+    static void setCurrentItem(Item item)
+    {
+        if (item == null)
+        {
+            currentItem.remove();
+        }
+        else
+        {
+            currentItem.set(item);
+        }
     }
     
     /**
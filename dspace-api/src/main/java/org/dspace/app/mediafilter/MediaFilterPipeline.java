@@ -0,0 +1,360 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.mediafilter;
+
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.dspace.content.Bitstream;
+import org.dspace.content.Bundle;
+import org.dspace.content.Item;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+import org.dspace.core.SelfNamedPlugin;
+
+/**
+ * Runs the media filters concurrently, with a pool of worker threads for
+ * each filter. Items are walked, and their bitstreams matched with the
+ * filters, on the calling thread. The filters run on their pools, and the
+ * renditions they produce are stored and committed on the calling thread
+ * again, which is the only one using the context.
+ * <p>
+ * Each pool has <code>filter.&lt;class name&gt;[.&lt;plugin name&gt;].threads</code>
+ * threads (as for <code>inputFormats</code>), or the default given on the
+ * command line. At most twice that many bitstreams wait for or are in a
+ * filter at once; the calling thread stores finished renditions while it
+ * waits for room. An item is removed from the context cache once all its
+ * renditions are stored.
+ *
+ * @see MediaFilterManager
+ */
+class MediaFilterPipeline
+{
+    private static final Logger log = Logger.getLogger(MediaFilterPipeline.class);
+
+    private final Context context;
+
+    private final FormatFilter[] filters;
+
+    private final ExecutorService[] pools;
+
+    /** Room left for bitstreams in each filter */
+    private final Semaphore[] slots;
+
+    /** Filtered bitstreams waiting to be stored */
+    private final BlockingQueue<Rendition> finished = new LinkedBlockingQueue<Rendition>();
+
+    /** Bitstreams handed to a filter and not stored yet */
+    private int pending = 0;
+
+    /** Uses of each item not finished yet, by item ID */
+    private final Map<Integer, Integer> itemUses = new HashMap<Integer, Integer>();
+
+    /**
+     * @param context
+     *            context used to read items and store renditions
+     * @param filters
+     *            the filters to apply
+     * @param defaultThreads
+     *            number of threads of filters without their own setting
+     */
+    MediaFilterPipeline(Context context, FormatFilter[] filters, int defaultThreads)
+    {
+        this.context = context;
+        this.filters = filters;
+        this.pools = new ExecutorService[filters.length];
+        this.slots = new Semaphore[filters.length];
+
+        for (int i = 0; i < filters.length; i++)
+        {
+            String pluginName = null;
+            if (filters[i] instanceof SelfNamedPlugin)
+            {
+                pluginName = ((SelfNamedPlugin) filters[i]).getPluginInstanceName();
+            }
+            int threads = ConfigurationManager.getIntProperty(MediaFilterManager.FILTER_PREFIX + "."
+                    + filters[i].getClass().getName() + (pluginName != null ? "." + pluginName : "")
+                    + "." + MediaFilterManager.THREADS_SUFFIX, defaultThreads);
+            threads = Math.max(1, threads);
+
+            pools[i] = Executors.newFixedThreadPool(threads);
+            slots[i] = new Semaphore(2 * threads);
+            log.info("Running " + filters[i].getClass().getName()
+                    + (pluginName != null ? " (" + pluginName + ")" : "") + " on " + threads + " threads");
+        }
+    }
+
+    /**
+     * Hand the bitstreams of the ORIGINAL bundles of an item to the filters
+     * which apply to them and have no rendition for them yet.
+     *
+     * @return true if any bitstream was handed to a filter
+     */
+    boolean filterItem(Item item) throws Exception
+    {
+        // load the handle now, for filters calling getCurrentItem() on the workers
+        item.getHandle();
+
+        // keep the item cached while its bitstreams are queued, even if some
+        // are stored meanwhile
+        hold(item);
+        boolean queued = false;
+        try
+        {
+            queued = queueBitstreams(item);
+        }
+        finally
+        {
+            release(item);
+        }
+
+        storeFinished();
+        return queued;
+    }
+
+    private boolean queueBitstreams(Item item) throws Exception
+    {
+        boolean queued = false;
+        for (Bundle bundle : item.getBundles("ORIGINAL"))
+        {
+            for (Bitstream bitstream : bundle.getBitstreams())
+            {
+                for (int i = 0; i < filters.length; i++)
+                {
+                    if (!MediaFilterManager.appliesTo(filters[i], bitstream))
+                    {
+                        continue;
+                    }
+
+                    InputStream input = null;
+                    try
+                    {
+                        if (MediaFilterManager.needsFiltering(context, item, bitstream, filters[i]))
+                        {
+                            input = bitstream.retrieve();
+                            submit(new Rendition(item, bitstream, i, input));
+                            input = null;
+                            queued = true;
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        IOUtils.closeQuietly(input);
+                        MediaFilterManager.printFilterError(item, bitstream, e);
+                    }
+                }
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Wait for all the bitstreams handed to the filters to be filtered and
+     * stored, then stop the workers.
+     */
+    void finish() throws Exception
+    {
+        try
+        {
+            while (pending > 0)
+            {
+                Rendition rendition = finished.poll(1, TimeUnit.SECONDS);
+                if (rendition != null)
+                {
+                    store(rendition);
+                }
+            }
+        }
+        finally
+        {
+            shutdown();
+        }
+    }
+
+    /**
+     * Stop the workers, abandoning the bitstreams not filtered yet.
+     */
+    void shutdown()
+    {
+        for (ExecutorService pool : pools)
+        {
+            for (Runnable abandoned : pool.shutdownNow())
+            {
+                IOUtils.closeQuietly(((Worker) abandoned).rendition.input);
+            }
+        }
+    }
+
+    private void submit(Rendition rendition) throws Exception
+    {
+        // store what is ready while the filter is busy
+        while (!slots[rendition.filter].tryAcquire(100, TimeUnit.MILLISECONDS))
+        {
+            storeFinished();
+        }
+
+        pending++;
+        hold(rendition.item);
+        pools[rendition.filter].execute(new Worker(rendition));
+    }
+
+    private void storeFinished() throws Exception
+    {
+        Rendition rendition = finished.poll();
+        while (rendition != null)
+        {
+            store(rendition);
+            rendition = finished.poll();
+        }
+    }
+
+    private void store(Rendition rendition) throws Exception
+    {
+        pending--;
+        try
+        {
+            storeRendition(rendition);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(rendition.input);
+            IOUtils.closeQuietly(rendition.output);
+            release(rendition.item);
+        }
+    }
+
+    private void storeRendition(Rendition rendition) throws Exception
+    {
+        Item item = rendition.item;
+        Bitstream source = rendition.source;
+
+        if (rendition.error instanceof OutOfMemoryError)
+        {
+            System.out.println("!!! OutOfMemoryError !!!");
+            return;
+        }
+        if (rendition.error != null)
+        {
+            MediaFilterManager.printFilterError(item, source, rendition.error);
+            return;
+        }
+        if (rendition.output == null)
+        {
+            if (!MediaFilterManager.isQuiet)
+            {
+                System.out.println("SKIPPED: bitstream " + source.getID()
+                    + " (item: " + item.getHandle() + ") because filtering was unsuccessful");
+            }
+            return;
+        }
+
+        try
+        {
+            MediaFilterManager.storeRendition(context, item, source, filters[rendition.filter], rendition.output);
+            item.update(); // Make sure new bitstream has a sequence number
+            context.commit();
+        }
+        catch (Exception e)
+        {
+            MediaFilterManager.printFilterError(item, source, e);
+        }
+    }
+
+    private void hold(Item item)
+    {
+        Integer uses = itemUses.get(item.getID());
+        itemUses.put(item.getID(), uses == null ? 1 : uses + 1);
+    }
+
+    /**
+     * Drop a use of the item, removing it from the context cache after the
+     * last one.
+     */
+    private void release(Item item) throws SQLException
+    {
+        Integer uses = itemUses.get(item.getID());
+        if (uses == null || uses <= 1)
+        {
+            itemUses.remove(item.getID());
+            item.decache();
+        }
+        else
+        {
+            itemUses.put(item.getID(), uses - 1);
+        }
+    }
+
+    /**
+     * Filters a bitstream on a worker thread.
+     */
+    private class Worker implements Runnable
+    {
+        final Rendition rendition;
+
+        Worker(Rendition rendition)
+        {
+            this.rendition = rendition;
+        }
+
+        public void run()
+        {
+            MediaFilterManager.setCurrentItem(rendition.item);
+            try
+            {
+                rendition.output = filters[rendition.filter].getDestinationStream(rendition.input);
+            }
+            catch (Throwable t)
+            {
+                rendition.error = t;
+            }
+            finally
+            {
+                IOUtils.closeQuietly(rendition.input);
+                MediaFilterManager.setCurrentItem(null);
+                slots[rendition.filter].release();
+                finished.add(rendition);
+            }
+        }
+    }
+
+    /**
+     * A bitstream handed to a filter, and the outcome of the filtering.
+     */
+    private static class Rendition
+    {
+        final Item item;
+
+        final Bitstream source;
+
+        final int filter;
+
+        final InputStream input;
+
+        volatile InputStream output;
+
+        volatile Throwable error;
+
+        Rendition(Item item, Bitstream source, int filter, InputStream input)
+        {
+            this.item = item;
+            this.source = source;
+            this.filter = filter;
+            this.input = input;
+        }
+    }
+}
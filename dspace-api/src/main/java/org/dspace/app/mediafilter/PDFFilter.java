@@ -7,16 +7,11 @@
  */
 package org.dspace.app.mediafilter;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 
 import org.apache.log4j.Logger;
+import org.apache.pdfbox.io.RandomAccessFile;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.util.PDFTextStripper;
 import org.dspace.core.ConfigurationManager;
@@ -63,6 +58,13 @@ public class PDFFilter extends MediaFilter
     }
 
     /**
+     * Extract the text of a PDF a window of pages at a time, into a
+     * temporary file rather than the heap. Extraction stops after
+     * <code>pdffilter.maxpages</code> pages or once the text is
+     * <code>filter.text.maxchars</code> characters long. If
+     * <code>pdffilter.largepdfs</code> is true, the parsed document is kept
+     * in a scratch file rather than the heap too.
+     *
      * @param source
      *            source input stream
      *
@@ -73,32 +75,47 @@ public class PDFFilter extends MediaFilter
     {
         try
         {
-            boolean useTemporaryFile = ConfigurationManager.getBooleanProperty("pdffilter.largepdfs", false);
+            boolean useScratchFile = ConfigurationManager.getBooleanProperty("pdffilter.largepdfs", false);
+            int maxPages = ConfigurationManager.getIntProperty("pdffilter.maxpages", 0);
+            int pageWindow = Math.max(1, ConfigurationManager.getIntProperty("pdffilter.pagewindow", 50));
 
             // get input stream from bitstream
             // pass to filter, get string back
             PDFTextStripper pts = new PDFTextStripper();
             PDDocument pdfDoc = null;
-            Writer writer = null;
-            File tempTextFile = null;
-            ByteArrayOutputStream byteStream = null;
+            File scratchFile = null;
+            RandomAccessFile scratch = null;
+            ExtractedTextWriter writer = new ExtractedTextWriter();
+            boolean extracted = false;
 
-            if (useTemporaryFile)
-            {
-                tempTextFile = File.createTempFile("dspacepdfextract" + source.hashCode(), ".txt");
-                tempTextFile.deleteOnExit();
-                writer = new OutputStreamWriter(new FileOutputStream(tempTextFile));
-            }
-            else
-            {
-                byteStream = new ByteArrayOutputStream();
-                writer = new OutputStreamWriter(byteStream);
-            }
-            
             try
             {
-                pdfDoc = PDDocument.load(source);
-                pts.writeText(pdfDoc, writer);
+                if (useScratchFile)
+                {
+                    scratchFile = File.createTempFile("dspacepdfscratch", ".tmp");
+                    scratchFile.deleteOnExit();
+                    scratch = new RandomAccessFile(scratchFile, "rw");
+                    pdfDoc = PDDocument.load(source, scratch);
+                }
+                else
+                {
+                    pdfDoc = PDDocument.load(source);
+                }
+
+                int pages = pdfDoc.getNumberOfPages();
+                if (maxPages > 0 && pages > maxPages)
+                {
+                    log.info("Extracting only the first " + maxPages + " of " + pages + " pages");
+                    pages = maxPages;
+                }
+
+                for (int start = 1; start <= pages && !writer.isFull(); start += pageWindow)
+                {
+                    pts.setStartPage(start);
+                    pts.setEndPage(Math.min(start + pageWindow - 1, pages));
+                    pts.writeText(pdfDoc, writer);
+                }
+                extracted = true;
             }
             finally
             {
@@ -116,23 +133,27 @@ public class PDFFilter extends MediaFilter
 
                 try
                 {
-                    writer.close();
+                    if (scratch != null)
+                    {
+                        scratch.close();
+                    }
                 }
                 catch(Exception e)
                 {
-                   log.error("Error closing temporary extract file: " + e.getMessage(), e);
+                   log.error("Error closing scratch file: " + e.getMessage(), e);
+                }
+                if (scratchFile != null)
+                {
+                    scratchFile.delete();
                 }
-            }
 
-            if (useTemporaryFile)
-            {
-                return new FileInputStream(tempTextFile);
-            }
-            else
-            {
-                byte[] bytes = byteStream.toByteArray();
-                return new ByteArrayInputStream(bytes);
+                if (!extracted)
+                {
+                    writer.discard();
+                }
             }
+
+            return writer.getInputStream();
         }
         catch (OutOfMemoryError oome)
         {
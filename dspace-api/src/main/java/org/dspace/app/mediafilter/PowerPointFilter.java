@@ -7,7 +7,6 @@
  */
 package org.dspace.app.mediafilter;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 
 import org.apache.poi.extractor.ExtractorFactory;
@@ -107,10 +106,9 @@ public class PowerPointFilter extends MediaFilter
                 }
 
                 // generate an input stream with the extracted text
-                byte[] textBytes = extractedText.getBytes();
-                ByteArrayInputStream bais = new ByteArrayInputStream(textBytes);
-
-                return bais;
+                ExtractedTextWriter writer = new ExtractedTextWriter();
+                writer.writeText(extractedText);
+                return writer.getInputStream();
             }
         }
         catch (Exception e)
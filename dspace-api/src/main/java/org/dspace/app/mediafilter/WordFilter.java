@@ -7,7 +7,6 @@
  */
 package org.dspace.app.mediafilter;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.IOException;
 
@@ -82,10 +81,9 @@ public class WordFilter extends MediaFilter
             }
 
             // generate an input stream with the extracted text
-            byte[] textBytes = extractedText.getBytes();
-            ByteArrayInputStream bais = new ByteArrayInputStream(textBytes);
-
-            return bais; // will this work? or will the byte array be out of scope?
+            ExtractedTextWriter writer = new ExtractedTextWriter();
+            writer.writeText(extractedText);
+            return writer.getInputStream();
         } 
         catch (IOException ioe)
         {
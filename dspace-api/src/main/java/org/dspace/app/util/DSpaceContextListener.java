@@ -8,6 +8,7 @@
 package org.dspace.app.util;
 
 import org.dspace.core.ConfigurationManager;
+import org.dspace.statistics.AsyncUsageEventWriter;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.apache.log4j.Logger;
 
@@ -147,6 +148,10 @@ public class DSpaceContextListener implements ServletContextListener
 
         try
         {
+            // Stop the usage event writer threads, which need the database
+            // for the events they still hold
+            AsyncUsageEventWriter.shutdownInstance();
+
             // Remove the database pool
             DatabaseManager.shutdown();
 
@@ -225,22 +225,13 @@ public class AuthorizeManager
     public static boolean authorizeActionBoolean(Context c, DSpaceObject o,
                                                  int a, boolean useInheritance) throws SQLException
     {
-        boolean isAuthorized = true;
-
         if (o == null)
         {
             return false;
         }
 
-        try
-        {
-            authorizeAction(c, o, a, useInheritance);
-        } catch (AuthorizeException e)
-        {
-            isAuthorized = false;
-        }
-
-        return isAuthorized;
+        // same check as authorizeAction, without building an exception on denial
+        return authorize(c, o, a, c.getCurrentUser(), useInheritance);
     }
 
     /**
@@ -280,6 +271,27 @@ public class AuthorizeManager
             return true;
         }
 
+        // was the same question answered earlier in this context?
+        String cacheKey = "authorize:" + o.getType() + ":" + o.getID() + ":" + action + ":"
+                + (e != null ? e.getID() : 0) + ":" + useInheritance;
+        Boolean cached = c.getCachedAuthorizationResult(cacheKey);
+        if (cached != null)
+        {
+            return cached.booleanValue();
+        }
+
+        boolean result = authorizeUncached(c, o, action, e, useInheritance);
+        c.cacheAuthorizationResult(cacheKey, result);
+        return result;
+    }
+
+    /**
+     * Does the work of {@link #authorize(Context, DSpaceObject, int, EPerson, boolean)},
+     * whose results are cached in the context.
+     */
+    private static boolean authorizeUncached(Context c, DSpaceObject o, int action,
+                                             EPerson e, boolean useInheritance) throws SQLException
+    {
         // is eperson set? if not, userid = 0 (anonymous)
         int userid = 0;
         if (e != null)
@@ -414,6 +426,26 @@ public class AuthorizeManager
             userid = e.getID();
         }
 
+        // the decision for the parents is cached as well, as they are
+        // checked again for each of their children
+        String cacheKey = "admin:" + o.getType() + ":" + o.getID() + ":" + userid;
+        Boolean cached = c.getCachedAuthorizationResult(cacheKey);
+        if (cached != null)
+        {
+            return cached.booleanValue();
+        }
+
+        boolean result = isAdminUncached(c, o, userid);
+        c.cacheAuthorizationResult(cacheKey, result);
+        return result;
+    }
+
+    /**
+     * Does the work of {@link #isAdmin(Context, DSpaceObject)} for an object
+     * and a user which is not a system administrator.
+     */
+    private static boolean isAdminUncached(Context c, DSpaceObject o, int userid) throws SQLException
+    {
         //
         // First, check all Resource Policies directly on this object
         //
@@ -880,6 +912,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? ",
                 o.getType(), o.getID());
+        c.clearAuthorizationCache();
         
         c.turnOffAuthorisationSystem();
         o.updateLastModified();
@@ -902,6 +935,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND (rptype <> ? OR rptype IS NULL)",
                 o.getType(), o.getID(), type);
+        c.clearAuthorizationCache();
     }
 
 
@@ -923,6 +957,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND rptype=? ",
                 o.getType(), o.getID(), type);
+        c.clearAuthorizationCache();
     }
     
 	/**
@@ -975,6 +1010,7 @@ public class AuthorizeManager
                     "DELETE FROM resourcepolicy WHERE resource_type_id= ? AND " +
                             "resource_id= ? AND action_id= ? ",
                     dso.getType(), dso.getID(), actionID);
+            context.clearAuthorizationCache();
         }
         
         context.turnOffAuthorisationSystem();
@@ -998,6 +1034,7 @@ public class AuthorizeManager
     {
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "epersongroup_id= ? ", groupID);
+        c.clearAuthorizationCache();
     }
 
     /**
@@ -1019,6 +1056,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND epersongroup_id= ? ",
                 o.getType(), o.getID(), g.getID());
+        c.clearAuthorizationCache();
         
         c.turnOffAuthorisationSystem();
         o.updateLastModified();
@@ -1044,6 +1082,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND eperson_id= ? ",
                 o.getType(), o.getID(), e.getID());
+        c.clearAuthorizationCache();
         
         c.turnOffAuthorisationSystem();
         o.updateLastModified();
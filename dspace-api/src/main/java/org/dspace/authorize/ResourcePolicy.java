@@ -193,6 +193,7 @@ public class ResourcePolicy
         // FIXME: authorizations
         // Remove ourself
         DatabaseManager.delete(myContext, myRow);
+        myContext.clearAuthorizationCache();
     }
 
     /**
@@ -476,6 +477,7 @@ public class ResourcePolicy
 
         // FIXME: Check authorisation
         DatabaseManager.update(myContext, myRow);
+        myContext.clearAuthorizationCache();
     }
 
 
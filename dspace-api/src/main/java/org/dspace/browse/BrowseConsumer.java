@@ -114,30 +114,45 @@ public class BrowseConsumer implements Consumer
         if (toUpdate != null)
         {
 
-            // Update/Add items
-            for (ItemHolder i : toUpdate.values())
+            // Update/Add items, with a single indexer which prunes the
+            // values they no longer use once all of them are done
+            ctx.turnOffAuthorisationSystem();
+            try
             {
-                // FIXME: there is an exception handling problem here
-                try
-                {
-                    // Update browse indices
-                    ctx.turnOffAuthorisationSystem();
-                    IndexBrowse ib = new IndexBrowse(ctx);
-                    ib.indexItem(i.item, i.createEvent);
-                    ctx.restoreAuthSystemState();
-                }
-                catch (BrowseException e)
-                {
-                    log.error("caught exception: ", e);
-                    //throw new SQLException(e.getMessage());
-                }
+                IndexBrowse ib = new IndexBrowse(ctx);
+                ib.setDeferPruning(true);
 
-                if (log.isDebugEnabled())
+                for (ItemHolder i : toUpdate.values())
                 {
-                    log.debug("Updated browse indices for Item id="
-                            + String.valueOf(i.item.getID()) + ", hdl="
-                            + i.item.getHandle());
+                    // FIXME: there is an exception handling problem here
+                    try
+                    {
+                        // Update browse indices
+                        ib.indexItem(i.item, i.createEvent);
+                    }
+                    catch (BrowseException e)
+                    {
+                        log.error("caught exception: ", e);
+                        //throw new SQLException(e.getMessage());
+                    }
+
+                    if (log.isDebugEnabled())
+                    {
+                        log.debug("Updated browse indices for Item id="
+                                + String.valueOf(i.item.getID()) + ", hdl="
+                                + i.item.getHandle());
+                    }
                 }
+
+                ib.pruneDeferred();
+            }
+            catch (BrowseException e)
+            {
+                log.error("caught exception: ", e);
+            }
+            finally
+            {
+                ctx.restoreAuthSystemState();
             }
 
             // NOTE: Removed items are necessarily handled inline (ugh).
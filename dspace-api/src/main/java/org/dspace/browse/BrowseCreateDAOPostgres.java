@@ -230,6 +230,7 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
             if (tri != null)
             {
                 addDistinctIDs = (Set<Integer>)((HashSet<Integer>)distinctIDs).clone();
+                List<Integer> removedMapIDs = new ArrayList<Integer>();
                 try
                 {
                     while (tri.hasNext())
@@ -248,11 +249,11 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
                             addDistinctIDs.remove(trDistinctID);
                         }
 
-                        // The item is no longer mapped to this community, so remove the database record
+                        // The item is no longer mapped to this value, so remove the database record
                         if (!itemIsMapped)
                         {
                             results.addRemovedDistinctId(trDistinctID);
-                            DatabaseManager.delete(context, tr);
+                            removedMapIDs.add(tr.getIntColumn("map_id"));
                         }
                     }
                 }
@@ -260,22 +261,43 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
                 {
                     tri.close();
                 }
+
+                executeBatch("DELETE FROM " + table + " WHERE map_id=?", removedMapIDs);
             }
             else
             {
                 addDistinctIDs = distinctIDs;
             }
 
-            // Any remaining mappings need to be added to the database
-            for (int distinctID : addDistinctIDs)
+            // Any remaining mappings need to be added to the database, in a single batch
+            PreparedStatement stmt = null;
+            try
             {
-                if (distinctID > -1)
+                for (int distinctID : addDistinctIDs)
                 {
-                    TableRow row = DatabaseManager.row(table);
-                    row.setColumn("item_id", itemID);
-                    row.setColumn("distinct_id", distinctID);
-                    DatabaseManager.insert(context, row);
-                    results.addAddedDistinctId(distinctID);
+                    if (distinctID > -1)
+                    {
+                        if (stmt == null)
+                        {
+                            stmt = context.getDBConnection().prepareStatement("INSERT INTO " + table
+                                    + " (map_id, item_id, distinct_id) VALUES (" + "nextval('" + table + "_seq')" + ", ?, ?)");
+                        }
+                        stmt.setInt(1, itemID);
+                        stmt.setInt(2, distinctID);
+                        stmt.addBatch();
+                        results.addAddedDistinctId(distinctID);
+                    }
+                }
+                if (stmt != null)
+                {
+                    stmt.executeBatch();
+                }
+            }
+            finally
+            {
+                if (stmt != null)
+                {
+                    stmt.close();
                 }
             }
         }
@@ -776,11 +798,15 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
             {
                 while (tri.hasNext())
                 {
-                    TableRow tr = tri.next();
-                    distinctIds.add(tr.getIntColumn("distinct_id"));
-                    DatabaseManager.delete(context, tr);
+                    distinctIds.add(tri.next().getIntColumn("distinct_id"));
                 }
             }
+
+            // remove all the mappings at once
+            if (!distinctIds.isEmpty())
+            {
+                DatabaseManager.updateQuery(context, "DELETE FROM " + mapTable + " WHERE item_id=?", itemID);
+            }
         }
         catch (SQLException e)
         {
@@ -813,24 +839,7 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
             if (distinctIds != null && distinctIds.size() > 0)
             {
                 query.append(" AND ").append(table).append(".id=?");
-                PreparedStatement stmt = null;
-                try
-                {
-                    stmt = context.getDBConnection().prepareStatement(query.toString());
-                    for (Integer distinctId : distinctIds)
-                    {
-                        stmt.setInt(1, distinctId);
-                        stmt.execute();
-                        stmt.clearParameters();
-                    }
-                }
-                finally
-                {
-                    if (stmt != null)
-                    {
-                        stmt.close();
-                    }
-                }
+                executeBatch(query.toString(), distinctIds);
             }
             else
             {
@@ -911,24 +920,7 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
             if (distinctIds != null && distinctIds.size() > 0)
             {
                 query.append(" AND ").append(map).append(".distinct_id=?");
-                PreparedStatement stmt = null;
-                try
-                {
-                    stmt = context.getDBConnection().prepareStatement(query.toString());
-                    for (Integer distinctId : distinctIds)
-                    {
-                        stmt.setInt(1, distinctId);
-                        stmt.execute();
-                        stmt.clearParameters();
-                    }
-                }
-                finally
-                {
-                    if (stmt != null)
-                    {
-                        stmt.close();
-                    }
-                }
+                executeBatch(query.toString(), distinctIds);
             }
             else
             {
@@ -942,6 +934,41 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
         }
     }
 
+    /**
+     * Run a statement taking a single integer parameter once for each of the
+     * given values, as one JDBC batch.
+     *
+     * @param sql the statement
+     * @param ids the values of the parameter
+     * @throws SQLException
+     */
+    private void executeBatch(String sql, List<Integer> ids) throws SQLException
+    {
+        if (ids == null || ids.isEmpty())
+        {
+            return;
+        }
+
+        PreparedStatement stmt = null;
+        try
+        {
+            stmt = context.getDBConnection().prepareStatement(sql);
+            for (Integer id : ids)
+            {
+                stmt.setInt(1, id);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        finally
+        {
+            if (stmt != null)
+            {
+                stmt.close();
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseCreateDAO#testTableExistence(java.lang.String)
      */
@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -30,6 +31,7 @@ import org.dspace.content.Metadatum;
 import org.dspace.content.Item;
 import org.dspace.content.authority.ChoiceAuthorityManager;
 import org.dspace.content.authority.MetadataAuthorityManager;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
 import org.dspace.sort.SortOption;
 import org.dspace.sort.SortException;
@@ -85,6 +87,18 @@ public class IndexBrowse
     
     /** the outputter class */
 	private BrowseOutput output;
+
+	/** whether pruning of the distinct tables waits for {@link #pruneDeferred()} */
+	private boolean deferPruning = false;
+
+	/** distinct ids no longer mapped to some item, by index, waiting to be pruned */
+	private Map<BrowseIndex, Set<Integer>> removedDistinctIds = new LinkedHashMap<BrowseIndex, Set<Integer>>();
+
+	/** distinct ids already looked up, by distinct table, value and authority */
+	private Map<String, Integer> distinctIdCache = new HashMap<String, Integer>();
+
+	/** whether distinct values are matched regardless of case */
+	private boolean caseInsensitive = ConfigurationManager.getBooleanProperty("webui.browse.metadata.case-insensitive", false);
 	
     /**
      * Construct a new index browse.  If done this way, an internal
@@ -293,6 +307,82 @@ public class IndexBrowse
     {
         dao.pruneMapExcess(bi.getMapTableName(), false, removedIds);
         dao.pruneDistinct(bi.getDistinctTableName(), bi.getMapTableName(), removedIds);
+
+        // the pruned values may have been cached
+        distinctIdCache.clear();
+    }
+
+    /**
+     * Set whether the distinct values no longer used by an indexed item are
+     * pruned right away (the default), or only when {@link #pruneDeferred()}
+     * is called, so that those of a batch of items are pruned in one pass.
+     *
+     * @param defer true to defer pruning
+     */
+    void setDeferPruning(boolean defer)
+    {
+        this.deferPruning = defer;
+    }
+
+    /**
+     * Prune the distinct values no longer used by the items indexed since
+     * pruning was deferred, in one pass per index.
+     *
+     * @throws BrowseException
+     */
+    void pruneDeferred() throws BrowseException
+    {
+        for (Map.Entry<BrowseIndex, Set<Integer>> removed : removedDistinctIds.entrySet())
+        {
+            log.debug("Pruning " + removed.getValue().size() + " values from index: " + removed.getKey().getTableName());
+            pruneDistinctIndex(removed.getKey(), new ArrayList<Integer>(removed.getValue()));
+        }
+        removedDistinctIds.clear();
+    }
+
+    /**
+     * Prune the given distinct values of an index, now or later depending
+     * on {@link #setDeferPruning(boolean)}.
+     */
+    private void pruneRemoved(BrowseIndex bi, List<Integer> removedIds) throws BrowseException
+    {
+        if (removedIds == null || removedIds.isEmpty())
+        {
+            return;
+        }
+
+        if (deferPruning)
+        {
+            Set<Integer> removed = removedDistinctIds.get(bi);
+            if (removed == null)
+            {
+                removed = new HashSet<Integer>();
+                removedDistinctIds.put(bi, removed);
+            }
+            removed.addAll(removedIds);
+        }
+        else
+        {
+            pruneDistinctIndex(bi, removedIds);
+        }
+    }
+
+    /**
+     * Get the id of a distinct value, creating it if necessary. Values
+     * already looked up by this object are not looked up again.
+     */
+    private int getDistinctID(BrowseIndex bi, String value, String authority, String sortValue)
+        throws BrowseException
+    {
+        String key = bi.getDistinctTableName() + "\u001c" + (caseInsensitive ? value.toUpperCase() : value)
+                + "\u001c" + authority;
+        Integer id = distinctIdCache.get(key);
+        if (id == null)
+        {
+            id = dao.getDistinctID(bi.getDistinctTableName(), value, authority, sortValue);
+            distinctIdCache.put(key, id);
+        }
+        return id;
     }
 
     /**
@@ -455,7 +545,7 @@ public class IndexBrowse
                                                 for (String var : variants)
                                                 {
                                                     String nVal = OrderFormat.makeSortString(var, value.language, bis[i].getDataType());
-                                                    distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), var, value.authority, nVal));
+                                                    distIDSet.add(getDistinctID(bis[i], var, value.authority, nVal));
                                                     if (var.equals(value.value))
                                                     {
                                                         isValueInVariants = true;
@@ -468,14 +558,14 @@ public class IndexBrowse
                                             {
                                                 // get the normalised version of the value
                                                 String nVal = OrderFormat.makeSortString(value.value, value.language, bis[i].getDataType());
-                                                distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), value.value, value.authority, nVal));
+                                                distIDSet.add(getDistinctID(bis[i], value.value, value.authority, nVal));
                                             }
                                         }
                                         else // put it in the browse index as if it hasn't have an authority key
                                         {
                                             // get the normalised version of the value
                                             String nVal = OrderFormat.makeSortString(value.value, value.language, bis[i].getDataType());
-                                            distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), value.value, null, nVal));
+                                            distIDSet.add(getDistinctID(bis[i], value.value, null, nVal));
                                         }
                                     }
                                 }
@@ -490,20 +580,14 @@ public class IndexBrowse
                         {
                             // remove any old mappings
                             List<Integer> distinctIds = dao.deleteMappingsByItemID(bis[i].getMapTableName(), item.getID());
-                            if (distinctIds != null && distinctIds.size() > 0)
-                            {
-                                dao.pruneDistinct(bis[i].getDistinctTableName(), bis[i].getMapTableName(), distinctIds);
-                            }
+                            pruneRemoved(bis[i], distinctIds);
                         }
                     }
                     else
                     {
                         // Update the existing mappings
                         MappingResults results = dao.updateDistinctMappings(bis[i].getMapTableName(), item.getID(), distIDSet);
-                        if (results.getRemovedDistinctIds() != null && results.getRemovedDistinctIds().size() > 0)
-                        {
-                            pruneDistinctIndex(bis[i], results.getRemovedDistinctIds());
-                        }
+                        pruneRemoved(bis[i], results.getRemovedDistinctIds());
                     }
                 }
             }
@@ -10,6 +10,7 @@ package org.dspace.browse;
 import org.apache.log4j.Logger;
 import org.dspace.content.Community;
 import org.dspace.content.Collection;
+import org.dspace.content.CommunityTree;
 import org.dspace.core.Context;
 import org.dspace.content.DSpaceObject;
 import org.dspace.core.ConfigurationManager;
@@ -101,7 +102,9 @@ public class ItemCounter
 	 * Get the count of the items in the given container.  If the configuration
 	 * value webui.strengths.cache is equal to 'true' this will return the
 	 * cached value if it exists.  If it is equal to 'false' it will count
-	 * the number of items in the container in real time.
+	 * the number of items in the container in real time.  Both are
+	 * superseded by the in-memory {@link CommunityTree} when
+	 * cache.community-tree.enabled is 'true'.
 	 * 
 	 * @param dso
 	 * @throws ItemCountException
@@ -110,6 +113,16 @@ public class ItemCounter
 	public int getCount(DSpaceObject dso)
 		throws ItemCountException
 	{
+		if (CommunityTree.isUsable(context))
+		{
+			try {
+				return CommunityTree.get(context).getCount(dso);
+			} catch (SQLException e) {
+				log.error("caught exception: ", e);
+				throw new ItemCountException(e);
+			}
+		}
+
 		boolean useCache = ConfigurationManager.getBooleanProperty(
 				"webui.strengths.cache", true);
 		
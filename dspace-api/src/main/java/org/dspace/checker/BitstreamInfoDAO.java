@@ -98,6 +98,15 @@ public final class BitstreamInfoDAO extends DAOSupport
             + "SET current_checksum = ?, expected_checksum = ?, matched_prev_checksum = ?, to_be_processed= ?, "
             + "last_process_start_date=?, last_process_end_date=?, result=? WHERE bitstream_id = ? ";
 
+    /**
+     * Query that stamps the processing dates of a bitstream handed out to a
+     * worker of a parallel run, so that dispatchers do not hand it out again
+     * while its check is still in progress.
+     */
+    private static final String CLAIM_BITSTREAM = "UPDATE most_recent_checksum "
+            + "SET last_process_start_date = ?, last_process_end_date = ? "
+            + "WHERE bitstream_id = ? AND to_be_processed = ?";
+
     /**
      * Deletes from the most_recent_checksum where the bitstream id is found
      */
@@ -193,18 +202,7 @@ public final class BitstreamInfoDAO extends DAOSupport
         {
             conn = DatabaseManager.getConnection();
             stmt = conn.prepareStatement(UPDATE_CHECKSUM);
-            stmt.setString(1, (info.getCalculatedChecksum() != null) ? info
-                    .getCalculatedChecksum() : "");
-            stmt.setString(2, info.getStoredChecksum());
-            stmt.setBoolean(3, ChecksumCheckResults.CHECKSUM_MATCH.equals(info
-                    .getChecksumCheckResult()));
-            stmt.setBoolean(4, info.getToBeProcessed());
-            stmt.setTimestamp(5, new Timestamp(info.getProcessStartDate()
-                    .getTime()));
-            stmt.setTimestamp(6, new Timestamp(info.getProcessEndDate()
-                    .getTime()));
-            stmt.setString(7, info.getChecksumCheckResult());
-            stmt.setInt(8, info.getBitstreamId());
+            setUpdateParameters(stmt, info);
             stmt.executeUpdate();
             conn.commit();
         }
@@ -219,6 +217,101 @@ public final class BitstreamInfoDAO extends DAOSupport
         }
     }
 
+    /**
+     * Updates most_recent_checksum and inserts into checksum_history the
+     * results of several checks at once, in a single transaction.
+     * 
+     * @param infos
+     *            The BitstreamInfos to record.
+     */
+    public void updateWithHistory(List<BitstreamInfo> infos)
+    {
+        if (infos.isEmpty())
+        {
+            return;
+        }
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+
+        try
+        {
+            conn = DatabaseManager.getConnection();
+            stmt = conn.prepareStatement(UPDATE_CHECKSUM);
+            for (BitstreamInfo info : infos)
+            {
+                setUpdateParameters(stmt, info);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            checksumHistoryDAO.insertHistory(infos, conn);
+            conn.commit();
+        }
+        catch (SQLException e)
+        {
+            LOG.error("Problem updating checksum rows. " + e.getMessage(), e);
+            throw new IllegalStateException("Problem updating checksum rows. " + e.getMessage(), e);
+        }
+        finally
+        {
+            cleanup(stmt, conn);
+        }
+    }
+
+    private void setUpdateParameters(PreparedStatement stmt, BitstreamInfo info)
+            throws SQLException
+    {
+        stmt.setString(1, (info.getCalculatedChecksum() != null) ? info
+                .getCalculatedChecksum() : "");
+        stmt.setString(2, info.getStoredChecksum());
+        stmt.setBoolean(3, ChecksumCheckResults.CHECKSUM_MATCH.equals(info
+                .getChecksumCheckResult()));
+        stmt.setBoolean(4, info.getToBeProcessed());
+        stmt.setTimestamp(5, new Timestamp(info.getProcessStartDate()
+                .getTime()));
+        stmt.setTimestamp(6, new Timestamp(info.getProcessEndDate()
+                .getTime()));
+        stmt.setString(7, info.getChecksumCheckResult());
+        stmt.setInt(8, info.getBitstreamId());
+    }
+
+    /**
+     * Stamps the processing dates of a bitstream which is about to be checked
+     * by a worker of a parallel run. The dispatchers select bitstreams by
+     * these dates, so they will not hand it out again while it is checked.
+     * 
+     * @param id
+     *            the bitstream id
+     * @param date
+     *            the time the bitstream was handed out
+     */
+    public void claim(int id, Date date)
+    {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+
+        try
+        {
+            conn = DatabaseManager.getConnection();
+            stmt = conn.prepareStatement(CLAIM_BITSTREAM);
+            stmt.setTimestamp(1, new Timestamp(date.getTime()));
+            stmt.setTimestamp(2, new Timestamp(date.getTime()));
+            stmt.setInt(3, id);
+            stmt.setBoolean(4, true);
+            stmt.executeUpdate();
+            conn.commit();
+        }
+        catch (SQLException e)
+        {
+            LOG.error("Problem claiming checksum row. " + e.getMessage(), e);
+            throw new IllegalStateException("Problem claiming checksum row. " + e.getMessage(), e);
+        }
+        finally
+        {
+            cleanup(stmt, conn);
+        }
+    }
+
     /**
      * Find a bitstream by its id.
      * 
@@ -13,12 +13,20 @@ import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
 import org.dspace.core.Utils;
 
+import com.google.common.util.concurrent.RateLimiter;
+
 /**
  * <p>
  * Main class for the checksum checker tool, which calculates checksums for each
@@ -72,6 +80,24 @@ public final class CheckerCommand
     /** Report all processing */
     private boolean reportVerbose = false;
 
+    /**
+     * Number of worker threads checking bitstreams. With a single one, the
+     * bitstreams are checked on the calling thread.
+     */
+    private int threads = 1;
+
+    /** Number of results of a parallel run written to the database at once. */
+    private int batchSize = 100;
+
+    /** Results of a parallel run not yet written to the database. */
+    private final List<BitstreamInfo> pendingResults = new ArrayList<BitstreamInfo>();
+
+    /** Limits the bytes read per second from the asset store, null if unlimited. */
+    private RateLimiter byteLimiter = null;
+
+    /** Limits the reads per second from the asset store, null if unlimited. */
+    private RateLimiter readLimiter = null;
+
     /**
      * Default constructor uses DSpace plugin manager to construct dependencies.
      */
@@ -80,6 +106,20 @@ public final class CheckerCommand
         bitstreamInfoDAO = new BitstreamInfoDAO();
         bitstreamDAO = new BitstreamDAO();
         checksumHistoryDAO = new ChecksumHistoryDAO();
+
+        threads = Math.max(1, ConfigurationManager.getIntProperty("checker.threads", 1));
+        batchSize = Math.max(1, ConfigurationManager.getIntProperty("checker.batch-size", 100));
+
+        int mbPerSecond = ConfigurationManager.getIntProperty("checker.max-mb-per-second", 0);
+        if (mbPerSecond > 0)
+        {
+            byteLimiter = RateLimiter.create(mbPerSecond * 1024.0 * 1024.0);
+        }
+        int readsPerSecond = ConfigurationManager.getIntProperty("checker.max-reads-per-second", 0);
+        if (readsPerSecond > 0)
+        {
+            readLimiter = RateLimiter.create(readsPerSecond);
+        }
     }
 
     /**
@@ -93,6 +133,13 @@ public final class CheckerCommand
      * N.B. a valid BitstreamDispatcher must be provided using
      * setBitstreamDispatcher before calling this method
      * </p>
+     * 
+     * <p>
+     * With more than one thread, the bitstream ids are still taken from the
+     * dispatcher on the calling thread, one at a time, so the limits of the
+     * dispatchers hold; the bitstreams are checked by worker threads and
+     * their results are written in batches.
+     * </p>
      */
     public void process(Context context)
     {
@@ -112,23 +159,191 @@ public final class CheckerCommand
         // bitstream table - this always done.
         bitstreamInfoDAO.updateMissingBitstreams();
 
+        if (threads > 1)
+        {
+            processInParallel();
+            return;
+        }
+
         int id = dispatcher.next();
 
         while (id != BitstreamDispatcher.SENTINEL)
         {
             LOG.debug("Processing bitstream id = " + id);
-            BitstreamInfo info = checkBitstream(context, id);
+            collect(checkBitstream(context, id));
+
+            id = dispatcher.next();
+        }
+    }
+
+    /**
+     * Hand the bitstream ids from the dispatcher to worker threads, each
+     * checking bitstreams with its own context.
+     */
+    private void processInParallel()
+    {
+        final BlockingQueue<Integer> queue = new ArrayBlockingQueue<Integer>(threads * 2);
+        List<Thread> workers = new ArrayList<Thread>(threads);
+
+        for (int i = 0; i < threads; i++)
+        {
+            Thread worker = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    Context workerContext = null;
+                    try
+                    {
+                        workerContext = new Context();
+                        int id = queue.take();
+                        while (id != BitstreamDispatcher.SENTINEL)
+                        {
+                            LOG.debug("Processing bitstream id = " + id);
+                            try
+                            {
+                                collect(checkBitstream(workerContext, id));
+                            }
+                            catch (RuntimeException e)
+                            {
+                                LOG.error("Problem checking bitstream id = " + id, e);
+                            }
+                            workerContext.clearCache();
+                            id = queue.take();
+                        }
+                    }
+                    catch (SQLException e)
+                    {
+                        LOG.error("Could not create a context for the checker worker", e);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally
+                    {
+                        if (workerContext != null)
+                        {
+                            workerContext.abort();
+                        }
+                    }
+                }
+            }, "checker-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+
+        try
+        {
+            int id = dispatcher.next();
+            while (id != BitstreamDispatcher.SENTINEL)
+            {
+                bitstreamInfoDAO.claim(id, new Date());
+                enqueue(queue, workers, id);
+                id = dispatcher.next();
+            }
+            for (int i = 0; i < threads; i++)
+            {
+                enqueue(queue, workers, BitstreamDispatcher.SENTINEL);
+            }
+            for (Thread worker : workers)
+            {
+                worker.join();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            for (Thread worker : workers)
+            {
+                worker.interrupt();
+            }
+        }
+        finally
+        {
+            flushResults();
+        }
+    }
+
+    /**
+     * Wait for room in the queue of the workers, failing if all of them have
+     * stopped.
+     */
+    private void enqueue(BlockingQueue<Integer> queue, List<Thread> workers, int id)
+            throws InterruptedException
+    {
+        while (!queue.offer(id, 1, TimeUnit.SECONDS))
+        {
+            boolean alive = false;
+            for (Thread worker : workers)
+            {
+                alive |= worker.isAlive();
+            }
+            if (!alive)
+            {
+                throw new IllegalStateException("All checker workers have stopped");
+            }
+        }
+    }
 
-            if (reportVerbose
-                    || !ChecksumCheckResults.CHECKSUM_MATCH.equals(info.getChecksumCheckResult()))
+    /**
+     * Pass the result of a check to the collector, if it is to be reported.
+     */
+    private void collect(BitstreamInfo info)
+    {
+        if (reportVerbose
+                || !ChecksumCheckResults.CHECKSUM_MATCH.equals(info.getChecksumCheckResult()))
+        {
+            synchronized (collector)
             {
                 collector.collect(info);
             }
+        }
+    }
 
-            id = dispatcher.next();
+    /**
+     * Record the result of a check in most_recent_checksum and
+     * checksum_history: at once when checking on a single thread, in batches
+     * otherwise.
+     */
+    private void record(BitstreamInfo info)
+    {
+        if (threads <= 1)
+        {
+            bitstreamInfoDAO.update(info);
+            checksumHistoryDAO.insertHistory(info);
+            return;
+        }
+
+        List<BitstreamInfo> batch = null;
+        synchronized (pendingResults)
+        {
+            pendingResults.add(info);
+            if (pendingResults.size() >= batchSize)
+            {
+                batch = new ArrayList<BitstreamInfo>(pendingResults);
+                pendingResults.clear();
+            }
+        }
+        if (batch != null)
+        {
+            bitstreamInfoDAO.updateWithHistory(batch);
         }
     }
 
+    /**
+     * Write the results of a parallel run still waiting to be recorded.
+     */
+    private void flushResults()
+    {
+        List<BitstreamInfo> batch;
+        synchronized (pendingResults)
+        {
+            batch = new ArrayList<BitstreamInfo>(pendingResults);
+            pendingResults.clear();
+        }
+        bitstreamInfoDAO.updateWithHistory(batch);
+    }
+
     /**
      * Check a specified bitstream.
      * 
@@ -199,10 +414,19 @@ public final class CheckerCommand
 
         byte[] bytes = new byte[BYTE_ARRAY_SIZE];
 
-        // make sure all the data is read by the digester
+        // make sure all the data is read by the digester, within the
+        // configured throughput
         int bytesRead = -1;
         do {
+            if (readLimiter != null)
+            {
+                readLimiter.acquire();
+            }
             bytesRead = dStream.read(bytes, 0, BYTE_ARRAY_SIZE);
+            if (byteLimiter != null && bytesRead > 0)
+            {
+                byteLimiter.acquire(bytesRead);
+            }
         } while (bytesRead != -1);
 
         return Utils.toHex(dStream.getMessageDigest().digest());
@@ -251,8 +475,7 @@ public final class CheckerCommand
         info.setProcessStartDate(new Date());
         info.setProcessEndDate(new Date());
         info.setToBeProcessed(false);
-        bitstreamInfoDAO.update(info);
-        checksumHistoryDAO.insertHistory(info);
+        record(info);
     }
 
     /**
@@ -305,8 +528,16 @@ public final class CheckerCommand
 
             info.setBitstreamFound(true);
 
-            String checksum = digestStream(bitstream, info
-                    .getChecksumAlgorithm());
+            String checksum;
+            try
+            {
+                checksum = digestStream(bitstream, info
+                        .getChecksumAlgorithm());
+            }
+            finally
+            {
+                bitstream.close();
+            }
 
             info.setCalculatedChecksum(checksum);
 
@@ -346,8 +577,7 @@ public final class CheckerCommand
             info.setProcessEndDate(new Date());
 
             // record new checksum and comparison result in db
-            bitstreamInfoDAO.update(info);
-            checksumHistoryDAO.insertHistory(info);
+            record(info);
         }
     }
 
@@ -414,6 +644,29 @@ public final class CheckerCommand
         processStartDate = startDate == null ? null : new Date(startDate.getTime());
     }
 
+    /**
+     * Get the number of threads checking bitstreams.
+     * 
+     * @return the number of threads
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Set the number of threads checking bitstreams. Defaults to
+     * checker.threads in dspace.cfg, or 1.
+     * 
+     * @param threads
+     *            the number of threads; 1 checks bitstreams on the calling
+     *            thread
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = Math.max(1, threads);
+    }
+
     /**
      * Determine if any errors are reported
      * 
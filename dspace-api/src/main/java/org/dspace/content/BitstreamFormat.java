@@ -16,6 +16,7 @@ import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.AuthorizeManager;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
+import org.dspace.core.SharedObjectCache;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
 import org.dspace.storage.rdbms.TableRowIterator;
@@ -131,7 +132,7 @@ public class BitstreamFormat
             return fromCache;
         }
 
-        TableRow row = DatabaseManager.find(context, "bitstreamformatregistry",
+        TableRow row = SharedObjectCache.find(context, "bitstreamformatregistry",
                 id);
 
         if (row == null)
@@ -599,6 +600,7 @@ public class BitstreamFormat
         }
 
         DatabaseManager.update(bfContext, bfRow);
+        SharedObjectCache.invalidateRow(bfContext, "bitstreamformatregistry", getID());
     }
 
     /**
@@ -627,6 +629,7 @@ public class BitstreamFormat
 
         // Remove from cache
         bfContext.removeCached(this, getID());
+        SharedObjectCache.invalidateRow(bfContext, "bitstreamformatregistry", getID());
 
         // Set bitstreams with this format to "unknown"
         int numberChanged = DatabaseManager.updateQuery(bfContext,
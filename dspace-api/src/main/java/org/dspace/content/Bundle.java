@@ -135,6 +135,35 @@ public class Bundle extends DSpaceObject
         modified = false;
     }
 
+    /**
+     * Construct a bundle object with the given table row and bitstreams which
+     * have already been read from the database, e.g. by a bulk query over
+     * several bundles.
+     *
+     * @param context
+     *            the context this object exists in
+     * @param row
+     *            the corresponding row in the table
+     * @param bitstreams
+     *            the bitstreams in this bundle, in display order
+     */
+    Bundle(Context context, TableRow row, List<Bitstream> bitstreams)
+    {
+        super(context);
+
+        // Ensure that my TableRow is typed.
+        if (null == row.getTable())
+            row.setTable("bundle");
+
+        bundleRow = row;
+        this.bitstreams = bitstreams;
+
+        // Cache ourselves
+        context.cache(this, row.getIntColumn("bundle_id"));
+
+        modified = false;
+    }
+
     /**
      * Get a bundle from the database. The bundle and bitstream metadata are all
      * loaded into memory.
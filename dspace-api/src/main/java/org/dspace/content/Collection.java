@@ -172,7 +172,7 @@ public class Collection extends DSpaceObject
             return fromCache;
         }
 
-        TableRow row = DatabaseManager.find(context, "collection", id);
+        TableRow row = SharedObjectCache.find(context, "collection", id);
 
         if (row == null)
         {
@@ -512,6 +512,45 @@ public class Collection extends DSpaceObject
         return new ItemIterator(ourContext, rows);
     }
 
+    /**
+     * Get a page of the in_archive items in this collection, in ascending
+     * order of ID. Pages are selected by the ID of the last item of the
+     * previous page rather than by an offset, so that the database does not
+     * have to skip over the preceding items.
+     * @param afterId Only items with a greater ID are returned; 0 for the first page
+     * @param limit Max number of results in set; nothing is returned if 0 or less
+     * @return an iterator over the items of the page.
+     * @throws SQLException
+     */
+    public ItemIterator getItemsAfter(int afterId, int limit) throws SQLException
+    {
+        // the Oracle query would not be limited at all
+        if (limit <= 0)
+        {
+            return new ItemIterator(ourContext, new ArrayList<Integer>());
+        }
+
+        List<Serializable> params = new ArrayList<Serializable>();
+        StringBuffer myQuery = new StringBuffer(
+            "SELECT item.* " +
+            "FROM item, collection2item " +
+            "WHERE item.item_id = collection2item.item_id " +
+              "AND collection2item.collection_id = ? " +
+              "AND item.in_archive = '1' " +
+              "AND item.item_id > ? " +
+            "ORDER BY item.item_id"
+        );
+
+        params.add(getID());
+        params.add(afterId);
+        DatabaseManager.applyOffsetAndLimit(myQuery, params, 0, limit);
+
+        TableRowIterator rows = DatabaseManager.query(ourContext,
+                myQuery.toString(), params.toArray());
+
+        return new ItemIterator(ourContext, rows);
+    }
+
     /**
      * Get all the items in this collection. The order is indeterminate.
      *
@@ -540,6 +579,12 @@ public class Collection extends DSpaceObject
         return collectionRow.getIntColumn("collection_id");
     }
 
+    @Override
+    public long getModificationStamp()
+    {
+        return getModificationStamp(collectionRow);
+    }
+
     /**
      * @see org.dspace.content.DSpaceObject#getHandle()
      */
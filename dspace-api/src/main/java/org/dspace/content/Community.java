@@ -26,6 +26,7 @@ import org.dspace.storage.rdbms.TableRowIterator;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.*;
 
@@ -128,7 +129,7 @@ public class Community extends DSpaceObject
             return fromCache;
         }
 
-        TableRow row = DatabaseManager.find(context, "community", id);
+        TableRow row = SharedObjectCache.find(context, "community", id);
 
         if (row == null)
         {
@@ -311,6 +312,67 @@ public class Community extends DSpaceObject
         return communityArray;
     }
 
+    /**
+     * Get a page of the communities in the system, in ascending order of ID.
+     * Pages are selected by the ID of the last community of the previous
+     * page rather than by an offset.
+     *
+     * @param context
+     *            DSpace context object
+     * @param afterId
+     *            only communities with a greater ID are returned; 0 for the
+     *            first page
+     * @param limit
+     *            maximum number of communities to return; nothing is
+     *            returned if 0 or less
+     *
+     * @return the communities of the page
+     */
+    public static Community[] findAll(Context context, int afterId, int limit) throws SQLException
+    {
+        // the Oracle query would not be limited at all
+        if (limit <= 0)
+        {
+            return new Community[0];
+        }
+
+        List<Serializable> params = new ArrayList<Serializable>();
+        StringBuffer query = new StringBuffer(
+                "SELECT * FROM community WHERE community_id > ? ORDER BY community_id");
+        params.add(afterId);
+        DatabaseManager.applyOffsetAndLimit(query, params, 0, limit);
+
+        List<Community> communities = new ArrayList<Community>();
+        TableRowIterator tri = DatabaseManager.query(context, query.toString(), params.toArray());
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+
+                // First check the cache
+                Community fromCache = (Community) context.fromCache(
+                        Community.class, row.getIntColumn("community_id"));
+
+                if (fromCache != null)
+                {
+                    communities.add(fromCache);
+                }
+                else
+                {
+                    communities.add(new Community(context, row));
+                }
+            }
+        }
+        finally
+        {
+            // close the TableRowIterator to free up resources
+            tri.close();
+        }
+
+        return communities.toArray(new Community[communities.size()]);
+    }
+
     /**
      * Get a list of all top-level communities in the system. These are
      * alphabetically sorted by community name. A top-level community is one
@@ -391,6 +453,12 @@ public class Community extends DSpaceObject
         return communityRow.getIntColumn("community_id");
     }
 
+    @Override
+    public long getModificationStamp()
+    {
+        return getModificationStamp(communityRow);
+    }
+
     /**
      * @see org.dspace.content.DSpaceObject#getHandle()
      */
@@ -1392,12 +1460,18 @@ public class Community extends DSpaceObject
     }
 
 	/**
-     * counts items in this community
+     * counts items in this community, or reads them from the
+     * {@link CommunityTree} when it is enabled
      *
      * @return  total items
      */
     public int countItems() throws SQLException
     {       
+        if (CommunityTree.isUsable(ourContext))
+        {
+            return CommunityTree.get(ourContext).getCount(this);
+        }
+
     	int total = 0;
     	// add collection counts
         Collection[] cols = getCollections();
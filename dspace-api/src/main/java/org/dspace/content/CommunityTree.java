@@ -0,0 +1,594 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Snapshot of the whole community and collection hierarchy, together with
+ * the number of archived items in each community and collection, shared by
+ * all contexts.
+ * <p>
+ * The snapshot is loaded with a handful of set based queries, instead of the
+ * queries per community and collection issued when the tree is walked with
+ * {@link Community#getSubcommunities()}, {@link Community#getCollections()}
+ * and {@link Community#countItems()}. It is kept up to date by the
+ * {@link CommunityTreeConsumer}: the item counts of the collections touched
+ * by a change are recounted, while changes to the structure itself cause the
+ * snapshot to be reloaded when it is next used. As changes made by other
+ * processes raise no events here, the snapshot is also reloaded once it is
+ * older than <code>cache.community-tree.ttl</code> seconds. Contexts with
+ * uncommitted changes do not use the snapshot at all (see
+ * {@link #isUsable(Context)}), so they always read their own writes.
+ * <p>
+ * Disabled unless <code>cache.community-tree.enabled</code> is true in
+ * dspace.cfg.
+ */
+public class CommunityTree
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(CommunityTree.class);
+
+    private static volatile Boolean enabled;
+
+    private static volatile long timeToLive = -1;
+
+    private static volatile CommunityTree current;
+
+    /** Incremented on each change, so that loads racing with it are not kept */
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static final int[] NONE = new int[0];
+
+    /** When this snapshot was loaded */
+    private final long loaded;
+
+    private final int[] topCommunities;
+
+    /** Child communities of each community, ordered by title */
+    private final Map<Integer, int[]> subcommunities;
+
+    /** Collections of each community, ordered by title */
+    private final Map<Integer, int[]> collections;
+
+    /** Archived items in each collection */
+    private final Map<Integer, Integer> collectionCounts;
+
+    /** Archived items in each community, summed as Community.countItems() does */
+    private final Map<Integer, Integer> communityCounts;
+
+    private CommunityTree(long loaded, int[] topCommunities, Map<Integer, int[]> subcommunities,
+            Map<Integer, int[]> collections, Map<Integer, Integer> collectionCounts)
+    {
+        this.loaded = loaded;
+        this.topCommunities = topCommunities;
+        this.subcommunities = subcommunities;
+        this.collections = collections;
+        this.collectionCounts = collectionCounts;
+        this.communityCounts = new HashMap<Integer, Integer>();
+        for (Integer id : subcommunities.keySet())
+        {
+            sumCommunity(id, new HashSet<Integer>());
+        }
+    }
+
+    /**
+     * @return true if the community tree is enabled in the configuration
+     */
+    public static boolean isEnabled()
+    {
+        Boolean value = enabled;
+        if (value == null)
+        {
+            // racing threads read the same configuration, so no lock needed
+            value = ConfigurationManager.getBooleanProperty("cache.community-tree.enabled", false);
+            enabled = value;
+        }
+        return value;
+    }
+
+    /**
+     * @param context DSpace context object
+     * @return true if the community tree is enabled and the context has no
+     *         uncommitted changes which the shared snapshot would not show
+     */
+    public static boolean isUsable(Context context)
+    {
+        return isEnabled() && !context.hasEvents();
+    }
+
+    private static long getTimeToLive()
+    {
+        long value = timeToLive;
+        if (value < 0)
+        {
+            value = ConfigurationManager.getLongProperty("cache.community-tree.ttl", 300) * 1000;
+            timeToLive = value;
+        }
+        return value;
+    }
+
+    /**
+     * Get the current snapshot of the community tree, loading it if needed.
+     * A context with uncommitted changes gets a snapshot of its own, which is
+     * not cached: use {@link #isUsable(Context)} to read from the database
+     * directly instead.
+     *
+     * @param context DSpace context object
+     * @return the community tree
+     * @throws SQLException
+     */
+    public static CommunityTree get(Context context) throws SQLException
+    {
+        if (context.hasEvents())
+        {
+            return load(context);
+        }
+
+        CommunityTree tree = current;
+        if (tree != null && !tree.isExpired())
+        {
+            return tree;
+        }
+
+        synchronized (CommunityTree.class)
+        {
+            tree = current;
+            if (tree == null || tree.isExpired())
+            {
+                long loadingAt = generation.get();
+                tree = load(context);
+                if (generation.get() == loadingAt)
+                {
+                    current = tree;
+                }
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Drop the current snapshot, so that it is loaded again when next used.
+     */
+    public static void invalidate()
+    {
+        generation.incrementAndGet();
+        current = null;
+    }
+
+    /**
+     * Recount the archived items of the given collections in the current
+     * snapshot, if there is one.
+     *
+     * @param context DSpace context object
+     * @param collectionIds IDs of the collections
+     * @throws SQLException
+     */
+    static void updateCounts(Context context, Set<Integer> collectionIds) throws SQLException
+    {
+        if (collectionIds.isEmpty())
+        {
+            return;
+        }
+
+        synchronized (CommunityTree.class)
+        {
+            generation.incrementAndGet();
+            CommunityTree tree = current;
+            if (tree == null)
+            {
+                return;
+            }
+
+            Map<Integer, Integer> counts = new HashMap<Integer, Integer>(tree.collectionCounts);
+            for (Integer id : collectionIds)
+            {
+                counts.remove(id);
+            }
+            List<Integer> ids = new ArrayList<Integer>(collectionIds);
+            countItems(context, "AND collection2item.collection_id IN (" + placeholders(ids.size()) + ") ",
+                    ids.toArray(), counts);
+
+            current = new CommunityTree(tree.loaded, tree.topCommunities, tree.subcommunities,
+                    tree.collections, counts);
+        }
+    }
+
+    /**
+     * Find the top level communities, from the snapshot if it is usable.
+     *
+     * @param context DSpace context object
+     * @return the communities which have no parent, ordered by title
+     * @throws SQLException
+     */
+    public static Community[] findAllTop(Context context) throws SQLException
+    {
+        return isUsable(context) ? get(context).getTopCommunities(context) : Community.findAllTop(context);
+    }
+
+    /**
+     * Find the sub-communities of a community, from the snapshot if it is
+     * usable.
+     *
+     * @param context DSpace context object
+     * @param community the parent community
+     * @return the child communities, ordered by title
+     * @throws SQLException
+     */
+    public static Community[] findSubcommunities(Context context, Community community) throws SQLException
+    {
+        return isUsable(context) ? get(context).getSubcommunities(context, community.getID())
+                : community.getSubcommunities();
+    }
+
+    /**
+     * Find the collections of a community, from the snapshot if it is
+     * usable.
+     *
+     * @param context DSpace context object
+     * @param community the community
+     * @return the collections, ordered by title
+     * @throws SQLException
+     */
+    public static Collection[] findCollections(Context context, Community community) throws SQLException
+    {
+        return isUsable(context) ? get(context).getCollections(context, community.getID())
+                : community.getCollections();
+    }
+
+    /**
+     * Count the archived items of a collection, from the snapshot if it is
+     * usable.
+     *
+     * @param context DSpace context object
+     * @param collection the collection
+     * @return the number of items
+     * @throws SQLException
+     */
+    public static int countItems(Context context, Collection collection) throws SQLException
+    {
+        return isUsable(context) ? get(context).getCount(collection) : collection.countItems();
+    }
+
+    /**
+     * @param context DSpace context object
+     * @return the communities which have no parent, ordered by title
+     * @throws SQLException
+     */
+    public Community[] getTopCommunities(Context context) throws SQLException
+    {
+        return findCommunities(context, topCommunities);
+    }
+
+    /**
+     * @param context DSpace context object
+     * @param communityId ID of a community
+     * @return the child communities of the community, ordered by title
+     * @throws SQLException
+     */
+    public Community[] getSubcommunities(Context context, int communityId) throws SQLException
+    {
+        return findCommunities(context, subcommunities.get(communityId));
+    }
+
+    /**
+     * @param context DSpace context object
+     * @param communityId ID of a community
+     * @return the collections of the community, ordered by title
+     * @throws SQLException
+     */
+    public Collection[] getCollections(Context context, int communityId) throws SQLException
+    {
+        int[] ids = collections.get(communityId);
+        List<Collection> found = new ArrayList<Collection>();
+        if (ids != null)
+        {
+            for (int id : ids)
+            {
+                Collection collection = Collection.find(context, id);
+                if (collection != null)
+                {
+                    found.add(collection);
+                }
+            }
+        }
+        return found.toArray(new Collection[found.size()]);
+    }
+
+    /**
+     * Get the number of archived, non withdrawn items in a community or
+     * collection. The count of a community is the sum of the counts of its
+     * collections and sub-communities, like {@link Community#countItems()}.
+     *
+     * @param dso a community or collection
+     * @return the number of items, or 0 for other objects
+     */
+    public int getCount(DSpaceObject dso)
+    {
+        Integer count = null;
+        if (dso.getType() == Constants.COLLECTION)
+        {
+            count = collectionCounts.get(dso.getID());
+        }
+        else if (dso.getType() == Constants.COMMUNITY)
+        {
+            count = communityCounts.get(dso.getID());
+        }
+        return count != null ? count : 0;
+    }
+
+    private boolean isExpired()
+    {
+        return System.currentTimeMillis() - loaded > getTimeToLive();
+    }
+
+    private int sumCommunity(Integer id, Set<Integer> visiting)
+    {
+        Integer sum = communityCounts.get(id);
+        if (sum != null)
+        {
+            return sum;
+        }
+        if (!visiting.add(id))
+        {
+            log.warn("Community " + id + " is its own ancestor");
+            return 0;
+        }
+
+        int total = 0;
+        int[] cols = collections.get(id);
+        if (cols != null)
+        {
+            for (int collectionId : cols)
+            {
+                Integer count = collectionCounts.get(collectionId);
+                total += count != null ? count : 0;
+            }
+        }
+        int[] comms = subcommunities.get(id);
+        if (comms != null)
+        {
+            for (int communityId : comms)
+            {
+                total += sumCommunity(communityId, visiting);
+            }
+        }
+        communityCounts.put(id, total);
+        return total;
+    }
+
+    private static Community[] findCommunities(Context context, int[] ids) throws SQLException
+    {
+        List<Community> found = new ArrayList<Community>();
+        if (ids != null)
+        {
+            for (int id : ids)
+            {
+                Community community = Community.find(context, id);
+                if (community != null)
+                {
+                    found.add(community);
+                }
+            }
+        }
+        return found.toArray(new Community[found.size()]);
+    }
+
+    /**
+     * Load the tree: the communities and collections in title order, the
+     * links between them and the item counts of all collections.
+     */
+    private static CommunityTree load(Context context) throws SQLException
+    {
+        long start = System.currentTimeMillis();
+        int titleField = MetadataField.findByElement(context,
+                MetadataSchema.find(context, MetadataSchema.DC_SCHEMA).getSchemaID(), "title", null).getFieldID();
+
+        List<Integer> communityOrder = findOrdered(context, "community", Constants.COMMUNITY, titleField);
+        List<Integer> collectionOrder = findOrdered(context, "collection", Constants.COLLECTION, titleField);
+
+        Map<Integer, Set<Integer>> children = findLinks(context,
+                "SELECT parent_comm_id, child_comm_id FROM community2community", "parent_comm_id", "child_comm_id");
+        Map<Integer, Set<Integer>> owned = findLinks(context,
+                "SELECT community_id, collection_id FROM community2collection", "community_id", "collection_id");
+
+        Set<Integer> childIds = new HashSet<Integer>();
+        for (Set<Integer> ids : children.values())
+        {
+            childIds.addAll(ids);
+        }
+
+        Map<Integer, Integer> communityPositions = positions(communityOrder);
+        Map<Integer, Integer> collectionPositions = positions(collectionOrder);
+
+        List<Integer> top = new ArrayList<Integer>();
+        Map<Integer, int[]> subcommunities = new HashMap<Integer, int[]>();
+        Map<Integer, int[]> collections = new HashMap<Integer, int[]>();
+        for (Integer id : communityOrder)
+        {
+            if (!childIds.contains(id))
+            {
+                top.add(id);
+            }
+            subcommunities.put(id, inOrder(communityPositions, children.get(id)));
+            collections.put(id, inOrder(collectionPositions, owned.get(id)));
+        }
+
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        countItems(context, "", new Object[0], counts);
+
+        CommunityTree tree = new CommunityTree(System.currentTimeMillis(), toArray(top),
+                Collections.unmodifiableMap(subcommunities), Collections.unmodifiableMap(collections),
+                counts);
+        if (log.isDebugEnabled())
+        {
+            log.debug("Loaded " + communityOrder.size() + " communities and " + collectionOrder.size()
+                    + " collections in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        return tree;
+    }
+
+    /**
+     * Find the IDs of all communities or collections, ordered by title as
+     * in {@link Community#getCollections()}.
+     */
+    private static List<Integer> findOrdered(Context context, String table, int type, int titleField)
+            throws SQLException
+    {
+        String query = "SELECT t." + table + "_id FROM " + table + " t "
+                + "LEFT JOIN metadatavalue m on (m.resource_id = t." + table + "_id and m.resource_type_id = ? and m.metadata_field_id = ?) ";
+        if (DatabaseManager.isOracle())
+        {
+            query += " ORDER BY cast(m.text_value as varchar2(128))";
+        }
+        else
+        {
+            query += " ORDER BY m.text_value";
+        }
+
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        TableRowIterator tri = DatabaseManager.query(context, query, type, titleField);
+        try
+        {
+            while (tri.hasNext())
+            {
+                ids.add(tri.next().getIntColumn(table + "_id"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        return new ArrayList<Integer>(ids);
+    }
+
+    private static Map<Integer, Set<Integer>> findLinks(Context context, String query, String parentColumn,
+            String childColumn) throws SQLException
+    {
+        Map<Integer, Set<Integer>> links = new HashMap<Integer, Set<Integer>>();
+        TableRowIterator tri = DatabaseManager.query(context, query);
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                Integer parent = row.getIntColumn(parentColumn);
+                Set<Integer> ids = links.get(parent);
+                if (ids == null)
+                {
+                    ids = new HashSet<Integer>();
+                    links.put(parent, ids);
+                }
+                ids.add(row.getIntColumn(childColumn));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        return links;
+    }
+
+    /**
+     * Count the archived items of the collections, as
+     * {@link Collection#countItems()} does, into the given map.
+     */
+    private static void countItems(Context context, String condition, Object[] parameters,
+            Map<Integer, Integer> counts) throws SQLException
+    {
+        TableRowIterator tri = DatabaseManager.query(context,
+                "SELECT collection2item.collection_id, count(*) AS num_items FROM collection2item, item WHERE "
+                + "collection2item.item_id = item.item_id "
+                + "AND in_archive ='1' AND item.withdrawn='0' " + condition
+                + "GROUP BY collection2item.collection_id", parameters);
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                counts.put(row.getIntColumn("collection_id"), (int) row.getLongColumn("num_items"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+    }
+
+    private static int[] inOrder(final Map<Integer, Integer> positions, Set<Integer> ids)
+    {
+        if (ids == null || ids.isEmpty())
+        {
+            return NONE;
+        }
+        List<Integer> ordered = new ArrayList<Integer>();
+        for (Integer id : ids)
+        {
+            if (positions.containsKey(id))
+            {
+                ordered.add(id);
+            }
+        }
+        Collections.sort(ordered, new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                return positions.get(a).compareTo(positions.get(b));
+            }
+        });
+        return toArray(ordered);
+    }
+
+    private static Map<Integer, Integer> positions(List<Integer> order)
+    {
+        Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+        for (int i = 0; i < order.size(); i++)
+        {
+            positions.put(order.get(i), i);
+        }
+        return positions;
+    }
+
+    private static int[] toArray(List<Integer> ids)
+    {
+        int[] array = new int[ids.size()];
+        for (int i = 0; i < array.length; i++)
+        {
+            array[i] = ids.get(i);
+        }
+        return array;
+    }
+
+    private static String placeholders(int count)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.event.Consumer;
+import org.dspace.event.Event;
+
+/**
+ * Keeps the {@link CommunityTree} up to date: the item counts of the
+ * collections into or out of which items were moved, installed, withdrawn or
+ * reinstated are recounted, and the tree is reloaded when communities or
+ * collections are created, deleted, renamed or moved.
+ *
+ * Recommended filter:  Community|Collection|Item+Add|Create|Modify|Modify_Metadata|Delete|Remove|Install
+ */
+public class CommunityTreeConsumer implements Consumer
+{
+    /** Collections whose item counts changed */
+    private Set<Integer> collections = new HashSet<Integer>();
+
+    /** Items which may have been installed, withdrawn or reinstated */
+    private Set<Integer> items = new HashSet<Integer>();
+
+    private boolean structureChanged = false;
+
+    public void initialize() throws Exception
+    {
+    }
+
+    public void consume(Context ctx, Event event) throws Exception
+    {
+        if (!CommunityTree.isEnabled())
+        {
+            return;
+        }
+
+        int eventType = event.getEventType();
+        switch (event.getSubjectType())
+        {
+            case Constants.COMMUNITY:
+                if (eventType != Event.MODIFY)
+                {
+                    structureChanged = true;
+                }
+                break;
+
+            case Constants.COLLECTION:
+                if ((eventType == Event.ADD || eventType == Event.REMOVE)
+                        && event.getObjectType() == Constants.ITEM)
+                {
+                    collections.add(event.getSubjectID());
+                }
+                else if (eventType != Event.MODIFY)
+                {
+                    structureChanged = true;
+                }
+                break;
+
+            case Constants.ITEM:
+                if (eventType == Event.INSTALL || eventType == Event.MODIFY)
+                {
+                    items.add(event.getSubjectID());
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    public void end(Context ctx) throws Exception
+    {
+        try
+        {
+            if (structureChanged)
+            {
+                CommunityTree.invalidate();
+            }
+            else if (!collections.isEmpty() || !items.isEmpty())
+            {
+                for (Integer id : items)
+                {
+                    Item item = Item.find(ctx, id);
+                    if (item != null)
+                    {
+                        for (Collection collection : item.getCollections())
+                        {
+                            collections.add(collection.getID());
+                        }
+                    }
+                }
+                CommunityTree.updateCounts(ctx, collections);
+            }
+        }
+        finally
+        {
+            collections.clear();
+            items.clear();
+            structureChanged = false;
+        }
+    }
+
+    public void finish(Context ctx) throws Exception
+    {
+    }
+}
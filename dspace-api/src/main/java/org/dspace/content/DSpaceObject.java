@@ -22,6 +22,7 @@ import org.dspace.content.authority.MetadataAuthorityManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
+import org.dspace.core.SharedObjectCache;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
 import org.dspace.event.Event;
@@ -471,6 +472,34 @@ public abstract class DSpaceObject
         return null;
     }
 
+    /**
+     * Get the modification stamp of this object: a counter which is
+     * incremented by the {@link ModificationStampConsumer} each time a change
+     * to the object is committed. Only communities, collections and items
+     * are stamped; the stamp of an item also covers its bundles and
+     * bitstreams.
+     *
+     * @return the modification stamp, or -1 if this type of object is not
+     *         stamped
+     */
+    public long getModificationStamp()
+    {
+        return -1;
+    }
+
+    /**
+     * Read the modification stamp from the row of a stamped object. Rows
+     * which were loaded without the stamp are reported as unstamped.
+     */
+    static long getModificationStamp(TableRow row)
+    {
+        if (!row.hasColumn("modification_stamp"))
+        {
+            return -1;
+        }
+        return row.isColumnNull("modification_stamp") ? 0 : row.getLongColumn("modification_stamp");
+    }
+
     public abstract void update() throws SQLException, AuthorizeException;
 
     public abstract void updateLastModified();
@@ -1251,6 +1280,63 @@ public abstract class DSpaceObject
         modifiedMetadata = true;
     }
 
+    /**
+     * Fill the metadata cache with values which have already been read from
+     * the database, e.g. by a bulk query over several objects. The values are
+     * not marked as modified. Nothing happens if the metadata has already been
+     * loaded.
+     *
+     * @param metadata the values of this object, ordered by field and place
+     */
+    void setPrefetchedMetadata(List<Metadatum> metadata)
+    {
+        if (!metadataCache.isLoaded())
+        {
+            metadataCache.set(metadata);
+        }
+    }
+
+    /**
+     * Convert a row of the MetadataValue table into a Metadatum.
+     *
+     * @param c DSpace context object
+     * @param resultRow the MetadataValue row
+     * @param log logger used to report unknown fields or schemas
+     * @return the value, or null if its field or schema can't be found
+     * @throws SQLException
+     */
+    static Metadatum toMetadatum(Context c, TableRow resultRow, Logger log) throws SQLException
+    {
+        // Get the associated metadata field and schema information
+        int fieldID = resultRow.getIntColumn("metadata_field_id");
+        MetadataField field = MetadataField.find(c, fieldID);
+
+        if (field == null)
+        {
+            log.error("Loading item - cannot find metadata field " + fieldID + " for resourceType=" + resultRow.getIntColumn("resource_type_id") + " and resourceId=" + resultRow.getIntColumn("resource_id"));
+            return null;
+        }
+
+        MetadataSchema schema = MetadataSchema.find(c, field.getSchemaID());
+        if (schema == null)
+        {
+            log.error("Loading item - cannot find metadata schema " + field.getSchemaID() + ", field " + fieldID);
+            return null;
+        }
+
+        // Make a Metadatum object
+        Metadatum dcv = new Metadatum();
+        dcv.element = field.getElement();
+        dcv.qualifier = field.getQualifier();
+        dcv.value = resultRow.getStringColumn("text_value");
+        dcv.language = resultRow.getStringColumn("text_lang");
+        //dcv.namespace = schema.getNamespace();
+        dcv.schema = schema.getName();
+        dcv.authority = resultRow.getStringColumn("authority");
+        dcv.confidence = resultRow.getIntColumn("confidence");
+        return dcv;
+    }
+
     class MetadataCache
     {
         List<Metadatum> metadata = null;
@@ -1259,7 +1345,14 @@ public abstract class DSpaceObject
         {
             if (metadata == null)
             {
+                metadata = SharedObjectCache.getMetadata(c, resourceTypeId, resourceId);
+                if (metadata != null)
+                {
+                    return metadata;
+                }
+
                 metadata = new ArrayList<Metadatum>();
+                long loadedAt = SharedObjectCache.getGeneration();
 
                 // Get Dublin Core metadata
                 TableRowIterator tri = retrieveMetadata(resourceId, resourceTypeId);
@@ -1270,39 +1363,11 @@ public abstract class DSpaceObject
                     {
                         while (tri.hasNext())
                         {
-                            TableRow resultRow = tri.next();
-
-                            // Get the associated metadata field and schema information
-                            int fieldID = resultRow.getIntColumn("metadata_field_id");
-                            MetadataField field = MetadataField.find(c, fieldID);
-
-                            if (field == null)
+                            Metadatum dcv = toMetadatum(c, tri.next(), log);
+                            if (dcv != null)
                             {
-                                log.error("Loading item - cannot find metadata field " + fieldID + " for resourceType=" + resourceTypeId + " and resourceId=" + resourceId);
-                            }
-                            else
-                            {
-                                MetadataSchema schema = MetadataSchema.find(c, field.getSchemaID());
-                                if (schema == null)
-                                {
-                                    log.error("Loading item - cannot find metadata schema " + field.getSchemaID() + ", field " + fieldID);
-                                }
-                                else
-                                {
-                                    // Make a Metadatum object
-                                    Metadatum dcv = new Metadatum();
-                                    dcv.element = field.getElement();
-                                    dcv.qualifier = field.getQualifier();
-                                    dcv.value = resultRow.getStringColumn("text_value");
-                                    dcv.language = resultRow.getStringColumn("text_lang");
-                                    //dcv.namespace = schema.getNamespace();
-                                    dcv.schema = schema.getName();
-                                    dcv.authority = resultRow.getStringColumn("authority");
-                                    dcv.confidence = resultRow.getIntColumn("confidence");
-
-                                    // Add it to the list
-                                    metadata.add(dcv);
-                                }
+                                // Add it to the list
+                                metadata.add(dcv);
                             }
                         }
                     }
@@ -1315,6 +1380,8 @@ public abstract class DSpaceObject
                         }
                     }
                 }
+
+                SharedObjectCache.putMetadata(c, resourceTypeId, resourceId, metadata, loadedAt);
             }
 
             return metadata;
@@ -1325,6 +1392,11 @@ public abstract class DSpaceObject
             metadata = m;
         }
 
+        boolean isLoaded()
+        {
+            return metadata != null;
+        }
+
         TableRowIterator retrieveMetadata(int resourceId, int resourceTypeId) throws SQLException
         {
             return DatabaseManager.queryTable(ourContext, "MetadataValue",
@@ -9,6 +9,7 @@ package org.dspace.content;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
@@ -30,6 +31,7 @@ import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
+import org.dspace.core.SharedObjectCache;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
 import org.dspace.event.Event;
@@ -115,6 +117,35 @@ public class Item extends DSpaceObject
         context.cache(this, row.getIntColumn("item_id"));
     }
 
+    /**
+     * Construct an item with the given table row and an already resolved
+     * handle, e.g. one looked up in bulk for several items at once.
+     *
+     * @param context
+     *            the context this object exists in
+     * @param row
+     *            the corresponding row in the table
+     * @param handle
+     *            the handle of the item, or null if it has none
+     */
+    Item(Context context, TableRow row, String handle)
+    {
+        super(context);
+
+        // Ensure that my TableRow is typed.
+        if (null == row.getTable())
+            row.setTable("item");
+
+        itemRow = row;
+        modified = false;
+        clearDetails();
+
+        this.handle = handle;
+
+        // Cache ourselves
+        context.cache(this, row.getIntColumn("item_id"));
+    }
+
 
     /**
      * Get an item from the database. The item, its Dublin Core metadata, and
@@ -137,7 +168,7 @@ public class Item extends DSpaceObject
             return fromCache;
         }
 
-        TableRow row = DatabaseManager.find(context, "item", id);
+        TableRow row = SharedObjectCache.find(context, "item", id);
 
         if (row == null)
         {
@@ -230,6 +261,41 @@ public class Item extends DSpaceObject
         return new ItemIterator(context, rows);
 	}
 
+    /**
+     * Get a page of the "final" items in the archive, both archived and
+     * withdrawn, in ascending order of ID. Pages are selected by the ID of
+     * the last item of the previous page rather than by an offset, so that
+     * the database does not have to skip over the preceding items.
+     *
+     * @param context
+     *            DSpace context object
+     * @param afterId
+     *            only items with a greater ID are returned; 0 for the first page
+     * @param limit
+     *            maximum number of items to return; nothing is returned if
+     *            0 or less
+     * @return an iterator over the items of the page.
+     * @throws SQLException
+     */
+    public static ItemIterator findAllUnfiltered(Context context, int afterId, int limit) throws SQLException
+    {
+        // the Oracle query would not be limited at all
+        if (limit <= 0)
+        {
+            return new ItemIterator(context, new ArrayList<Integer>());
+        }
+
+        List<Serializable> params = new ArrayList<Serializable>();
+        StringBuffer myQuery = new StringBuffer(
+            "SELECT * FROM item WHERE (in_archive='1' OR withdrawn='1') AND item_id > ? ORDER BY item_id");
+        params.add(afterId);
+        DatabaseManager.applyOffsetAndLimit(myQuery, params, 0, limit);
+
+        TableRowIterator rows = DatabaseManager.query(context, myQuery.toString(), params.toArray());
+
+        return new ItemIterator(context, rows);
+    }
+
     /**
      * Find all the items in the archive by a given submitter. The order is
      * indeterminate. Only items with the "in archive" flag set are included.
@@ -386,6 +452,12 @@ public class Item extends DSpaceObject
         return itemRow.getBooleanColumn("discoverable");
     }
 
+    @Override
+    public long getModificationStamp()
+    {
+        return getModificationStamp(itemRow);
+    }
+
     /**
      * Get the date the item was last modified, or the current date if
      * last_modified is null
@@ -698,6 +770,21 @@ public class Item extends DSpaceObject
         return bundleArray;
     }
 
+    /**
+     * Set the bundles of this item when they have already been read from the
+     * database, e.g. by a bulk query over several items. Nothing happens if
+     * the bundles have already been loaded.
+     *
+     * @param prefetched the bundles of this item
+     */
+    void setPrefetchedBundles(List<Bundle> prefetched)
+    {
+        if (bundles == null)
+        {
+            bundles = prefetched;
+        }
+    }
+
     /**
      * Get the bundles matching a bundle name (name corresponds roughly to type)
      *
@@ -9,9 +9,12 @@ package org.dspace.content;
 
 import java.sql.SQLException;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
 import org.dspace.storage.rdbms.TableRow;
 import org.dspace.storage.rdbms.TableRowIterator;
@@ -24,6 +27,11 @@ import org.dspace.storage.rdbms.TableRowIterator;
  *
  * Note that this class is not a real Iterator, as it does not implement
  * the Iterator interface
+ * <P>
+ * When <code>itemiterator.prefetch.size</code> is configured, items are
+ * loaded in pages of that many items. The handles, metadata, bundles and
+ * bitstreams of a page are then read with a few set based queries instead of
+ * being loaded lazily, item by item.
  * 
  * @author Robert Tansley
  * @author Richard Jones
@@ -43,7 +51,13 @@ public class ItemIterator
 
     /** a real iterator which works over the item ids when present */
     private Iterator<Integer> iditr;
-    
+
+    /** number of items loaded at once, 0 if items are loaded one by one */
+    private final int prefetchSize;
+
+    /** items which have been prefetched but not returned yet */
+    private final LinkedList<Item> prefetched = new LinkedList<Item>();
+
     /**
      * Construct an item iterator using a set of TableRow objects from
      * the item table
@@ -57,6 +71,7 @@ public class ItemIterator
     {
         ourContext = context;
         itemRows = rows;
+        prefetchSize = getConfiguredPrefetchSize();
     }
 
     /**
@@ -69,8 +84,30 @@ public class ItemIterator
      */
     public ItemIterator(Context context, List<Integer> iids)
     {
-    	ourContext = context;
-    	iditr = iids.iterator();
+        this(context, iids, getConfiguredPrefetchSize());
+    }
+
+    /**
+     * Construct an item iterator over a list of item ids, prefetching the
+     * given number of items at once whatever the configuration says.
+     *
+     * @param context
+     *            our context
+     * @param iids
+     *            the array list to be iterated over
+     * @param prefetchSize
+     *            number of items loaded at once, 0 to load them one by one
+     */
+    public ItemIterator(Context context, List<Integer> iids, int prefetchSize)
+    {
+        ourContext = context;
+        iditr = iids.iterator();
+        this.prefetchSize = Math.max(0, prefetchSize);
+    }
+
+    private static int getConfiguredPrefetchSize()
+    {
+        return ConfigurationManager.getIntProperty("itemiterator.prefetch.size", 0);
     }
     
     /**
@@ -81,7 +118,11 @@ public class ItemIterator
      */
     public boolean hasNext() throws SQLException
     {
-    	if (iditr != null)
+        if (!prefetched.isEmpty())
+        {
+            return true;
+        }
+    	else if (iditr != null)
     	{
     		return iditr.hasNext();
     	}
@@ -101,7 +142,11 @@ public class ItemIterator
      */
     public Item next() throws SQLException
     {
-    	if (iditr != null)
+        if (prefetchSize > 0)
+        {
+            return nextPrefetched();
+        }
+    	else if (iditr != null)
     	{
     		return nextByID();
     	}
@@ -112,6 +157,41 @@ public class ItemIterator
     	return null;
     }
     
+    /**
+     * Return the next item from the current page of prefetched items, loading
+     * the next page first when the current one has been used up.
+     *
+     * @return the next item, or null if none
+     * @throws SQLException
+     */
+    private Item nextPrefetched()
+        throws SQLException
+    {
+        while (prefetched.isEmpty() && hasNext())
+        {
+            if (iditr != null)
+            {
+                List<Integer> ids = new ArrayList<Integer>(prefetchSize);
+                while (ids.size() < prefetchSize && iditr.hasNext())
+                {
+                    ids.add(iditr.next());
+                }
+                prefetched.addAll(ItemPrefetcher.findItems(ourContext, ids));
+            }
+            else
+            {
+                List<TableRow> rows = new ArrayList<TableRow>(prefetchSize);
+                while (rows.size() < prefetchSize && itemRows.hasNext())
+                {
+                    rows.add(itemRows.next());
+                }
+                prefetched.addAll(ItemPrefetcher.loadItems(ourContext, rows));
+            }
+        }
+
+        return prefetched.isEmpty() ? null : prefetched.removeFirst();
+    }
+
     /**
      * This private method knows how to get the next result out of the 
      * item id iterator
@@ -153,7 +233,11 @@ public class ItemIterator
     public int nextID()
     	throws SQLException
     {
-    	if (iditr != null)
+        if (!prefetched.isEmpty())
+        {
+            return prefetched.removeFirst().getID();
+        }
+    	else if (iditr != null)
     	{
     		return nextByIDID();
     	}
@@ -244,6 +328,7 @@ public class ItemIterator
      */
     public void close()
     {
+        prefetched.clear();
         if (itemRows != null)
         {
             itemRows.close();
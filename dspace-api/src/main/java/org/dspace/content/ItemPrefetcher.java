@@ -0,0 +1,385 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.handle.HandleManager;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Loads a page of items together with their handles, metadata, bundles and
+ * bitstreams using a fixed number of set based queries, instead of the
+ * handful of queries per item which are issued when these are loaded lazily.
+ * Used by the {@link ItemIterator} when prefetching is enabled.
+ */
+class ItemPrefetcher
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(ItemPrefetcher.class);
+
+    /** Maximum number of IDs in one IN clause, Oracle allows 1000 */
+    private static final int BATCH_SIZE = 1000;
+
+    private ItemPrefetcher()
+    {
+    }
+
+    /**
+     * Find the items with the given IDs.
+     *
+     * @param context DSpace context object
+     * @param ids the IDs of the items
+     * @return the items, in the order of the given IDs. IDs which do not
+     *         correspond to an item are skipped.
+     * @throws SQLException
+     */
+    static List<Item> findItems(Context context, List<Integer> ids) throws SQLException
+    {
+        List<Integer> toLoad = new ArrayList<Integer>();
+        for (Integer id : ids)
+        {
+            if (context.fromCache(Item.class, id) == null)
+            {
+                toLoad.add(id);
+            }
+        }
+
+        Map<Integer, Item> loaded = new HashMap<Integer, Item>();
+        if (!toLoad.isEmpty())
+        {
+            List<TableRow> rows = new ArrayList<TableRow>();
+            for (List<Integer> batch : batches(toLoad))
+            {
+                TableRowIterator tri = DatabaseManager.queryTable(context, "item",
+                        "SELECT * FROM item WHERE item_id IN (" + placeholders(batch.size()) + ")",
+                        batch.toArray());
+                try
+                {
+                    while (tri.hasNext())
+                    {
+                        rows.add(tri.next());
+                    }
+                }
+                finally
+                {
+                    tri.close();
+                }
+            }
+
+            for (Item item : loadItems(context, rows))
+            {
+                loaded.put(item.getID(), item);
+            }
+        }
+
+        List<Item> items = new ArrayList<Item>();
+        for (Integer id : ids)
+        {
+            Item item = (Item) context.fromCache(Item.class, id);
+            if (item == null)
+            {
+                item = loaded.get(id);
+            }
+            if (item != null)
+            {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Turn a page of item table rows into items.
+     *
+     * @param context DSpace context object
+     * @param itemRows rows of the item table
+     * @return the items, in the order of the given rows
+     * @throws SQLException
+     */
+    static List<Item> loadItems(Context context, List<TableRow> itemRows) throws SQLException
+    {
+        List<Item> items = new ArrayList<Item>(itemRows.size());
+        Map<Integer, Item> created = new LinkedHashMap<Integer, Item>();
+
+        List<Integer> ids = new ArrayList<Integer>();
+        for (TableRow row : itemRows)
+        {
+            Integer id = row.getIntColumn("item_id");
+            if (context.fromCache(Item.class, id) == null)
+            {
+                ids.add(id);
+            }
+        }
+
+        Map<Integer, String> handles = new HashMap<Integer, String>();
+        for (List<Integer> batch : batches(ids))
+        {
+            handles.putAll(HandleManager.findHandles(context, Constants.ITEM, batch));
+        }
+        for (TableRow row : itemRows)
+        {
+            int id = row.getIntColumn("item_id");
+            Item item = (Item) context.fromCache(Item.class, id);
+            if (item == null)
+            {
+                item = new Item(context, row, handles.get(id));
+                created.put(id, item);
+            }
+            items.add(item);
+        }
+
+        if (!created.isEmpty())
+        {
+            prefetchMetadata(context, Constants.ITEM, created);
+            prefetchBundles(context, created);
+        }
+        return items;
+    }
+
+    /**
+     * Load the bundles of the given items, and the bitstreams in these bundles.
+     */
+    private static void prefetchBundles(Context context, Map<Integer, Item> items) throws SQLException
+    {
+        Map<Integer, List<Bundle>> bundlesByItem = new HashMap<Integer, List<Bundle>>();
+        Map<Integer, TableRow> bundleRows = new LinkedHashMap<Integer, TableRow>();
+        Map<Integer, Integer> bundleOwners = new HashMap<Integer, Integer>();
+
+        for (List<Integer> batch : batches(items.keySet()))
+        {
+            TableRowIterator tri = DatabaseManager.queryTable(context, "bundle",
+                    "SELECT bundle.*, item2bundle.item_id AS prefetch_item_id FROM bundle, item2bundle WHERE " +
+                    "item2bundle.bundle_id=bundle.bundle_id AND " +
+                    "item2bundle.item_id IN (" + placeholders(batch.size()) + ")",
+                    batch.toArray());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    bundleRows.put(row.getIntColumn("bundle_id"), row);
+                    bundleOwners.put(row.getIntColumn("bundle_id"), row.getIntColumn("prefetch_item_id"));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+
+        Map<Integer, List<Bitstream>> bitstreams = prefetchBitstreams(context, new ArrayList<Integer>(bundleRows.keySet()));
+
+        Map<Integer, Bundle> created = new LinkedHashMap<Integer, Bundle>();
+        for (Map.Entry<Integer, TableRow> entry : bundleRows.entrySet())
+        {
+            Integer bundleId = entry.getKey();
+            Bundle bundle = (Bundle) context.fromCache(Bundle.class, bundleId);
+            if (bundle == null)
+            {
+                List<Bitstream> contents = bitstreams.get(bundleId);
+                bundle = new Bundle(context, entry.getValue(),
+                        contents != null ? contents : new ArrayList<Bitstream>());
+                created.put(bundleId, bundle);
+            }
+
+            Integer itemId = bundleOwners.get(bundleId);
+            List<Bundle> bundles = bundlesByItem.get(itemId);
+            if (bundles == null)
+            {
+                bundles = new ArrayList<Bundle>();
+                bundlesByItem.put(itemId, bundles);
+            }
+            bundles.add(bundle);
+        }
+
+        for (Map.Entry<Integer, Item> entry : items.entrySet())
+        {
+            List<Bundle> bundles = bundlesByItem.get(entry.getKey());
+            entry.getValue().setPrefetchedBundles(bundles != null ? bundles : new ArrayList<Bundle>());
+        }
+
+        if (!created.isEmpty())
+        {
+            prefetchMetadata(context, Constants.BUNDLE, created);
+        }
+    }
+
+    /**
+     * Load the bitstreams of the given bundles, ordered the same way the
+     * {@link Bundle} constructor orders them.
+     *
+     * @return a map from bundle ID to the bitstreams in that bundle
+     */
+    private static Map<Integer, List<Bitstream>> prefetchBitstreams(Context context, List<Integer> bundleIds)
+            throws SQLException
+    {
+        Map<Integer, List<Bitstream>> result = new HashMap<Integer, List<Bitstream>>();
+        if (bundleIds.isEmpty())
+        {
+            return result;
+        }
+
+        String bitstreamOrderingField  = ConfigurationManager.getProperty("webui.bitstream.order.field");
+        String bitstreamOrderingDirection   = ConfigurationManager.getProperty("webui.bitstream.order.direction");
+
+        if (bitstreamOrderingField == null)
+        {
+            bitstreamOrderingField = "sequence_id";
+        }
+
+        if (bitstreamOrderingDirection == null)
+        {
+            bitstreamOrderingDirection = "ASC";
+        }
+
+        Map<Integer, Bitstream> created = new LinkedHashMap<Integer, Bitstream>();
+        for (List<Integer> batch : batches(bundleIds))
+        {
+            StringBuilder query = new StringBuilder();
+            query.append("SELECT bitstream.*,bundle2bitstream.bitstream_order,bundle2bitstream.bundle_id AS prefetch_bundle_id");
+            query.append(" FROM bitstream, bundle2bitstream WHERE");
+            query.append(" bundle2bitstream.bitstream_id=bitstream.bitstream_id AND");
+            query.append(" bundle2bitstream.bundle_id IN (").append(placeholders(batch.size())).append(")");
+            query.append(" ORDER BY bundle2bitstream.bundle_id, ");
+            query.append(bitstreamOrderingField);
+            query.append(" ");
+            query.append(bitstreamOrderingDirection);
+
+            TableRowIterator tri = DatabaseManager.query(context, query.toString(), batch.toArray());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow r = tri.next();
+                    int bitstreamId = r.getIntColumn("bitstream_id");
+
+                    Bitstream bitstream = (Bitstream) context.fromCache(Bitstream.class, bitstreamId);
+                    if (bitstream == null)
+                    {
+                        //Since bitstreams can be ordered by a column in bundle2bitstream
+                        //We cannot use queryTable & so we need to add our table later on
+                        r.setTable("bitstream");
+                        bitstream = new Bitstream(context, r);
+                        created.put(bitstreamId, bitstream);
+                    }
+
+                    Integer bundleId = r.getIntColumn("prefetch_bundle_id");
+                    List<Bitstream> bitstreams = result.get(bundleId);
+                    if (bitstreams == null)
+                    {
+                        bitstreams = new ArrayList<Bitstream>();
+                        result.put(bundleId, bitstreams);
+                    }
+                    bitstreams.add(bitstream);
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+
+        if (!created.isEmpty())
+        {
+            prefetchMetadata(context, Constants.BITSTREAM, created);
+        }
+        return result;
+    }
+
+    /**
+     * Load the metadata of several objects of the same type with one query.
+     *
+     * @param context DSpace context object
+     * @param type the type of the objects
+     * @param objects the objects, keyed by their ID
+     */
+    private static void prefetchMetadata(Context context, int type, Map<Integer, ? extends DSpaceObject> objects)
+            throws SQLException
+    {
+        Map<Integer, List<Metadatum>> metadata = new HashMap<Integer, List<Metadatum>>();
+        for (Integer id : objects.keySet())
+        {
+            metadata.put(id, new ArrayList<Metadatum>());
+        }
+
+        for (List<Integer> batch : batches(objects.keySet()))
+        {
+            List<Object> parameters = new ArrayList<Object>();
+            parameters.add(type);
+            parameters.addAll(batch);
+
+            TableRowIterator tri = DatabaseManager.queryTable(context, "MetadataValue",
+                    "SELECT * FROM MetadataValue WHERE resource_type_id = ? AND resource_id IN (" +
+                    placeholders(batch.size()) + ") ORDER BY resource_id, metadata_field_id, place",
+                    parameters.toArray());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    Metadatum dcv = DSpaceObject.toMetadatum(context, row, log);
+                    if (dcv != null)
+                    {
+                        metadata.get(row.getIntColumn("resource_id")).add(dcv);
+                    }
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+
+        for (Map.Entry<Integer, ? extends DSpaceObject> entry : objects.entrySet())
+        {
+            entry.getValue().setPrefetchedMetadata(metadata.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * Split IDs into lists of at most {@link #BATCH_SIZE}, one per query.
+     */
+    private static List<List<Integer>> batches(Collection<Integer> ids)
+    {
+        List<List<Integer>> batches = new ArrayList<List<Integer>>();
+        List<Integer> batch = null;
+        for (Integer id : ids)
+        {
+            if (batch == null || batch.size() == BATCH_SIZE)
+            {
+                batch = new ArrayList<Integer>(BATCH_SIZE);
+                batches.add(batch);
+            }
+            batch.add(id);
+        }
+        return batches;
+    }
+
+    private static String placeholders(int count)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.core.SharedObjectCache;
+import org.dspace.event.Consumer;
+import org.dspace.event.Event;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Increments the modification stamp (see
+ * {@link DSpaceObject#getModificationStamp()}) of the communities,
+ * collections and items changed by the committed events. Changes to bundles
+ * and bitstreams are attributed to the items they belong to.
+ *
+ * Recommended filter:  Community|Collection|Item|Bundle|Bitstream+All
+ */
+public class ModificationStampConsumer implements Consumer
+{
+    /** Maximum number of IDs in one IN clause, Oracle allows 1000 */
+    private static final int BATCH_SIZE = 1000;
+
+    private Set<Integer> communities = new HashSet<Integer>();
+
+    private Set<Integer> collections = new HashSet<Integer>();
+
+    private Set<Integer> items = new HashSet<Integer>();
+
+    private Set<Integer> bundles = new HashSet<Integer>();
+
+    private Set<Integer> bitstreams = new HashSet<Integer>();
+
+    public void initialize() throws Exception
+    {
+    }
+
+    public void consume(Context ctx, Event event) throws Exception
+    {
+        int id = event.getSubjectID();
+        switch (event.getSubjectType())
+        {
+            case Constants.COMMUNITY:
+                communities.add(id);
+                break;
+
+            case Constants.COLLECTION:
+                collections.add(id);
+                break;
+
+            case Constants.ITEM:
+                items.add(id);
+                break;
+
+            case Constants.BUNDLE:
+                bundles.add(id);
+                break;
+
+            case Constants.BITSTREAM:
+                bitstreams.add(id);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    public void end(Context ctx) throws Exception
+    {
+        try
+        {
+            if (communities.isEmpty() && collections.isEmpty() && items.isEmpty()
+                    && bundles.isEmpty() && bitstreams.isEmpty())
+            {
+                return;
+            }
+
+            if (!bundles.isEmpty())
+            {
+                findItems(ctx, "SELECT item_id FROM item2bundle WHERE bundle_id IN ", bundles);
+            }
+            if (!bitstreams.isEmpty())
+            {
+                findItems(ctx, "SELECT i2b.item_id FROM item2bundle i2b, bundle2bitstream b2b "
+                        + "WHERE i2b.bundle_id = b2b.bundle_id AND b2b.bitstream_id IN ", bitstreams);
+            }
+
+            stamp(ctx, "community", communities);
+            stamp(ctx, "collection", collections);
+            stamp(ctx, "item", items);
+
+            // the stamps were written after the transaction of the events was
+            // committed, so commit them too.
+            ctx.getDBConnection().commit();
+
+            // Only now drop the stamped rows from the shared cache: the items
+            // stamped for their bundles or bitstreams are not the subject of
+            // any event, and the others may have been cached again since the
+            // objectcache consumer ran.
+            invalidate(Constants.COMMUNITY, communities);
+            invalidate(Constants.COLLECTION, collections);
+            invalidate(Constants.ITEM, items);
+        }
+        finally
+        {
+            communities.clear();
+            collections.clear();
+            items.clear();
+            bundles.clear();
+            bitstreams.clear();
+        }
+    }
+
+    public void finish(Context ctx) throws Exception
+    {
+    }
+
+    /**
+     * Add the items selected by the query for the given IDs to the items to
+     * stamp.
+     */
+    private void findItems(Context ctx, String query, Set<Integer> ids) throws SQLException
+    {
+        for (List<Integer> batch : batches(ids))
+        {
+            TableRowIterator tri = DatabaseManager.query(ctx, query + "(" + placeholders(batch.size()) + ")",
+                    batch.toArray());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    items.add(tri.next().getIntColumn("item_id"));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+    }
+
+    private static void stamp(Context ctx, String table, Set<Integer> ids) throws SQLException
+    {
+        for (List<Integer> batch : batches(ids))
+        {
+            DatabaseManager.updateQuery(ctx, "UPDATE " + table
+                    + " SET modification_stamp = COALESCE(modification_stamp, 0) + 1 WHERE "
+                    + table + "_id IN (" + placeholders(batch.size()) + ")", batch.toArray());
+        }
+    }
+
+    private static void invalidate(int type, Set<Integer> ids)
+    {
+        for (Integer id : ids)
+        {
+            SharedObjectCache.invalidate(type, id, null);
+        }
+    }
+
+    private static List<List<Integer>> batches(Set<Integer> ids)
+    {
+        List<List<Integer>> batches = new ArrayList<List<Integer>>();
+        List<Integer> batch = null;
+        for (Integer id : ids)
+        {
+            if (batch == null || batch.size() == BATCH_SIZE)
+            {
+                batch = new ArrayList<Integer>(BATCH_SIZE);
+                batches.add(batch);
+            }
+            batch.add(id);
+        }
+        return batches;
+    }
+
+    private static String placeholders(int count)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+}
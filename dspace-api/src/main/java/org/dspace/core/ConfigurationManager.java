@@ -14,10 +14,12 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Category;
 import org.apache.log4j.Logger;
@@ -36,6 +38,10 @@ import org.apache.log4j.helpers.OptionConverter;
  * Other configuration files are read from the <code>config</code> directory
  * of the DSpace installation directory (specified as the property
  * <code>dspace.dir</code> in the main configuration file.)
+ * <P>
+ * Each configuration is loaded once, then published along with an immutable
+ * snapshot of its trimmed values, from which properties are looked up
+ * without any locking.
  *
  *
  * @author Robert Tansley
@@ -49,10 +55,16 @@ public class ConfigurationManager
     private static Logger log = Logger.getLogger(ConfigurationManager.class);
 
     /** The configuration properties */
-    private static Properties properties = null;
+    private static volatile Properties properties = null;
+
+    /** Trimmed values of the configuration properties, for lookups */
+    private static volatile Map<String, String> values = null;
 
     /** module configuration properties */
-    private static Map<String, Properties> moduleProps = new HashMap<String, Properties>();
+    private static Map<String, Properties> moduleProps = new ConcurrentHashMap<String, Properties>();
+
+    /** Trimmed values of the module configuration properties, empty for modules without configuration file */
+    private static Map<String, Map<String, String>> moduleValues = new ConcurrentHashMap<String, Map<String, String>>();
 
     // limit of recursive depth of property variable interpolation in
     // configuration; anything greater than this is very likely to be a loop.
@@ -142,14 +154,30 @@ public class ConfigurationManager
         if (module == null)
             return properties;
 
-        Properties retProps = moduleProps.get(module);
-        if (retProps == null)
+        getValues(module);
+        return moduleProps.get(module);
+    }
+
+    private static Map<String, String> getValues()
+    {
+        if (values == null)
+        {
+            loadConfig(null);
+        }
+
+        return values;
+    }
+
+    private static Map<String, String> getValues(String module)
+    {
+        Map<String, String> modValues = moduleValues.get(module);
+        if (modValues == null)
         {
             loadModuleConfig(module);
-            retProps = moduleProps.get(module);
+            modValues = moduleValues.get(module);
         }
 
-        return retProps;
+        return modValues;
     }
 
     /**
@@ -163,9 +191,8 @@ public class ConfigurationManager
      */
     public static String getProperty(String property)
     {
-        Properties props = getMutableProperties();
-        String value = props == null ? null : props.getProperty(property);
-        return (value != null) ? value.trim() : null;
+        Map<String, String> snapshot = getValues();
+        return snapshot == null ? null : snapshot.get(property);
     }
 
     /**
@@ -187,13 +214,7 @@ public class ConfigurationManager
             return getProperty(property);
         }
 
-        String value = null;
-        Properties modProps = getMutableProperties(module);
-
-        if (modProps != null)
-        {
-            value = modProps.getProperty(property);
-        }
+        String value = getValues(module).get(property);
 
         if (value == null)
         {
@@ -201,7 +222,7 @@ public class ConfigurationManager
             value = getProperty(module + "." + property);
         }
 
-        return (value != null) ? value.trim() : null;
+        return value;
     }
 
     /**
@@ -522,6 +543,12 @@ public class ConfigurationManager
 
     private static synchronized void loadModuleConfig(String module)
     {
+        if (moduleValues.containsKey(module))
+        {
+            // loaded by another thread meanwhile
+            return;
+        }
+
         // try to find it in modules
         File modFile = null;
         try
@@ -558,24 +585,27 @@ public class ConfigurationManager
                 for (Enumeration pe = modProps.propertyNames(); pe.hasMoreElements(); )
                 {
                     String key = (String)pe.nextElement();
-                    String ival = interpolate(key, modProps.getProperty(key), 1);
+                    String ival = interpolate(properties, key, modProps.getProperty(key), 1);
                     if (ival != null)
                     {
                         modProps.setProperty(key, ival);
                     }
                 }
                 moduleProps.put(module, modProps);
+                moduleValues.put(module, snapshot(modProps));
             }
             else
             {
-                // log invalid request
+                // log invalid request, once
                 warn("Requested configuration module: " + module + " not found");
+                moduleValues.put(module, Collections.<String, String>emptyMap());
             }
         }
         catch (IOException ioE)
         {
             fatal("Can't load configuration: " +
                     (modFile == null ? "<unknown>" : modFile.getAbsolutePath()), ioE);
+            moduleValues.put(module, Collections.<String, String>emptyMap());
         }
     }
 
@@ -656,21 +686,25 @@ public class ConfigurationManager
             }
             else
             {
-                properties = new Properties();
+                Properties loaded = new Properties();
                 is = url.openStream();
                 reader = new InputStreamReader(is, "UTF-8");
-                properties.load(reader);
+                loaded.load(reader);
 
                 // walk values, interpolating any embedded references.
-                for (Enumeration<?> pe = properties.propertyNames(); pe.hasMoreElements(); )
+                for (Enumeration<?> pe = loaded.propertyNames(); pe.hasMoreElements(); )
                 {
                     String key = (String)pe.nextElement();
-                    String value = interpolate(key, properties.getProperty(key), 1);
+                    String value = interpolate(loaded, key, loaded.getProperty(key), 1);
                     if (value != null)
                     {
-                        properties.setProperty(key, value);
+                        loaded.setProperty(key, value);
                     }
                 }
+
+                // publish only once complete
+                values = snapshot(loaded);
+                properties = loaded;
             }
 
         }
@@ -824,13 +858,28 @@ public class ConfigurationManager
         LicenseManager.writeLicenseFile(licenseFile, newLicense);
     }
 
+    /**
+     * Build the immutable snapshot of trimmed values used for lookups.
+     */
+    private static Map<String, String> snapshot(Properties props)
+    {
+        Map<String, String> snapshot = new HashMap<String, String>();
+        for (Enumeration<?> pe = props.propertyNames(); pe.hasMoreElements(); )
+        {
+            String key = (String)pe.nextElement();
+            snapshot.put(key, props.getProperty(key).trim());
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
     /**
      * Recursively interpolate variable references in value of
-     * property named "key".
+     * property named "key", with the values of the main configuration
+     * "properties".
      * @return new value if it contains interpolations, or null
      *   if it had no variable references.
      */
-    private static String interpolate(String key, String value, int level)
+    private static String interpolate(Properties properties, String key, String value, int level)
     {
         if (level > RECURSION_LIMIT)
         {
@@ -860,7 +909,7 @@ public class ConfigurationManager
                 }
                 if (properties.containsKey(var))
                 {
-                    String ivalue = interpolate(var, properties.getProperty(var), level+1);
+                    String ivalue = interpolate(properties, var, properties.getProperty(var), level+1);
                     if (ivalue != null)
                     {
                         result.append(ivalue);
@@ -74,9 +74,18 @@ public class Context
     /** Group IDs of special groups user is a member of */
     private List<Integer> specialGroups;
 
+    /** Authorization decisions made in this context, see AuthorizeManager */
+    private Map<String, Boolean> authorizationCache;
+
+    /** Group memberships (all group IDs) of epeople, keyed by eperson ID */
+    private Map<Integer, Set<Integer>> groupMembershipCache;
+
     /** Content events */
     private LinkedList<Event> events = null;
 
+    /** Keys to remove from the SharedObjectCache again once committed */
+    private Set<String> sharedCacheInvalidations = new HashSet<String>();
+
     /** Event dispatcher name */
     private String dispName = null;
 
@@ -128,6 +137,8 @@ public class Context
 
         objectCache = new HashMap<String, Object>();
         specialGroups = new ArrayList<Integer>();
+        authorizationCache = new HashMap<String, Boolean>();
+        groupMembershipCache = new HashMap<Integer, Set<Integer>>();
 
         authStateChangeHistory = new Stack<Boolean>();
         authStateClassCallHistory = new Stack<String>();
@@ -154,6 +165,9 @@ public class Context
     public void setCurrentUser(EPerson user)
     {
         currentUser = user;
+
+        // special groups only count for the current user
+        clearGroupMembershipCache();
     }
 
     /**
@@ -402,6 +416,14 @@ public class Context
             {
                 EventManager.returnDispatcher(dispName, dispatcher);
             }
+
+            // other contexts may have cached the old values again
+            // between the changes and the commit
+            if (!sharedCacheInvalidations.isEmpty())
+            {
+                SharedObjectCache.remove(sharedCacheInvalidations);
+                sharedCacheInvalidations.clear();
+            }
         }
 
     }
@@ -441,6 +463,14 @@ public class Context
         }
 
         events.add(event);
+
+        // any change may affect authorization: new policies, an item leaving
+        // the workflow, a new owning collection...
+        clearAuthorizationCache();
+        if (event.getSubjectType() == Constants.GROUP || event.getSubjectType() == Constants.EPERSON)
+        {
+            groupMembershipCache.clear();
+        }
     }
 
     /**
@@ -515,6 +545,7 @@ public class Context
             }
             connection = null;
             events = null;
+            sharedCacheInvalidations.clear();
             clearCache();
         }
     }
@@ -600,6 +631,7 @@ public class Context
     public void clearCache()
     {
         objectCache.clear();
+        clearGroupMembershipCache();
     }
 
     /**
@@ -627,6 +659,7 @@ public class Context
     public void setSpecialGroup(int groupID)
     {
         specialGroups.add(Integer.valueOf(groupID));
+        clearGroupMembershipCache();
 
         // System.out.println("Added " + groupID);
     }
@@ -665,6 +698,95 @@ public class Context
         return myGroups.toArray(new Group[myGroups.size()]);
     }
 
+    /**
+     * Get an authorization decision made earlier in this context.
+     *
+     * @param key
+     *            identifies the object, action and user, see AuthorizeManager
+     * @return the decision, or <code>null</code> if not cached
+     */
+    public Boolean getCachedAuthorizationResult(String key)
+    {
+        return authorizationCache.get(key);
+    }
+
+    /**
+     * Remember an authorization decision for the rest of this context, or
+     * until policies or group memberships change.
+     *
+     * @param key
+     *            identifies the object, action and user, see AuthorizeManager
+     * @param result
+     *            the decision
+     */
+    public void cacheAuthorizationResult(String key, boolean result)
+    {
+        authorizationCache.put(key, Boolean.valueOf(result));
+    }
+
+    /**
+     * Forget all cached authorization decisions. Must be called when resource
+     * policies are changed.
+     */
+    public void clearAuthorizationCache()
+    {
+        authorizationCache.clear();
+    }
+
+    /**
+     * Get the IDs of all groups an eperson is a member of, as computed earlier
+     * in this context.
+     *
+     * @param epersonID
+     *            ID of the eperson, or 0 for anonymous access
+     * @return the group IDs, or <code>null</code> if not cached
+     */
+    public Set<Integer> getCachedGroupMembership(int epersonID)
+    {
+        return groupMembershipCache.get(Integer.valueOf(epersonID));
+    }
+
+    /**
+     * Remember the IDs of all groups an eperson is a member of, until group
+     * memberships change.
+     *
+     * @param epersonID
+     *            ID of the eperson, or 0 for anonymous access
+     * @param groupIDs
+     *            the group IDs, not to be modified afterwards
+     */
+    public void cacheGroupMembership(int epersonID, Set<Integer> groupIDs)
+    {
+        groupMembershipCache.put(Integer.valueOf(epersonID), groupIDs);
+    }
+
+    /**
+     * Forget all cached group memberships, and the authorization decisions
+     * based on them. Must be called when group memberships are changed.
+     */
+    public void clearGroupMembershipCache()
+    {
+        groupMembershipCache.clear();
+        clearAuthorizationCache();
+    }
+
+    /**
+     * Remember a key to remove from the {@link SharedObjectCache} when this
+     * context commits.
+     */
+    void addSharedCacheInvalidation(String key)
+    {
+        sharedCacheInvalidations.add(key);
+    }
+
+    /**
+     * @return true if changes not raising events are pending in this context
+     */
+    boolean hasSharedCacheInvalidations()
+    {
+        return !sharedCacheInvalidations.isEmpty();
+    }
+
     protected void finalize() throws Throwable
     {
         /*
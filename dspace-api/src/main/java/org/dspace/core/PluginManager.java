@@ -16,12 +16,13 @@ import java.io.InputStream;
 import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.regex.Matcher;
@@ -99,7 +100,7 @@ public class PluginManager
 
     // Map of plugin class to "reusable" metric (as Boolean, must be Object)
     // Key is Class, value is Boolean (true by default).
-    private static Map<Class<Object>, Boolean> cacheMeCache = new HashMap<Class<Object>, Boolean>();
+    private static Map<Class<Object>, Boolean> cacheMeCache = new ConcurrentHashMap<Class<Object>, Boolean>();
 
     /**
      * Whether or not to cache instances of this class. Ironically,
@@ -115,9 +116,10 @@ public class PluginManager
      */
     private static boolean cacheMe(String module, Class implClass)
     {
-        if (cacheMeCache.containsKey(implClass))
+        Boolean cached = cacheMeCache.get(implClass);
+        if (cached != null)
         {
-            return (cacheMeCache.get(implClass)).booleanValue();
+            return cached.booleanValue();
         }
         else
         {
@@ -185,7 +187,7 @@ public class PluginManager
 
     // cache of config data for Sequence Plugins; format its
     // <interface-name> -> [ <classname>.. ]  (value is Array)
-    private static Map<String, String[]> sequenceConfig = new HashMap<String, String[]>();
+    private static Map<String, String[]> sequenceConfig = new ConcurrentHashMap<String, String[]>();
 
     /**
      * Returns instances of all plugins that implement the interface
@@ -224,8 +226,8 @@ public class PluginManager
         // cache the configuration for this interface after grovelling it once:
         // format is  prefix.<interface> = <classname>
         String iname = intfc.getName();
-        String classname[] = null;
-        if (!sequenceConfig.containsKey(iname))
+        String classname[] = sequenceConfig.get(iname);
+        if (classname == null)
         {
             String val = getConfigProperty(module, SEQUENCE_PREFIX+iname);
             if (val == null)
@@ -236,10 +238,6 @@ public class PluginManager
             classname = val.trim().split("\\s*,\\s*");
             sequenceConfig.put(iname, classname);
         }
-        else
-        {
-            classname = sequenceConfig.get(iname);
-        }
 
         Object result[] = (Object[])Array.newInstance(intfc, classname.length);
         for (int i = 0; i < classname.length; ++i)
@@ -252,7 +250,7 @@ public class PluginManager
 
 
     // Map of cached (reusable) single plugin instances - class -> instance.
-    private static Map<Serializable, Object> anonymousInstanceCache = new HashMap<Serializable, Object>();
+    private static ConcurrentMap<Serializable, Object> anonymousInstanceCache = new ConcurrentHashMap<Serializable, Object>();
 
     // Get possibly-cached plugin instance for un-named plugin,
     // this is shared by Single and Sequence plugins.
@@ -267,8 +265,13 @@ public class PluginManager
                 Object cached = anonymousInstanceCache.get(pluginClass);
                 if (cached == null)
                 {
-                    cached = pluginClass.newInstance();
-                    anonymousInstanceCache.put(pluginClass, cached);
+                    // keep the first instance if another thread created one meanwhile
+                    Object created = pluginClass.newInstance();
+                    cached = anonymousInstanceCache.putIfAbsent(pluginClass, created);
+                    if (cached == null)
+                    {
+                        cached = created;
+                    }
                 }
                 return cached;
             }
@@ -292,27 +295,29 @@ public class PluginManager
         }
     }
 
-    // Map of named plugin classes, [intfc,name] -> class
-    // Also contains intfc -> "marker" to mark when interface has been loaded.
-    private static Map<String, String> namedPluginClasses = new HashMap<String, String>();
+    // Map of named plugin classes, intfc -> (name -> class).
+    // The map of an interface is complete and never changed once published.
+    private static ConcurrentMap<String, Map<String, String>> namedPluginClasses = new ConcurrentHashMap<String, Map<String, String>>();
 
     // Map of cached (reusable) named plugin instances, [class,name] -> instance
-    private static Map<Serializable, Object> namedInstanceCache = new HashMap<Serializable, Object>();
+    private static ConcurrentMap<Serializable, Object> namedInstanceCache = new ConcurrentHashMap<Serializable, Object>();
 
-    // load and cache configuration data for the given interface.
-    private static void configureNamedPlugin(String module, String iname)
+    // load and cache configuration data for the given interface,
+    // return its map of name -> class.
+    private static Map<String, String> configureNamedPlugin(String module, String iname)
         throws ClassNotFoundException
     {
         int found = 0;
 
         /**
          * First load the class map for this interface (if not done yet):
-         * key is [intfc,name], value is class.
-         * There is ALSO a "marker key" of "intfc" by itself to show we
-         * loaded this intfc's configuration.
+         * key is name, value is class.
          */
-        if (!namedPluginClasses.containsKey(iname))
+        Map<String, String> classes = namedPluginClasses.get(iname);
+        if (classes == null)
         {
+            classes = new HashMap<String, String>();
+
             // 1. Get classes named by the configuration. format is:
             //    plugin.named.<INTF> = <CLASS> = <name>, <name> [,] \
             //                        <CLASS> = <name>, <name> [ ... ]
@@ -332,7 +337,7 @@ public class PluginManager
                 {
                     if (prevClassName != null)
                     {
-                        found += installNamedConfigs(iname, prevClassName,
+                        found += installNamedConfigs(classes, iname, prevClassName,
                                 namedVal.substring(prevEnd, classMatcher.start()).trim().split("\\s*,\\s*"));
                     }
                     prevClassName = classMatcher.group(1);
@@ -340,7 +345,7 @@ public class PluginManager
                 }
                 if (prevClassName != null)
                 {
-                    found += installNamedConfigs(iname, prevClassName,
+                    found += installNamedConfigs(classes, iname, prevClassName,
                             namedVal.substring(prevEnd).trim().split("\\s*,\\s*"));
                 }
             }
@@ -364,7 +369,7 @@ public class PluginManager
                         }
                         else
                         {
-                            found += installNamedConfigs(iname, classnames[i], names);
+                            found += installNamedConfigs(classes, iname, classnames[i], names);
                         }
                     }
                     catch (NoSuchMethodException e)
@@ -377,30 +382,36 @@ public class PluginManager
                     }
                 }
             }
-            namedPluginClasses.put(iname, "org.dspace.core.marker");
             if (found == 0)
             {
                 log.error("No named plugins found for interface=" + iname);
             }
+
+            // publish the complete map, unless another thread did first
+            Map<String, String> published = namedPluginClasses.putIfAbsent(iname, classes);
+            if (published != null)
+            {
+                classes = published;
+            }
         }
+        return classes;
     }
 
-    // add info for a named plugin to cache, under all its names.
-    private static int installNamedConfigs(String iname, String classname, String names[])
+    // add info for a named plugin to the class map, under all its names.
+    private static int installNamedConfigs(Map<String, String> classes, String iname, String classname, String names[])
         throws ClassNotFoundException
     {
         int found = 0;
         for (int i = 0; i < names.length; ++i)
         {
-            String key = iname+SEP+names[i];
-            if (namedPluginClasses.containsKey(key))
+            if (classes.containsKey(names[i]))
             {
                 log.error("Name collision in named plugin, implementation class=\"" + classname +
                         "\", name=\"" + names[i] + "\"");
             }
             else
             {
-                namedPluginClasses.put(key, classname);
+                classes.put(names[i], classname);
             }
             log.debug("Got Named Plugin, intfc="+iname+", name="+names[i]+", class="+classname);
             ++found;
@@ -441,9 +452,7 @@ public class PluginManager
         try
         {
             String iname = intfc.getName();
-            configureNamedPlugin(module, iname);
-            String key = iname + SEP + name;
-            String cname = namedPluginClasses.get(key);
+            String cname = configureNamedPlugin(module, iname).get(name);
             if (cname == null)
             {
                 log.warn("Cannot find named plugin for interface=" + iname + ", name=\"" + name + "\"");
@@ -460,12 +469,17 @@ public class PluginManager
                         log.debug("Creating cached instance of: " + cname +
                                           " for interface=" + iname +
                                           " pluginName=" + name );
-                        cached = pluginClass.newInstance();
-                        if (cached instanceof SelfNamedPlugin)
+                        Object created = pluginClass.newInstance();
+                        if (created instanceof SelfNamedPlugin)
+                        {
+                            ((SelfNamedPlugin) created).setPluginInstanceName(name);
+                        }
+                        // keep the first instance if another thread created one meanwhile
+                        cached = namedInstanceCache.putIfAbsent(nkey, created);
+                        if (cached == null)
                         {
-                            ((SelfNamedPlugin) cached).setPluginInstanceName(name);
+                            cached = created;
                         }
-                        namedInstanceCache.put(nkey, cached);
                     }
                     return cached;
                 }
@@ -531,9 +545,7 @@ public class PluginManager
         try
         {
             String iname = intfc.getName();
-            configureNamedPlugin(module, iname);
-            String key = iname + SEP + name;
-            return namedPluginClasses.get(key) != null;
+            return configureNamedPlugin(module, iname).get(name) != null;
         }
         catch (ClassNotFoundException e)
         {
@@ -579,17 +591,8 @@ public class PluginManager
         try
         {
             String iname = intfc.getName();
-            configureNamedPlugin(module, iname);
-            String prefix = iname + SEP;
-            ArrayList<String> result = new ArrayList<String>();
+            ArrayList<String> result = new ArrayList<String>(configureNamedPlugin(module, iname).keySet());
 
-            for (String key : namedPluginClasses.keySet())
-            {
-                if (key.startsWith(prefix))
-                {
-                    result.add(key.substring(prefix.length()));
-                }
-            }
             if (result.size() == 0)
             {
                 log.error("Cannot find any names for named plugin, interface=" + iname);
@@ -620,15 +623,13 @@ public class PluginManager
 
     private static void forgetInstance(Object plugin, Map<Serializable, Object> cacheMap)
     {
-        Collection values = cacheMap.values();
-        Iterator ci = values.iterator();
+        Iterator<Object> ci = cacheMap.values().iterator();
         while (ci.hasNext())
         {
             // Identity comparison is valid for this usage
-            Object val = ci.next();
-            if (val == plugin)
+            if (ci.next() == plugin)
             {
-                values.remove(val);
+                ci.remove();
             }
         }
     }
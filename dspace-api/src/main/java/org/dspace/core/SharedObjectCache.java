@@ -0,0 +1,445 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.Metadatum;
+import org.dspace.services.CachingService;
+import org.dspace.services.model.Cache;
+import org.dspace.services.model.CacheConfig;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.utils.DSpace;
+
+/**
+ * Optional second level cache, shared by all contexts, of database rows,
+ * metadata and handles of DSpace objects which are read far more often than
+ * they change (communities, collections, bitstream formats...).
+ * <p>
+ * Only private copies are stored and handed out, so a context never sees the
+ * objects of another one. Entries are removed by the
+ * {@link SharedObjectCacheConsumer} once a change has been committed, and
+ * directly by the code making changes which do not raise events. Contexts
+ * with uncommitted changes bypass the cache, so they always read their own
+ * writes. The size and time to live of the cache are set in the ehcache
+ * configuration of the caching service.
+ * <p>
+ * Invalidation only reaches the cache of the JVM making the change. Changes
+ * made by other processes show up once the entries expire.
+ * <p>
+ * Disabled unless <code>cache.shared.enabled</code> is true in dspace.cfg.
+ */
+public class SharedObjectCache
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(SharedObjectCache.class);
+
+    /** Name of the cache in the caching service */
+    public static final String CACHE_NAME = "org.dspace.core.SharedObjectCache";
+
+    /** Cached value standing for "not found" */
+    private static final String NONE = "";
+
+    private static volatile Cache cache;
+
+    private static volatile Boolean enabled;
+
+    /** Incremented on each invalidation, so that loads racing with it are not cached */
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static final AtomicLong hits = new AtomicLong();
+
+    private static final AtomicLong misses = new AtomicLong();
+
+    private static final AtomicLong invalidations = new AtomicLong();
+
+    private SharedObjectCache()
+    {
+    }
+
+    /**
+     * @return true if the shared cache is enabled in the configuration
+     */
+    public static boolean isEnabled()
+    {
+        Boolean value = enabled;
+        if (value == null)
+        {
+            // racing threads read the same configuration, so no lock needed
+            value = ConfigurationManager.getBooleanProperty("cache.shared.enabled", false);
+            enabled = value;
+        }
+        return value;
+    }
+
+    /**
+     * Find a row by its primary key, using the shared cache if possible.
+     *
+     * @param context DSpace context object
+     * @param table the table of the row
+     * @param id the primary key
+     * @return the row, or null if not found
+     * @throws SQLException
+     */
+    public static TableRow find(Context context, String table, int id) throws SQLException
+    {
+        if (!isUsable(context))
+        {
+            return DatabaseManager.find(context, table, id);
+        }
+
+        String key = rowKey(table, id);
+        Object cached = getCache().get(key);
+        if (cached != null)
+        {
+            hits.incrementAndGet();
+            return cached instanceof TableRow ? ((TableRow) cached).copy() : null;
+        }
+        misses.incrementAndGet();
+
+        long loadedAt = generation.get();
+        TableRow row = DatabaseManager.find(context, table, id);
+        put(key, row != null ? row.copy() : NONE, loadedAt);
+        return row;
+    }
+
+    /**
+     * Get the metadata of an object from the shared cache.
+     *
+     * @param context DSpace context object
+     * @param type the type of the object
+     * @param id the ID of the object
+     * @return copies of the metadata values, or null if not cached
+     */
+    public static List<Metadatum> getMetadata(Context context, int type, int id)
+    {
+        if (!isUsable(context))
+        {
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Metadatum> cached = (List<Metadatum>) getCache().get(metadataKey(type, id));
+        if (cached == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return copy(cached);
+    }
+
+    /**
+     * Put the metadata of an object in the shared cache.
+     *
+     * @param context DSpace context object
+     * @param type the type of the object
+     * @param id the ID of the object
+     * @param metadata the metadata, as just read from the database
+     * @param loadedAt the value of {@link #getGeneration()} taken before reading it
+     */
+    public static void putMetadata(Context context, int type, int id, List<Metadatum> metadata, long loadedAt)
+    {
+        if (isUsable(context))
+        {
+            put(metadataKey(type, id), copy(metadata), loadedAt);
+        }
+    }
+
+    /**
+     * Get the handle of an object from the shared cache.
+     *
+     * @param context DSpace context object
+     * @param type the type of the object
+     * @param id the ID of the object
+     * @return the handle, "" if the object has no handle, or null if not cached
+     */
+    public static String getHandle(Context context, int type, int id)
+    {
+        if (!isUsable(context))
+        {
+            return null;
+        }
+
+        String cached = (String) getCache().get(handleOfKey(type, id));
+        if (cached == null)
+        {
+            misses.incrementAndGet();
+        }
+        else
+        {
+            hits.incrementAndGet();
+        }
+        return cached;
+    }
+
+    /**
+     * Put the handle of an object in the shared cache.
+     *
+     * @param context DSpace context object
+     * @param type the type of the object
+     * @param id the ID of the object
+     * @param handle the handle, or null if the object has none
+     * @param loadedAt the value of {@link #getGeneration()} taken before reading it
+     */
+    public static void putHandle(Context context, int type, int id, String handle, long loadedAt)
+    {
+        if (isUsable(context))
+        {
+            put(handleOfKey(type, id), handle != null ? handle : NONE, loadedAt);
+        }
+    }
+
+    /**
+     * Get the row of the handle table for a handle from the shared cache.
+     *
+     * @param context DSpace context object
+     * @param handle the handle
+     * @return a copy of the row, or null if not cached or not found
+     */
+    public static TableRow getHandleRow(Context context, String handle)
+    {
+        if (!isUsable(context))
+        {
+            return null;
+        }
+
+        Object cached = getCache().get(handleKey(handle));
+        if (!(cached instanceof TableRow))
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return ((TableRow) cached).copy();
+    }
+
+    /**
+     * Put the row of the handle table for a handle in the shared cache.
+     *
+     * @param context DSpace context object
+     * @param handle the handle
+     * @param row the row, as just read from the database
+     * @param loadedAt the value of {@link #getGeneration()} taken before reading it
+     */
+    public static void putHandleRow(Context context, String handle, TableRow row, long loadedAt)
+    {
+        if (isUsable(context) && row != null)
+        {
+            put(handleKey(handle), row.copy(), loadedAt);
+        }
+    }
+
+    /**
+     * Remove everything cached about an object. Called by the event consumer
+     * once changes to the object have been committed.
+     *
+     * @param type the type of the object
+     * @param id the ID of the object
+     * @param identifiers the handles of the object, may be null
+     */
+    public static void invalidate(int type, int id, String[] identifiers)
+    {
+        if (!isEnabled() || type < 0 || id < 0)
+        {
+            return;
+        }
+
+        List<String> keys = new ArrayList<String>();
+        keys.add(rowKey(Constants.typeText[type], id));
+        keys.add(metadataKey(type, id));
+        keys.add(handleOfKey(type, id));
+        if (identifiers != null)
+        {
+            for (String identifier : identifiers)
+            {
+                if (identifier != null)
+                {
+                    keys.add(handleKey(identifier));
+                }
+            }
+        }
+        remove(keys);
+    }
+
+    /**
+     * Remove a row from the cache, now and again once the context commits.
+     * For changes which do not raise events.
+     *
+     * @param context the context making the change
+     * @param table the table of the row
+     * @param id the primary key of the row
+     */
+    public static void invalidateRow(Context context, String table, int id)
+    {
+        invalidateKey(context, rowKey(table, id));
+    }
+
+    /**
+     * Remove what is cached about a handle and the object it is assigned to,
+     * now and again once the context commits.
+     *
+     * @param context the context making the change
+     * @param type the type of the object
+     * @param id the ID of the object
+     * @param handle the handle, may be null
+     */
+    public static void invalidateHandle(Context context, int type, int id, String handle)
+    {
+        invalidateKey(context, handleOfKey(type, id));
+        if (handle != null)
+        {
+            invalidateKey(context, handleKey(handle));
+        }
+    }
+
+    private static void invalidateKey(Context context, String key)
+    {
+        if (isEnabled())
+        {
+            context.addSharedCacheInvalidation(key);
+            remove(Collections.singletonList(key));
+        }
+    }
+
+    /**
+     * Remove the given keys from the cache. Called by the context after
+     * commit for the keys passed to the invalidate methods.
+     */
+    static void remove(Collection<String> keys)
+    {
+        generation.incrementAndGet();
+        Cache current = getCache();
+        for (String key : keys)
+        {
+            current.remove(key);
+        }
+        invalidations.addAndGet(keys.size());
+    }
+
+    /**
+     * Remove everything from the cache.
+     */
+    public static void invalidateAll()
+    {
+        if (isEnabled())
+        {
+            generation.incrementAndGet();
+            getCache().clear();
+            log.info("Shared object cache cleared. " + getStatistics());
+        }
+    }
+
+    /**
+     * @return a counter to be read before loading something to put in the
+     *         cache. The value is not cached if an invalidation happened in
+     *         the meantime, as it may already be outdated.
+     */
+    public static long getGeneration()
+    {
+        return generation.get();
+    }
+
+    public static long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public static long getMissCount()
+    {
+        return misses.get();
+    }
+
+    public static long getInvalidationCount()
+    {
+        return invalidations.get();
+    }
+
+    /**
+     * @return a summary of the cache statistics
+     */
+    public static String getStatistics()
+    {
+        long h = hits.get();
+        long m = misses.get();
+        return "hits=" + h + ", misses=" + m
+                + ", hit ratio=" + (h + m > 0 ? (100 * h / (h + m)) + "%" : "n/a")
+                + ", invalidations=" + invalidations.get()
+                + ", size=" + (isEnabled() ? getCache().size() : 0);
+    }
+
+    /**
+     * The cache may be used by contexts without uncommitted changes only.
+     */
+    private static boolean isUsable(Context context)
+    {
+        return isEnabled() && !context.hasEvents() && !context.hasSharedCacheInvalidations();
+    }
+
+    private static void put(String key, Object value, long loadedAt)
+    {
+        if (generation.get() == loadedAt)
+        {
+            getCache().put(key, value);
+        }
+    }
+
+    private static Cache getCache()
+    {
+        if (cache == null)
+        {
+            synchronized (SharedObjectCache.class)
+            {
+                if (cache == null)
+                {
+                    CachingService caching = new DSpace().getServiceManager()
+                            .getServiceByName(CachingService.class.getName(), CachingService.class);
+                    cache = caching.getCache(CACHE_NAME, new CacheConfig(CacheConfig.CacheScope.INSTANCE));
+                }
+            }
+        }
+        return cache;
+    }
+
+    private static List<Metadatum> copy(List<Metadatum> metadata)
+    {
+        List<Metadatum> copy = new ArrayList<Metadatum>(metadata.size());
+        for (Metadatum dcv : metadata)
+        {
+            copy.add(dcv.copy());
+        }
+        return copy;
+    }
+
+    private static String rowKey(String table, int id)
+    {
+        return "row:" + table.toLowerCase() + ":" + id;
+    }
+
+    private static String metadataKey(int type, int id)
+    {
+        return "metadata:" + type + ":" + id;
+    }
+
+    private static String handleOfKey(int type, int id)
+    {
+        return "handleof:" + type + ":" + id;
+    }
+
+    private static String handleKey(String handle)
+    {
+        return "handle:" + handle;
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import org.dspace.event.Consumer;
+import org.dspace.event.Event;
+
+/**
+ * Removes committed changes from the {@link SharedObjectCache}: everything
+ * cached about the subject and the object of each event is dropped.
+ *
+ * Recommended filter:  All+All
+ */
+public class SharedObjectCacheConsumer implements Consumer
+{
+    public void initialize() throws Exception
+    {
+    }
+
+    public void consume(Context ctx, Event event) throws Exception
+    {
+        if (!SharedObjectCache.isEnabled())
+        {
+            return;
+        }
+
+        SharedObjectCache.invalidate(event.getSubjectType(), event.getSubjectID(), event.getIdentifiers());
+        if (event.getObjectType() >= 0)
+        {
+            SharedObjectCache.invalidate(event.getObjectType(), event.getObjectID(), null);
+        }
+    }
+
+    public void end(Context ctx) throws Exception
+    {
+    }
+
+    public void finish(Context ctx) throws Exception
+    {
+    }
+}
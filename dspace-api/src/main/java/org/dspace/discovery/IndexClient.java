@@ -9,11 +9,15 @@ package org.dspace.discovery;
 
 import org.apache.log4j.Logger;
 import org.apache.commons.cli.*;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
 import org.dspace.utils.DSpace;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class used to reindex dspace communities/collections/items into discovery
@@ -41,7 +45,7 @@ public class IndexClient {
         Context context = new Context();
         context.turnOffAuthorisationSystem();
 
-        String usage = "org.dspace.discovery.IndexClient [-cbhf[r <item handle>]] or nothing to update/clean an existing index.";
+        String usage = "org.dspace.discovery.IndexClient [-cbhf[r <item handle>][t <threads>]] or nothing to update/clean an existing index.";
         Options options = new Options();
         HelpFormatter formatter = new HelpFormatter();
         CommandLine line = null;
@@ -83,6 +87,14 @@ public class IndexClient {
         options.addOption(OptionBuilder.isRequired(false).withDescription(
                 "optimize search core").create("o"));
 
+        options
+                .addOption(OptionBuilder
+                        .withArgName("threads")
+                        .hasArg(true)
+                        .withDescription(
+                                "use a pool of worker threads sending batched updates when (re)building or updating the index")
+                        .create("t"));
+
         try {
             line = new PosixParser().parse(options, args);
         } catch (Exception e) {
@@ -114,7 +126,11 @@ public class IndexClient {
             indexer.cleanIndex(line.hasOption("f"));
         } else if (line.hasOption("b")) {
             log.info("(Re)building index from scratch.");
-            indexer.createIndex(context);
+            if (line.hasOption("t")) {
+                updateIndexInParallel(context, indexer, true, line.getOptionValue("t"));
+            } else {
+                indexer.createIndex(context);
+            }
             checkRebuildSpellCheck(line, indexer);
         } else if (line.hasOption("o")) {
             log.info("Optimizing search core.");
@@ -124,13 +140,59 @@ public class IndexClient {
         } else {
             log.info("Updating and Cleaning Index");
             indexer.cleanIndex(line.hasOption("f"));
-            indexer.updateIndex(context, line.hasOption("f"));
+            if (line.hasOption("t")) {
+                updateIndexInParallel(context, indexer, line.hasOption("f"), line.getOptionValue("t"));
+            } else {
+                indexer.updateIndex(context, line.hasOption("f"));
+            }
             checkRebuildSpellCheck(line, indexer);
         }
 
         log.info("Done with indexing");
 	}
 
+    /**
+     * Update the index using a pool of worker threads, reporting the progress
+     * and throughput of the workers while they run.
+     * @param context the dspace context
+     * @param indexer the solr indexer
+     * @param force whether or not to force the reindexing
+     * @param threads the number of worker threads, as given on the command line
+     */
+    protected static void updateIndexInParallel(Context context, IndexingService indexer, boolean force, String threads) {
+        int count;
+        try {
+            count = Integer.parseInt(threads.trim());
+        } catch (NumberFormatException e) {
+            count = ConfigurationManager.getIntProperty("discovery", "index.reindex.threads", 1);
+            log.warn("Invalid number of threads: " + threads + ", using " + count);
+        }
+
+        final IndexingProgress progress = new IndexingProgress();
+        int interval = ConfigurationManager.getIntProperty("discovery", "index.reindex.report-interval", 60);
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report(progress);
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+
+        try {
+            indexer.updateIndex(context, force, count, progress);
+        } finally {
+            reporter.shutdownNow();
+        }
+        report(progress);
+    }
+
+    private static void report(IndexingProgress progress) {
+        String message = "Indexing progress: " + progress;
+        log.info(message);
+        System.out.println(message);
+    }
+
     /**
      * Check the command line options and rebuild the spell check if active.
      * @param line the command line options
@@ -0,0 +1,93 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe progress and throughput counters for a (parallel) reindex run.
+ * The indexer updates the counters from its worker threads, the caller
+ * (usually the {@link IndexClient}) reads them to report on the progress.
+ */
+public class IndexingProgress
+{
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * Record that an object has been sent to the indexer.
+     */
+    public void processed()
+    {
+        processed.incrementAndGet();
+    }
+
+    /**
+     * Record that an object could not be indexed.
+     */
+    public void failed()
+    {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * Record that a batch of documents has been sent to Solr.
+     */
+    public void batchSent()
+    {
+        batches.incrementAndGet();
+    }
+
+    public long getProcessed()
+    {
+        return processed.get();
+    }
+
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    public long getBatches()
+    {
+        return batches.get();
+    }
+
+    /**
+     * @return the number of milliseconds since this progress tracker was created
+     */
+    public long getElapsedTime()
+    {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * @return the number of objects processed per second so far
+     */
+    public double getThroughput()
+    {
+        long elapsed = getElapsedTime();
+        if (elapsed <= 0)
+        {
+            return 0;
+        }
+        return getProcessed() * 1000d / elapsed;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d objects processed (%d failed) in %d batches, %d s elapsed, %.1f objects/s",
+                getProcessed(), getFailed(), getBatches(), getElapsedTime() / 1000, getThroughput());
+    }
+}
@@ -31,6 +31,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
@@ -89,7 +95,10 @@ import org.dspace.discovery.configuration.DiscoverySortConfiguration;
 import org.dspace.discovery.configuration.DiscoverySortFieldConfiguration;
 import org.dspace.discovery.configuration.HierarchicalSidebarFacetConfiguration;
 import org.dspace.handle.HandleManager;
+import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.DatabaseUtils;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
 import org.dspace.utils.DSpace;
 import org.springframework.stereotype.Service;
 
@@ -122,6 +131,8 @@ public class SolrServiceImpl implements SearchService, IndexingService {
     protected static final String HANDLE_FIELD = "handle";
     protected static final String RESOURCE_TYPE_FIELD = "search.resourcetype";
     protected static final String RESOURCE_ID_FIELD = "search.resourceid";
+    protected static final String FULLTEXT_FIELD = "fulltext";
+    protected static final String FULLTEXT_CHECKSUM_FIELD = "fulltext.checksum";
 
     public static final String FILTER_SEPARATOR = "\n|||\n";
 
@@ -136,6 +147,12 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      */
     private HttpSolrServer solr = null;
 
+    /**
+     * Documents waiting to be sent by the current (reindex) thread, null when
+     * documents are written one at a time.
+     */
+    private final ThreadLocal<List<SolrInputDocument>> batchBuffer = new ThreadLocal<List<SolrInputDocument>>();
+
 
     protected HttpSolrServer getSolr()
     {
@@ -443,6 +460,339 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         }
     }
 
+    /**
+     * Iterates over all Items, Collections and Communities and updates them in
+     * the index using a pool of worker threads. The item ID space is split into
+     * chunks of <code>discovery.index.reindex.chunk-size</code> IDs which are
+     * handed out to the workers, each worker uses its own Context. Documents
+     * are sent to Solr in batches of <code>discovery.index.reindex.batch-size</code>
+     * and only a single commit is issued once all workers are done.
+     *
+     * @param context the dspace context, used for the collections and communities
+     * @param force whether or not to force the reindexing
+     * @param threads the number of item workers, a value below 1 uses
+     *                <code>discovery.index.reindex.threads</code>
+     * @param progress progress counters updated while indexing, may be null
+     */
+    @Override
+    public void updateIndex(Context context, final boolean force, int threads, IndexingProgress progress)
+    {
+        if (threads < 1)
+        {
+            threads = ConfigurationManager.getIntProperty("discovery", "index.reindex.threads", 1);
+        }
+        final IndexingProgress counters = progress != null ? progress : new IndexingProgress();
+        final int chunkSize = Math.max(1, ConfigurationManager.getIntProperty("discovery", "index.reindex.chunk-size", 1000));
+
+        // Initialize the (shared) solr server before any worker uses it
+        if (getSolr() == null)
+        {
+            return;
+        }
+
+        ExecutorService executor = null;
+        try {
+            TableRow bounds = DatabaseManager.querySingle(context,
+                    "SELECT MIN(item_id) AS min_id, MAX(item_id) AS max_id FROM item");
+            if (bounds != null && !bounds.isColumnNull("min_id"))
+            {
+                final int maxId = bounds.getIntColumn("max_id");
+                final AtomicLong nextChunk = new AtomicLong(bounds.getIntColumn("min_id"));
+
+                log.info("Reindexing items " + nextChunk.get() + " to " + maxId + " using " + threads
+                        + " thread(s), " + chunkSize + " ids per chunk");
+
+                executor = Executors.newFixedThreadPool(threads);
+                List<Future<Void>> workers = new ArrayList<Future<Void>>();
+                for (int i = 0; i < threads; i++)
+                {
+                    workers.add(executor.submit(new Callable<Void>()
+                    {
+                        @Override
+                        public Void call() throws Exception
+                        {
+                            indexItemChunks(nextChunk, maxId, chunkSize, force, counters);
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> worker : workers)
+                {
+                    try {
+                        worker.get();
+                    } catch (ExecutionException e) {
+                        log.error("Reindex worker failed: " + e.getCause().getMessage(), e.getCause());
+                    }
+                }
+            }
+
+            startBatch();
+            try {
+                Collection[] collections = Collection.findAll(context);
+                for (Collection collection : collections)
+                {
+                    indexContent(context, collection, force);
+                    context.removeCached(collection, collection.getID());
+                    counters.processed();
+                }
+
+                Community[] communities = Community.findAll(context);
+                for (Community community : communities)
+                {
+                    indexContent(context, community, force);
+                    context.removeCached(community, community.getID());
+                    counters.processed();
+                }
+            } finally {
+                endBatch(counters);
+            }
+
+            getSolr().commit();
+        } catch (Exception e)
+        {
+            log.error(e.getMessage(), e);
+        } finally {
+            if (executor != null)
+            {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Worker loop of the parallel reindex: claims chunks of item IDs until the
+     * whole ID space has been handed out and indexes the items of each chunk
+     * using a Context private to this thread.
+     *
+     * @param nextChunk the first ID of the next unclaimed chunk, shared by all workers
+     * @param maxId the highest item ID to index
+     * @param chunkSize the number of IDs to claim at once
+     * @param force whether or not to force the reindexing
+     * @param progress progress counters
+     * @throws SQLException
+     */
+    protected void indexItemChunks(AtomicLong nextChunk, int maxId, int chunkSize, boolean force, IndexingProgress progress)
+            throws SQLException
+    {
+        Context context = new Context();
+        context.turnOffAuthorisationSystem();
+        startBatch();
+        try {
+            long low;
+            while ((low = nextChunk.getAndAdd(chunkSize)) <= maxId)
+            {
+                long high = Math.min(low + chunkSize - 1, maxId);
+                ItemIterator items = null;
+                try {
+                    items = new ItemIterator(context, DatabaseManager.queryTable(context, "item",
+                            "SELECT * FROM item WHERE (in_archive='1' OR withdrawn='1') AND item_id >= ? AND item_id <= ?",
+                            (int) low, (int) high));
+                    while (items.hasNext())
+                    {
+                        Item item = items.next();
+                        try {
+                            indexContent(context, item, force);
+                            progress.processed();
+                        } catch (Exception e) {
+                            progress.failed();
+                            log.error("Unable to index item " + item.getID() + ": " + e.getMessage(), e);
+                        }
+                        item.decache();
+                    }
+                } finally {
+                    if (items != null)
+                    {
+                        items.close();
+                    }
+                }
+                // Nothing we read has to outlive the chunk
+                context.clearCache();
+            }
+        } finally {
+            endBatch(progress);
+            context.abort();
+        }
+    }
+
+    /**
+     * Start buffering the documents written by the current thread, they will be
+     * sent to Solr in batches instead of one at a time and without committing.
+     */
+    protected void startBatch()
+    {
+        batchBuffer.set(new ArrayList<SolrInputDocument>());
+    }
+
+    /**
+     * Send the documents still buffered by the current thread and stop buffering.
+     *
+     * @param progress progress counters, may be null
+     */
+    protected void endBatch(IndexingProgress progress)
+    {
+        try {
+            flushBatch(progress);
+        } catch (Exception e) {
+            log.error("Unable to send the last batch of documents: " + e.getMessage(), e);
+        } finally {
+            batchBuffer.remove();
+        }
+    }
+
+    /**
+     * Send all documents buffered by the current thread in one update request.
+     *
+     * @param progress progress counters, may be null
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    protected void flushBatch(IndexingProgress progress) throws IOException, SolrServerException
+    {
+        List<SolrInputDocument> batch = batchBuffer.get();
+        if (batch != null && !batch.isEmpty() && getSolr() != null)
+        {
+            getSolr().add(batch);
+            batch.clear();
+            if (progress != null)
+            {
+                progress.batchSent();
+            }
+        }
+    }
+
+    /**
+     * Remove the documents of Items, Collections and Communities which no
+     * longer exist in the database. The whole index is walked with a cursor,
+     * sorted on the unique id, one page at a time; the existence of the
+     * objects of a page is checked with one query per type and the orphans
+     * are deleted in a single request, so that memory use does not depend
+     * on the size of the index.
+     *
+     * @param context DSpace context object
+     * @throws SQLException
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    protected void removeOrphans(Context context)
+            throws SQLException, SolrServerException, IOException
+    {
+        int batchSize = Math.max(1, ConfigurationManager.getIntProperty("discovery", "index.clean.batch-size", 1000));
+
+        SolrQuery query = new SolrQuery();
+        query.setQuery(RESOURCE_TYPE_FIELD + ":[2 TO 4]");
+        query.setFields("search.uniqueid", RESOURCE_TYPE_FIELD, RESOURCE_ID_FIELD, HANDLE_FIELD);
+        query.setSort("search.uniqueid", SolrQuery.ORDER.asc);
+        query.setRows(batchSize);
+
+        long visited = 0;
+        long deleted = 0;
+        String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+        while (true)
+        {
+            query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+            QueryResponse rsp = getSolr().query(query);
+            SolrDocumentList docs = rsp.getResults();
+
+            Map<Integer, Set<Integer>> idsByType = new HashMap<Integer, Set<Integer>>();
+            for (SolrDocument doc : docs)
+            {
+                Integer type = (Integer) doc.getFirstValue(RESOURCE_TYPE_FIELD);
+                Integer id = (Integer) doc.getFirstValue(RESOURCE_ID_FIELD);
+                if (type == null || id == null)
+                {
+                    continue;
+                }
+                Set<Integer> ids = idsByType.get(type);
+                if (ids == null)
+                {
+                    ids = new HashSet<Integer>();
+                    idsByType.put(type, ids);
+                }
+                ids.add(id);
+            }
+
+            Map<Integer, Set<Integer>> existing = new HashMap<Integer, Set<Integer>>();
+            for (Map.Entry<Integer, Set<Integer>> entry : idsByType.entrySet())
+            {
+                existing.put(entry.getKey(), findExistingIDs(context, entry.getKey(), entry.getValue()));
+            }
+
+            List<String> orphans = new ArrayList<String>();
+            for (SolrDocument doc : docs)
+            {
+                Integer type = (Integer) doc.getFirstValue(RESOURCE_TYPE_FIELD);
+                Integer id = (Integer) doc.getFirstValue(RESOURCE_ID_FIELD);
+                if (type == null || id == null || !existing.get(type).contains(id))
+                {
+                    log.info("Deleting: " + doc.getFirstValue(HANDLE_FIELD));
+                    orphans.add((String) doc.getFirstValue("search.uniqueid"));
+                }
+            }
+            if (!orphans.isEmpty())
+            {
+                getSolr().deleteById(orphans);
+                deleted += orphans.size();
+            }
+
+            visited += docs.size();
+            String nextCursorMark = rsp.getNextCursorMark();
+            if (docs.isEmpty() || cursorMark.equals(nextCursorMark))
+            {
+                break;
+            }
+            cursorMark = nextCursorMark;
+            log.debug("Checked " + visited + " documents, " + deleted + " removed so far");
+        }
+
+        if (deleted > 0)
+        {
+            getSolr().commit();
+        }
+        log.info("Checked " + visited + " documents, removed " + deleted + " orphans");
+    }
+
+    /**
+     * Find which of the given objects still exist in the database.
+     *
+     * @param context DSpace context object
+     * @param type the type of the objects
+     * @param ids the IDs of the objects
+     * @return the IDs among the given ones which exist
+     * @throws SQLException
+     */
+    private Set<Integer> findExistingIDs(Context context, int type, Set<Integer> ids)
+            throws SQLException
+    {
+        Set<Integer> existing = new HashSet<Integer>();
+        if (type != Constants.ITEM && type != Constants.COLLECTION && type != Constants.COMMUNITY)
+        {
+            return existing;
+        }
+
+        String table = Constants.typeText[type].toLowerCase();
+        StringBuilder sql = new StringBuilder("SELECT ").append(table).append("_id FROM ")
+                .append(table).append(" WHERE ").append(table).append("_id IN (");
+        for (int i = 0; i < ids.size(); i++)
+        {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(")");
+
+        TableRowIterator tri = DatabaseManager.query(context, sql.toString(), ids.toArray());
+        try
+        {
+            while (tri.hasNext())
+            {
+                existing.add(tri.next().getIntColumn(table + "_id"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        return existing;
+    }
+
     /**
      * Iterates over all documents in the Lucene index and verifies they are in
      * database, if not, they are removed.
@@ -469,37 +819,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             {
                 getSolr().deleteByQuery(RESOURCE_TYPE_FIELD + ":[2 TO 4]");
             } else {
-                SolrQuery query = new SolrQuery();
-                // Query for all indexed Items, Collections and Communities,
-                // returning just their handle
-                query.setFields(HANDLE_FIELD);
-                query.setQuery(RESOURCE_TYPE_FIELD + ":[2 TO 4]");
-                QueryResponse rsp = getSolr().query(query);
-                SolrDocumentList docs = rsp.getResults();
-
-                Iterator iter = docs.iterator();
-                while (iter.hasNext())
-                {
-
-                 SolrDocument doc = (SolrDocument) iter.next();
-
-                String handle = (String) doc.getFieldValue(HANDLE_FIELD);
-
-                DSpaceObject o = HandleManager.resolveToObject(context, handle);
-
-                if (o == null)
-                {
-                    log.info("Deleting: " + handle);
-                    /*
-                          * Use IndexWriter to delete, its easier to manage
-                          * write.lock
-                          */
-                    unIndexContent(context, handle);
-                } else {
-                    context.removeCached(o, o.getID());
-                    log.debug("Keeping: " + handle);
-                }
-            }
+                removeOrphans(context);
             }
         } catch(Exception e)
         {
@@ -663,6 +983,48 @@ public class SolrServiceImpl implements SearchService, IndexingService {
     }
 
 
+    /**
+     * Get the full text of an item from its document in the index, if that
+     * document was built from TEXT bitstreams with the given checksums.
+     *
+     * @param item the item being indexed
+     * @param checksums the checksums of the TEXT bitstreams of the item
+     * @return the full text in the index, or null if it has to be extracted
+     *         from the bitstreams again
+     */
+    protected List<Object> findIndexedFulltext(Item item, List<String> checksums)
+    {
+        try {
+            if (getSolr() == null)
+            {
+                return null;
+            }
+
+            SolrQuery query = new SolrQuery("search.uniqueid:\"" + Constants.ITEM + "-" + item.getID() + "\"");
+            query.setFields(FULLTEXT_FIELD, FULLTEXT_CHECKSUM_FIELD);
+            SolrDocumentList results = getSolr().query(query).getResults();
+            if (results.isEmpty())
+            {
+                return null;
+            }
+
+            SolrDocument indexed = results.get(0);
+            java.util.Collection<Object> indexedChecksums = indexed.getFieldValues(FULLTEXT_CHECKSUM_FIELD);
+            if (indexedChecksums == null
+                    || !new ArrayList<Object>(checksums).equals(new ArrayList<Object>(indexedChecksums)))
+            {
+                return null;
+            }
+
+            java.util.Collection<Object> text = indexed.getFieldValues(FULLTEXT_FIELD);
+            return text != null ? new ArrayList<Object>(text) : new ArrayList<Object>();
+        } catch (SolrServerException e)
+        {
+            log.warn("Unable to read the indexed full text of item " + item.getID() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * @param myitem the item for which our locations are to be retrieved
      * @return a list containing the identifiers of the communities & collections
@@ -744,9 +1106,22 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                     req.setParam(ExtractingParams.UNKNOWN_FIELD_PREFIX, "attr_");
                     req.setParam(ExtractingParams.MAP_PREFIX + "content", "fulltext");
                     req.setParam(ExtractingParams.EXTRACT_FORMAT, "text");
-                    req.setAction(AbstractUpdateRequest.ACTION.COMMIT, true, true);
+                    if (batchBuffer.get() == null)
+                    {
+                        // Batched (re)indexing commits once at the end
+                        req.setAction(AbstractUpdateRequest.ACTION.COMMIT, true, true);
+                    }
                     req.process(getSolr());
                 }
+                else if (batchBuffer.get() != null)
+                {
+                    List<SolrInputDocument> batch = batchBuffer.get();
+                    batch.add(doc);
+                    if (batch.size() >= ConfigurationManager.getIntProperty("discovery", "index.reindex.batch-size", 100))
+                    {
+                        flushBatch(null);
+                    }
+                }
                 else
                 {
                     getSolr().add(doc);
@@ -1378,6 +1753,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 
 
         List<BitstreamContentStream> streams = new ArrayList<BitstreamContentStream>();
+        List<String> checksums = new ArrayList<String>();
 
         try {
             // now get full text of any bitstreams in the TEXT bundle
@@ -1397,6 +1773,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                         try {
 
                             streams.add(new BitstreamContentStream(myBitstream));
+                            checksums.add(myBitstream.getChecksumAlgorithm() + ":" + myBitstream.getChecksum());
 
                             log.debug("  Added BitStream: "
                                     + myBitstream.getStoreNumber() + "	"
@@ -1417,6 +1794,25 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             log.error(e.getMessage(), e);
         }
 
+        // the text is only extracted again if the TEXT bitstreams have changed
+        if (!streams.isEmpty())
+        {
+            List<Object> indexedText = findIndexedFulltext(item, checksums);
+            if (indexedText != null)
+            {
+                for (Object text : indexedText)
+                {
+                    doc.addField(FULLTEXT_FIELD, text);
+                }
+                streams.clear();
+                log.debug("  Reused indexed full text");
+            }
+        }
+        for (String checksum : checksums)
+        {
+            doc.addField(FULLTEXT_CHECKSUM_FIELD, checksum);
+        }
+
         //Do any additional indexing, depends on the plugins
         List<SolrServiceIndexPlugin> solrServiceIndexPlugins = new DSpace().getServiceManager().getServicesByType(SolrServiceIndexPlugin.class);
         for (SolrServiceIndexPlugin solrServiceIndexPlugin : solrServiceIndexPlugins)
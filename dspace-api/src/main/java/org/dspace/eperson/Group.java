@@ -9,11 +9,10 @@ package org.dspace.eperson;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -415,6 +414,24 @@ public class Group extends DSpaceObject
     public static Set<Integer> allMemberGroupIDs(Context c, EPerson e)
             throws SQLException
     {
+        return new HashSet<Integer>(memberGroupIDs(c, e));
+    }
+
+    /**
+     * get Set of Integers all of the group memberships for an eperson,
+     * remembered in the context until memberships change. The Set must
+     * not be modified.
+     */
+    private static Set<Integer> memberGroupIDs(Context c, EPerson e)
+            throws SQLException
+    {
+        int epersonID = (e != null) ? e.getID() : 0;
+        Set<Integer> cached = c.getCachedGroupMembership(epersonID);
+        if (cached != null)
+        {
+            return cached;
+        }
+
         Set<Integer> groupIDs = new HashSet<Integer>();
         
         if (e != null)
@@ -516,6 +533,7 @@ public class Group extends DSpaceObject
             }
         }
 
+        c.cacheGroupMembership(epersonID, groupIDs);
         return groupIDs;
     }
     
@@ -659,7 +677,7 @@ public class Group extends DSpaceObject
     private static boolean epersonInGroup(Context c, int groupID, EPerson e)
             throws SQLException
     {
-        Set<Integer> groupIDs = Group.allMemberGroupIDs(c, e);
+        Set<Integer> groupIDs = memberGroupIDs(c, e);
 
         return groupIDs.contains(Integer.valueOf(groupID));
     }
@@ -1051,6 +1069,22 @@ public class Group extends DSpaceObject
                 "DELETE FROM EPersonGroup2EPerson WHERE eperson_group_id= ? ",
                 getID());
 
+        // remember the groups containing this one, their cache rows change
+        List<Integer> parentIds = new ArrayList<Integer>();
+        TableRowIterator tri = DatabaseManager.query(ourContext,
+                "SELECT parent_id FROM group2group WHERE child_id= ? ", getID());
+        try
+        {
+            while (tri.hasNext())
+            {
+                parentIds.add(tri.next().getIntColumn("parent_id"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
         // remove any group2groupcache entries
         DatabaseManager.updateQuery(ourContext,
                 "DELETE FROM group2groupcache WHERE parent_id= ? OR child_id= ? ",
@@ -1061,6 +1095,10 @@ public class Group extends DSpaceObject
                 "DELETE FROM group2group WHERE parent_id= ? OR child_id= ? ",
                 getID(),getID());
 
+        // groups containing this one lose the subgroups reached through it
+        GroupCache.update(ourContext, parentIds);
+        ourContext.clearGroupMembershipCache();
+
         // Delete the Dublin Core
         removeMetadataFromDatabase();
 
@@ -1176,6 +1214,7 @@ public class Group extends DSpaceObject
             }
 
             epeopleChanged = false;
+            ourContext.clearGroupMembershipCache();
         }
 
         // Redo Group mappings if they've changed
@@ -1200,9 +1239,10 @@ public class Group extends DSpaceObject
             }
 
             // groups changed, now change group cache
-            rethinkGroupCache();
+            GroupCache.update(ourContext, Collections.singletonList(getID()));
 
             groupsChanged = false;
+            ourContext.clearGroupMembershipCache();
         }
 
         log.info(LogManager.getHeader(ourContext, "update_group", "group_id="
@@ -1258,127 +1298,6 @@ public class Group extends DSpaceObject
         return null;
     }
 
-    /**
-     * Regenerate the group cache AKA the group2groupcache table in the database -
-     * meant to be called when a group is added or removed from another group
-     * 
-     */
-    private void rethinkGroupCache() throws SQLException
-    {
-        // read in the group2group table
-        TableRowIterator tri = DatabaseManager.queryTable(ourContext, "group2group",
-                "SELECT * FROM group2group");
-
-        Map<Integer,Set<Integer>> parents = new HashMap<Integer,Set<Integer>>();
-
-        try
-        {
-            while (tri.hasNext())
-            {
-                TableRow row = (TableRow) tri.next();
-
-                Integer parentID = Integer.valueOf(row.getIntColumn("parent_id"));
-                Integer childID = Integer.valueOf(row.getIntColumn("child_id"));
-
-                // if parent doesn't have an entry, create one
-                if (!parents.containsKey(parentID))
-                {
-                    Set<Integer> children = new HashSet<Integer>();
-
-                    // add child id to the list
-                    children.add(childID);
-                    parents.put(parentID, children);
-                }
-                else
-                {
-                    // parent has an entry, now add the child to the parent's record
-                    // of children
-                    Set<Integer> children =  parents.get(parentID);
-                    children.add(childID);
-                }
-            }
-        }
-        finally
-        {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
-            {
-                tri.close();
-            }
-        }
-
-        // now parents is a hash of all of the IDs of groups that are parents
-        // and each hash entry is a hash of all of the IDs of children of those
-        // parent groups
-        // so now to establish all parent,child relationships we can iterate
-        // through the parents hash
-        for (Map.Entry<Integer, Set<Integer>> parent : parents.entrySet())
-        {
-            Set<Integer> myChildren = getChildren(parents, parent.getKey());
-            parent.getValue().addAll(myChildren);
-        }
-
-        // empty out group2groupcache table
-        DatabaseManager.updateQuery(ourContext,
-                "DELETE FROM group2groupcache WHERE id >= 0");
-
-        // write out new one
-        for (Map.Entry<Integer, Set<Integer>> parent : parents.entrySet())
-        {
-            int parentID = parent.getKey().intValue();
-
-            for (Integer child : parent.getValue())
-            {
-                TableRow row = DatabaseManager.row("group2groupcache");
-
-                row.setColumn("parent_id", parentID);
-                row.setColumn("child_id", child);
-
-                DatabaseManager.insert(ourContext, row);
-            }
-        }
-    }
-
-    /**
-     * Used recursively to generate a map of ALL of the children of the given
-     * parent
-     * 
-     * @param parents
-     *            Map of parent,child relationships
-     * @param parent
-     *            the parent you're interested in
-     * @return Map whose keys are all of the children of a parent
-     */
-    private Set<Integer> getChildren(Map<Integer,Set<Integer>> parents, Integer parent)
-    {
-        Set<Integer> myChildren = new HashSet<Integer>();
-
-        // degenerate case, this parent has no children
-        if (!parents.containsKey(parent))
-        {
-            return myChildren;
-        }
-
-        // got this far, so we must have children
-        Set<Integer> children =  parents.get(parent);
-
-        // now iterate over all of the children
-        Iterator<Integer> i = children.iterator();
-
-        while (i.hasNext())
-        {
-            Integer childID = i.next();
-
-            // add this child's ID to our return set
-            myChildren.add(childID);
-
-            // and now its children
-            myChildren.addAll(getChildren(parents, childID));
-        }
-
-        return myChildren;
-    }
-    
     public DSpaceObject getParentObject() throws SQLException
     {
         // could a collection/community administrator manage related groups?
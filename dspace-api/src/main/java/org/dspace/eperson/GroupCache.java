@@ -0,0 +1,413 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.log4j.Logger;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Maintains the group2groupcache table, which holds the transitive closure of
+ * the group2group table: a (parent, child) row for every group which is a
+ * member of another group, directly or through any number of subgroups.
+ * <p>
+ * When the subgroups of a group change, only the rows of that group and of
+ * the groups containing it can change. These are recomputed from group2group
+ * and the differences written to the cache, instead of emptying and
+ * rewriting the whole table.
+ * <p>
+ * The command line tool checks the table against a full recomputation, and
+ * optionally repairs it.
+ */
+public class GroupCache
+{
+    /** log4j logger */
+    private static final Logger log = Logger.getLogger(GroupCache.class);
+
+    private GroupCache()
+    {
+    }
+
+    /**
+     * Update the cache after the subgroups of the given groups changed.
+     * Must be called after group2group has been updated.
+     *
+     * @param context DSpace context object
+     * @param groupIds the groups whose direct subgroups were added or removed
+     * @throws SQLException
+     */
+    static void update(Context context, Collection<Integer> groupIds) throws SQLException
+    {
+        if (groupIds.isEmpty())
+        {
+            return;
+        }
+
+        // The changed groups and everything containing them
+        Set<Integer> affected = findAncestors(context, groupIds);
+        affected.addAll(groupIds);
+
+        Map<Integer, Set<Integer>> children = new HashMap<Integer, Set<Integer>>();
+        Map<Integer, Set<Integer>> cached = readCache(context, affected);
+
+        int added = 0;
+        int removed = 0;
+        for (Integer parent : affected)
+        {
+            Set<Integer> expected = findDescendants(context, parent, children);
+            Set<Integer> current = cached.get(parent);
+            if (current == null)
+            {
+                current = new HashSet<Integer>();
+            }
+
+            for (Integer child : current)
+            {
+                if (!expected.contains(child))
+                {
+                    DatabaseManager.updateQuery(context,
+                            "DELETE FROM group2groupcache WHERE parent_id= ? AND child_id= ? ",
+                            parent, child);
+                    removed++;
+                }
+            }
+
+            for (Integer child : expected)
+            {
+                if (!current.contains(child))
+                {
+                    insert(context, parent, child);
+                    added++;
+                }
+            }
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("group2groupcache updated for " + affected.size() + " groups: "
+                    + added + " rows added, " + removed + " rows removed");
+        }
+    }
+
+    /**
+     * Find all groups containing any of the given groups, directly or
+     * indirectly, following group2group one level at a time.
+     */
+    private static Set<Integer> findAncestors(Context context, Collection<Integer> groupIds)
+            throws SQLException
+    {
+        Set<Integer> ancestors = new HashSet<Integer>();
+        List<Integer> level = new ArrayList<Integer>(groupIds);
+        while (!level.isEmpty())
+        {
+            List<Integer> next = new ArrayList<Integer>();
+            TableRowIterator tri = DatabaseManager.query(context,
+                    "SELECT parent_id FROM group2group WHERE child_id IN (" + placeholders(level.size()) + ")",
+                    level.toArray());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    Integer parent = tri.next().getIntColumn("parent_id");
+                    if (ancestors.add(parent))
+                    {
+                        next.add(parent);
+                    }
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+            level = next;
+        }
+        return ancestors;
+    }
+
+    /**
+     * Find all groups contained in the given group, directly or indirectly.
+     *
+     * @param children direct subgroups already read from group2group, which
+     *        is filled in as more are read
+     */
+    private static Set<Integer> findDescendants(Context context, Integer group,
+            Map<Integer, Set<Integer>> children) throws SQLException
+    {
+        Set<Integer> descendants = new HashSet<Integer>();
+        Deque<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(group);
+        while (!queue.isEmpty())
+        {
+            Integer current = queue.poll();
+            Set<Integer> direct = children.get(current);
+            if (direct == null)
+            {
+                direct = new HashSet<Integer>();
+                TableRowIterator tri = DatabaseManager.query(context,
+                        "SELECT child_id FROM group2group WHERE parent_id= ? ", current);
+                try
+                {
+                    while (tri.hasNext())
+                    {
+                        direct.add(tri.next().getIntColumn("child_id"));
+                    }
+                }
+                finally
+                {
+                    tri.close();
+                }
+                children.put(current, direct);
+            }
+
+            for (Integer child : direct)
+            {
+                if (!child.equals(group) && descendants.add(child))
+                {
+                    queue.add(child);
+                }
+            }
+        }
+        return descendants;
+    }
+
+    /**
+     * Compute the whole transitive closure of group2group.
+     *
+     * @param context DSpace context object
+     * @return a map from each group to all groups it contains
+     * @throws SQLException
+     */
+    static Map<Integer, Set<Integer>> computeClosure(Context context) throws SQLException
+    {
+        Map<Integer, Set<Integer>> children = new HashMap<Integer, Set<Integer>>();
+        TableRowIterator tri = DatabaseManager.query(context, "SELECT parent_id, child_id FROM group2group");
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                Integer parent = row.getIntColumn("parent_id");
+                Set<Integer> direct = children.get(parent);
+                if (direct == null)
+                {
+                    direct = new HashSet<Integer>();
+                    children.put(parent, direct);
+                }
+                direct.add(row.getIntColumn("child_id"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        // Groups without subgroups don't appear as parents
+        for (Set<Integer> direct : new ArrayList<Set<Integer>>(children.values()))
+        {
+            for (Integer child : direct)
+            {
+                if (!children.containsKey(child))
+                {
+                    children.put(child, new HashSet<Integer>());
+                }
+            }
+        }
+
+        Map<Integer, Set<Integer>> closure = new HashMap<Integer, Set<Integer>>();
+        for (Integer parent : children.keySet())
+        {
+            // Every group is in the map already, so this does not query
+            Set<Integer> descendants = findDescendants(context, parent, children);
+            if (!descendants.isEmpty())
+            {
+                closure.put(parent, descendants);
+            }
+        }
+        return closure;
+    }
+
+    /**
+     * Read the cache rows of the given parent groups, or of all groups.
+     *
+     * @param parents the parent groups, or null for the whole table
+     */
+    private static Map<Integer, Set<Integer>> readCache(Context context, Collection<Integer> parents)
+            throws SQLException
+    {
+        TableRowIterator tri;
+        if (parents == null)
+        {
+            tri = DatabaseManager.query(context, "SELECT parent_id, child_id FROM group2groupcache");
+        }
+        else
+        {
+            tri = DatabaseManager.query(context,
+                    "SELECT parent_id, child_id FROM group2groupcache WHERE parent_id IN ("
+                    + placeholders(parents.size()) + ")",
+                    parents.toArray());
+        }
+
+        Map<Integer, Set<Integer>> cached = new HashMap<Integer, Set<Integer>>();
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                Integer parent = row.getIntColumn("parent_id");
+                Set<Integer> descendants = cached.get(parent);
+                if (descendants == null)
+                {
+                    descendants = new HashSet<Integer>();
+                    cached.put(parent, descendants);
+                }
+                descendants.add(row.getIntColumn("child_id"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        return cached;
+    }
+
+    private static void insert(Context context, int parent, int child) throws SQLException
+    {
+        TableRow row = DatabaseManager.row("group2groupcache");
+        row.setColumn("parent_id", parent);
+        row.setColumn("child_id", child);
+        DatabaseManager.insert(context, row);
+    }
+
+    private static String placeholders(int count)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compare group2groupcache with the transitive closure of group2group.
+     *
+     * @param context DSpace context object
+     * @param repair whether to correct the differences found
+     * @return the number of missing and superfluous rows
+     * @throws SQLException
+     */
+    public static int verify(Context context, boolean repair) throws SQLException
+    {
+        Map<Integer, Set<Integer>> expected = computeClosure(context);
+        Map<Integer, Set<Integer>> cached = readCache(context, null);
+
+        int differences = 0;
+        for (Map.Entry<Integer, Set<Integer>> entry : expected.entrySet())
+        {
+            Set<Integer> current = cached.get(entry.getKey());
+            for (Integer child : entry.getValue())
+            {
+                if (current == null || !current.contains(child))
+                {
+                    System.out.println("Missing: parent " + entry.getKey() + ", child " + child);
+                    if (repair)
+                    {
+                        insert(context, entry.getKey(), child);
+                    }
+                    differences++;
+                }
+            }
+        }
+
+        for (Map.Entry<Integer, Set<Integer>> entry : cached.entrySet())
+        {
+            Set<Integer> wanted = expected.get(entry.getKey());
+            for (Integer child : entry.getValue())
+            {
+                if (wanted == null || !wanted.contains(child))
+                {
+                    System.out.println("Superfluous: parent " + entry.getKey() + ", child " + child);
+                    if (repair)
+                    {
+                        DatabaseManager.updateQuery(context,
+                                "DELETE FROM group2groupcache WHERE parent_id= ? AND child_id= ? ",
+                                entry.getKey(), child);
+                    }
+                    differences++;
+                }
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * Command line tool checking the group2groupcache table. Exits with
+     * status 1 if differences were found and not repaired.
+     */
+    public static void main(String[] argv) throws SQLException
+    {
+        final String USAGE = "GroupCache [-r]";
+
+        Options options = new Options();
+        options.addOption("r", "repair", false, "correct the differences found");
+        options.addOption("h", "help", false, "explain this tool");
+
+        CommandLine command = null;
+        try
+        {
+            command = new PosixParser().parse(options, argv);
+        }
+        catch (ParseException ex)
+        {
+            System.err.println(ex.getMessage());
+            new HelpFormatter().printHelp(USAGE, options);
+            System.exit(1);
+        }
+
+        if (command.hasOption('h'))
+        {
+            new HelpFormatter().printHelp(USAGE, options);
+            System.exit(0);
+        }
+
+        boolean repair = command.hasOption('r');
+        Context context = new Context();
+        try
+        {
+            int differences = verify(context, repair);
+            System.out.println(differences + " difference(s) found" + (repair && differences > 0 ? " and repaired" : ""));
+            context.complete();
+            System.exit(differences == 0 || repair ? 0 : 1);
+        }
+        finally
+        {
+            if (context.isValid())
+            {
+                context.abort();
+            }
+        }
+    }
+}
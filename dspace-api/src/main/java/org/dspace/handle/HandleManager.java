@@ -9,7 +9,9 @@ package org.dspace.handle;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.dspace.content.Collection;
@@ -20,6 +22,7 @@ import org.dspace.content.Site;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
+import org.dspace.core.SharedObjectCache;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
 import org.dspace.storage.rdbms.TableRowIterator;
@@ -187,6 +190,7 @@ public class HandleManager
         handle.setColumn("resource_type_id", dso.getType());
         handle.setColumn("resource_id", dso.getID());
         DatabaseManager.update(context, handle);
+        SharedObjectCache.invalidateHandle(context, dso.getType(), dso.getID(), handleId);
 
         if (log.isDebugEnabled())
         {
@@ -255,6 +259,7 @@ public class HandleManager
         handle.setColumn("resource_type_id", dso.getType());
         handle.setColumn("resource_id", dso.getID());
         DatabaseManager.update(context, handle);
+        SharedObjectCache.invalidateHandle(context, dso.getType(), dso.getID(), suppliedHandle);
 
         if (log.isDebugEnabled())
         {
@@ -288,6 +293,7 @@ public class HandleManager
                 // is reusing this handle!
                 row.setColumnNull("resource_id");
                 DatabaseManager.update(context, row);
+                SharedObjectCache.invalidateHandle(context, dso.getType(), dso.getID(), row.getStringColumn("handle"));
 
                 if(log.isDebugEnabled())
                 {
@@ -319,7 +325,13 @@ public class HandleManager
     public static DSpaceObject resolveToObject(Context context, String handle)
             throws IllegalStateException, SQLException
     {
-        TableRow dbhandle = findHandleInternal(context, handle);
+        TableRow dbhandle = SharedObjectCache.getHandleRow(context, handle);
+        if (dbhandle == null)
+        {
+            long loadedAt = SharedObjectCache.getGeneration();
+            dbhandle = findHandleInternal(context, handle);
+            SharedObjectCache.putHandleRow(context, handle, dbhandle, loadedAt);
+        }
 
         if (dbhandle == null)
         {
@@ -401,20 +413,45 @@ public class HandleManager
     public static String findHandle(Context context, DSpaceObject dso)
             throws SQLException
     {
-        TableRowIterator rows = getInternalHandles(context, dso.getType(), dso.getID());
-        if (rows == null || !rows.hasNext())
+        String cached = SharedObjectCache.getHandle(context, dso.getType(), dso.getID());
+        String result;
+        if (cached != null)
         {
-            if (dso.getType() == Constants.SITE)
-            {
-                return Site.getSiteHandle();
-            }
-            else
-            {
-                return null;
-            }
+            result = cached.length() > 0 ? cached : null;
         }
         else
         {
+            long loadedAt = SharedObjectCache.getGeneration();
+            result = findHandleInternal(context, dso.getType(), dso.getID());
+            SharedObjectCache.putHandle(context, dso.getType(), dso.getID(), result, loadedAt);
+        }
+
+        if (result == null && dso.getType() == Constants.SITE)
+        {
+            return Site.getSiteHandle();
+        }
+        return result;
+    }
+
+    /**
+     * Return the handle of an object from the database, or null.
+     */
+    private static String findHandleInternal(Context context, int type, int id)
+            throws SQLException
+    {
+        TableRowIterator rows = getInternalHandles(context, type, id);
+        if (rows == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            if (!rows.hasNext())
+            {
+                return null;
+            }
+
             //TODO: Move this code away from the HandleManager & into the Identifier provider
             //Attempt to retrieve a handle that does NOT look like {handle.part}/{handle.part}.{version}
             String result = rows.next().getStringColumn("handle");
@@ -431,6 +468,67 @@ public class HandleManager
 
             return result;
         }
+        finally
+        {
+            rows.close();
+        }
+    }
+
+    /**
+     * Return the handles of several objects of the same type at once, using a
+     * single query. The handle chosen for each object is the same one
+     * {@link #findHandle(Context, DSpaceObject)} would return.
+     *
+     * @param context
+     *            DSpace context
+     * @param type
+     *            the type of the objects, e.g. Constants.ITEM
+     * @param ids
+     *            the internal IDs of the objects
+     * @return a map from object ID to handle, objects without a handle are not
+     *         present in the map
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static Map<Integer, String> findHandles(Context context, int type, List<Integer> ids)
+            throws SQLException
+    {
+        Map<Integer, String> handles = new HashMap<Integer, String>();
+        if (ids.isEmpty())
+        {
+            return handles;
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT * FROM Handle WHERE resource_type_id = ? AND resource_id IN (");
+        List<Object> parameters = new ArrayList<Object>();
+        parameters.add(type);
+        for (int i = 0; i < ids.size(); i++)
+        {
+            sql.append(i == 0 ? "?" : ", ?");
+            parameters.add(ids.get(i));
+        }
+        sql.append(")");
+
+        TableRowIterator rows = DatabaseManager.queryTable(context, "Handle", sql.toString(), parameters.toArray());
+        try
+        {
+            while (rows.hasNext())
+            {
+                TableRow row = rows.next();
+                Integer id = row.getIntColumn("resource_id");
+                String handle = row.getStringColumn("handle");
+                //Same preference as findHandle: a handle that does NOT look like {handle.part}/{handle.part}.{version}
+                if (!handles.containsKey(id) || !handle.matches(".*/.*\\.\\d+"))
+                {
+                    handles.put(id, handle);
+                }
+            }
+        }
+        finally
+        {
+            rows.close();
+        }
+        return handles;
     }
 
     /**
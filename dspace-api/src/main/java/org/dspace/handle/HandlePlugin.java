@@ -11,8 +11,12 @@ import java.sql.SQLException;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 
 import net.handle.hdllib.Encoder;
 import net.handle.hdllib.HandleException;
@@ -25,6 +29,9 @@ import net.handle.util.StreamTable;
 import org.apache.log4j.Logger;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
 
 /**
  * Extension to the CNRI Handle Server that translates requests to resolve
@@ -40,6 +47,17 @@ import org.dspace.core.Context;
  * 5.2.0.
  * </p>
  * 
+ * <p>
+ * Resolutions are cached in memory, for <code>handle.plugin.cache.ttl</code>
+ * seconds, up to <code>handle.plugin.cache.size</code> handles. As the Handle
+ * Server does not receive the events of the DSpace applications, the handle
+ * table is checked for new handles every
+ * <code>handle.plugin.cache.check-interval</code> seconds, and the handles
+ * cached as unknown are then forgotten. Handles are resolved on at most
+ * <code>handle.plugin.connections</code> database connections, which are
+ * kept open from one resolution to the next.
+ * </p>
+ * 
  * @author Peter Breton
  * @version $Revision$
  */
@@ -48,11 +66,51 @@ public class HandlePlugin implements HandleStorage
     /** log4j category */
     private static Logger log = Logger.getLogger(HandlePlugin.class);
 
+    /** Cached for handles which are not in storage */
+    private static final byte[][] NOT_FOUND = new byte[0][];
+
+    /** Resolutions by handle, least recently used first */
+    private final Map<String, CachedValues> cache;
+
+    private final int cacheSize;
+
+    private final long cacheTTL;
+
+    private final long checkInterval;
+
+    /** When to look for new handles next */
+    private long nextCheck = 0;
+
+    /** Highest handle_id seen at the last check */
+    private long lastHandleId = -1;
+
+    /** Incremented when unknown handles are forgotten, so that racing lookups are not cached */
+    private long generation = 0;
+
+    /** Contexts left open between resolutions */
+    private final ConcurrentLinkedQueue<Context> idleContexts = new ConcurrentLinkedQueue<Context>();
+
+    /** Bounds the number of contexts, hence of database connections */
+    private final Semaphore connections;
+
     /**
      * Constructor
      */
     public HandlePlugin()
     {
+        cacheSize = ConfigurationManager.getIntProperty("handle.plugin.cache.size", 10000);
+        cacheTTL = ConfigurationManager.getLongProperty("handle.plugin.cache.ttl", 3600) * 1000;
+        checkInterval = ConfigurationManager.getLongProperty("handle.plugin.cache.check-interval", 10) * 1000;
+        connections = new Semaphore(Math.max(1, ConfigurationManager.getIntProperty("handle.plugin.connections", 2)));
+
+        cache = new LinkedHashMap<String, CachedValues>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedValues> eldest)
+            {
+                return size() > cacheSize;
+            }
+        };
     }
 
     ////////////////////////////////////////
@@ -153,22 +211,61 @@ public class HandlePlugin implements HandleStorage
      */
     public void shutdown()
     {
-        // Not implemented
         if (log.isInfoEnabled())
         {
-            log.info("Called shutdown (not implemented)");
+            log.info("Called shutdown");
+        }
+
+        for (Context context = idleContexts.poll(); context != null; context = idleContexts.poll())
+        {
+            context.abort();
         }
     }
 
     /**
-     * HandleStorage interface method - not implemented.
+     * HandleStorage interface method - pass every handle in storage to the
+     * callback, streaming them from a single query.
      */
     public void scanHandles(ScanCallback callback) throws HandleException
     {
-        // Not implemented
         if (log.isInfoEnabled())
         {
-            log.info("Called scanHandles (not implemented)");
+            log.info("Called scanHandles");
+        }
+
+        Context context = null;
+        TableRowIterator rows = null;
+
+        try
+        {
+            context = new Context();
+            rows = DatabaseManager.query(context, "SELECT handle FROM handle WHERE handle IS NOT NULL");
+
+            while (rows.hasNext())
+            {
+                callback.scanHandle(Util.encodeString(rows.next().getStringColumn("handle")));
+            }
+        }
+        catch (SQLException sqle)
+        {
+            if (log.isDebugEnabled())
+            {
+                log.debug("Exception in scanHandles", sqle);
+            }
+
+            // Stack loss as exception does not support cause
+            throw new HandleException(HandleException.INTERNAL_ERROR);
+        }
+        finally
+        {
+            if (rows != null)
+            {
+                rows.close();
+            }
+            if (context != null)
+            {
+                context.abort();
+            }
         }
     }
 
@@ -206,59 +303,57 @@ public class HandlePlugin implements HandleStorage
     public byte[][] getRawHandleValues(byte[] theHandle, int[] indexList,
             byte[][] typeList) throws HandleException
     {
-        if (log.isInfoEnabled())
+        if (log.isDebugEnabled())
         {
-            log.info("Called getRawHandleValues");
+            log.debug("Called getRawHandleValues");
         }
 
-        Context context = null;
-
-        try
+        if (theHandle == null)
         {
-            if (theHandle == null)
-            {
-                throw new HandleException(HandleException.INTERNAL_ERROR);
-            }
-
-            String handle = Util.decodeString(theHandle);
-
-            context = new Context();
-
-            String url = HandleManager.resolveToURL(context, handle);
+            throw new HandleException(HandleException.INTERNAL_ERROR);
+        }
 
-            if (url == null)
-            {
-                return null;
-            }
+        String handle = Util.decodeString(theHandle);
+        byte[][] rawValues = getCached(handle);
 
-            HandleValue value = new HandleValue();
+        if (rawValues == null)
+        {
+            rawValues = resolve(handle);
+        }
 
-            value.setIndex(100);
-            value.setType(Util.encodeString("URL"));
-            value.setData(Util.encodeString(url));
-            value.setTTLType((byte) 0);
-            value.setTTL(100);
-            value.setTimestamp(100);
-            value.setReferences(null);
-            value.setAdminCanRead(true);
-            value.setAdminCanWrite(false);
-            value.setAnyoneCanRead(true);
-            value.setAnyoneCanWrite(false);
+        return rawValues == NOT_FOUND ? null : rawValues.clone();
+    }
 
-            List<HandleValue> values = new LinkedList<HandleValue>();
+    /**
+     * Resolve a handle from the database, and cache the result.
+     * 
+     * @param handle
+     *            the handle
+     * @return the raw values of the handle, or NOT_FOUND
+     * @exception HandleException
+     *                If an error occurs while calling the Handle API.
+     */
+    private byte[][] resolve(String handle) throws HandleException
+    {
+        long loadedAt;
+        synchronized (cache)
+        {
+            loadedAt = generation;
+        }
 
-            values.add(value);
+        Context context = null;
 
-            byte[][] rawValues = new byte[values.size()][];
+        try
+        {
+            context = borrowContext();
 
-            for (int i = 0; i < values.size(); i++)
-            {
-                HandleValue hvalue = values.get(i);
+            String url = HandleManager.resolveToURL(context, handle);
+            byte[][] rawValues = url != null ? encode(url) : NOT_FOUND;
 
-                rawValues[i] = new byte[Encoder.calcStorageSize(hvalue)];
-                Encoder.encodeHandleValue(rawValues[i], 0, hvalue);
-            }
+            returnContext(context);
+            context = null;
 
+            put(handle, rawValues, loadedAt);
             return rawValues;
         }
         catch (HandleException he)
@@ -279,17 +374,49 @@ public class HandlePlugin implements HandleStorage
         {
             if (context != null)
             {
-                try
-                {
-                    context.complete();
-                }
-                catch (SQLException sqle)
-                {
-                }
+                // the connection may be broken, do not reuse it
+                context.abort();
+                connections.release();
             }
         }
     }
 
+    /**
+     * Encode the single URL value of a handle.
+     */
+    private static byte[][] encode(String url)
+    {
+        HandleValue value = new HandleValue();
+
+        value.setIndex(100);
+        value.setType(Util.encodeString("URL"));
+        value.setData(Util.encodeString(url));
+        value.setTTLType((byte) 0);
+        value.setTTL(100);
+        value.setTimestamp(100);
+        value.setReferences(null);
+        value.setAdminCanRead(true);
+        value.setAdminCanWrite(false);
+        value.setAnyoneCanRead(true);
+        value.setAnyoneCanWrite(false);
+
+        List<HandleValue> values = new LinkedList<HandleValue>();
+
+        values.add(value);
+
+        byte[][] rawValues = new byte[values.size()][];
+
+        for (int i = 0; i < values.size(); i++)
+        {
+            HandleValue hvalue = values.get(i);
+
+            rawValues[i] = new byte[Encoder.calcStorageSize(hvalue)];
+            Encoder.encodeHandleValue(rawValues[i], 0, hvalue);
+        }
+
+        return rawValues;
+    }
+
     /**
      * Return true if we have this handle in storage.
      * 
@@ -301,9 +428,9 @@ public class HandlePlugin implements HandleStorage
      */
     public boolean haveNA(byte[] theHandle) throws HandleException
     {
-        if (log.isInfoEnabled())
+        if (log.isDebugEnabled())
         {
-            log.info("Called haveNA");
+            log.debug("Called haveNA");
         }
 
         /*
@@ -407,4 +534,164 @@ public class HandlePlugin implements HandleStorage
             }
         }
     }
+
+    ////////////////////////////////////////
+    // Cache and connections
+    ////////////////////////////////////////
+
+    /**
+     * @return the cached raw values of a handle, NOT_FOUND if it is cached
+     *         as unknown, or null if it is not cached
+     */
+    private byte[][] getCached(String handle)
+    {
+        if (cacheSize <= 0)
+        {
+            return null;
+        }
+
+        checkForNewHandles();
+
+        synchronized (cache)
+        {
+            CachedValues cached = cache.get(handle);
+            if (cached == null)
+            {
+                return null;
+            }
+            if (cached.expires < System.currentTimeMillis())
+            {
+                cache.remove(handle);
+                return null;
+            }
+            return cached.values;
+        }
+    }
+
+    private void put(String handle, byte[][] rawValues, long loadedAt)
+    {
+        if (cacheSize <= 0)
+        {
+            return;
+        }
+
+        synchronized (cache)
+        {
+            if (generation == loadedAt)
+            {
+                cache.put(handle, new CachedValues(rawValues, System.currentTimeMillis() + cacheTTL));
+            }
+        }
+    }
+
+    /**
+     * Every check interval, look for handles created since the last check.
+     * If there are any, forget the handles cached as unknown, since they may
+     * be among them. Handles are never removed from storage, so the handles
+     * cached as known remain valid.
+     */
+    private void checkForNewHandles()
+    {
+        synchronized (cache)
+        {
+            long now = System.currentTimeMillis();
+            if (now < nextCheck)
+            {
+                return;
+            }
+            nextCheck = now + checkInterval;
+        }
+
+        Context context = null;
+
+        try
+        {
+            context = borrowContext();
+            TableRow row = DatabaseManager.querySingle(context, "SELECT MAX(handle_id) AS max_id FROM handle");
+            long maxId = row != null && !row.isColumnNull("max_id") ? row.getIntColumn("max_id") : 0;
+            returnContext(context);
+            context = null;
+
+            synchronized (cache)
+            {
+                if (maxId != lastHandleId)
+                {
+                    generation++;
+                    for (Iterator<CachedValues> i = cache.values().iterator(); i.hasNext();)
+                    {
+                        if (i.next().values == NOT_FOUND)
+                        {
+                            i.remove();
+                        }
+                    }
+                    lastHandleId = maxId;
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            // keep answering from the cache, and try again at the next check
+            log.warn("Unable to check for new handles: " + e.getMessage());
+        }
+        finally
+        {
+            if (context != null)
+            {
+                context.abort();
+                connections.release();
+            }
+        }
+    }
+
+    /**
+     * Take an idle context, or open a new one if there are fewer than
+     * allowed, waiting for one to be returned otherwise.
+     */
+    private Context borrowContext() throws SQLException, InterruptedException
+    {
+        connections.acquire();
+
+        Context context = idleContexts.poll();
+        if (context != null && context.isValid())
+        {
+            return context;
+        }
+
+        try
+        {
+            return new Context();
+        }
+        catch (SQLException sqle)
+        {
+            connections.release();
+            throw sqle;
+        }
+    }
+
+    /**
+     * End the transaction of a context which was used successfully, and
+     * keep it open for the next resolution.
+     */
+    private void returnContext(Context context) throws SQLException
+    {
+        context.commit();
+        idleContexts.add(context);
+        connections.release();
+    }
+
+    /**
+     * Raw values of a handle, or NOT_FOUND, and when they expire.
+     */
+    private static class CachedValues
+    {
+        final byte[][] values;
+
+        final long expires;
+
+        CachedValues(byte[][] values, long expires)
+        {
+            this.values = values;
+            this.expires = expires;
+        }
+    }
 }
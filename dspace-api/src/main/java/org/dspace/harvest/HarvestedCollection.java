@@ -50,6 +50,8 @@ public class HarvestedCollection
  		metadata_config_id | text                     | 
  		harvest_status     | integer                  | 
  		harvest_start_time | timestamp with time zone | 
+ 		resumption_token   | text                     | 
+ 		harvest_until_time | timestamp with time zone | 
 	 */  
 	
 	// TODO: make sure this guy knows to lock people out if the status is not zero.
@@ -291,6 +293,9 @@ public class HarvestedCollection
     	setOaiSource(oaiSource);
     	setOaiSetId(oaiSetId); 
     	setHarvestMetadataConfig(mdConfigId);
+    	// a harvest in progress cannot be resumed with other parameters
+    	setResumptionToken(null);
+    	setHarvestUntilTime(null);
     }     
 
     /* Setters for the appropriate harvesting-related columns */
@@ -363,6 +368,32 @@ public class HarvestedCollection
     		harvestRow.setColumn("harvest_start_time", date);
     	}
     }
+
+    /**
+     * Record the resumption token of the next page to harvest, so that an
+     * interrupted harvest resumes from there.
+     * @param token the token, or null once the harvest is complete
+     */
+    public void setResumptionToken(String token) {
+    	if (token == null || token.length() == 0) {
+    		harvestRow.setColumnNull("resumption_token");
+    	} else {
+    		harvestRow.setColumn("resumption_token", token);
+    	}
+    }
+
+    /**
+     * Record the upper bound of the harvest in progress, the time it was first
+     * started, which is kept when it is resumed.
+     * @param date the time, or null once the harvest is complete
+     */
+    public void setHarvestUntilTime(Date date) {
+    	if (date == null) {
+    		harvestRow.setColumnNull("harvest_until_time");
+    	} else {
+    		harvestRow.setColumn("harvest_until_time", date);
+    	}
+    }
     
 
     /* Getting for the appropriate harvesting-related columns */
@@ -401,6 +432,14 @@ public class HarvestedCollection
     public Date getHarvestStartTime() {
     	return harvestRow.getDateColumn("harvest_start_time");
     }
+
+    public String getResumptionToken() {
+    	return harvestRow.getStringColumn("resumption_token");
+    }
+
+    public Date getHarvestUntilTime() {
+    	return harvestRow.getDateColumn("harvest_until_time");
+    }
     
     
     
@@ -0,0 +1,494 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.harvest;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.jdom.Attribute;
+import org.jdom.Element;
+import org.jdom.Namespace;
+
+/**
+ * Reads the pages of an OAI-PMH ListRecords response. Each page is
+ * downloaded to a temporary file, then its records are parsed one at a time
+ * with StAX, so that a single record is held in memory at once. As soon as
+ * a page has been handed out, the next one is fetched in the background
+ * while the records of the current one are processed.
+ */
+class ListRecordsReader
+{
+    private static final Logger log = Logger.getLogger(ListRecordsReader.class);
+
+    private static final String OAI_NS = "http://www.openarchives.org/OAI/2.0/";
+
+    /** Number of times a request answered with 503 (Retry-After) is retried */
+    private static final int MAX_RETRIES = 3;
+
+    private final String baseURL;
+
+    /** Milliseconds to wait for the connection to the provider */
+    private final int connectTimeout;
+
+    /** Milliseconds to wait for data from the provider */
+    private final int readTimeout;
+
+    private final XMLInputFactory factory;
+
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor();
+
+    /** The page after the last one handed out, being fetched */
+    private Future<Page> pending;
+
+    /**
+     * @param baseURL
+     *            base URL of the OAI-PMH provider
+     */
+    ListRecordsReader(String baseURL)
+    {
+        this.baseURL = baseURL;
+        connectTimeout = ConfigurationManager.getIntProperty("oai", "harvester.connectTimeout", 60) * 1000;
+        readTimeout = ConfigurationManager.getIntProperty("oai", "harvester.readTimeout", 300) * 1000;
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    }
+
+    /**
+     * Fetch the first page of records.
+     *
+     * @param from
+     *            lower bound of the datestamps, may be null
+     * @param until
+     *            upper bound of the datestamps, may be null
+     * @param set
+     *            the set to harvest, may be null
+     * @param metadataPrefix
+     *            the metadata format to harvest
+     */
+    Page first(String from, String until, String set, String metadataPrefix)
+            throws IOException, XMLStreamException
+    {
+        StringBuilder url = new StringBuilder(baseURL).append("?verb=ListRecords");
+        if (from != null)
+        {
+            url.append("&from=").append(URLEncoder.encode(from, "UTF-8"));
+        }
+        if (until != null)
+        {
+            url.append("&until=").append(URLEncoder.encode(until, "UTF-8"));
+        }
+        if (set != null)
+        {
+            url.append("&set=").append(URLEncoder.encode(set, "UTF-8"));
+        }
+        url.append("&metadataPrefix=").append(URLEncoder.encode(metadataPrefix, "UTF-8"));
+
+        return handOut(fetch(url.toString()));
+    }
+
+    /**
+     * Fetch the page of records following a resumption token, to resume an
+     * interrupted harvest.
+     */
+    Page first(String resumptionToken) throws IOException, XMLStreamException
+    {
+        return handOut(fetch(getRequestURL(resumptionToken)));
+    }
+
+    /**
+     * @return the page following the last one handed out, or null if it was
+     *         the last one
+     */
+    Page next() throws IOException, XMLStreamException
+    {
+        if (pending == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            Page page = pending.get();
+            pending = null;
+            return handOut(page);
+        }
+        catch (InterruptedException e)
+        {
+            throw new InterruptedIOException(e.getMessage());
+        }
+        catch (ExecutionException e)
+        {
+            pending = null;
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof XMLStreamException)
+            {
+                throw (XMLStreamException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Stop fetching, and delete the page fetched ahead if any.
+     */
+    void close()
+    {
+        if (pending != null)
+        {
+            pending.cancel(true);
+            try
+            {
+                pending.get().close();
+            }
+            catch (Exception e)
+            {
+                // cancelled or failed, nothing to delete
+            }
+            pending = null;
+        }
+        prefetcher.shutdownNow();
+    }
+
+    /**
+     * Start fetching the page after the one being handed out.
+     */
+    private Page handOut(Page page)
+    {
+        final String token = page.getResumptionToken();
+        if (token != null)
+        {
+            pending = prefetcher.submit(new Callable<Page>()
+            {
+                public Page call() throws Exception
+                {
+                    return fetch(getRequestURL(token));
+                }
+            });
+        }
+        return page;
+    }
+
+    private String getRequestURL(String resumptionToken) throws IOException
+    {
+        return baseURL + "?verb=ListRecords&resumptionToken=" + URLEncoder.encode(resumptionToken, "UTF-8");
+    }
+
+    private Page fetch(String requestURL) throws IOException, XMLStreamException
+    {
+        File file = File.createTempFile("dspaceharvest", ".xml");
+        file.deleteOnExit();
+        Page page = new Page(requestURL, file);
+        try
+        {
+            download(requestURL, file);
+            page.scan();
+            return page;
+        }
+        catch (IOException e)
+        {
+            page.close();
+            throw e;
+        }
+        catch (XMLStreamException e)
+        {
+            page.close();
+            throw e;
+        }
+    }
+
+    private void download(String requestURL, File file) throws IOException
+    {
+        for (int attempt = 0; ; attempt++)
+        {
+            HttpURLConnection connection = (HttpURLConnection) new URL(requestURL).openConnection();
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            int status = connection.getResponseCode();
+
+            if (status == HttpURLConnection.HTTP_UNAVAILABLE && attempt < MAX_RETRIES)
+            {
+                int retryAfter = connection.getHeaderFieldInt("Retry-After", 60);
+                connection.disconnect();
+                log.info("OAI server busy, retrying " + requestURL + " in " + retryAfter + " seconds");
+                try
+                {
+                    Thread.sleep(retryAfter * 1000L);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new InterruptedIOException(e.getMessage());
+                }
+                continue;
+            }
+            if (status != HttpURLConnection.HTTP_OK)
+            {
+                connection.disconnect();
+                throw new IOException("OAI server answered " + status + " to " + requestURL);
+            }
+
+            InputStream in = connection.getInputStream();
+            OutputStream out = new FileOutputStream(file);
+            try
+            {
+                if ("gzip".equals(connection.getContentEncoding()))
+                {
+                    in = new GZIPInputStream(in);
+                }
+                IOUtils.copy(in, out);
+            }
+            finally
+            {
+                out.close();
+                in.close();
+            }
+            return;
+        }
+    }
+
+    /**
+     * A page of records, in a temporary file.
+     */
+    class Page
+    {
+        private final String requestURL;
+
+        private final File file;
+
+        private final List<String> errors = new ArrayList<String>();
+
+        private String resumptionToken;
+
+        private int recordCount = 0;
+
+        private InputStream in;
+
+        private XMLStreamReader reader;
+
+        Page(String requestURL, File file)
+        {
+            this.requestURL = requestURL;
+            this.file = file;
+        }
+
+        String getRequestURL()
+        {
+            return requestURL;
+        }
+
+        /**
+         * @return the codes of the OAI-PMH errors in the response
+         */
+        List<String> getErrors()
+        {
+            return errors;
+        }
+
+        /**
+         * @return the token of the next page, or null if this is the last one
+         */
+        String getResumptionToken()
+        {
+            return resumptionToken;
+        }
+
+        int getRecordCount()
+        {
+            return recordCount;
+        }
+
+        /**
+         * @return the next record of the page, or null if there are no more
+         */
+        Element nextRecord() throws IOException, XMLStreamException
+        {
+            if (reader == null)
+            {
+                open();
+            }
+
+            while (reader.hasNext())
+            {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && isOAI("record"))
+                {
+                    return buildElement(reader);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Delete the page.
+         */
+        void close()
+        {
+            closeReader();
+            file.delete();
+        }
+
+        /**
+         * Read the errors, number of records and resumption token of the
+         * page, without building anything.
+         */
+        private void scan() throws IOException, XMLStreamException
+        {
+            open();
+            try
+            {
+                while (reader.hasNext())
+                {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT)
+                    {
+                        continue;
+                    }
+                    if (isOAI("record"))
+                    {
+                        recordCount++;
+                    }
+                    else if (isOAI("error"))
+                    {
+                        errors.add(reader.getAttributeValue(null, "code"));
+                    }
+                    else if (isOAI("resumptionToken"))
+                    {
+                        String token = reader.getElementText().trim();
+                        resumptionToken = token.length() > 0 ? token : null;
+                    }
+                }
+            }
+            finally
+            {
+                closeReader();
+            }
+        }
+
+        private boolean isOAI(String localName)
+        {
+            return localName.equals(reader.getLocalName()) && OAI_NS.equals(reader.getNamespaceURI());
+        }
+
+        private void open() throws IOException, XMLStreamException
+        {
+            in = new BufferedInputStream(new FileInputStream(file));
+            reader = factory.createXMLStreamReader(in);
+        }
+
+        private void closeReader()
+        {
+            try
+            {
+                if (reader != null)
+                {
+                    reader.close();
+                }
+            }
+            catch (XMLStreamException e)
+            {
+                log.debug("Unable to close reader: " + e.getMessage());
+            }
+            IOUtils.closeQuietly(in);
+            reader = null;
+            in = null;
+        }
+    }
+
+    /**
+     * Build a JDOM element from the element the reader is at, leaving the
+     * reader at its end.
+     */
+    static Element buildElement(XMLStreamReader reader) throws XMLStreamException
+    {
+        Element root = newElement(reader);
+        LinkedList<Element> parents = new LinkedList<Element>();
+        Element current = root;
+
+        while (true)
+        {
+            switch (reader.next())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element child = newElement(reader);
+                    current.addContent(child);
+                    parents.push(current);
+                    current = child;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (parents.isEmpty())
+                    {
+                        return root;
+                    }
+                    current = parents.pop();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    current.addContent(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static Element newElement(XMLStreamReader reader)
+    {
+        Element element = new Element(reader.getLocalName(),
+                Namespace.getNamespace(nonNull(reader.getPrefix()), nonNull(reader.getNamespaceURI())));
+
+        for (int i = 0; i < reader.getNamespaceCount(); i++)
+        {
+            element.addNamespaceDeclaration(Namespace.getNamespace(nonNull(reader.getNamespacePrefix(i)),
+                    nonNull(reader.getNamespaceURI(i))));
+        }
+
+        for (int i = 0; i < reader.getAttributeCount(); i++)
+        {
+            String uri = reader.getAttributeNamespace(i);
+            Namespace ns = uri == null || uri.length() == 0 ? Namespace.NO_NAMESPACE
+                    : Namespace.getNamespace(nonNull(reader.getAttributePrefix(i)), uri);
+            element.setAttribute(new Attribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i), ns));
+        }
+
+        return element;
+    }
+
+    private static String nonNull(String value)
+    {
+        return value != null ? value : "";
+    }
+}
@@ -17,6 +17,7 @@ import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashSet;
@@ -25,6 +26,8 @@ import java.util.Locale;
 import java.util.Set;
 import java.util.Stack;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -236,7 +239,21 @@ public class OAIHarvester {
         }
 
 		Date startTime = new Date();
-		String toDate = processDate(startTime,0);
+
+		// resume an interrupted harvest from the page it was at. The harvest
+		// still covers the records up to the time it was first started, which
+		// becomes the date of the last harvest once it completes.
+		Date untilTime = startTime;
+		String resumptionToken = harvestRow.getResumptionToken();
+		if (resumptionToken != null && harvestRow.getHarvestUntilTime() != null)
+		{
+			untilTime = harvestRow.getHarvestUntilTime();
+		}
+		else
+		{
+			resumptionToken = null;
+		}
+		String toDate = processDate(untilTime,0);
 
 		String dateGranularity;
 
@@ -273,14 +290,11 @@ public class OAIHarvester {
 				throw new HarvestingException("The OAI server does not support ORE dissemination in the configured serialization format: " + ORESerialNS.getURI());
 			}
 
-			Document oaiResponse = null;
-			Element root = null;
-			String resumptionToken;
-
 			// set the status indicating the collection is currently being processed
 			harvestRow.setHarvestStatus(HarvestedCollection.STATUS_BUSY);
 			harvestRow.setHarvestMessage("Collection is currently being harvested");
 			harvestRow.setHarvestStartTime(startTime);
+			harvestRow.setHarvestUntilTime(untilTime);
 			harvestRow.update();
 			ourContext.commit();
 
@@ -292,54 +306,60 @@ public class OAIHarvester {
             }
 
 			Calendar calendar = Calendar.getInstance();
-			calendar.setTime(startTime);
+			calendar.setTime(new Date());
 			calendar.add(Calendar.HOUR, expirationInterval);
             Date expirationTime = calendar.getTime();
 
 			// main loop to keep requesting more objects until we're done
-			List<Element> records;
 			Set<String> errorSet = new HashSet<String>();
 
-			ListRecords listRecords = new ListRecords(oaiSource, fromDate, toDate, oaiSetId, descMDPrefix);
-			log.debug("Harvesting request parameters: listRecords " + oaiSource + " " + fromDate + " " + toDate + " " + oaiSetId + " " + descMDPrefix);
-			if (listRecords != null)
-            {
-                log.info("HTTP Request: " + listRecords.getRequestURL());
-            }
-			while (listRecords != null)
+			// pages are read one record at a time, while the next one is fetched
+			ListRecordsReader reader = new ListRecordsReader(oaiSource);
+			ListRecordsReader.Page page = null;
+			try
 			{
-				records = new ArrayList<Element>();
-				oaiResponse = db.build(listRecords.getDocument());
-
-				if (listRecords.getErrors() != null && listRecords.getErrors().getLength() > 0)
+				if (resumptionToken != null)
 				{
-					for (int i=0; i<listRecords.getErrors().getLength(); i++)
+					log.info("Resuming harvest of collection " + targetCollection.getID() + " with resumption token " + resumptionToken);
+					page = reader.first(resumptionToken);
+					if (page.getErrors().contains("badResumptionToken"))
 					{
-						String errorCode = listRecords.getErrors().item(i).getAttributes().getNamedItem("code").getTextContent();
-						errorSet.add(errorCode);
-					}
-					if (errorSet.contains("noRecordsMatch"))
-					{
-						log.info("noRecordsMatch: OAI server did not contain any updates");
-						harvestRow.setHarvestResult(new Date(), "OAI server did not contain any updates");
-						harvestRow.setHarvestStatus(HarvestedCollection.STATUS_READY);
-						harvestRow.update();
-						return;
-					} else {
-						throw new HarvestingException(errorSet.toString());
+						log.info("Resumption token expired, harvesting collection " + targetCollection.getID() + " from the start");
+						page.close();
+						page = null;
 					}
 				}
-				else
+				if (page == null)
 				{
-					root = oaiResponse.getRootElement();
-					records.addAll(root.getChild("ListRecords", OAI_NS).getChildren("record", OAI_NS));
+					log.debug("Harvesting request parameters: listRecords " + oaiSource + " " + fromDate + " " + toDate + " " + oaiSetId + " " + descMDPrefix);
+					page = reader.first(fromDate, toDate, oaiSetId, descMDPrefix);
 				}
 
-				// Process the obtained records
-				if (records != null && records.size()>0)
+				while (page != null)
 				{
-					log.info("Found " + records.size() + " records to process");
-					for (Element record : records) {
+					log.info("HTTP Request: " + page.getRequestURL());
+
+					if (!page.getErrors().isEmpty())
+					{
+						errorSet.addAll(page.getErrors());
+						if (errorSet.contains("noRecordsMatch"))
+						{
+							log.info("noRecordsMatch: OAI server did not contain any updates");
+							harvestRow.setHarvestResult(new Date(), "OAI server did not contain any updates");
+							harvestRow.setHarvestStatus(HarvestedCollection.STATUS_READY);
+							harvestRow.setResumptionToken(null);
+							harvestRow.setHarvestUntilTime(null);
+							harvestRow.update();
+							return;
+						} else {
+							throw new HarvestingException(errorSet.toString());
+						}
+					}
+
+					// Process the obtained records
+					log.info("Found " + page.getRecordCount() + " records to process");
+					Element record;
+					while ((record = page.nextRecord()) != null) {
 						// check for STOP interrupt from the scheduler
 						if (HarvestScheduler.interrupt == HarvestScheduler.HARVESTER_INTERRUPT_STOP)
                         {
@@ -354,24 +374,32 @@ public class OAIHarvester {
 						processRecord(record,OREPrefix);
 						ourContext.commit();
 					}
-				}
 
-				// keep going if there are more records to process
-				resumptionToken = listRecords.getResumptionToken();
-				if (resumptionToken == null || resumptionToken.length() == 0) {
-					listRecords = null;
+					// checkpoint, from now on the harvest resumes with the next page
+					harvestRow.setResumptionToken(page.getResumptionToken());
+					harvestRow.update();
+					page.close();
+
+					// keep going if there are more records to process
+					page = reader.next();
+
+	                ourContext.turnOffAuthorisationSystem();
+	                try {
+	                    targetCollection.update();
+	                } finally {
+	                    //In case of an exception, make sure to restore our authentication state to the previous state
+	                    ourContext.restoreAuthSystemState();
+	                }
+					ourContext.commit();
 				}
-				else {
-					listRecords = new ListRecords(oaiSource, resumptionToken);
+			}
+			finally
+			{
+				if (page != null)
+				{
+					page.close();
 				}
-                ourContext.turnOffAuthorisationSystem();
-                try {
-                    targetCollection.update();
-                } finally {
-                    //In case of an exception, make sure to restore our authentication state to the previous state
-                    ourContext.restoreAuthSystemState();
-                }
-				ourContext.commit();
+				reader.close();
 			}
 		}
 		catch (HarvestingException hex) {
@@ -404,7 +432,8 @@ public class OAIHarvester {
 		// If we got to this point, it means the harvest was completely successful
 		Date finishTime = new Date();
 		long timeTaken = finishTime.getTime() - startTime.getTime();
-		harvestRow.setHarvestResult(startTime, "Harvest from " + oaiSource + " successful");
+		harvestRow.setHarvestResult(untilTime, "Harvest from " + oaiSource + " successful");
+		harvestRow.setHarvestUntilTime(null);
 		harvestRow.setHarvestStatus(HarvestedCollection.STATUS_READY);
 		log.info("Harvest from " + oaiSource + " successful. The process took " + timeTaken + " milliseconds.");
 		harvestRow.update();
@@ -1055,6 +1084,7 @@ public class OAIHarvester {
     	{
     		HarvestedCollection hc = HarvestedCollection.find(context, cid);
     		hc.setHarvestStartTime(null);
+    		hc.setResumptionToken(null);
     		hc.setHarvestStatus(HarvestedCollection.STATUS_READY);
     		hc.update();
     	}
@@ -1100,6 +1130,12 @@ public class OAIHarvester {
 
         private static Stack<HarvestThread> harvestThreads;
 
+        /** Collections queued on or being harvested by the pool */
+        private static final Set<Integer> scheduledCollections = Collections.synchronizedSet(new HashSet<Integer>());
+
+        /** Runs the harvests, up to maxActiveThreads at once */
+        private static ExecutorService harvestPool;
+
         private static Integer maxActiveThreads;
 
         protected static volatile Integer activeThreads = 0;
@@ -1177,6 +1213,7 @@ public class OAIHarvester {
             {
                 maxActiveThreads = 3;
             }
+            harvestPool = Executors.newFixedThreadPool(maxActiveThreads);
             minHeartbeat = ConfigurationManager.getIntProperty("oai", "harvester.minHeartbeat") * 1000;
             if (minHeartbeat == 0)
             {
@@ -1215,6 +1252,8 @@ public class OAIHarvester {
                             case HARVESTER_INTERRUPT_STOP:
                                 interrupt = HARVESTER_INTERRUPT_NONE;
                                 status = HARVESTER_STATUS_STOPPED;
+                                // let the running harvests finish, drop the others
+                                harvestPool.shutdown();
                                 return;
                         }
                     }
@@ -1240,30 +1279,17 @@ public class OAIHarvester {
                         addThread(cid);
                     }
 
-                    // Stage #2: start up all the threads currently in the queue up to the maximum number
+                    // Stage #2: hand all the threads currently in the queue to the pool, which runs up
+                    // to the maximum number at once. Running harvests are not waited for, so that a
+                    // single very long harvest does not hold back the next iteration: collections being
+                    // harvested are busy, and are not picked again until they are done or have expired.
                     while (!harvestThreads.isEmpty()) {
                         synchronized(HarvestScheduler.class) {
                             activeThreads++;
                         }
-                        Thread activeThread = new Thread(harvestThreads.pop());
-                        activeThread.start();
-                        log.info("Thread started: " + activeThread.toString());
-
-                        /* Wait while the number of threads running is greater than or equal to max */
-                        while (activeThreads >= maxActiveThreads) {
-                            /* Wait a second */
-                            Thread.sleep(1000);
-                        }
-                    }
-
-                    // Finally, wait for the last few remaining threads to finish
-                    // TODO: this step might be unnecessary. Theoretically a single very long harvest process
-                    // could then lock out all the other ones from starting on their next iteration.
-                    // FIXME: also, this might lead to a situation when a single thread getting stuck without
-                    // throwing an exception would shut down the whole scheduler
-                    while (activeThreads != 0) {
-                            /* Wait a second */
-                            Thread.sleep(1000);
+                        HarvestThread harvestThread = harvestThreads.pop();
+                        harvestPool.execute(harvestThread);
+                        log.info("Thread queued on the pool: " + harvestThread.toString());
                     }
 
                     // Commit everything
@@ -1335,13 +1361,33 @@ public class OAIHarvester {
          */
         public static void addThread(int collecionID) throws SQLException, IOException, AuthorizeException {
             log.debug("****** Entered the addThread method. Active threads: " + harvestThreads.toString());
-            Context subContext = new Context();
-            subContext.setCurrentUser(harvestAdmin);
+            // a harvest which runs past the thread timeout is found ready again, do not start it twice
+            if (!scheduledCollections.add(collecionID)) {
+                log.info("Collection " + collecionID + " is already queued or being harvested");
+                return;
+            }
 
-            HarvestedCollection hc = HarvestedCollection.find(subContext, collecionID);
-            hc.setHarvestStatus(HarvestedCollection.STATUS_QUEUED);
-            hc.update();
-            subContext.commit();
+            Context subContext = null;
+            HarvestedCollection hc;
+            boolean queued = false;
+            try {
+                subContext = new Context();
+                subContext.setCurrentUser(harvestAdmin);
+
+                hc = HarvestedCollection.find(subContext, collecionID);
+                hc.setHarvestStatus(HarvestedCollection.STATUS_QUEUED);
+                hc.update();
+                subContext.commit();
+                queued = true;
+            }
+            finally {
+                if (!queued) {
+                    scheduledCollections.remove(collecionID);
+                    if (subContext != null) {
+                        subContext.abort();
+                    }
+                }
+            }
 
             HarvestThread ht = new HarvestThread(subContext, hc);
             harvestThreads.push(ht);
@@ -1410,6 +1456,7 @@ public class OAIHarvester {
                 synchronized (HarvestScheduler.class) {
                         HarvestScheduler.activeThreads--;
                 }
+                HarvestScheduler.scheduledCollections.remove(hc.getCollectionId());
             }
 
             log.info("Thread for collection " + hc.getCollectionId() + " completes.");
@@ -0,0 +1,598 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.common.SolrInputDocument;
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+
+/**
+ * Writes usage events to the statistics core from background threads, so
+ * that the request threads only have to put the event in a bounded queue.
+ * The DNS and GeoIP lookups, the owning community/collection/item queries
+ * and the Solr updates are all done by the writer threads, which send the
+ * events they take from the queue in multi-document updates.
+ * <p>
+ * What happens when the queue is full is configured with
+ * <code>solr-statistics.async.overflow</code>:
+ * <ul>
+ *  <li><code>drop</code>: the event is discarded and counted as dropped.</li>
+ *  <li><code>block</code>: the request thread waits for room in the queue.</li>
+ *  <li><code>spill</code>: the event is appended to a spill file, which the
+ *  writer threads process once they catch up.</li>
+ * </ul>
+ * <p>
+ * The threads are started on first use and stopped by
+ * {@link #shutdownInstance()} when the web application stops, or by a
+ * shutdown hook when the JVM exits. The counters are logged every
+ * <code>solr-statistics.async.report.interval</code> seconds.
+ */
+public class AsyncUsageEventWriter
+{
+    private static final Logger log = Logger.getLogger(AsyncUsageEventWriter.class);
+
+    public static enum OverflowPolicy
+    {
+        DROP, BLOCK, SPILL
+    }
+
+    private static AsyncUsageEventWriter instance = null;
+
+    private final BlockingQueue<PendingUsageEvent> queue;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final int batchSize;
+
+    private final File spillFile;
+
+    private final Object spillLock = new Object();
+
+    /** Open on the spill file while events are spilled, guarded by spillLock */
+    private Writer spillWriter = null;
+
+    private final int threads;
+
+    private final long reportInterval;
+
+    private final AtomicLong lastReport = new AtomicLong(System.currentTimeMillis());
+
+    private final AtomicLong enqueued = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong spilled = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final List<Thread> writers = new ArrayList<Thread>();
+
+    private Thread shutdownHook = null;
+
+    private volatile boolean running = true;
+
+    /**
+     * @return true if usage events should be written asynchronously
+     */
+    public static boolean isEnabled()
+    {
+        return ConfigurationManager.getBooleanProperty("solr-statistics", "async.enabled", false);
+    }
+
+    /**
+     * @return the writer, its threads are started on first use
+     */
+    public static synchronized AsyncUsageEventWriter getInstance()
+    {
+        if (instance == null)
+        {
+            String policy = ConfigurationManager.getProperty("solr-statistics", "async.overflow");
+            String spillDir = ConfigurationManager.getProperty("solr-statistics", "async.spill.dir");
+            if (StringUtils.isBlank(spillDir))
+            {
+                spillDir = ConfigurationManager.getProperty("dspace.dir") + File.separator + "temp";
+            }
+
+            instance = new AsyncUsageEventWriter(
+                    ConfigurationManager.getIntProperty("solr-statistics", "async.queue.size", 10000),
+                    ConfigurationManager.getIntProperty("solr-statistics", "async.batch.size", 100),
+                    ConfigurationManager.getIntProperty("solr-statistics", "async.threads", 1),
+                    StringUtils.isBlank(policy) ? OverflowPolicy.DROP : OverflowPolicy.valueOf(policy.trim().toUpperCase()),
+                    new File(spillDir, "usage-events.spill"),
+                    ConfigurationManager.getLongProperty("solr-statistics", "async.report.interval", 300) * 1000);
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Stop the writer, if it was started, writing or spilling the events
+     * still queued. Called when the web application stops, so that neither
+     * the threads nor the shutdown hook outlive it.
+     */
+    public static synchronized void shutdownInstance()
+    {
+        if (instance != null)
+        {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+    /**
+     * @param reportInterval milliseconds between two reports of the counters, 0 for none
+     */
+    AsyncUsageEventWriter(int queueSize, int batchSize, int threads, OverflowPolicy overflowPolicy,
+                          File spillFile, long reportInterval)
+    {
+        this.queue = new ArrayBlockingQueue<PendingUsageEvent>(Math.max(1, queueSize));
+        this.batchSize = Math.max(1, batchSize);
+        this.threads = Math.max(1, threads);
+        this.overflowPolicy = overflowPolicy;
+        this.spillFile = spillFile;
+        this.reportInterval = reportInterval;
+    }
+
+    /**
+     * Start the writer threads and register the shutdown hook.
+     */
+    void start()
+    {
+        for (int i = 0; i < threads; i++)
+        {
+            Thread writer = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    writeLoop();
+                }
+            }, "usage-event-writer-" + i);
+            writer.setDaemon(true);
+            writer.start();
+            writers.add(writer);
+        }
+
+        shutdownHook = new Thread("usage-event-writer-shutdown")
+        {
+            @Override
+            public void run()
+            {
+                shutdown();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        log.info("Asynchronous usage event writer started: " + threads + " thread(s), overflow policy " + overflowPolicy);
+    }
+
+    /**
+     * Queue a usage event, applying the overflow policy when the queue is full.
+     *
+     * @param event the event
+     */
+    public void enqueue(PendingUsageEvent event)
+    {
+        enqueued.incrementAndGet();
+        if (queue.offer(event))
+        {
+            return;
+        }
+
+        switch (overflowPolicy)
+        {
+            case BLOCK:
+                try
+                {
+                    queue.put(event);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                }
+                break;
+            case SPILL:
+                spill(event);
+                break;
+            default:
+                dropped.incrementAndGet();
+                break;
+        }
+    }
+
+    /**
+     * @return the number of events waiting in the queue
+     */
+    public int getQueueDepth()
+    {
+        return queue.size();
+    }
+
+    public long getEnqueued()
+    {
+        return enqueued.get();
+    }
+
+    public long getWritten()
+    {
+        return written.get();
+    }
+
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    public long getSpilled()
+    {
+        return spilled.get();
+    }
+
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "queue depth=" + getQueueDepth() + ", enqueued=" + getEnqueued() + ", written=" + getWritten()
+                + ", dropped=" + getDropped() + ", spilled=" + getSpilled() + ", failed=" + getFailed();
+    }
+
+    private void writeLoop()
+    {
+        List<PendingUsageEvent> batch = new ArrayList<PendingUsageEvent>(batchSize);
+        while (running)
+        {
+            try
+            {
+                PendingUsageEvent first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null)
+                {
+                    // Idle: catch up on whatever was spilled while we were busy
+                    recoverSpilled();
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Unexpected error in usage event writer", e);
+            }
+            finally
+            {
+                batch.clear();
+            }
+            report();
+        }
+    }
+
+    /**
+     * Log the counters, if the report interval has elapsed since the last
+     * report.
+     */
+    private void report()
+    {
+        long now = System.currentTimeMillis();
+        long last = lastReport.get();
+        if (reportInterval > 0 && now - last >= reportInterval && lastReport.compareAndSet(last, now))
+        {
+            log.info("Asynchronous usage event writer: " + this);
+        }
+    }
+
+    /**
+     * Write a batch of events, counting them as written or failed.
+     */
+    private void write(List<PendingUsageEvent> batch)
+    {
+        try
+        {
+            send(batch);
+            written.addAndGet(batch.size());
+        }
+        catch (Exception e)
+        {
+            failed.addAndGet(batch.size());
+            log.error("Unable to write " + batch.size() + " usage events: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Build the documents of a batch of events and send them in one request.
+     */
+    void send(List<PendingUsageEvent> batch) throws Exception
+    {
+        Context context = new Context();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+
+            List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(batch.size());
+            for (PendingUsageEvent event : batch)
+            {
+                DSpaceObject dso = event.objectType < 0 ? null : DSpaceObject.find(context, event.objectType, event.objectId);
+                docs.add(SolrLogger.getViewSolrDoc(dso, event));
+            }
+            SolrLogger.addDocuments(docs);
+        }
+        finally
+        {
+            context.abort();
+        }
+    }
+
+    /**
+     * Append an event to the spill file. The file is kept open until the
+     * spilled events are processed; each event is flushed to it.
+     */
+    private void spill(PendingUsageEvent event)
+    {
+        synchronized (spillLock)
+        {
+            try
+            {
+                if (spillWriter == null)
+                {
+                    spillFile.getParentFile().mkdirs();
+                    spillWriter = new OutputStreamWriter(new FileOutputStream(spillFile, true), "UTF-8");
+                }
+                spillWriter.write(event.toLine());
+                spillWriter.write('\n');
+                spillWriter.flush();
+                spilled.incrementAndGet();
+            }
+            catch (IOException e)
+            {
+                dropped.incrementAndGet();
+                log.error("Unable to spill usage event to " + spillFile + ": " + e.getMessage());
+                closeSpillWriter();
+            }
+        }
+    }
+
+    /**
+     * Close the spill file, if open. Called with spillLock held.
+     */
+    private void closeSpillWriter()
+    {
+        if (spillWriter != null)
+        {
+            try
+            {
+                spillWriter.close();
+            }
+            catch (IOException e)
+            {
+                log.error(e.getMessage(), e);
+            }
+            spillWriter = null;
+        }
+    }
+
+    /**
+     * Write the events of the spill file, if any. The file is moved out of the
+     * way first so that new events can be spilled in the meantime.
+     */
+    void recoverSpilled()
+    {
+        File processing = new File(spillFile.getPath() + ".processing");
+        synchronized (spillLock)
+        {
+            if (processing.exists() || !spillFile.exists())
+            {
+                return;
+            }
+            closeSpillWriter();
+            if (!spillFile.renameTo(processing))
+            {
+                return;
+            }
+        }
+
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(processing), "UTF-8"));
+            List<PendingUsageEvent> batch = new ArrayList<PendingUsageEvent>(batchSize);
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.length() == 0)
+                {
+                    continue;
+                }
+                batch.add(PendingUsageEvent.fromLine(line));
+                if (batch.size() >= batchSize)
+                {
+                    write(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty())
+            {
+                write(batch);
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("Unable to read spilled usage events from " + processing + ": " + e.getMessage(), e);
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (IOException e)
+                {
+                    log.error(e.getMessage(), e);
+                }
+            }
+            if (!processing.delete())
+            {
+                log.warn("Unable to delete " + processing);
+            }
+        }
+    }
+
+    /**
+     * Stop the writer threads. Events still in the queue are spilled to disk
+     * when the overflow policy is <code>spill</code>, otherwise they are written.
+     */
+    void shutdown()
+    {
+        synchronized (this)
+        {
+            if (!running)
+            {
+                return;
+            }
+            running = false;
+        }
+
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook)
+        {
+            try
+            {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            }
+            catch (IllegalStateException e)
+            {
+                // the JVM is exiting, the hook runs anyway
+            }
+        }
+
+        for (Thread writer : writers)
+        {
+            writer.interrupt();
+        }
+        for (Thread writer : writers)
+        {
+            try
+            {
+                writer.join(10000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        List<PendingUsageEvent> remaining = new ArrayList<PendingUsageEvent>();
+        queue.drainTo(remaining);
+        if (overflowPolicy == OverflowPolicy.SPILL)
+        {
+            for (PendingUsageEvent event : remaining)
+            {
+                spill(event);
+            }
+        }
+        else if (!remaining.isEmpty())
+        {
+            write(remaining);
+        }
+        synchronized (spillLock)
+        {
+            closeSpillWriter();
+        }
+        log.info("Asynchronous usage event writer stopped: " + this);
+    }
+
+    /**
+     * A view captured on the request thread: everything which has to be read
+     * from the request, nothing which needs a lookup.
+     */
+    public static class PendingUsageEvent
+    {
+        final int objectType;
+        final int objectId;
+        final String ip;
+        final String referrer;
+        final String userAgent;
+        final boolean isBot;
+        final Integer epersonId;
+        final String time;
+
+        public PendingUsageEvent(int objectType, int objectId, String ip, String referrer, String userAgent,
+                                 boolean isBot, Integer epersonId, String time)
+        {
+            this.objectType = objectType;
+            this.objectId = objectId;
+            this.ip = ip;
+            this.referrer = referrer;
+            this.userAgent = userAgent;
+            this.isBot = isBot;
+            this.epersonId = epersonId;
+            this.time = time;
+        }
+
+        String toLine() throws UnsupportedEncodingException
+        {
+            return StringUtils.join(new String[] {
+                    String.valueOf(objectType), String.valueOf(objectId), encode(ip), encode(referrer),
+                    encode(userAgent), String.valueOf(isBot),
+                    epersonId == null ? "" : String.valueOf(epersonId), encode(time)
+            }, '\t');
+        }
+
+        static PendingUsageEvent fromLine(String line) throws UnsupportedEncodingException
+        {
+            String[] fields = line.split("\t", -1);
+            return new PendingUsageEvent(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                    decode(fields[2]), decode(fields[3]), decode(fields[4]), Boolean.parseBoolean(fields[5]),
+                    fields[6].length() == 0 ? null : Integer.valueOf(fields[6]), decode(fields[7]));
+        }
+
+        /** Non-null values are prefixed so they can be told apart from null */
+        private static String encode(String value) throws UnsupportedEncodingException
+        {
+            return value == null ? "" : "v" + URLEncoder.encode(value, "UTF-8");
+        }
+
+        private static String decode(String value) throws UnsupportedEncodingException
+        {
+            return value.length() == 0 ? null : URLDecoder.decode(value.substring(1), "UTF-8");
+        }
+    }
+}
@@ -7,24 +7,16 @@
  */
 package org.dspace.statistics;
 
-import au.com.bytecode.opencsv.CSVReader;
-import au.com.bytecode.opencsv.CSVWriter;
 import com.maxmind.geoip.Location;
 import com.maxmind.geoip.LookupService;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.DateFormatUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
-import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
-import org.apache.solr.client.solrj.request.ContentStreamUpdateRequest;
 import org.apache.solr.client.solrj.request.CoreAdminRequest;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.QueryResponse;
@@ -35,11 +27,13 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.*;
 import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
 import org.dspace.content.*;
 import org.dspace.content.Collection;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
+import org.dspace.core.Utils;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
 import org.dspace.statistics.util.DnsLookup;
@@ -49,12 +43,16 @@ import org.dspace.usage.UsageWorkflowEvent;
 
 import javax.servlet.http.HttpServletRequest;
 import java.io.*;
-import java.net.URLEncoder;
 import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Static holder for a HttpSolrClient connection pool to issue
@@ -81,6 +79,12 @@ public class SolrLogger
 
     private static List<String> statisticYearCores = new ArrayList<String>();
 
+    /** Number of documents read at once when going through a whole core */
+    private static final int PAGE_SIZE = 10000;
+
+    /** Number of pages moved into a year core between two saves of the position */
+    private static final int CHECKPOINT_PAGES = 10;
+
     public static enum StatisticsType {
    		VIEW ("view"),
    		SEARCH ("search"),
@@ -128,7 +132,7 @@ public class SolrLogger
                 for (File solrCoreFile : solrCoreFiles) {
                     log.info("Loading core with name: " + solrCoreFile.getName());
 
-                    createCore(server, solrCoreFile.getName());
+                    createCore(server, solrCoreFile.getName()).shutdown();
                     //Add it to our cores list so we can query it !
                     statisticYearCores.add(baseSolrUrl.replace("http://", "").replace("https://", "") + solrCoreFile.getName());
                 }
@@ -212,6 +216,12 @@ public class SolrLogger
 
         try
         {
+            if (request != null && queueView(dspaceObject, getClientIP(request), request.getHeader("referer"),
+                    request.getHeader("User-Agent"), SpiderDetector.isSpider(request), currentUser))
+            {
+                return;
+            }
+
             SolrInputDocument doc1 = getCommonSolrDoc(dspaceObject, request, currentUser);
             if (doc1 == null) return;
             if(dspaceObject instanceof Bitstream)
@@ -248,6 +258,11 @@ public class SolrLogger
 		}
 
 		try {
+			if (ip != null && queueView(dspaceObject, getClientIP(ip, xforwardedfor), null, userAgent,
+					SpiderDetector.isSpider(ip), currentUser)) {
+				return;
+			}
+
 			SolrInputDocument doc1 = getCommonSolrDoc(dspaceObject, ip, userAgent, xforwardedfor,
 					currentUser);
 			if (doc1 == null)
@@ -274,6 +289,199 @@ public class SolrLogger
 	}
     
 
+    /**
+     * Determine the IP address of the client of a request, taking the
+     * X-Forwarded-For header into account when proxies are in use.
+     *
+     * @param request the current request context.
+     * @return the client IP address
+     */
+    private static String getClientIP(HttpServletRequest request)
+    {
+        String ip = request.getRemoteAddr();
+
+        if (isUseProxies() && request.getHeader("X-Forwarded-For") != null) {
+            /* This header is a comma delimited list */
+            for (String xfip : request.getHeader("X-Forwarded-For").split(",")) {
+                /* proxy itself will sometime populate this header with the same value in
+                remote address. ordering in spec is vague, we'll just take the last
+                not equal to the proxy
+                */
+                if (!request.getHeader("X-Forwarded-For").contains(ip)) {
+                    ip = xfip.trim();
+                }
+            }
+        }
+        return ip;
+    }
+
+    /**
+     * Determine the IP address of a client given its address and the value
+     * of its X-Forwarded-For header, when proxies are in use.
+     *
+     * @param ip the remote address
+     * @param xforwardedfor the X-Forwarded-For header, may be null
+     * @return the client IP address
+     */
+    private static String getClientIP(String ip, String xforwardedfor)
+    {
+        if (isUseProxies() && xforwardedfor != null) {
+            /* This header is a comma delimited list */
+            for (String xfip : xforwardedfor.split(",")) {
+                if (!xforwardedfor.contains(ip)) {
+                    ip = xfip.trim();
+                }
+            }
+        }
+        return ip;
+    }
+
+    /**
+     * Store the reverse DNS name of an IP address in a usage document.
+     */
+    private static void addDns(SolrInputDocument doc1, String ip)
+    {
+        try
+        {
+            String dns = DnsLookup.reverseDns(ip);
+            doc1.addField("dns", dns.toLowerCase());
+        }
+        catch (Exception e)
+        {
+            log.error("Failed DNS Lookup for IP:" + ip);
+            log.debug(e.getMessage(),e);
+        }
+    }
+
+    /**
+     * Store the location information of an IP address in a usage document
+     * if it is valid.
+     */
+    private static void addLocation(SolrInputDocument doc1, String ip)
+    {
+        if(locationService != null)
+        {
+            Location location = locationService.getLocation(ip);
+            if (location != null
+                    && !("--".equals(location.countryCode)
+                    && location.latitude == -180 && location.longitude == -180))
+            {
+                try
+                {
+                    doc1.addField("continent", LocationUtils
+                            .getContinentCode(location.countryCode));
+                }
+                catch (Exception e)
+                {
+                    System.out
+                            .println("COUNTRY ERROR: " + location.countryCode);
+                }
+                doc1.addField("countryCode", location.countryCode);
+                doc1.addField("city", location.city);
+                doc1.addField("latitude", location.latitude);
+                doc1.addField("longitude", location.longitude);
+            }
+        }
+    }
+
+    /**
+     * Build the usage document of a view event which has been captured on the
+     * request thread and queued for the {@link AsyncUsageEventWriter}.
+     *
+     * @param dspaceObject the object used, resolved in the writer's context,
+     *                     may be null if it has been deleted in the meantime
+     * @param event the captured view
+     * @return a solr input document
+     * @throws SQLException in case of a database exception
+     */
+    static SolrInputDocument getViewSolrDoc(DSpaceObject dspaceObject, AsyncUsageEventWriter.PendingUsageEvent event)
+            throws SQLException
+    {
+        SolrInputDocument doc1 = new SolrInputDocument();
+        if (event.ip != null)
+        {
+            doc1.addField("ip", event.ip);
+            if (event.referrer != null)
+            {
+                doc1.addField("referrer", event.referrer);
+            }
+            addDns(doc1, event.ip);
+            if (event.userAgent != null)
+            {
+                doc1.addField("userAgent", event.userAgent);
+            }
+            doc1.addField("isBot", event.isBot);
+            addLocation(doc1, event.ip);
+        }
+
+        if (dspaceObject != null)
+        {
+            doc1.addField("id", dspaceObject.getID());
+            doc1.addField("type", dspaceObject.getType());
+            storeParents(doc1, dspaceObject);
+            if (dspaceObject instanceof Bitstream)
+            {
+                Bundle[] bundles = ((Bitstream) dspaceObject).getBundles();
+                for (Bundle bundle : bundles) {
+                    doc1.addField("bundleName", bundle.getName());
+                }
+            }
+        }
+        else
+        {
+            doc1.addField("id", event.objectId);
+            doc1.addField("type", event.objectType);
+        }
+        doc1.addField("time", event.time);
+        if (event.epersonId != null)
+        {
+            doc1.addField("epersonid", event.epersonId);
+        }
+        doc1.addField("statistics_type", StatisticsType.VIEW.text());
+        return doc1;
+    }
+
+    /**
+     * Send several usage documents to Solr in a single update request.
+     *
+     * @param docs the documents
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    static void addDocuments(java.util.Collection<SolrInputDocument> docs) throws IOException, SolrServerException
+    {
+        if (solr != null && !docs.isEmpty())
+        {
+            solr.add(docs);
+        }
+    }
+
+    /**
+     * Capture a view on the request thread and queue it for the
+     * {@link AsyncUsageEventWriter}, which does the lookups and writes.
+     *
+     * @return true if the view has been handed to the asynchronous writer
+     */
+    private static boolean queueView(DSpaceObject dspaceObject, String ip, String referrer, String userAgent,
+                                     boolean isSpiderBot, EPerson currentUser)
+    {
+        if (!AsyncUsageEventWriter.isEnabled())
+        {
+            return false;
+        }
+        if (isSpiderBot && !ConfigurationManager.getBooleanProperty("usage-statistics", "logBots", true))
+        {
+            return true;
+        }
+        AsyncUsageEventWriter.getInstance().enqueue(new AsyncUsageEventWriter.PendingUsageEvent(
+                dspaceObject == null ? -1 : dspaceObject.getType(),
+                dspaceObject == null ? -1 : dspaceObject.getID(),
+                ip, referrer, userAgent, isSpiderBot,
+                currentUser == null ? null : currentUser.getID(),
+                DateFormatUtils.format(new Date(), DATE_FORMAT_8601)));
+        return true;
+    }
+
     /**
      * Returns a solr input document containing common information about the statistics
      * regardless if we are logging a search or a view of a DSpace object
@@ -295,20 +503,7 @@ public class SolrLogger
         // Save our basic info that we already have
 
         if(request != null){
-            String ip = request.getRemoteAddr();
-
-            if (isUseProxies() && request.getHeader("X-Forwarded-For") != null) {
-                /* This header is a comma delimited list */
-                for (String xfip : request.getHeader("X-Forwarded-For").split(",")) {
-                    /* proxy itself will sometime populate this header with the same value in
-                    remote address. ordering in spec is vague, we'll just take the last
-                    not equal to the proxy
-                    */
-                    if (!request.getHeader("X-Forwarded-For").contains(ip)) {
-                        ip = xfip.trim();
-                    }
-                }
-            }
+            String ip = getClientIP(request);
 
             doc1.addField("ip", ip);
 
@@ -317,16 +512,7 @@ public class SolrLogger
                 doc1.addField("referrer", request.getHeader("referer"));
             }
 
-            try
-            {
-                String dns = DnsLookup.reverseDns(ip);
-                doc1.addField("dns", dns.toLowerCase());
-            }
-            catch (Exception e)
-            {
-                log.error("Failed DNS Lookup for IP:" + ip);
-                log.debug(e.getMessage(),e);
-            }
+            addDns(doc1, ip);
 		    if(request.getHeader("User-Agent") != null)
 		    {
 		        doc1.addField("userAgent", request.getHeader("User-Agent"));
@@ -334,32 +520,7 @@ public class SolrLogger
 		    doc1.addField("isBot",isSpiderBot);
             // Save the location information if valid, save the event without
             // location information if not valid
-            if(locationService != null)
-            {
-                Location location = locationService.getLocation(ip);
-                if (location != null
-                        && !("--".equals(location.countryCode)
-                        && location.latitude == -180 && location.longitude == -180))
-                {
-                    try
-                    {
-                        doc1.addField("continent", LocationUtils
-                                .getContinentCode(location.countryCode));
-                    }
-                    catch (Exception e)
-                    {
-                        System.out
-                                .println("COUNTRY ERROR: " + location.countryCode);
-                    }
-                    doc1.addField("countryCode", location.countryCode);
-                    doc1.addField("city", location.city);
-                    doc1.addField("latitude", location.latitude);
-                    doc1.addField("longitude", location.longitude);
-                    
-
-
-                }
-            }
+            addLocation(doc1, ip);
         }
 
         if(dspaceObject != null){
@@ -403,16 +564,7 @@ public class SolrLogger
 
             doc1.addField("ip", ip);
 
-            try
-            {
-                String dns = DnsLookup.reverseDns(ip);
-                doc1.addField("dns", dns.toLowerCase());
-            }
-            catch (Exception e)
-            {
-                log.error("Failed DNS Lookup for IP:" + ip);
-                log.debug(e.getMessage(),e);
-            }
+            addDns(doc1, ip);
 		    if(userAgent != null)
 		    {
 		        doc1.addField("userAgent", userAgent);
@@ -420,32 +572,7 @@ public class SolrLogger
 		    doc1.addField("isBot",isSpiderBot);
             // Save the location information if valid, save the event without
             // location information if not valid
-            if(locationService != null)
-            {
-                Location location = locationService.getLocation(ip);
-                if (location != null
-                        && !("--".equals(location.countryCode)
-                        && location.latitude == -180 && location.longitude == -180))
-                {
-                    try
-                    {
-                        doc1.addField("continent", LocationUtils
-                                .getContinentCode(location.countryCode));
-                    }
-                    catch (Exception e)
-                    {
-                        System.out
-                                .println("COUNTRY ERROR: " + location.countryCode);
-                    }
-                    doc1.addField("countryCode", location.countryCode);
-                    doc1.addField("city", location.city);
-                    doc1.addField("latitude", location.latitude);
-                    doc1.addField("longitude", location.longitude);
-                    
-
-
-                }
-            }
+            addLocation(doc1, ip);
         }
 
         if(dspaceObject != null){
@@ -735,35 +862,157 @@ public class SolrLogger
     }
 
 
+    /**
+     * Flag as bots the events of the spider addresses.
+     *
+     * @deprecated use {@link #markRobots(boolean)}, which checks the agents
+     *             and domain names as well, in a single pass
+     */
+    @Deprecated
     public static void markRobotsByIP()
     {
-        for(String ip : SpiderDetector.getSpiderIpAddresses()){
+        try
+        {
+            markRobots(true);
+        }
+        catch (Exception e)
+        {
+            log.error(e.getMessage(), e);
+        }
+    }
 
-            try {
+    /**
+     * Flag as bots the events of the clients matching the spider lists
+     * (addresses, agents and domain names), once the lists changed. The
+     * events not flagged yet are read from each core in pages, checked with
+     * {@link SpiderDetector}, and those of spiders are flagged with atomic
+     * updates, a page at a time. Events of clients removed from the lists
+     * stay flagged.
+     * <p>
+     * The lists checked are those loaded by this JVM. Nothing is done if they
+     * did not change since the last run, unless forced.
+     *
+     * @param force
+     *            check the events even if the lists did not change
+     * @return the number of events flagged
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    public static long markRobots(boolean force) throws IOException, SolrServerException
+    {
+        File versionFile = new File(ConfigurationManager.getProperty("dspace.dir") + File.separator + "temp"
+                + File.separator + "spiders.version");
+        String version = getSpiderListsVersion();
+        if (!force && versionFile.exists() && version.equals(FileUtils.readFileToString(versionFile, "UTF-8")))
+        {
+            log.info("Spider lists unchanged, no events to flag");
+            return 0;
+        }
 
-                /* Result Process to alter record to be identified as a bot */
-                ResultProcessor processor = new ResultProcessor(){
-                    public void process(SolrDocument doc) throws IOException, SolrServerException {
-                        doc.removeFields("isBot");
-                        doc.addField("isBot", true);
-                        SolrInputDocument newInput = ClientUtils.toSolrInputDocument(doc);
-                        solr.add(newInput);
-                        log.info("Marked " + doc.getFieldValue("ip") + " as bot");
+        long marked = 0;
+        List<HttpSolrServer> cores = getCores();
+        try
+        {
+            for (HttpSolrServer core : cores)
+            {
+                SolrQuery query = new SolrQuery("-isBot:true").setRows(1000)
+                        .setFields("uid", "ip", "dns", "userAgent")
+                        .setSort("uid", SolrQuery.ORDER.asc);
+                String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+                while (true)
+                {
+                    query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+                    QueryResponse response = core.query(query);
+
+                    List<SolrInputDocument> updates = new ArrayList<SolrInputDocument>();
+                    for (SolrDocument doc : response.getResults())
+                    {
+                        if (SpiderDetector.isSpider((String) doc.getFieldValue("ip"), null,
+                                (String) doc.getFieldValue("dns"), (String) doc.getFieldValue("userAgent")))
+                        {
+                            SolrInputDocument update = new SolrInputDocument();
+                            update.addField("uid", doc.getFieldValue("uid"));
+                            update.addField("isBot", Collections.singletonMap("set", true));
+                            updates.add(update);
+                        }
+                    }
+                    if (!updates.isEmpty())
+                    {
+                        core.add(updates);
+                        marked += updates.size();
                     }
-                };
 
-                /* query for ip, exclude results previously set as bots. */
-                processor.execute("ip:"+ip+ "* AND -isBot:true");
+                    String nextCursorMark = response.getNextCursorMark();
+                    if (cursorMark.equals(nextCursorMark))
+                    {
+                        break;
+                    }
+                    cursorMark = nextCursorMark;
+                }
+                core.commit();
+                log.info("Flagged " + marked + " events as bots after " + core.getBaseURL());
+            }
+        }
+        finally
+        {
+            shutdown(cores);
+        }
 
-                solr.commit();
+        versionFile.getParentFile().mkdirs();
+        FileUtils.writeStringToFile(versionFile, version, "UTF-8");
+        return marked;
+    }
 
-            } catch (Exception e) {
-                log.error(e.getMessage(),e);
+    /**
+     * @return a digest of the names, sizes and modification times of the
+     *         spider lists
+     */
+    private static String getSpiderListsVersion()
+    {
+        List<String> files = new ArrayList<String>();
+        File spidersDir = new File(ConfigurationManager.getProperty("dspace.dir"), "config/spiders");
+        if (spidersDir.isDirectory())
+        {
+            for (File file : FileUtils.listFiles(spidersDir, null, true))
+            {
+                files.add(file.getPath() + ":" + file.length() + ":" + file.lastModified());
             }
+        }
+        Collections.sort(files);
+        return Utils.getMD5(StringUtils.join(files, "\n"));
+    }
 
-
+    /**
+     * @return the statistics core and the year cores
+     */
+    private static List<HttpSolrServer> getCores()
+    {
+        List<HttpSolrServer> cores = new ArrayList<HttpSolrServer>();
+        cores.add(solr);
+        String scheme = solr.getBaseURL().startsWith("https://") ? "https://" : "http://";
+        String main = solr.getBaseURL().substring(scheme.length());
+        for (String core : statisticYearCores)
+        {
+            if (!core.equals(main))
+            {
+                cores.add(new HttpSolrServer(scheme + core));
+            }
         }
+        return cores;
+    }
 
+    /**
+     * Shut down the clients of the year cores returned by {@link #getCores()}.
+     */
+    private static void shutdown(List<HttpSolrServer> cores)
+    {
+        for (HttpSolrServer core : cores)
+        {
+            if (core != solr)
+            {
+                core.shutdown();
+            }
+        }
     }
 
     public static void markRobotByUserAgent(String agent){
@@ -807,10 +1056,36 @@ public class SolrLogger
     }
 
 
+    /**
+     * Delete the events of the spider addresses. The events are read a page
+     * at a time and their addresses checked with {@link SpiderDetector}, as
+     * the spider list holds ranges and subnets no query on the ip field
+     * matches.
+     */
     public static void deleteRobotsByIP()
     {
-        for(String ip : SpiderDetector.getSpiderIpAddresses()){
-            deleteIP(ip);
+        try {
+            final long[] deleted = {0};
+            SolrQuery query = new SolrQuery("*:*").setRows(PAGE_SIZE).setFields("uid", "ip");
+            forEachPage(solr, query, CursorMarkParams.CURSOR_MARK_START, new PageHandler() {
+                public void handle(SolrDocumentList docs, String nextCursorMark) throws Exception {
+                    List<String> uids = new ArrayList<String>();
+                    for (SolrDocument doc : docs) {
+                        Object ip = doc.getFieldValue("ip");
+                        if (ip != null && SpiderDetector.isSpider(ip.toString())) {
+                            uids.add(doc.getFieldValue("uid").toString());
+                        }
+                    }
+                    if (!uids.isEmpty()) {
+                        solr.deleteById(uids);
+                        deleted[0] += uids.size();
+                    }
+                }
+            });
+            solr.commit();
+            log.info("Deleted " + deleted[0] + " events of spider addresses");
+        } catch (Exception e) {
+            log.error(e.getMessage(),e);
         }
     }
 
@@ -1033,7 +1308,7 @@ public class SolrLogger
         return objCount;
     }
 
-    private static String getDateView(String name, String type, Context context)
+    static String getDateView(String name, String type, Context context)
     {
         if (name != null && name.matches("^[0-9]{4}\\-[0-9]{2}.*"))
         {
@@ -1146,27 +1421,83 @@ public class SolrLogger
             solrQuery.setFacetLimit(max);
         }
 
+        if(sort != null){
+            solrQuery.setSortField(sort, (ascending ? SolrQuery.ORDER.asc : SolrQuery.ORDER.desc));
+        }
+
         // A filter is used instead of a regular query to improve
         // performance and ensure the search result ordering will
         // not be influenced
+        addReportFilters(solrQuery);
 
-        // Choose to filter by the Legacy spider IP list (may get too long to properly filter all IP's
-        if(ConfigurationManager.getBooleanProperty("solr-statistics", "query.filter.spiderIp",false))
+        if (filterQuery != null)
         {
-            solrQuery.addFilterQuery(getIgnoreSpiderIPs());
+            solrQuery.addFilterQuery(filterQuery);
         }
 
+        QueryResponse response;
+        try
+        {
+            // solr.set
+            response = solr.query(solrQuery);
+        }
+        catch (SolrServerException e)
+        {
+            System.err.println("Error using query " + query);
+            throw e;
+        }
+        return response;
+    }
+
+
+    /**
+     * Query the hits matching a query, with a pivot facet for each of the
+     * given comma separated field lists. All the values of the pivots are
+     * returned. The hits are filtered as for the other report queries.
+     *
+     * @param query the query to be used
+     * @param filterQuery an additional filter, may be null
+     * @param pivots the pivots, for example "type,id"
+     * @return the response, or null if Solr statistics are not available
+     * @throws SolrServerException
+     */
+    public static QueryResponse queryFacetPivot(String query, String filterQuery, String... pivots)
+            throws SolrServerException
+    {
+        if (solr == null)
+        {
+            return null;
+        }
+
+        SolrQuery solrQuery = new SolrQuery().setRows(0).setQuery(query)
+                .setFacet(true).setFacetMinCount(1).setFacetLimit(-1);
+        solrQuery.addFacetPivotField(pivots);
+        addAdditionalSolrYearCores(solrQuery);
+        addReportFilters(solrQuery);
+        if (filterQuery != null)
+        {
+            solrQuery.addFilterQuery(filterQuery);
+        }
+        return solr.query(solrQuery);
+    }
+
+    /**
+     * Add the filters applied to all the report queries: spiders and the
+     * bundles of the bitstreams to count.
+     */
+    private static void addReportFilters(SolrQuery solrQuery)
+    {
         // Choose to filter by isBot field, may be overriden in future
         // to allow views on stats based on bots.
-        if(ConfigurationManager.getBooleanProperty("solr-statistics", "query.filter.isBot",true))
+        // The events of spider addresses are flagged when they are written,
+        // and by markRobots once the lists change, so the legacy spider IP
+        // filter is the same single (cached) clause rather than one per address.
+        if(ConfigurationManager.getBooleanProperty("solr-statistics", "query.filter.isBot",true)
+                || ConfigurationManager.getBooleanProperty("solr-statistics", "query.filter.spiderIp",false))
         {
             solrQuery.addFilterQuery("-isBot:true");
         }
 
-        if(sort != null){
-            solrQuery.setSortField(sort, (ascending ? SolrQuery.ORDER.asc : SolrQuery.ORDER.desc));
-        }
-
         String bundles;
         if((bundles = ConfigurationManager.getProperty("solr-statistics", "query.filter.bundles")) != null && 0 < bundles.length()){
 
@@ -1190,52 +1521,20 @@ public class SolrLogger
 
             solrQuery.addFilterQuery(bundleQuery.toString());
         }
-
-        if (filterQuery != null)
-        {
-            solrQuery.addFilterQuery(filterQuery);
-        }
-
-        QueryResponse response;
-        try
-        {
-            // solr.set
-            response = solr.query(solrQuery);
-        }
-        catch (SolrServerException e)
-        {
-            System.err.println("Error using query " + query);
-            throw e;
-        }
-        return response;
     }
 
-
-    /** String of IP and Ranges in IPTable as a Solr Query */
-    private static String filterQuery = null;
-
     /**
      * Returns in a filterQuery string all the ip addresses that should be ignored
      *
-     * @return a string query with ip addresses
+     * @return a string query excluding the events of spiders, which are
+     *         flagged as bots rather than matched by address, since the
+     *         spider list holds ranges and subnets no query on the ip field
+     *         matches
+     * @deprecated the reports filter on the isBot flag, see {@link #markRobots(boolean)}
      */
+    @Deprecated
     public static String getIgnoreSpiderIPs() {
-        if (filterQuery == null) {
-            StringBuilder query = new StringBuilder();
-            boolean first = true;
-            for (String ip : SpiderDetector.getSpiderIpAddresses()) {
-                if (first) {
-                    query.append(" AND ");
-                    first = false;
-                }
-
-                query.append(" NOT(ip: ").append(ip).append(")");
-            }
-            filterQuery = query.toString();
-        }
-
-        return filterQuery;
-
+        return " AND NOT(isBot:true)";
     }
     
     /**
@@ -1257,7 +1556,18 @@ public class SolrLogger
         }
     }
 
-    public static void shardSolrIndex() throws IOException, SolrServerException {
+    /**
+     * Move the events of each past year from the statistics core into a core
+     * of its own (statistics-YYYY). The events are streamed with a cursor,
+     * a page at a time, from the statistics core into the year core, so
+     * nothing is written to disk. The years are moved in parallel, on
+     * <code>shard.threads</code> threads. The position of the cursor is saved
+     * in the temp directory at regular intervals, so a run that was
+     * interrupted resumes from there.
+     *
+     * @throws Exception
+     */
+    public static void shardSolrIndex() throws Exception {
         /*
         Start by faceting by year so we can include each year in a separate core !
          */
@@ -1274,231 +1584,244 @@ public class SolrLogger
         yearRangeQuery.add(FacetParams.FACET_RANGE_GAP, "+1YEAR");
         yearRangeQuery.add(FacetParams.FACET_MINCOUNT, String.valueOf(1));
 
-        //Create a temp directory to store our files in !
-        File tempDirectory = new File(ConfigurationManager.getProperty("dspace.dir") + File.separator + "temp" + File.separator);
+        final File tempDirectory = new File(ConfigurationManager.getProperty("dspace.dir") + File.separator + "temp" + File.separator);
         tempDirectory.mkdirs();
 
-
         QueryResponse queryResponse = solr.query(yearRangeQuery);
         //We only have one range query !
         List<RangeFacet.Count> yearResults = queryResponse.getFacetRanges().get(0).getCounts();
-        for (RangeFacet.Count count : yearResults) {
-            long totalRecords = count.getCount();
-
-            //Create a range query from this !
-            //We start with out current year
-            DCDate dcStart = new DCDate(count.getValue());
-            Calendar endDate = Calendar.getInstance();
-            //Advance one year for the start of the next one !
-            endDate.setTime(dcStart.toDate());
-            endDate.add(Calendar.YEAR, 1);
-            DCDate dcEndDate = new DCDate(endDate.getTime());
-
-
-            StringBuilder filterQuery = new StringBuilder();
-            filterQuery.append("time:([");
-            filterQuery.append(ClientUtils.escapeQueryChars(dcStart.toString()));
-            filterQuery.append(" TO ");
-            filterQuery.append(ClientUtils.escapeQueryChars(dcEndDate.toString()));
-            filterQuery.append("]");
-            //The next part of the filter query excludes the content from midnight of the next year !
-            filterQuery.append(" NOT ").append(ClientUtils.escapeQueryChars(dcEndDate.toString()));
-            filterQuery.append(")");
-
-
-            Map<String, String> yearQueryParams = new HashMap<String, String>();
-            yearQueryParams.put(CommonParams.Q, "*:*");
-            yearQueryParams.put(CommonParams.ROWS, String.valueOf(10000));
-            yearQueryParams.put(CommonParams.FQ, filterQuery.toString());
-            yearQueryParams.put(CommonParams.WT, "csv");
-
-            //Start by creating a new core
-            String coreName = "statistics-" + dcStart.getYear();
-            HttpSolrServer statisticsYearServer = createCore(solr, coreName);
-
-            System.out.println("Moving: " + totalRecords + " into core " + coreName);
-            log.info("Moving: " + totalRecords + " records into core " + coreName);
 
-            List<File> filesToUpload = new ArrayList<File>();
-            for(int i = 0; i < totalRecords; i+=10000){
-                String solrRequestUrl = solr.getBaseURL() + "/select";
-                solrRequestUrl = generateURL(solrRequestUrl, yearQueryParams);
-
-                HttpGet get = new HttpGet(solrRequestUrl);
-                HttpResponse response = new DefaultHttpClient().execute(get);
-                InputStream csvInputstream = response.getEntity().getContent();
-                //Write the csv ouput to a file !
-                File csvFile = new File(tempDirectory.getPath() + File.separatorChar + "temp." + dcStart.getYear() + "." + i + ".csv");
-                FileUtils.copyInputStreamToFile(csvInputstream, csvFile);
-                filesToUpload.add(csvFile);
-
-                //Add 10000 & start over again
-                yearQueryParams.put(CommonParams.START, String.valueOf((i + 10000)));
+        int threads = Math.max(1, ConfigurationManager.getIntProperty("solr-statistics", "shard.threads", 2));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> years = new ArrayList<Future<Void>>();
+        for (final RangeFacet.Count count : yearResults) {
+            years.add(pool.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    moveYear(count, tempDirectory);
+                    return null;
+                }
+            }));
+        }
+        pool.shutdown();
+
+        Throwable failure = null;
+        for (Future<Void> year : years) {
+            try {
+                year.get();
+            } catch (ExecutionException e) {
+                log.error("Error while moving the statistics of a year", e.getCause());
+                if (failure == null) {
+                    failure = e.getCause();
+                }
             }
+        }
+        if (failure != null) {
+            throw new IOException("Not all the years were moved, run the sharding again to resume", failure);
+        }
+    }
 
-            for (File tempCsv : filesToUpload) {
-                //Upload the data in the csv files to our new solr core
-                ContentStreamUpdateRequest contentStreamUpdateRequest = new ContentStreamUpdateRequest("/update/csv");
-                contentStreamUpdateRequest.setParam("stream.contentType", "text/plain;charset=utf-8");
-	            contentStreamUpdateRequest.setParam("skip", "_version_");
-                contentStreamUpdateRequest.setAction(AbstractUpdateRequest.ACTION.COMMIT, true, true);
-                contentStreamUpdateRequest.addFile(tempCsv, "text/plain;charset=utf-8");
+    /**
+     * Move the events of one year into its core.
+     *
+     * @param count the facet count of the year
+     * @param tempDirectory where the cursor is saved
+     */
+    private static void moveYear(RangeFacet.Count count, File tempDirectory) throws Exception {
+        long totalRecords = count.getCount();
+
+        //Create a range query from this !
+        //We start with out current year
+        DCDate dcStart = new DCDate(count.getValue());
+        Calendar endDate = Calendar.getInstance();
+        //Advance one year for the start of the next one !
+        endDate.setTime(dcStart.toDate());
+        endDate.add(Calendar.YEAR, 1);
+        DCDate dcEndDate = new DCDate(endDate.getTime());
+
+
+        StringBuilder filterQuery = new StringBuilder();
+        filterQuery.append("time:([");
+        filterQuery.append(ClientUtils.escapeQueryChars(dcStart.toString()));
+        filterQuery.append(" TO ");
+        filterQuery.append(ClientUtils.escapeQueryChars(dcEndDate.toString()));
+        filterQuery.append("]");
+        //The next part of the filter query excludes the content from midnight of the next year !
+        filterQuery.append(" NOT ").append(ClientUtils.escapeQueryChars(dcEndDate.toString()));
+        filterQuery.append(")");
+
+        //Start by creating the core, or reusing it if an earlier run created it
+        String coreName = "statistics-" + dcStart.getYear();
+        final HttpSolrServer statisticsYearServer = createCore(solr, coreName);
+        try {
 
-                statisticsYearServer.request(contentStreamUpdateRequest);
+            //Resume from the last position saved, if the previous run was interrupted
+            final File cursorFile = new File(tempDirectory, coreName + ".cursor");
+            String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+            if (cursorFile.exists()) {
+                cursorMark = FileUtils.readFileToString(cursorFile, "UTF-8").trim();
+                System.out.println("Resuming the move of " + totalRecords + " records into core " + coreName);
+            } else {
+                System.out.println("Moving: " + totalRecords + " into core " + coreName);
             }
+            log.info("Moving: " + totalRecords + " records into core " + coreName);
+
+            SolrQuery yearQuery = new SolrQuery("*:*");
+            yearQuery.addFilterQuery(filterQuery.toString());
+            yearQuery.setRows(PAGE_SIZE);
+            forEachPage(solr, yearQuery, cursorMark, new PageHandler() {
+                private int pages = 0;
+
+                public void handle(SolrDocumentList docs, String nextCursorMark) throws Exception {
+                    List<SolrInputDocument> inputs = new ArrayList<SolrInputDocument>(docs.size());
+                    for (SolrDocument doc : docs) {
+                        SolrInputDocument input = ClientUtils.toSolrInputDocument(doc);
+                        input.removeField("_version_");
+                        inputs.add(input);
+                    }
+                    statisticsYearServer.add(inputs);
+
+                    //Save the position once what was moved before it is committed
+                    if (++pages % CHECKPOINT_PAGES == 0) {
+                        statisticsYearServer.commit();
+                        FileUtils.writeStringToFile(cursorFile, nextCursorMark, "UTF-8");
+                    }
+                }
+            });
             statisticsYearServer.commit(true, true);
 
 
             //Delete contents of this year from our year query !
             solr.deleteByQuery(filterQuery.toString());
             solr.commit(true, true);
-
-            log.info("Moved " + totalRecords + " records into core: " + coreName);
+            cursorFile.delete();
+        } finally {
+            statisticsYearServer.shutdown();
         }
 
-        FileUtils.deleteDirectory(tempDirectory);
+        log.info("Moved " + totalRecords + " records into core: " + coreName);
     }
 
+    /**
+     * Create a year core, unless Solr already has it (as after an interrupted
+     * sharding, or when the core was loaded before).
+     */
     private static HttpSolrServer createCore(HttpSolrServer solr, String coreName) throws IOException, SolrServerException {
         String solrDir = ConfigurationManager.getProperty("dspace.dir") + File.separator + "solr" +File.separator;
         String baseSolrUrl = solr.getBaseURL().replace("statistics", "");
-        CoreAdminRequest.Create create = new CoreAdminRequest.Create();
-        create.setCoreName(coreName);
-        create.setInstanceDir("statistics");
-        create.setDataDir(solrDir + coreName + File.separator + "data");
         HttpSolrServer solrServer = new HttpSolrServer(baseSolrUrl);
-        create.process(solrServer);
-        log.info("Created core with name: " + coreName);
+        try {
+            NamedList<Object> coreStatus = CoreAdminRequest.getStatus(coreName, solrServer).getCoreStatus(coreName);
+            if (coreStatus != null && coreStatus.size() > 0) {
+                log.info("Using existing core with name: " + coreName);
+            } else {
+                CoreAdminRequest.Create create = new CoreAdminRequest.Create();
+                create.setCoreName(coreName);
+                create.setInstanceDir("statistics");
+                create.setDataDir(solrDir + coreName + File.separator + "data");
+                create.process(solrServer);
+                log.info("Created core with name: " + coreName);
+            }
+        } finally {
+            solrServer.shutdown();
+        }
         return new HttpSolrServer(baseSolrUrl + "/" + coreName);
     }
 
 
-    public static void reindexBitstreamHits(boolean removeDeletedBitstreams) throws Exception {
-        Context context = new Context();
+    public static void reindexBitstreamHits(final boolean removeDeletedBitstreams) throws Exception {
+        final Context context = new Context();
+        List<HttpSolrServer> cores = getCores();
 
         try {
-            //First of all retrieve the total number of records to be updated
-            SolrQuery query = new SolrQuery();
-            query.setQuery("*:*");
-            query.addFilterQuery("type:" + Constants.BITSTREAM);
-            //Only retrieve records which do not have a bundle name
-            query.addFilterQuery("-bundleName:[* TO *]");
-            query.setRows(0);
-            addAdditionalSolrYearCores(query);
-            long totalRecords = solr.query(query).getResults().getNumFound();
-
-            File tempDirectory = new File(ConfigurationManager.getProperty("dspace.dir") + File.separator + "temp" + File.separator);
-            tempDirectory.mkdirs();
-            List<File> tempCsvFiles = new ArrayList<File>();
-            for(int i = 0; i < totalRecords; i+=10000){
-                Map<String, String> params = new HashMap<String, String>();
-                params.put(CommonParams.Q, "*:*");
-                params.put(CommonParams.FQ, "-bundleName:[* TO *] AND type:" + Constants.BITSTREAM);
-                params.put(CommonParams.WT, "csv");
-                params.put(CommonParams.ROWS, String.valueOf(10000));
-                params.put(CommonParams.START, String.valueOf(i));
-
-                String solrRequestUrl = solr.getBaseURL() + "/select";
-                solrRequestUrl = generateURL(solrRequestUrl, params);
-
-                HttpGet get = new HttpGet(solrRequestUrl);
-                HttpResponse response = new DefaultHttpClient().execute(get);
-
-                InputStream  csvOutput = response.getEntity().getContent();
-                Reader csvReader = new InputStreamReader(csvOutput);
-                List<String[]> rows = new CSVReader(csvReader).readAll();
-                String[][] csvParsed = rows.toArray(new String[rows.size()][]);
-                String[] header = csvParsed[0];
-                //Attempt to find the bitstream id index !
-                int idIndex = 0;
-                for (int j = 0; j < header.length; j++) {
-                    if(header[j].equals("id")){
-                        idIndex = j;
-                    }
-                }
-
-                File tempCsv = new File(tempDirectory.getPath() + File.separatorChar + "temp." + i + ".csv");
-                tempCsvFiles.add(tempCsv);
-                CSVWriter csvp = new CSVWriter(new FileWriter(tempCsv));
-                //csvp.setAlwaysQuote(false);
-
-                //Write the header !
-                csvp.writeNext((String[]) ArrayUtils.add(header, "bundleName"));
-                Map<Integer, String> bitBundleCache = new HashMap<Integer, String>();
-                //Loop over each line (skip the headers though)!
-                for (int j = 1; j < csvParsed.length; j++){
-                    String[] csvLine = csvParsed[j];
-                    //Write the default line !
-                    int bitstreamId = Integer.parseInt(csvLine[idIndex]);
-                    //Attempt to retrieve our bundle name from the cache !
-                    String bundleName = bitBundleCache.get(bitstreamId);
-                    if(bundleName == null){
-                        //Nothing found retrieve the bitstream
-                        Bitstream bitstream = Bitstream.find(context, bitstreamId);
-                        //Attempt to retrieve our bitstream !
-                        if (bitstream != null){
-                            Bundle[] bundles = bitstream.getBundles();
-                            if(bundles != null && 0 < bundles.length){
-                                Bundle bundle = bundles[0];
-                                bundleName = bundle.getName();
-                                context.removeCached(bundle, bundle.getID());
-                            }else{
-                                //No bundle found, we are either a collection or a community logo, check for it !
-                                DSpaceObject parentObject = bitstream.getParentObject();
-                                if(parentObject instanceof Collection){
-                                    bundleName = "LOGO-COLLECTION";
-                                }else
-                                if(parentObject instanceof Community){
-                                    bundleName = "LOGO-COMMUNITY";
-                                }
-                                if(parentObject != null){
-                                    context.removeCached(parentObject, parentObject.getID());
-                                }
+            //The bundle name of each bitstream, null for deleted bitstreams
+            final Map<Integer, String> bitBundleCache = new HashMap<Integer, String>();
+
+            //Only retrieve records which do not have a bundle name, in each core
+            for (final HttpSolrServer core : cores) {
+                SolrQuery query = new SolrQuery("*:*");
+                query.addFilterQuery("type:" + Constants.BITSTREAM);
+                query.addFilterQuery("-bundleName:[* TO *]");
+                query.setFields("uid", "id");
+                query.setRows(PAGE_SIZE);
+
+                forEachPage(core, query, CursorMarkParams.CURSOR_MARK_START, new PageHandler() {
+                    public void handle(SolrDocumentList docs, String nextCursorMark) throws Exception {
+                        List<SolrInputDocument> updates = new ArrayList<SolrInputDocument>();
+                        List<String> deletes = new ArrayList<String>();
+                        for (SolrDocument doc : docs) {
+                            int bitstreamId = Integer.parseInt(String.valueOf(doc.getFieldValue("id")));
+                            if (!bitBundleCache.containsKey(bitstreamId)) {
+                                bitBundleCache.put(bitstreamId, getBundleName(context, bitstreamId));
+                            }
+                            String bundleName = bitBundleCache.get(bitstreamId);
+                            //If we don't have one & we do not need to delete the deleted bitstreams ensure that a BITSTREAM_DELETED bundle name is given !
+                            if (bundleName == null && !removeDeletedBitstreams) {
+                                bundleName = "BITSTREAM_DELETED";
+                            }
 
+                            if (bundleName != null) {
+                                SolrInputDocument update = new SolrInputDocument();
+                                update.addField("uid", doc.getFieldValue("uid"));
+                                update.addField("bundleName", Collections.singletonMap("set", bundleName));
+                                updates.add(update);
+                            } else {
+                                deletes.add(String.valueOf(doc.getFieldValue("uid")));
                             }
-                            //Cache the bundle name
-                            bitBundleCache.put(bitstream.getID(), bundleName);
-                            //Remove the bitstream from cache
-                            context.removeCached(bitstream, bitstreamId);
                         }
-                        //Check if we don't have a bundlename
-                        //If we don't have one & we do not need to delete the deleted bitstreams ensure that a BITSTREAM_DELETED bundle name is given !
-                        if(bundleName == null && !removeDeletedBitstreams){
-                            bundleName = "BITSTREAM_DELETED";
+                        if (!updates.isEmpty()) {
+                            core.add(updates);
+                        }
+                        if (!deletes.isEmpty()) {
+                            core.deleteById(deletes);
                         }
                     }
-                    csvp.writeNext((String[]) ArrayUtils.add(csvLine, bundleName));
-                }
-
-                //Loop over our parsed csv
-                csvp.flush();
-                csvp.close();
-            }
-
-            //Add all the separate csv files
-            for (File tempCsv : tempCsvFiles) {
-                ContentStreamUpdateRequest contentStreamUpdateRequest = new ContentStreamUpdateRequest("/update/csv");
-                contentStreamUpdateRequest.setParam("stream.contentType", "text/plain;charset=utf-8");
-                contentStreamUpdateRequest.setAction(AbstractUpdateRequest.ACTION.COMMIT, true, true);
-                contentStreamUpdateRequest.addFile(tempCsv, "text/plain;charset=utf-8");
-
-                solr.request(contentStreamUpdateRequest);
+                });
+                //Commit everything to wrap up
+                core.commit(true, true);
             }
-
-            //Now that all our new bitstream stats are in place, delete all the old ones !
-            solr.deleteByQuery("-bundleName:[* TO *] AND type:" + Constants.BITSTREAM);
-            //Commit everything to wrap up
-            solr.commit(true, true);
-            //Clean up our directory !
-            FileUtils.deleteDirectory(tempDirectory);
         } catch (Exception e) {
             log.error("Error while updating the bitstream statistics", e);
             throw e;
         } finally {
+            shutdown(cores);
             context.abort();
         }
     }
 
+    /**
+     * @return the name of the first bundle of a bitstream, LOGO-COLLECTION or
+     *         LOGO-COMMUNITY for logos, or null if the bitstream was deleted
+     */
+    private static String getBundleName(Context context, int bitstreamId) throws SQLException {
+        String bundleName = null;
+        Bitstream bitstream = Bitstream.find(context, bitstreamId);
+        //Attempt to retrieve our bitstream !
+        if (bitstream != null){
+            Bundle[] bundles = bitstream.getBundles();
+            if(bundles != null && 0 < bundles.length){
+                Bundle bundle = bundles[0];
+                bundleName = bundle.getName();
+                context.removeCached(bundle, bundle.getID());
+            }else{
+                //No bundle found, we are either a collection or a community logo, check for it !
+                DSpaceObject parentObject = bitstream.getParentObject();
+                if(parentObject instanceof Collection){
+                    bundleName = "LOGO-COLLECTION";
+                }else
+                if(parentObject instanceof Community){
+                    bundleName = "LOGO-COMMUNITY";
+                }
+                if(parentObject != null){
+                    context.removeCached(parentObject, parentObject.getID());
+                }
+
+            }
+            //Remove the bitstream from cache
+            context.removeCached(bitstream, bitstreamId);
+        }
+        return bundleName;
+    }
+
     /**
      * Export all SOLR usage statistics for viewing/downloading content to a flat text file.
      * The file goes to a series
@@ -1506,37 +1829,33 @@ public class SolrLogger
      * @throws Exception
      */
     public static void exportHits() throws Exception {
-        Context context = new Context();
+        final Context context = new Context();
 
-        File tempDirectory = new File(ConfigurationManager.getProperty("dspace.dir") + File.separator + "temp" + File.separator);
+        final File tempDirectory = new File(ConfigurationManager.getProperty("dspace.dir") + File.separator + "temp" + File.separator);
         tempDirectory.mkdirs();
 
         try {
-            //First of all retrieve the total number of records to be updated
-            SolrQuery query = new SolrQuery();
-            query.setQuery("*:*");
-
-            ModifiableSolrParams solrParams = new ModifiableSolrParams();
-            solrParams.set(CommonParams.Q, "statistics_type:view OR (*:* AND -statistics_type:*)");
-            solrParams.set(CommonParams.WT, "javabin");
-            solrParams.set(CommonParams.ROWS, String.valueOf(10000));
-
+            SolrQuery query = new SolrQuery("statistics_type:view OR (*:* AND -statistics_type:*)");
+            query.setRows(PAGE_SIZE);
             addAdditionalSolrYearCores(query);
-            long totalRecords = solr.query(query).getResults().getNumFound();
+
+            //First of all retrieve the total number of records to be exported
+            long totalRecords = solr.query(query.getCopy().setRows(0)).getResults().getNumFound();
             System.out.println("There are " + totalRecords + " usage events in SOLR for download/view.");
 
-            for(int i = 0; i < totalRecords; i+=10000){
-                solrParams.set(CommonParams.START, String.valueOf(i));
-                QueryResponse queryResponse = solr.query(solrParams);
-                SolrDocumentList docs = queryResponse.getResults();
+            forEachPage(solr, query, CursorMarkParams.CURSOR_MARK_START, new PageHandler() {
+                private long start = 0;
 
-                File exportOutput = new File(tempDirectory.getPath() + File.separatorChar + "usagestats_" + i + ".csv");
-                exportOutput.delete();
+                public void handle(SolrDocumentList docs, String nextCursorMark) throws Exception {
+                    File exportOutput = new File(tempDirectory.getPath() + File.separatorChar + "usagestats_" + start + ".csv");
+                    exportOutput.delete();
 
-                //export docs
-                addDocumentsToFile(context, docs, exportOutput);
-                System.out.println("Export hits [" + i + " - " + String.valueOf(i+9999) + "] to " + exportOutput.getCanonicalPath());
-            }
+                    //export docs
+                    addDocumentsToFile(context, docs, exportOutput);
+                    System.out.println("Export hits [" + start + " - " + (start + docs.size() - 1) + "] to " + exportOutput.getCanonicalPath());
+                    start += docs.size();
+                }
+            });
         } catch (Exception e) {
             log.error("Error while exporting SOLR data", e);
             throw e;
@@ -1546,6 +1865,15 @@ public class SolrLogger
     }
 
     private static void addDocumentsToFile(Context context, SolrDocumentList docs, File exportOutput) throws SQLException, ParseException, IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(exportOutput), "UTF-8"));
+        try {
+            addDocumentsToFile(context, docs, writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void addDocumentsToFile(Context context, SolrDocumentList docs, Writer writer) throws SQLException, ParseException, IOException {
         for(SolrDocument doc : docs) {
             String ip = doc.get("ip").toString();
             if(ip.equals("::1")) {
@@ -1571,30 +1899,52 @@ public class SolrLogger
             DateFormat outputDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
 
             String out = time + "," + "view_" + dso.getTypeText().toLowerCase() + "," + id + ","  + outputDateFormat.format(solrDate) + ",anonymous," + ip + "\n";
-            FileUtils.writeStringToFile(exportOutput, out, true);
+            writer.write(out);
 
         }
     }
 
-    private static String generateURL(String baseURL, Map<String, String> parameters) throws UnsupportedEncodingException {
-        boolean first = true;
-        StringBuilder result = new StringBuilder(baseURL);
-        for (String key : parameters.keySet())
+    /**
+     * Handles the pages of documents read by {@link #forEachPage}.
+     */
+    private interface PageHandler
+    {
+        /**
+         * @param docs the documents of the page
+         * @param nextCursorMark the cursor mark to read the pages after this one
+         */
+        void handle(SolrDocumentList docs, String nextCursorMark) throws Exception;
+    }
+
+    /**
+     * Read the documents matching a query a page at a time, with a cursor
+     * on the unique key, so that reading a page costs the same however far
+     * it is. Only one page is held in memory at once.
+     *
+     * @param server the core to read
+     * @param query the query, with the number of rows of a page
+     * @param cursorMark where to start, CURSOR_MARK_START for the beginning
+     * @param handler called with each page
+     */
+    private static void forEachPage(SolrServer server, SolrQuery query, String cursorMark, PageHandler handler)
+            throws Exception
+    {
+        query.setSort("uid", SolrQuery.ORDER.asc);
+        while (true)
         {
-            if (first)
+            query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+            QueryResponse response = server.query(query);
+            String nextCursorMark = response.getNextCursorMark();
+            if (!response.getResults().isEmpty())
             {
-                result.append("?");
-                first = false;
+                handler.handle(response.getResults(), nextCursorMark);
             }
-            else
+            if (cursorMark.equals(nextCursorMark))
             {
-                result.append("&");
+                return;
             }
-
-            result.append(key).append("=").append(URLEncoder.encode(parameters.get(key), "UTF-8"));
+            cursorMark = nextCursorMark;
         }
-
-        return result.toString();
     }
 
     private static void addAdditionalSolrYearCores(SolrQuery solrQuery){
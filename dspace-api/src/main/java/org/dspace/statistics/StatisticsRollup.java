@@ -0,0 +1,656 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateFormatUtils;
+import org.apache.commons.lang.time.DateUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.PivotField;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.NamedList;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Daily view counts, aggregated from the Solr statistics into the
+ * <code>statistics_rollup</code> table, from which the usage reports on
+ * single objects are answered instead of faceting the raw events.
+ * <p>
+ * {@link #update(Context, boolean)} (<code>stats-util -a</code>) counts
+ * the views of each object per day and country, for the days which ended
+ * since it last ran, with the same filters (spiders, bundles) as the report
+ * queries. A report reads the days aggregated so far from the table, and the
+ * views since then from Solr, with a filter on their time. Rollups are only
+ * used when <code>rollup.enabled</code> is set in
+ * <code>solr-statistics.cfg</code>, and once some days have been aggregated.
+ * <p>
+ * A day is aggregated once. Views which reach Solr after their day was
+ * aggregated (replayed from the spill file of {@link AsyncUsageEventWriter},
+ * imported), and views flagged or deleted as spiders since, are only taken
+ * into account once the rollups are rebuilt (<code>stats-util -c</code>).
+ * <p>
+ * Days are UTC days, as the Solr date facets.
+ */
+public class StatisticsRollup
+{
+    private static final Logger log = Logger.getLogger(StatisticsRollup.class);
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /** Only the views, including old events which have no type */
+    private static final String VIEW_FILTER = "-(statistics_type:[* TO *] AND -statistics_type:"
+            + SolrLogger.StatisticsType.VIEW.text() + ")";
+
+    /** Country code of the views without a location */
+    private static final String NO_COUNTRY = "--";
+
+    private static final String TYPE_ID_COUNTRY = "type,id,countryCode";
+
+    private static final String OWNER_ID = "owningItem,id";
+
+    private final Context context;
+
+    /** Type of the date facet (DAY, MONTH, YEAR), null if there is none */
+    private final String dateType;
+
+    private final String dateStart;
+
+    private final String dateEnd;
+
+    /** Start of each bucket of the date facet, and end of the last one */
+    private final List<Calendar> buckets;
+
+    /** First day counted (yyyymmdd) */
+    private final int fromDay;
+
+    /** Day after the last one counted */
+    private final int toDay;
+
+    /** Day after the last one aggregated, the views since then are read from Solr */
+    private final int tailDay;
+
+    private StatisticsRollup(Context context, String dateType, String dateStart, String dateEnd,
+            List<Calendar> buckets, int lastDay)
+    {
+        this.context = context;
+        this.dateType = dateType;
+        this.dateStart = dateStart;
+        this.dateEnd = dateEnd;
+        this.buckets = buckets;
+        if (buckets != null)
+        {
+            fromDay = toDay(buckets.get(0));
+            toDay = toDay(buckets.get(buckets.size() - 1));
+        }
+        else
+        {
+            fromDay = 0;
+            toDay = Integer.MAX_VALUE;
+        }
+        Calendar tail = fromDay(lastDay);
+        tail.add(Calendar.DATE, 1);
+        tailDay = toDay(tail);
+    }
+
+    /**
+     * Get the rollups for the reports over a period, as given to the date
+     * facet of {@link SolrLogger#queryFacetDate}, or over all time.
+     *
+     * @param context
+     *            the DSpace context
+     * @param dateType
+     *            DAY, MONTH or YEAR, or null for all time
+     * @param dateStart
+     *            start of the period, relative to today (-6, ...)
+     * @param dateEnd
+     *            end of the period, relative to today (+1, ...)
+     * @return the rollups, or null if they are disabled, not aggregated yet
+     *         or if the period cannot be answered from daily counts
+     * @throws SQLException
+     */
+    public static StatisticsRollup open(Context context, String dateType, String dateStart, String dateEnd)
+            throws SQLException
+    {
+        if (!isEnabled())
+        {
+            return null;
+        }
+
+        List<Calendar> buckets = null;
+        if (dateType != null)
+        {
+            buckets = getBuckets(dateType, dateStart, dateEnd);
+            if (buckets == null)
+            {
+                return null;
+            }
+        }
+
+        int lastDay = getLastDay(context);
+        if (lastDay == -1)
+        {
+            return null;
+        }
+        return new StatisticsRollup(context, dateType, dateStart, dateEnd, buckets, lastDay);
+    }
+
+    /**
+     * @return true if the reports should be answered from the rollups
+     */
+    public static boolean isEnabled()
+    {
+        return ConfigurationManager.getBooleanProperty("solr-statistics", "rollup.enabled", false);
+    }
+
+    /**
+     * Count the views of an object in each bucket of the date facet, as
+     * {@link SolrLogger#queryFacetDate} does.
+     *
+     * @param dsoType
+     *            type of the object
+     * @param dsoId
+     *            id of the object
+     * @param query
+     *            the Solr query matching the views of the object
+     * @param filterQuery
+     *            the Solr filter of the report
+     * @param showTotal
+     *            whether the total should be given back as the last element
+     * @return the counts, labelled as by Solr
+     */
+    public ObjectCount[] queryFacetDate(int dsoType, int dsoId, String query, String filterQuery,
+            boolean showTotal) throws SQLException, SolrServerException
+    {
+        if (buckets == null)
+        {
+            throw new IllegalStateException("No date facet");
+        }
+
+        int count = buckets.size() - 1;
+        int[] bucketDays = new int[count + 1];
+        for (int i = 0; i <= count; i++)
+        {
+            bucketDays[i] = toDay(buckets.get(i));
+        }
+
+        long[] views = new long[count];
+        if (fromDay < tailDay)
+        {
+            TableRowIterator tri = DatabaseManager.query(context,
+                    "SELECT view_day, SUM(view_count) AS views FROM statistics_rollup"
+                    + " WHERE dso_type = ? AND dso_id = ? AND view_day >= ? AND view_day < ?"
+                    + " GROUP BY view_day",
+                    dsoType, dsoId, fromDay, Math.min(toDay, tailDay));
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    int day = (int) row.getLongColumn("view_day");
+                    for (int i = 0; i < count; i++)
+                    {
+                        if (day < bucketDays[i + 1])
+                        {
+                            views[i] += row.getLongColumn("views");
+                            break;
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+
+        String[] labels = new String[count];
+        for (int i = 0; i < count; i++)
+        {
+            labels[i] = SolrLogger.getDateView(
+                    format(buckets.get(i)), dateType, context);
+        }
+
+        if (tailDay < toDay)
+        {
+            ObjectCount[] tail = SolrLogger.queryFacetDate(query, getTailFilter(filterQuery), -1,
+                    dateType, dateStart, dateEnd, false, context);
+            for (ObjectCount tailCount : tail)
+            {
+                for (int i = 0; i < count; i++)
+                {
+                    if (labels[i].equals(tailCount.getValue()))
+                    {
+                        views[i] += tailCount.getCount();
+                        break;
+                    }
+                }
+            }
+        }
+
+        ObjectCount[] result = new ObjectCount[count + (showTotal ? 1 : 0)];
+        long total = 0;
+        for (int i = 0; i < count; i++)
+        {
+            result[i] = new ObjectCount();
+            result[i].setValue(labels[i]);
+            result[i].setCount(views[i]);
+            total += views[i];
+        }
+        if (showTotal)
+        {
+            result[count] = new ObjectCount();
+            result[count].setValue("total");
+            result[count].setCount(total);
+        }
+        return result;
+    }
+
+    /**
+     * Count the views of an object over the period, as
+     * {@link SolrLogger#queryFacetField} on "id" does.
+     */
+    public ObjectCount[] queryObject(int dsoType, int dsoId, String query, String filterQuery)
+            throws SQLException, SolrServerException
+    {
+        return queryFacetField("dso_id", "dso_type = ? AND dso_id = ?", new Object[] { dsoType, dsoId },
+                "id", 1, query, filterQuery);
+    }
+
+    /**
+     * Count the views of the bitstreams of an item over the period, as
+     * {@link SolrLogger#queryFacetField} on "id" does.
+     *
+     * @param itemId
+     *            id of the item
+     * @param max
+     *            number of bitstreams given back, -1 for all
+     */
+    public ObjectCount[] queryItemBitstreams(int itemId, int max, String query, String filterQuery)
+            throws SQLException, SolrServerException
+    {
+        return queryFacetField("dso_id", "dso_type = ? AND owning_item = ?",
+                new Object[] { Constants.BITSTREAM, itemId }, "id", max, query, filterQuery);
+    }
+
+    /**
+     * Count the views of an object per country over the period, as
+     * {@link SolrLogger#queryFacetField} on "countryCode" does.
+     *
+     * @param max
+     *            number of countries given back, -1 for all
+     */
+    public ObjectCount[] queryCountries(int dsoType, int dsoId, int max, String query, String filterQuery)
+            throws SQLException, SolrServerException
+    {
+        return queryFacetField("country_code", "dso_type = ? AND dso_id = ? AND country_code <> '" + NO_COUNTRY + "'",
+                new Object[] { dsoType, dsoId }, "countryCode", max, query, filterQuery);
+    }
+
+    private ObjectCount[] queryFacetField(String column, String where, Object[] parameters,
+            String facetField, int max, String query, String filterQuery)
+            throws SQLException, SolrServerException
+    {
+        Map<String, Long> views = new HashMap<String, Long>();
+        if (fromDay < tailDay)
+        {
+            Object[] dayParameters = new Object[parameters.length + 2];
+            System.arraycopy(parameters, 0, dayParameters, 0, parameters.length);
+            dayParameters[parameters.length] = fromDay;
+            dayParameters[parameters.length + 1] = Math.min(toDay, tailDay);
+
+            TableRowIterator tri = DatabaseManager.query(context,
+                    "SELECT " + column + " AS facet_value, SUM(view_count) AS views FROM statistics_rollup"
+                    + " WHERE " + where + " AND view_day >= ? AND view_day < ? GROUP BY " + column,
+                    dayParameters);
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    String value = "dso_id".equals(column) ? String.valueOf(row.getLongColumn("facet_value"))
+                            : row.getStringColumn("facet_value");
+                    views.put(value, row.getLongColumn("views"));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+
+        if (tailDay < toDay)
+        {
+            ObjectCount[] tail = SolrLogger.queryFacetField(query, getTailFilter(filterQuery), facetField, -1,
+                    false, null);
+            for (ObjectCount tailCount : tail)
+            {
+                Long count = views.get(tailCount.getValue());
+                views.put(tailCount.getValue(), (count != null ? count : 0) + tailCount.getCount());
+            }
+        }
+
+        List<ObjectCount> result = new ArrayList<ObjectCount>(views.size());
+        for (Map.Entry<String, Long> entry : views.entrySet())
+        {
+            ObjectCount count = new ObjectCount();
+            count.setValue(entry.getKey());
+            count.setCount(entry.getValue());
+            result.add(count);
+        }
+        // most viewed first, as the Solr facets
+        Collections.sort(result, new Comparator<ObjectCount>()
+        {
+            public int compare(ObjectCount first, ObjectCount second)
+            {
+                if (first.getCount() != second.getCount())
+                {
+                    return first.getCount() > second.getCount() ? -1 : 1;
+                }
+                return first.getValue().compareTo(second.getValue());
+            }
+        });
+        if (max != -1 && max < result.size())
+        {
+            result = result.subList(0, max);
+        }
+        return result.toArray(new ObjectCount[result.size()]);
+    }
+
+    /**
+     * Restrict a report filter to the views which are not aggregated yet.
+     */
+    private String getTailFilter(String filterQuery)
+    {
+        String tail = "time:[" + format(fromDay(tailDay)) + " TO *]";
+        return StringUtils.isNotBlank(filterQuery) ? filterQuery + " AND " + tail : tail;
+    }
+
+    /**
+     * Aggregate the views of the days which ended since the last update.
+     * The days aggregated before are not read again, even if their views
+     * changed in Solr since: rebuild them for that.
+     *
+     * @param context
+     *            the DSpace context, committed after each day
+     * @param rebuild
+     *            true to drop the rollups and aggregate all the views again,
+     *            after views were removed from or marked in Solr
+     * @throws SQLException
+     * @throws SolrServerException
+     */
+    public static void update(Context context, boolean rebuild) throws SQLException, SolrServerException
+    {
+        if (rebuild)
+        {
+            DatabaseManager.updateQuery(context, "DELETE FROM statistics_rollup");
+            context.commit();
+        }
+
+        Calendar day;
+        int lastDay = getLastDay(context);
+        if (lastDay != -1)
+        {
+            day = fromDay(lastDay);
+            day.add(Calendar.DATE, 1);
+        }
+        else
+        {
+            Date first = getFirstViewTime();
+            if (first == null)
+            {
+                log.info("No views to aggregate");
+                return;
+            }
+            day = Calendar.getInstance(UTC);
+            day.setTime(first);
+            day = DateUtils.truncate(day, Calendar.DATE);
+        }
+
+        Calendar today = DateUtils.truncate(Calendar.getInstance(UTC), Calendar.DATE);
+        while (day.before(today))
+        {
+            int rows = aggregateDay(context, day);
+            context.commit();
+            log.info("Aggregated " + rows + " view counts of " + toDay(day));
+            day.add(Calendar.DATE, 1);
+        }
+    }
+
+    /**
+     * Store the view counts of a day, in place of those stored before.
+     *
+     * @return the number of counts stored
+     */
+    private static int aggregateDay(Context context, Calendar day) throws SQLException, SolrServerException
+    {
+        Calendar next = (Calendar) day.clone();
+        next.add(Calendar.DATE, 1);
+        String dayFilter = VIEW_FILTER + " AND time:[" + format(day)
+                + " TO " + format(next) + "}";
+
+        QueryResponse response = SolrLogger.queryFacetPivot("*:*", dayFilter, TYPE_ID_COUNTRY, OWNER_ID);
+        if (response == null)
+        {
+            throw new SolrServerException("Solr statistics are not available");
+        }
+        NamedList<List<PivotField>> pivots = response.getFacetPivot();
+
+        // the item owning each bitstream viewed
+        Map<Integer, Integer> owners = new HashMap<Integer, Integer>();
+        List<PivotField> ownerPivot = pivots.get(OWNER_ID);
+        if (ownerPivot != null)
+        {
+            for (PivotField owner : ownerPivot)
+            {
+                for (PivotField bitstream : getChildren(owner))
+                {
+                    if (!owners.containsKey(toInt(bitstream.getValue())))
+                    {
+                        owners.put(toInt(bitstream.getValue()), toInt(owner.getValue()));
+                    }
+                }
+            }
+        }
+
+        int dayValue = toDay(day);
+        DatabaseManager.updateQuery(context, "DELETE FROM statistics_rollup WHERE view_day = ?", dayValue);
+
+        int rows = 0;
+        List<PivotField> typePivot = pivots.get(TYPE_ID_COUNTRY);
+        if (typePivot == null)
+        {
+            return rows;
+        }
+
+        PreparedStatement stmt = null;
+        try
+        {
+            stmt = context.getDBConnection().prepareStatement("INSERT INTO statistics_rollup"
+                    + " (dso_type, dso_id, view_day, country_code, owning_item, view_count)"
+                    + " VALUES (?, ?, ?, ?, ?, ?)");
+            for (PivotField type : typePivot)
+            {
+                int dsoType = toInt(type.getValue());
+                for (PivotField object : getChildren(type))
+                {
+                    int dsoId = toInt(object.getValue());
+                    Integer owner = dsoType == Constants.BITSTREAM ? owners.get(dsoId) : null;
+
+                    // views with a country, and the others
+                    Map<String, Integer> countries = new LinkedHashMap<String, Integer>();
+                    int located = 0;
+                    for (PivotField country : getChildren(object))
+                    {
+                        countries.put(String.valueOf(country.getValue()), country.getCount());
+                        located += country.getCount();
+                    }
+                    if (located < object.getCount())
+                    {
+                        countries.put(NO_COUNTRY, object.getCount() - located);
+                    }
+
+                    for (Map.Entry<String, Integer> country : countries.entrySet())
+                    {
+                        stmt.setInt(1, dsoType);
+                        stmt.setInt(2, dsoId);
+                        stmt.setInt(3, dayValue);
+                        stmt.setString(4, country.getKey());
+                        if (owner != null)
+                        {
+                            stmt.setInt(5, owner);
+                        }
+                        else
+                        {
+                            stmt.setNull(5, java.sql.Types.INTEGER);
+                        }
+                        stmt.setInt(6, country.getValue());
+                        stmt.addBatch();
+                        rows++;
+                    }
+                }
+            }
+            stmt.executeBatch();
+        }
+        finally
+        {
+            if (stmt != null)
+            {
+                stmt.close();
+            }
+        }
+        return rows;
+    }
+
+    private static List<PivotField> getChildren(PivotField field)
+    {
+        List<PivotField> children = field.getPivot();
+        return children != null ? children : Collections.<PivotField>emptyList();
+    }
+
+    private static int toInt(Object value)
+    {
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(String.valueOf(value));
+    }
+
+    /**
+     * @return the time of the first view in Solr, or null if there is none
+     */
+    private static Date getFirstViewTime() throws SolrServerException
+    {
+        QueryResponse response = SolrLogger.query("*:*", VIEW_FILTER, null, 1, -1, null, null, null, null,
+                "time", true);
+        if (response == null)
+        {
+            throw new SolrServerException("Solr statistics are not available");
+        }
+        SolrDocumentList results = response.getResults();
+        return results.isEmpty() ? null : (Date) results.get(0).getFieldValue("time");
+    }
+
+    /**
+     * @return the last day aggregated (yyyymmdd), -1 if there is none
+     */
+    private static int getLastDay(Context context) throws SQLException
+    {
+        TableRow row = DatabaseManager.querySingle(context,
+                "SELECT MAX(view_day) AS last_day FROM statistics_rollup");
+        return row != null ? (int) row.getLongColumn("last_day") : -1;
+    }
+
+    /**
+     * Compute the buckets of a Solr date facet from NOW/TYPE+START to
+     * NOW/TYPE+END, by steps of +1TYPE.
+     *
+     * @return the start of each bucket and the end of the last one, or null
+     *         if the type is not made of whole days
+     */
+    private static List<Calendar> getBuckets(String dateType, String dateStart, String dateEnd)
+    {
+        int field;
+        if ("DAY".equals(dateType))
+        {
+            field = Calendar.DATE;
+        }
+        else if ("MONTH".equals(dateType))
+        {
+            field = Calendar.MONTH;
+        }
+        else if ("YEAR".equals(dateType))
+        {
+            field = Calendar.YEAR;
+        }
+        else
+        {
+            return null;
+        }
+
+        int start;
+        int end;
+        try
+        {
+            start = Integer.parseInt(dateStart.trim());
+            end = Integer.parseInt(dateEnd.trim());
+        }
+        catch (RuntimeException e)
+        {
+            return null;
+        }
+
+        Calendar now = DateUtils.truncate(Calendar.getInstance(UTC), field);
+        List<Calendar> buckets = new ArrayList<Calendar>();
+        for (int i = start; i <= end; i++)
+        {
+            Calendar bucket = (Calendar) now.clone();
+            bucket.add(field, i);
+            buckets.add(bucket);
+        }
+        return buckets.size() > 1 ? buckets : null;
+    }
+
+    /**
+     * @return the time, in the format of Solr dates
+     */
+    private static String format(Calendar calendar)
+    {
+        return DateFormatUtils.format(calendar.getTime(), SolrLogger.DATE_FORMAT_DCDATE, UTC);
+    }
+
+    private static int toDay(Calendar calendar)
+    {
+        return calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100
+                + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    private static Calendar fromDay(int day)
+    {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.clear();
+        calendar.set(day / 10000, day / 100 % 100 - 1, day % 100);
+        return calendar;
+    }
+}
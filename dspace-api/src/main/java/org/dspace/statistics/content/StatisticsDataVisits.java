@@ -12,6 +12,7 @@ import org.dspace.content.*;
 import org.dspace.statistics.Dataset;
 import org.dspace.statistics.ObjectCount;
 import org.dspace.statistics.SolrLogger;
+import org.dspace.statistics.StatisticsRollup;
 import org.dspace.statistics.content.filter.StatisticsFilter;
 import org.dspace.statistics.content.filter.StatisticsSolrDateFilter;
 import org.dspace.statistics.util.LocationUtils;
@@ -129,6 +130,22 @@ public class StatisticsDataVisits extends StatisticsData
             showTotal = true;
         }
 
+        // The rollups count the views per object, day and country: they
+        // answer a single query over whole days, without other filters
+        StatisticsRollup rollup = null;
+        if (datasetQueries.size() == 1 && getFilters().isEmpty())
+        {
+            if (dateFacet == null)
+            {
+                rollup = StatisticsRollup.open(context, null, null, null);
+            }
+            else if (dateFacet.getActualStartDate() == null)
+            {
+                rollup = StatisticsRollup.open(context, dateFacet.getDateType(),
+                        dateFacet.getStartDate(), dateFacet.getEndDate());
+            }
+        }
+
         if (dateFacet != null && dateFacet.getActualStartDate() != null
                 && dateFacet.getActualEndDate() != null)
         {
@@ -181,10 +198,11 @@ public class StatisticsDataVisits extends StatisticsData
                 if(dataSetQuery.getQueries().size() != 1){
                     // TODO: do this
                 }else{
-                    String query = dataSetQuery.getQueries().get(0).getQuery();
+                    Query firstQuery = dataSetQuery.getQueries().get(0);
+                    String query = firstQuery.getQuery();
                     if(dataSetQuery.getMax() == -1){
                         // We are asking from our current query all the visits faceted by date
-                        ObjectCount[] results = SolrLogger.queryFacetDate(query, filterQuery, dataSetQuery.getMax(), dateFacet.getDateType(), dateFacet.getStartDate(), dateFacet.getEndDate(), showTotal, context);
+                        ObjectCount[] results = queryFacetDate(rollup, firstQuery.getDsoType(), firstQuery.getOwningDso() == null ? firstQuery.getDsoId() : -1, query, filterQuery, dataSetQuery.getMax(), dateFacet, showTotal, context);
                         dataset = new Dataset(1, results.length);
                         // Now that we have our results put em in a matrix
                         for(int j = 0; j < results.length; j++){
@@ -197,11 +215,12 @@ public class StatisticsDataVisits extends StatisticsData
                         dataset.setRowLabelAttr(0, getAttributes(dataSetQuery.getName(), dataSetQuery, context));
                     }else{
                         // We need to get the max objects and the next part of the query on them (next part beeing the datasettimequery
-                        ObjectCount[] maxObjectCounts = SolrLogger.queryFacetField(query, filterQuery, dataSetQuery.getFacetField(), dataSetQuery.getMax(), false, null);
+                        ObjectCount[] maxObjectCounts = queryFacetField(rollup, dataSetQuery, query, filterQuery);
                         for (int j = 0; j < maxObjectCounts.length; j++) {
                             ObjectCount firstCount = maxObjectCounts[j];
                             String newQuery = dataSetQuery.getFacetField() + ": " + ClientUtils.escapeQueryChars(firstCount.getValue()) + " AND " + query;
-                            ObjectCount[] maxDateFacetCounts = SolrLogger.queryFacetDate(newQuery, filterQuery, dataSetQuery.getMax(), dateFacet.getDateType(), dateFacet.getStartDate(), dateFacet.getEndDate(), showTotal, context);
+                            int objectId = rollup != null && "id".equals(dataSetQuery.getFacetField()) ? Integer.parseInt(firstCount.getValue()) : -1;
+                            ObjectCount[] maxDateFacetCounts = queryFacetDate(rollup, firstQuery.getDsoType(), objectId, newQuery, filterQuery, dataSetQuery.getMax(), dateFacet, showTotal, context);
 
 
                             // Make sure we have a dataSet
@@ -249,7 +268,7 @@ public class StatisticsDataVisits extends StatisticsData
 
             ObjectCount[] topCounts1 = null;
 //            if(firsDataset.getQueries().size() == 1){
-            topCounts1 = queryFacetField(firsDataset, firsDataset.getQueries().get(0).getQuery(), filterQuery);
+            topCounts1 = queryFacetField(rollup, firsDataset, firsDataset.getQueries().get(0).getQuery(), filterQuery);
 //            }else{
 //                TODO: do this
 //            }
@@ -257,7 +276,7 @@ public class StatisticsDataVisits extends StatisticsData
             if(datasetQueries.size() == 2){
                 DatasetQuery secondDataSet = datasetQueries.get(1);
                 // Now do the second one
-                ObjectCount[] topCounts2 = queryFacetField(secondDataSet, secondDataSet.getQueries().get(0).getQuery(), filterQuery);
+                ObjectCount[] topCounts2 = queryFacetField(rollup, secondDataSet, secondDataSet.getQueries().get(0).getQuery(), filterQuery);
                 // Now that have results for both of them lets do x.y queries
                 List<String> facetQueries = new ArrayList<String>();
                 for (ObjectCount count2 : topCounts2) {
@@ -639,15 +658,60 @@ public class StatisticsDataVisits extends StatisticsData
     }
 
 
-    private ObjectCount[] queryFacetField(DatasetQuery dataset, String query,
-            String filterQuery) throws SolrServerException
+    /**
+     * Count the views faceted on the field of a dataset, from the rollups
+     * when they hold the counts asked for: those of an object, of the
+     * bitstreams of an item, or of an object per country.
+     *
+     * @param rollup the rollups of the report, null to query Solr
+     */
+    private ObjectCount[] queryFacetField(StatisticsRollup rollup, DatasetQuery dataset, String query,
+            String filterQuery) throws SQLException, SolrServerException
     {
         String facetType = dataset.getFacetField() == null ? "id" : dataset
                 .getFacetField();
+        if (rollup != null && dataset.getQueries().size() == 1)
+        {
+            Query q = dataset.getQueries().get(0);
+            boolean singleObject = q.getOwningDso() == null && q.getDsoId() != -1 && q.getDsoType() != -1;
+            if ("id".equals(facetType) && singleObject)
+            {
+                return rollup.queryObject(q.getDsoType(), q.getDsoId(), query, filterQuery);
+            }
+            if ("id".equals(facetType) && q.getOwningDso() != null && q.getDsoId() == -1
+                    && q.getDsoType() == Constants.BITSTREAM && currentDso.getType() == Constants.ITEM)
+            {
+                return rollup.queryItemBitstreams(currentDso.getID(), dataset.getMax(), query, filterQuery);
+            }
+            if ("countryCode".equals(facetType) && singleObject)
+            {
+                return rollup.queryCountries(q.getDsoType(), q.getDsoId(), dataset.getMax(), query, filterQuery);
+            }
+        }
         return SolrLogger.queryFacetField(query, filterQuery, facetType,
                 dataset.getMax(), false, null);
     }
 
+    /**
+     * Count the views faceted by date, from the rollups when the query is
+     * about a single object.
+     *
+     * @param rollup the rollups of the report, null to query Solr
+     * @param dsoType the type of the object, -1 if the query is not on one type
+     * @param dsoId the id of the object, -1 if the query is not on one object
+     */
+    private ObjectCount[] queryFacetDate(StatisticsRollup rollup, int dsoType, int dsoId, String query,
+            String filterQuery, int max, DatasetTimeGenerator dateFacet, boolean showTotal, Context context)
+            throws SQLException, SolrServerException
+    {
+        if (rollup != null && dsoType != -1 && dsoId != -1)
+        {
+            return rollup.queryFacetDate(dsoType, dsoId, query, filterQuery, showTotal);
+        }
+        return SolrLogger.queryFacetDate(query, filterQuery, max, dateFacet.getDateType(),
+                dateFacet.getStartDate(), dateFacet.getEndDate(), showTotal, context);
+    }
+
     public static class DatasetQuery {
         private String name;
         private int max;
@@ -709,6 +773,10 @@ public class StatisticsDataVisits extends StatisticsData
                 this.owningDso = owningDso;
             }
 
+            public DSpaceObject getOwningDso() {
+                return owningDso;
+            }
+
             public void setDso(int dsoId, int dsoType){
                 this.dsoId = dsoId;
                 this.dsoType = dsoType;
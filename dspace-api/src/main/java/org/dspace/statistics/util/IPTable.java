@@ -7,184 +7,522 @@
  */
 package org.dspace.statistics.util;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
 /**
- * A Spare v4 IPTable implementation that uses nested HashMaps
- * to optimize IP address matching over ranges of IP addresses.
+ * A table of IP address ranges, optimized for matching single addresses
+ * against tens of thousands of ranges.
+ * <p>
+ * Both IPv4 and IPv6 are supported. Addresses are kept as 128-bit numbers
+ * (IPv4 addresses are stored as IPv4-mapped IPv6 addresses), the ranges are
+ * merged into sorted arrays of (start, end) pairs and looked up with a binary
+ * search. Parsing and lookup of IPv4 addresses do not allocate.
  *
  * @author mdiggory at atmire.com
  */
 public class IPTable {
 
-    /* A lookup tree for IP addresses and SubnetRanges */
-    private Map<String, Map<String, Map<String, Set<String>>>> map =
-            new HashMap<String, Map<String, Map<String, Set<String>>>>();
+    /** Upper 64 bits of an IPv4-mapped IPv6 address: all zeroes */
+    private static final long IPV4_MAPPED_HI = 0L;
 
-    /**
-     * Can be full v4 IP, subnet or range string
-     *
-     * @param ip
-     */
-    public void add(String ip) throws IPFormatException {
+    /** Lower 64 bits of an IPv4-mapped IPv6 address, without the IPv4 address */
+    private static final long IPV4_MAPPED_LO = 0x0000ffff00000000L;
 
-        String[] start;
+    /** IPv4 ranges with more addresses than this are listed as start-end by {@link #toSet()} */
+    private static final long MAX_LISTED_IPV4 = 0x10000L;
 
-        String[] end;
+    /** Ranges added since the last lookup, as {startHi, startLo, endHi, endLo} */
+    private final List<long[]> pending = new ArrayList<long[]>();
 
-        String[] range = ip.split("-");
+    /** True while {@link #pending} is not empty, so lookups can skip the lock */
+    private volatile boolean dirty = false;
 
-        if (range.length >= 2) {
+    /** Merged ranges, sorted by start address */
+    private volatile Ranges ranges = new Ranges(new long[0], new long[0], new long[0], new long[0]);
 
-            start = range[0].trim().split("/")[0].split("\\.");
-            end = range[1].trim().split("/")[0].split("\\.");
+    /** Scratch space for parsing IPv6 addresses without allocating per lookup */
+    private static final ThreadLocal<long[]> scratch = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
 
-            if (start.length != 4 || end.length != 4)
-            {
-                throw new IPFormatException(ip + " - Ranges need to be full IPv4 Addresses");
+    /**
+     * Add an address or a range of addresses. Accepted forms are:
+     * <ul>
+     *  <li>a single IPv4 or IPv6 address: {@code 192.168.0.1}, {@code 2001:db8::1}</li>
+     *  <li>the first one to three parts of an IPv4 address, matching all
+     *  addresses starting with them: {@code 192.168.0}</li>
+     *  <li>CIDR notation: {@code 192.168.0.0/16}, {@code 2001:db8::/32}</li>
+     *  <li>a range of addresses of the same family: {@code 192.168.0.1 - 192.168.3.254}</li>
+     * </ul>
+     *
+     * @param ip the address or range
+     * @throws IPFormatException if it is none of the above
+     */
+    public void add(String ip) throws IPFormatException {
+        String value = ip.trim();
+        long[] range;
+
+        int dash = value.indexOf('-');
+        if (dash >= 0) {
+            // Old style ranges could carry a netmask on each end, which was ignored
+            long[] start = parseAddress(stripMask(value.substring(0, dash)), ip);
+            long[] end = parseAddress(stripMask(value.substring(dash + 1)), ip);
+            if (isIPv4(start[0], start[1]) != isIPv4(end[0], end[1])) {
+                throw new IPFormatException(ip + " - Ranges can not mix IPv4 and IPv6 addresses");
             }
-
-            if (!(start[0].equals(end[0]) && start[1].equals(end[1]) && start[2].equals(end[2]))) {
-                throw new IPFormatException(ip + " - Ranges can only be across the last subnet x.y.z.0 - x.y.z.254");
+            if (compare(start[0], start[1], end[0], end[1]) > 0) {
+                throw new IPFormatException(ip + " - The start of the range is after its end");
             }
-
-        } else {
-            //need to ignore CIDR notation for the moment.
-            //ip = ip.split("\\/")[0];
-
-            String[] subnets = ip.split("\\.");
-
-            if (subnets.length < 3) {
+            range = new long[] {start[0], start[1], end[0], end[1]};
+        } else if (value.indexOf('/') >= 0) {
+            int slash = value.indexOf('/');
+            long[] address = parseAddress(value.substring(0, slash).trim(), ip);
+            int prefix;
+            try {
+                prefix = Integer.parseInt(value.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IPFormatException(ip + " - Invalid prefix length");
+            }
+            if (isIPv4(address[0], address[1])) {
+                if (prefix < 0 || prefix > 32) {
+                    throw new IPFormatException(ip + " - Invalid prefix length");
+                }
+                prefix += 96;
+            } else if (prefix < 0 || prefix > 128) {
+                throw new IPFormatException(ip + " - Invalid prefix length");
+            }
+            range = prefixRange(address, prefix);
+        } else if (value.indexOf(':') < 0 && countDots(value) < 3) {
+            if (countDots(value) < 2) {
                 throw new IPFormatException(ip + " - require at least three subnet places (255.255.255.0");
-
             }
+            long[] address = parseAddress(value + ".0", ip);
+            range = prefixRange(address, 96 + 24);
+        } else {
+            long[] address = parseAddress(value, ip);
+            range = new long[] {address[0], address[1], address[0], address[1]};
+        }
 
-            start = subnets;
-            end = subnets;
+        synchronized (pending) {
+            pending.add(range);
+            dirty = true;
         }
+    }
 
-        if (start.length >= 3) {
+    /** Check whether a given address is contained in this netblock.
+     *
+     * @param ip the address to be tested
+     * @return true if {@code ip} is within this table's limits
+     * @throws IPFormatException
+     */
+    public boolean contains(String ip) throws IPFormatException {
+        Ranges current = compile();
+
+        long hi;
+        long lo;
+        if (ip.indexOf(':') < 0) {
+            long v4 = parseIPv4(ip, 0, ip.length());
+            if (v4 < 0) {
+                throw new IPFormatException("needs to be a single IP address");
+            }
+            hi = IPV4_MAPPED_HI;
+            lo = IPV4_MAPPED_LO | v4;
+        } else {
+            long[] address = scratch.get();
+            if (!parseIPv6(ip, address)) {
+                throw new IPFormatException("needs to be a single IP address");
+            }
+            hi = address[0];
+            lo = address[1];
+        }
 
+        return current.contains(hi, lo);
+    }
 
-            Map<String, Map<String, Set<String>>> first = map.get(start[0]);
+    /** Convert to a Set. Complete IPv4 /24 blocks are listed as their first
+     * three parts ({@code 192.168.0}), other IPv4 addresses one by one.
+     * IPv4 ranges larger than a /16, and IPv6 ranges, are listed as single
+     * addresses or {@code start-end}.
+     *
+     * @return this table's content as a Set
+     */
+    public Set<String> toSet() {
+        Ranges current = compile();
+        HashSet<String> set = new HashSet<String>();
 
-            if (first == null) {
-                first = new HashMap<String, Map<String, Set<String>>>();
-                map.put(start[0], first);
+        for (int i = 0; i < current.size(); i++) {
+            long startHi = current.startHi[i];
+            long startLo = current.startLo[i];
+            long endHi = current.endHi[i];
+            long endLo = current.endLo[i];
+
+            long start = startLo & 0xffffffffL;
+            long end = endLo & 0xffffffffL;
+            if (isIPv4(startHi, startLo) && end - start < MAX_LISTED_IPV4) {
+                long address = start;
+                while (address <= end) {
+                    if ((address & 0xff) == 0 && address + 0xff <= end) {
+                        set.add(((address >> 24) & 0xff) + "." + ((address >> 16) & 0xff) + "." + ((address >> 8) & 0xff));
+                        address += 0x100;
+                    } else {
+                        set.add(formatIPv4(address));
+                        address++;
+                    }
+                }
+            } else if (isIPv4(startHi, startLo)) {
+                set.add(formatIPv4(start) + "-" + formatIPv4(end));
+            } else if (startHi == endHi && startLo == endLo) {
+                set.add(formatIPv6(startHi, startLo));
+            } else {
+                set.add(formatIPv6(startHi, startLo) + "-" + formatIPv6(endHi, endLo));
             }
+        }
 
-            Map<String, Set<String>> second = first.get(start[1]);
-
+        return set;
+    }
 
-            if (second == null) {
-                second = new HashMap<String, Set<String>>();
-                first.put(start[1], second);
+    /**
+     * Merge the pending ranges into the sorted lookup arrays, if needed.
+     */
+    private Ranges compile() {
+        if (!dirty) {
+            return ranges;
+        }
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return ranges;
             }
 
-            Set<String> third = second.get(start[2]);
+            List<long[]> all = new ArrayList<long[]>(ranges.size() + pending.size());
+            Ranges current = ranges;
+            for (int i = 0; i < current.size(); i++) {
+                all.add(new long[] {current.startHi[i], current.startLo[i], current.endHi[i], current.endLo[i]});
+            }
+            all.addAll(pending);
+            pending.clear();
+
+            long[][] sorted = all.toArray(new long[all.size()][]);
+            Arrays.sort(sorted, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] a, long[] b) {
+                    return IPTable.compare(a[0], a[1], b[0], b[1]);
+                }
+            });
+
+            List<long[]> merged = new ArrayList<long[]>();
+            long[] last = null;
+            for (long[] range : sorted) {
+                if (last != null && (compare(range[0], range[1], last[2], last[3]) <= 0
+                        || isSuccessor(last[2], last[3], range[0], range[1]))) {
+                    if (compare(range[2], range[3], last[2], last[3]) > 0) {
+                        last[2] = range[2];
+                        last[3] = range[3];
+                    }
+                } else {
+                    last = range.clone();
+                    merged.add(last);
+                }
+            }
 
-            if (third == null) {
-                third = new HashSet<String>();
-                second.put(start[2], third);
+            int size = merged.size();
+            long[] startHi = new long[size];
+            long[] startLo = new long[size];
+            long[] endHi = new long[size];
+            long[] endLo = new long[size];
+            for (int i = 0; i < size; i++) {
+                long[] range = merged.get(i);
+                startHi[i] = range[0];
+                startLo[i] = range[1];
+                endHi[i] = range[2];
+                endLo[i] = range[3];
             }
+            ranges = new Ranges(startHi, startLo, endHi, endLo);
+            dirty = false;
+            return ranges;
+        }
+    }
 
-            //now populate fourth place (* or value 0-254);
+    /**
+     * @return {startHi, startLo, endHi, endLo} of the network of the address with the given prefix length
+     */
+    private static long[] prefixRange(long[] address, int prefix) {
+        long maskHi = prefix >= 64 ? -1L : (prefix == 0 ? 0L : -1L << (64 - prefix));
+        long maskLo = prefix >= 128 ? -1L : (prefix <= 64 ? 0L : -1L << (128 - prefix));
+        return new long[] {
+                address[0] & maskHi, address[1] & maskLo,
+                address[0] | ~maskHi, address[1] | ~maskLo
+        };
+    }
 
-            if (start.length == 3) {
-                third.add("*");
+    private static String stripMask(String address) {
+        int slash = address.indexOf('/');
+        return (slash >= 0 ? address.substring(0, slash) : address).trim();
+    }
+
+    private static int countDots(String value) {
+        int dots = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == '.') {
+                dots++;
             }
+        }
+        return dots;
+    }
 
-            if (third.contains("*")) {
-                return;
+    /**
+     * Parse a complete IPv4 or IPv6 address.
+     *
+     * @return {hi, lo}
+     */
+    private static long[] parseAddress(String address, String original) throws IPFormatException {
+        if (address.indexOf(':') < 0) {
+            long v4 = parseIPv4(address, 0, address.length());
+            if (v4 < 0) {
+                throw new IPFormatException(original + " - Ranges need to be full IPv4 Addresses");
             }
+            return new long[] {IPV4_MAPPED_HI, IPV4_MAPPED_LO | v4};
+        }
+        long[] result = new long[2];
+        if (!parseIPv6(address, result)) {
+            throw new IPFormatException(original + " - Invalid IPv6 address");
+        }
+        return result;
+    }
 
-            if (start.length >= 4) {
-                int s = Integer.valueOf(start[3]);
-                int e = Integer.valueOf(end[3]);
-                for (int i = s; i <= e; i++) {
-                    third.add(String.valueOf(i));
+    /**
+     * Parse a dotted quad IPv4 address.
+     *
+     * @return the address as an unsigned 32-bit number, or -1 if invalid
+     */
+    static long parseIPv4(String ip, int from, int to) {
+        long result = 0;
+        int parts = 0;
+        int part = -1;
+        for (int i = from; i < to; i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                part = (part < 0 ? 0 : part * 10) + (c - '0');
+                if (part > 255) {
+                    return -1;
                 }
+            } else if (c == '.' && part >= 0 && parts < 3) {
+                result = (result << 8) | part;
+                parts++;
+                part = -1;
+            } else {
+                return -1;
             }
         }
+        if (part < 0 || parts != 3) {
+            return -1;
+        }
+        return (result << 8) | part;
     }
 
-    /** Check whether a given address is contained in this netblock.
-     * 
-     * @param ip the address to be tested
-     * @return true if {@code ip} is within this table's limits
-     * @throws IPFormatException
+    /**
+     * Parse an IPv6 address, with optional "::" compression and an optional
+     * dotted quad IPv4 address as its last 32 bits.
+     *
+     * @param ip the address
+     * @param result receives {hi, lo}
+     * @return false if the address is invalid
      */
-    public boolean contains(String ip) throws IPFormatException {
+    static boolean parseIPv6(String ip, long[] result) {
+        int length = ip.length();
+        // Accumulators for the groups before and after "::"
+        long headHi = 0, headLo = 0, tailHi = 0, tailLo = 0;
+        int headGroups = 0, tailGroups = 0;
+        boolean compressed = false;
+
+        int i = 0;
+        if (length >= 2 && ip.charAt(0) == ':' && ip.charAt(1) == ':') {
+            compressed = true;
+            i = 2;
+        } else if (length > 0 && ip.charAt(0) == ':') {
+            return false;
+        }
 
-        String[] subnets = ip.split("\\.");
+        while (i < length) {
+            int groupEnd = i;
+            int value = 0;
+            while (groupEnd < length && ip.charAt(groupEnd) != ':') {
+                int digit = Character.digit(ip.charAt(groupEnd), 16);
+                if (digit < 0) {
+                    break;
+                }
+                value = (value << 4) | digit;
+                groupEnd++;
+            }
 
-        if (subnets.length != 4)
-        {
-            throw new IPFormatException("needs to be a single IP address");
-        }
+            if (groupEnd < length && ip.charAt(groupEnd) == '.') {
+                // Embedded IPv4 address, must be the last 32 bits
+                long v4 = parseIPv4(ip, i, length);
+                if (v4 < 0) {
+                    return false;
+                }
+                for (int g = 0; g < 2; g++) {
+                    int group = (int) ((g == 0 ? v4 >>> 16 : v4) & 0xffff);
+                    if (compressed) {
+                        tailHi = (tailHi << 16) | (tailLo >>> 48);
+                        tailLo = (tailLo << 16) | group;
+                        tailGroups++;
+                    } else {
+                        headHi = (headHi << 16) | (headLo >>> 48);
+                        headLo = (headLo << 16) | group;
+                        headGroups++;
+                    }
+                }
+                i = length;
+                break;
+            }
 
-        Map<String, Map<String, Set<String>>> first = map.get(subnets[0]);
+            if (groupEnd == i || groupEnd - i > 4) {
+                return false;
+            }
 
-        if (first == null)
-        {
-            return false;
-        }
+            if (compressed) {
+                tailHi = (tailHi << 16) | (tailLo >>> 48);
+                tailLo = (tailLo << 16) | value;
+                tailGroups++;
+            } else {
+                headHi = (headHi << 16) | (headLo >>> 48);
+                headLo = (headLo << 16) | value;
+                headGroups++;
+            }
 
-        Map<String, Set<String>> second = first.get(subnets[1]);
+            i = groupEnd;
+            if (i < length) {
+                // Skip the ':' separator, a second one starts the compressed part
+                i++;
+                if (i < length && ip.charAt(i) == ':') {
+                    if (compressed) {
+                        return false;
+                    }
+                    compressed = true;
+                    i++;
+                } else if (i == length) {
+                    return false;
+                }
+            }
+        }
 
-        if (second == null)
-        {
+        int groups = headGroups + tailGroups;
+        if (groups > 8 || (!compressed && groups != 8) || (compressed && groups == 8)) {
             return false;
         }
 
-        Set<String> third = second.get(subnets[2]);
-
-        if (third == null)
-        {
-            return false;
+        // Shift the head groups into place and add the tail groups
+        int shift = (8 - headGroups) * 16;
+        long hi;
+        long lo;
+        if (shift >= 128) {
+            hi = 0;
+            lo = 0;
+        } else if (shift >= 64) {
+            hi = shift == 64 ? headLo : headLo << (shift - 64);
+            lo = 0;
+        } else if (shift == 0) {
+            hi = headHi;
+            lo = headLo;
+        } else {
+            hi = (headHi << shift) | (headLo >>> (64 - shift));
+            lo = headLo << shift;
         }
+        result[0] = hi | tailHi;
+        result[1] = lo | tailLo;
+        return true;
+    }
 
-        return third.contains(subnets[3]) || third.contains("*");
+    private static boolean isIPv4(long hi, long lo) {
+        return hi == IPV4_MAPPED_HI && (lo & 0xffffffff00000000L) == IPV4_MAPPED_LO;
+    }
 
+    /**
+     * Compare two 128-bit unsigned numbers.
+     */
+    private static int compare(long aHi, long aLo, long bHi, long bLo) {
+        if (aHi != bHi) {
+            return (aHi ^ Long.MIN_VALUE) < (bHi ^ Long.MIN_VALUE) ? -1 : 1;
+        }
+        if (aLo != bLo) {
+            return (aLo ^ Long.MIN_VALUE) < (bLo ^ Long.MIN_VALUE) ? -1 : 1;
+        }
+        return 0;
     }
 
-    /** Convert to a Set.
-     * @return this table's content as a Set
+    /**
+     * @return true if b = a + 1
      */
-    public Set<String> toSet() {
-        HashSet<String> set = new HashSet<String>();
+    private static boolean isSuccessor(long aHi, long aLo, long bHi, long bLo) {
+        long lo = aLo + 1;
+        long hi = lo == 0 ? aHi + 1 : aHi;
+        return hi == bHi && lo == bLo && !(aHi == -1L && aLo == -1L);
+    }
 
-        for (Map.Entry<String, Map<String, Map<String, Set<String>>>> first : map.entrySet()) {
-            String firstString = first.getKey();
-            Map<String, Map<String, Set<String>>> secondMap = first.getValue();
+    private static String formatIPv4(long address) {
+        return ((address >> 24) & 0xff) + "." + ((address >> 16) & 0xff) + "."
+                + ((address >> 8) & 0xff) + "." + (address & 0xff);
+    }
 
-            for (Map.Entry<String, Map<String, Set<String>>> second : secondMap.entrySet()) {
-                String secondString = second.getKey();
-                Map<String, Set<String>> thirdMap = second.getValue();
+    private static String formatIPv6(long hi, long lo) {
+        StringBuilder sb = new StringBuilder();
+        for (int g = 0; g < 8; g++) {
+            long word = g < 4 ? hi : lo;
+            int group = (int) ((word >>> ((3 - (g % 4)) * 16)) & 0xffff);
+            if (g > 0) {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(group));
+        }
+        return sb.toString();
+    }
 
-                for (Map.Entry<String, Set<String>> third : thirdMap.entrySet()) {
-                    String thirdString = third.getKey();
-                    Set<String> fourthSet = third.getValue();
+    /**
+     * Immutable snapshot of the merged ranges, sorted by start address.
+     */
+    private static class Ranges {
+        private final long[] startHi;
+        private final long[] startLo;
+        private final long[] endHi;
+        private final long[] endLo;
+
+        Ranges(long[] startHi, long[] startLo, long[] endHi, long[] endLo) {
+            this.startHi = startHi;
+            this.startLo = startLo;
+            this.endHi = endHi;
+            this.endLo = endLo;
+        }
 
-                    if (fourthSet.contains("*")) {
-                        set.add(firstString + "." + secondString + "." + thirdString);
-                    } else {
-                        for (String fourth : fourthSet) {
-                            set.add(firstString + "." + secondString + "." + thirdString + "." + fourth);
-                        }
-                    }
+        int size() {
+            return startHi.length;
+        }
 
+        boolean contains(long hi, long lo) {
+            // Find the last range starting at or before the address
+            int low = 0;
+            int high = startHi.length - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (compare(startHi[mid], startLo[mid], hi, lo) <= 0) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
                 }
             }
+            return found >= 0 && compare(hi, lo, endHi[found], endLo[found]) <= 0;
         }
-
-        return set;
     }
 
-
     /**
      * Exception Class to deal with IPFormat errors.
      */
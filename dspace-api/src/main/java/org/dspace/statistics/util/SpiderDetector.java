@@ -11,12 +11,9 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
+import java.util.LinkedHashSet;
 import java.util.Set;
-import java.util.Collections;
-import java.util.regex.Pattern;
 import javax.servlet.http.HttpServletRequest;
 import org.dspace.core.ConfigurationManager;
 import org.slf4j.Logger;
@@ -42,11 +39,11 @@ public class SpiderDetector {
      */
     private static IPTable table = null;
 
-    /** Collection of regular expressions to match known spiders' agents. */
-    private static List<Pattern> agents = Collections.synchronizedList(new ArrayList<Pattern>());
+    /** Regular expressions to match known spiders' agents, loaded on first use. */
+    private static volatile SpiderPatternMatcher agents = null;
 
-    /** Collection of regular expressions to match known spiders' domain names. */
-    private static List<Pattern> domains = Collections.synchronizedList(new ArrayList<Pattern>());
+    /** Regular expressions to match known spiders' domain names, loaded on first use. */
+    private static volatile SpiderPatternMatcher domains = null;
 
     /**
      * Utility method which reads lines from a file & returns them in a Set.
@@ -148,11 +145,12 @@ public class SpiderDetector {
      * @param directory simple directory name (e.g. "agents").
      *      "${dspace.dir}/config/spiders" will be prepended to yield the path to
      *      the directory of pattern files.
-     * @param patternList patterns read from the files in {@code directory} will
-     *      be added to this List.
+     * @return a matcher testing against all patterns read from the files in
+     *      {@code directory}.
      */
-    private static void loadPatterns(String directory, List<Pattern> patternList)
+    private static SpiderPatternMatcher loadPatterns(String directory)
     {
+        Set<String> patternList = new LinkedHashSet<String>();
         String dspaceHome = ConfigurationManager.getProperty("dspace.dir");
         File spidersDir = new File(dspaceHome, "config/spiders");
         File patternsDir = new File(spidersDir, directory);
@@ -170,10 +168,7 @@ public class SpiderDetector {
                             file.getPath(), ex.getMessage());
                     continue;
                 }
-                for (String pattern : patterns)
-                {
-                    patternList.add(Pattern.compile(pattern));
-                }
+                patternList.addAll(patterns);
                 log.info("Loaded pattern file:  {}", file.getPath());
             }
         }
@@ -181,6 +176,38 @@ public class SpiderDetector {
         {
             log.info("No patterns loaded from {}", patternsDir.getPath());
         }
+        return new SpiderPatternMatcher(patternList,
+                ConfigurationManager.getIntProperty("usage-statistics", "spider.verdict.cache.size", 1000));
+    }
+
+    private static SpiderPatternMatcher getAgents()
+    {
+        if (agents == null)
+        {
+            synchronized (SpiderDetector.class)
+            {
+                if (agents == null)
+                {
+                    agents = loadPatterns("agents");
+                }
+            }
+        }
+        return agents;
+    }
+
+    private static SpiderPatternMatcher getDomains()
+    {
+        if (domains == null)
+        {
+            synchronized (SpiderDetector.class)
+            {
+                if (domains == null)
+                {
+                    domains = loadPatterns("domains");
+                }
+            }
+        }
+        return domains;
     }
 
     /**
@@ -199,21 +226,9 @@ public class SpiderDetector {
             String hostname, String agent)
     {
         // See if any agent patterns match
-        if (null != agent)
-        {   
-            synchronized(agents)
-            {
-                if (agents.isEmpty())
-                    loadPatterns("agents", agents);
-            }
-            for (Pattern candidate : agents)
-            {
-		// prevent matcher() invocation from a null Pattern object
-                if (null != candidate && candidate.matcher(agent).find())
-                {
-                    return true;
-                }
-            }
+        if (null != agent && getAgents().matches(agent))
+        {
+            return true;
         }
 
         // No.  See if any IP addresses match
@@ -231,21 +246,9 @@ public class SpiderDetector {
             return true;
 
         // No.  See if any DNS names match
-        if (null != hostname)
+        if (null != hostname && getDomains().matches(hostname))
         {
-            synchronized(domains) 
-            {
-                if (domains.isEmpty())
-                    loadPatterns("domains", domains);
-            }
-            for (Pattern candidate : domains)
-            {
-		// prevent matcher() invocation from a null Pattern object
-		if (null != candidate && candidate.matcher(hostname).find())
-                {
-                    return true;
-                }
-            }
+            return true;
         }
 
         // Not a known spider.
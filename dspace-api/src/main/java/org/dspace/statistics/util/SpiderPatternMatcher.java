@@ -0,0 +1,371 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable matcher testing a string against a whole list of spider patterns
+ * (User-Agent or domain name regular expressions) at once.
+ * <p>
+ * Patterns which are plain literals (the bulk of the COUNTER robots list) are
+ * compiled into an Aho-Corasick automaton, which finds any of them in a
+ * single pass over the input. The remaining patterns are combined into one
+ * alternation, so the regex engine is invoked once instead of once per
+ * pattern. Patterns using back references or named groups can't be combined
+ * and are tried one by one, as are all of them should the alternation not
+ * compile. Recent verdicts are kept in a bounded cache, as the same few
+ * User-Agents make up most of the traffic.
+ * <p>
+ * Instances are safe for use by concurrent threads without locking.
+ */
+public class SpiderPatternMatcher
+{
+    private static final Logger log = LoggerFactory.getLogger(SpiderPatternMatcher.class);
+
+    /** Regular expression metacharacters which make a pattern non-literal */
+    private static final String METACHARACTERS = ".[]{}()*+?^$|";
+
+    private final Node literals;
+
+    private final Pattern combined;
+
+    private final List<Pattern> separate = new ArrayList<Pattern>();
+
+    private final Cache<String, Boolean> verdicts;
+
+    private final int patternCount;
+
+    /**
+     * @param patterns the regular expressions, as read from the spider files
+     * @param cacheSize maximum number of verdicts to remember, 0 disables the cache
+     */
+    public SpiderPatternMatcher(Collection<String> patterns, int cacheSize)
+    {
+        Node root = new Node();
+        List<String> alternated = new ArrayList<String>();
+        int count = 0;
+        for (String pattern : patterns)
+        {
+            try
+            {
+                Pattern.compile(pattern);
+            }
+            catch (PatternSyntaxException e)
+            {
+                log.error("Ignoring invalid spider pattern {}:  {}", pattern, e.getMessage());
+                continue;
+            }
+            count++;
+
+            String literal = toLiteral(pattern);
+            if (literal != null && literal.length() > 0)
+            {
+                root.add(literal);
+            }
+            else if (pattern.matches(".*\\\\(\\d|k<).*") || pattern.contains("(?<"))
+            {
+                // Group numbers would shift once combined, and group names
+                // could clash
+                separate.add(Pattern.compile(pattern));
+            }
+            else
+            {
+                alternated.add(pattern);
+            }
+        }
+        patternCount = count;
+
+        root.link();
+        literals = root;
+        combined = combine(alternated);
+        verdicts = cacheSize > 0 ? CacheBuilder.newBuilder().maximumSize(cacheSize).<String, Boolean>build() : null;
+    }
+
+    /**
+     * Combine patterns into a single alternation. If the alternation does not
+     * compile, although each pattern does, the patterns are tried one by one.
+     *
+     * @return the alternation, or null if there are no patterns or they are
+     *         to be tried one by one
+     */
+    private Pattern combine(List<String> patterns)
+    {
+        if (patterns.isEmpty())
+        {
+            return null;
+        }
+
+        StringBuilder alternation = new StringBuilder();
+        for (String pattern : patterns)
+        {
+            if (alternation.length() > 0)
+            {
+                alternation.append('|');
+            }
+            alternation.append("(?:").append(pattern).append(')');
+        }
+        try
+        {
+            return Pattern.compile(alternation.toString());
+        }
+        catch (PatternSyntaxException e)
+        {
+            log.warn("Unable to combine the spider patterns, trying them one by one: {}", e.getMessage());
+            for (String pattern : patterns)
+            {
+                separate.add(Pattern.compile(pattern));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of (valid) patterns this matcher tests against
+     */
+    public int size()
+    {
+        return patternCount;
+    }
+
+    /**
+     * Test whether any of the patterns is found in the input, with the
+     * semantics of {@link java.util.regex.Matcher#find()}.
+     *
+     * @param input the User-Agent or domain name to test
+     * @return true if at least one pattern matches
+     */
+    public boolean matches(String input)
+    {
+        if (input == null || patternCount == 0)
+        {
+            return false;
+        }
+
+        if (verdicts != null)
+        {
+            Boolean verdict = verdicts.getIfPresent(input);
+            if (verdict != null)
+            {
+                return verdict;
+            }
+        }
+
+        boolean result = evaluate(input);
+        if (verdicts != null)
+        {
+            verdicts.put(input, result);
+        }
+        return result;
+    }
+
+    private boolean evaluate(String input)
+    {
+        if (literals.find(input))
+        {
+            return true;
+        }
+        if (combined != null && combined.matcher(input).find())
+        {
+            return true;
+        }
+        for (Pattern pattern : separate)
+        {
+            if (pattern.matcher(input).find())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Turn a pattern which matches a literal string only into that string.
+     *
+     * @param pattern a regular expression
+     * @return the literal it matches, or null if it isn't a plain literal
+     */
+    static String toLiteral(String pattern)
+    {
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++)
+        {
+            char c = pattern.charAt(i);
+            if (c == '\\')
+            {
+                if (i + 1 >= pattern.length())
+                {
+                    return null;
+                }
+                char escaped = pattern.charAt(++i);
+                // \s, \d, \Q, \1 ... are not literals
+                if (Character.isLetterOrDigit(escaped))
+                {
+                    return null;
+                }
+                literal.append(escaped);
+            }
+            else if (METACHARACTERS.indexOf(c) >= 0)
+            {
+                return null;
+            }
+            else
+            {
+                literal.append(c);
+            }
+        }
+        return literal.toString();
+    }
+
+    /**
+     * Node of the Aho-Corasick automaton. Children are kept in sorted arrays
+     * once the automaton is linked, so that matching does not allocate.
+     */
+    private static class Node
+    {
+        private Map<Character, Node> building = new TreeMap<Character, Node>();
+
+        private char[] keys = new char[0];
+
+        private Node[] children = new Node[0];
+
+        private Node failure;
+
+        private boolean terminal;
+
+        void add(String literal)
+        {
+            Node node = this;
+            for (int i = 0; i < literal.length(); i++)
+            {
+                Character c = literal.charAt(i);
+                Node child = node.building.get(c);
+                if (child == null)
+                {
+                    child = new Node();
+                    node.building.put(c, child);
+                }
+                node = child;
+            }
+            node.terminal = true;
+        }
+
+        Node child(char c)
+        {
+            int low = 0;
+            int high = keys.length - 1;
+            while (low <= high)
+            {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < c)
+                {
+                    low = mid + 1;
+                }
+                else if (keys[mid] > c)
+                {
+                    high = mid - 1;
+                }
+                else
+                {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Freeze the trie and compute the failure links (breadth first).
+         */
+        void link()
+        {
+            Deque<Node> queue = new ArrayDeque<Node>();
+            freeze();
+            failure = this;
+            for (Node child : children)
+            {
+                child.freeze();
+                child.failure = this;
+                queue.add(child);
+            }
+            while (!queue.isEmpty())
+            {
+                Node node = queue.poll();
+                for (int i = 0; i < node.keys.length; i++)
+                {
+                    Node child = node.children[i];
+                    child.freeze();
+                    Node fail = node.failure;
+                    while (fail != this && fail.child(node.keys[i]) == null)
+                    {
+                        fail = fail.failure;
+                    }
+                    Node target = fail.child(node.keys[i]);
+                    child.failure = (target != null && target != child) ? target : this;
+                    child.terminal |= child.failure.terminal;
+                    queue.add(child);
+                }
+            }
+        }
+
+        private void freeze()
+        {
+            if (building == null)
+            {
+                return;
+            }
+            keys = new char[building.size()];
+            children = new Node[building.size()];
+            int i = 0;
+            for (Map.Entry<Character, Node> entry : building.entrySet())
+            {
+                keys[i] = entry.getKey();
+                children[i] = entry.getValue();
+                i++;
+            }
+            building = null;
+        }
+
+        boolean find(String input)
+        {
+            if (keys.length == 0)
+            {
+                return false;
+            }
+            Node node = this;
+            for (int i = 0; i < input.length(); i++)
+            {
+                char c = input.charAt(i);
+                Node next = node.child(c);
+                while (next == null && node != this)
+                {
+                    node = node.failure;
+                    next = node.child(c);
+                }
+                node = next != null ? next : this;
+                if (node.terminal)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -11,7 +11,9 @@ import org.apache.commons.cli.*;
 import org.apache.log4j.Logger;
 import org.apache.tools.ant.taskdefs.Get;
 import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
 import org.dspace.statistics.SolrLogger;
+import org.dspace.statistics.StatisticsRollup;
 
 import java.io.*;
 import java.net.URL;
@@ -55,7 +57,7 @@ public class StatisticsClient
                 "Update Spider IP Files from internet into " +
                         ConfigurationManager.getProperty("dspace.dir") + "/config/spiders");
 
-        options.addOption("m", "mark-spiders", false, "Update isBot Flag in Solr");
+        options.addOption("m", "mark-spiders", false, "Update isBot Flag in Solr, if the spider lists changed since the last run");
         options.addOption("f", "delete-spiders-by-flag", false, "Delete Spiders in Solr By isBot Flag");
         options.addOption("i", "delete-spiders-by-ip", false, "Delete Spiders in Solr By IP Address");
         options.addOption("o", "optimize", false, "Run maintenance on the SOLR index");
@@ -63,6 +65,8 @@ public class StatisticsClient
         options.addOption("e", "export", false, "Export SOLR view statistics data to usage-statistics-intermediate-format");
         options.addOption("r", "remove-deleted-bitstreams", false, "While indexing the bundle names remove the statistics about deleted bitstreams");
         options.addOption("s", "shard-solr-index", false, "Split the data from the main Solr core into separate Solr cores per year");
+        options.addOption("a", "rollup-views", false, "Aggregate the views of the days since the last run into the daily rollups");
+        options.addOption("c", "rebuild-rollups", false, "Drop the daily rollups and aggregate all the views again, to count the views added, flagged or deleted since on days already aggregated");
         options.addOption("h", "help", false, "help");
 
 		CommandLine line = parser.parse(options, args);
@@ -79,7 +83,7 @@ public class StatisticsClient
         }
         else if (line.hasOption('m'))
         {
-            SolrLogger.markRobotsByIP();
+            SolrLogger.markRobots(false);
         }
         else if(line.hasOption('f'))
         {
@@ -105,6 +109,22 @@ public class StatisticsClient
         {
             SolrLogger.shardSolrIndex();
         }
+        else if(line.hasOption('a') || line.hasOption('c'))
+        {
+            Context context = new Context();
+            try
+            {
+                StatisticsRollup.update(context, line.hasOption('c'));
+                context.complete();
+            }
+            finally
+            {
+                if (context.isValid())
+                {
+                    context.abort();
+                }
+            }
+        }
         else
         {
             printHelp(options, 0);
@@ -8,6 +8,7 @@
 package org.dspace.storage.rdbms;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -667,6 +668,30 @@ public class TableRow
         throw new IllegalArgumentException("No such column '" + canonicalized + "'");
     }
 
+    /**
+     * Return an independent copy of this row, including which columns are
+     * flagged as changed. Used to hand out rows kept in a cache shared
+     * between contexts.
+     *
+     * @return a copy of this row
+     */
+    public TableRow copy()
+    {
+        TableRow copy = new TableRow(table, new ArrayList<String>());
+        for (Map.Entry<String, Object> entry : data.entrySet())
+        {
+            Object value = entry.getValue();
+            if (value instanceof java.util.Date)
+            {
+                // the only mutable type of column value
+                value = ((java.util.Date) value).clone();
+            }
+            copy.data.put(entry.getKey(), value);
+            copy.changed.put(entry.getKey(), hasColumnChangedCanonicalized(entry.getKey()) ? Boolean.TRUE : Boolean.FALSE);
+        }
+        return copy;
+    }
+
     /**
      * package private method to reset the flags of which columns have been updated
      * This is used by the database manager after it has finished processing the contents
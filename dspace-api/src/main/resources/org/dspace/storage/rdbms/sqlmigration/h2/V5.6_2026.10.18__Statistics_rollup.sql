@@ -0,0 +1,26 @@
+--
+-- The contents of this file are subject to the license and copyright
+-- detailed in the LICENSE and NOTICE files at the root of the source
+-- tree and available online at
+--
+-- http://www.dspace.org/license/
+--
+
+------------------------------------------------------
+-- Daily view counts per object and country, aggregated
+-- from the Solr statistics to answer usage reports
+------------------------------------------------------
+
+CREATE TABLE statistics_rollup
+(
+  dso_type      INTEGER NOT NULL,
+  dso_id        INTEGER NOT NULL,
+  view_day      INTEGER NOT NULL,
+  country_code  VARCHAR(4) NOT NULL,
+  owning_item   INTEGER,
+  view_count    INTEGER NOT NULL
+);
+
+CREATE INDEX statistics_rollup_dso_idx ON statistics_rollup(dso_id, dso_type, view_day);
+CREATE INDEX statistics_rollup_owner_idx ON statistics_rollup(owning_item, view_day);
+CREATE INDEX statistics_rollup_day_idx ON statistics_rollup(view_day);
@@ -0,0 +1,17 @@
+--
+-- The contents of this file are subject to the license and copyright
+-- detailed in the LICENSE and NOTICE files at the root of the source
+-- tree and available online at
+--
+-- http://www.dspace.org/license/
+--
+
+------------------------------------------------------
+-- Modification stamps of communities, collections and
+-- items, incremented by the ModificationStampConsumer
+-- and used as cheap cache validity keys
+------------------------------------------------------
+
+ALTER TABLE community ADD COLUMN modification_stamp BIGINT;
+ALTER TABLE collection ADD COLUMN modification_stamp BIGINT;
+ALTER TABLE item ADD COLUMN modification_stamp BIGINT;
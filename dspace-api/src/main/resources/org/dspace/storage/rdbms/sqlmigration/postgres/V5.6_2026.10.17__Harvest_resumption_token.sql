@@ -0,0 +1,14 @@
+--
+-- The contents of this file are subject to the license and copyright
+-- detailed in the LICENSE and NOTICE files at the root of the source
+-- tree and available online at
+--
+-- http://www.dspace.org/license/
+--
+
+------------------------------------------------------
+-- Resumption token of the next page of an OAI harvest,
+-- so that an interrupted harvest resumes from there
+------------------------------------------------------
+
+ALTER TABLE harvested_collection ADD resumption_token VARCHAR;
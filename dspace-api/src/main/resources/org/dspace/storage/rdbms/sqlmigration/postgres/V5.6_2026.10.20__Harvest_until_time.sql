@@ -0,0 +1,14 @@
+--
+-- The contents of this file are subject to the license and copyright
+-- detailed in the LICENSE and NOTICE files at the root of the source
+-- tree and available online at
+--
+-- http://www.dspace.org/license/
+--
+
+------------------------------------------------------
+-- Upper bound of the harvest in progress, kept when an
+-- interrupted harvest is resumed
+------------------------------------------------------
+
+ALTER TABLE harvested_collection ADD harvest_until_time TIMESTAMP WITH TIME ZONE;
@@ -0,0 +1,201 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.authorize;
+
+import java.util.Date;
+import java.util.List;
+
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.Constants;
+import org.dspace.eperson.Group;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the authorization decisions cached in the Context by
+ * {@link AuthorizeManager}: a decision is reused until a policy or a group
+ * membership changes in the same Context.
+ */
+public class AuthorizeManagerTest extends AbstractUnitTest
+{
+    private Item item;
+
+    private Group group;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            Community community = Community.create(null, context);
+            Collection collection = community.createCollection();
+            WorkspaceItem workspaceItem = WorkspaceItem.create(context, collection, false);
+            item = InstallItem.installItem(context, workspaceItem);
+            group = Group.create(context);
+            group.update();
+            context.commit();
+            context.restoreAuthSystemState();
+        }
+        catch (Exception e)
+        {
+            fail(e.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        item = null;
+        group = null;
+        super.destroy();
+    }
+
+    @Test
+    public void testDecisionIsCached() throws Exception
+    {
+        addPolicy(Constants.WRITE, null);
+        assertTrue(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+
+        // behind the back of the context, the cached decision is kept
+        DatabaseManager.updateQuery(context,
+                "DELETE FROM resourcepolicy WHERE resource_type_id = ? AND resource_id = ? AND action_id = ?",
+                Constants.ITEM, item.getID(), Constants.WRITE);
+        assertTrue(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+
+        context.clearAuthorizationCache();
+        assertFalse(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+    }
+
+    @Test
+    public void testPolicyAdded() throws Exception
+    {
+        assertFalse(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+
+        addPolicy(Constants.WRITE, null);
+        assertTrue(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+    }
+
+    @Test
+    public void testPolicyChanged() throws Exception
+    {
+        ResourcePolicy policy = addPolicy(Constants.WRITE, null);
+        assertTrue(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+
+        context.turnOffAuthorisationSystem();
+        policy.setEndDate(new Date(System.currentTimeMillis() - 24L * 60 * 60 * 1000));
+        policy.update();
+        context.restoreAuthSystemState();
+        assertFalse(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+    }
+
+    @Test
+    public void testPolicyDeleted() throws Exception
+    {
+        ResourcePolicy policy = addPolicy(Constants.WRITE, null);
+        assertTrue(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+
+        context.turnOffAuthorisationSystem();
+        policy.delete();
+        context.restoreAuthSystemState();
+        assertFalse(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+    }
+
+    @Test
+    public void testPoliciesRemoved() throws Exception
+    {
+        addPolicy(Constants.WRITE, null);
+        assertTrue(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+
+        context.turnOffAuthorisationSystem();
+        AuthorizeManager.removePoliciesActionFilter(context, item, Constants.WRITE);
+        context.restoreAuthSystemState();
+        assertFalse(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+    }
+
+    @Test
+    public void testGroupMembershipChanged() throws Exception
+    {
+        addPolicy(Constants.WRITE, group);
+        assertFalse(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+
+        context.turnOffAuthorisationSystem();
+        group.addMember(eperson);
+        group.update();
+        context.restoreAuthSystemState();
+        assertTrue(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+
+        context.turnOffAuthorisationSystem();
+        group.removeMember(eperson);
+        group.update();
+        context.restoreAuthSystemState();
+        assertFalse(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+    }
+
+    @Test
+    public void testSubgroupMembershipChanged() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        Group subgroup = Group.create(context);
+        subgroup.addMember(eperson);
+        subgroup.update();
+        context.restoreAuthSystemState();
+
+        addPolicy(Constants.WRITE, group);
+        assertFalse(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+
+        context.turnOffAuthorisationSystem();
+        group.addMember(subgroup);
+        group.update();
+        context.restoreAuthSystemState();
+        assertTrue(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+
+        context.turnOffAuthorisationSystem();
+        subgroup.delete();
+        context.restoreAuthSystemState();
+        assertFalse(AuthorizeManager.authorizeActionBoolean(context, item, Constants.WRITE));
+    }
+
+    /**
+     * Give the current user, or a group when given, a policy on the item.
+     *
+     * @return the policy added
+     */
+    private ResourcePolicy addPolicy(int action, Group policyGroup) throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        if (policyGroup != null)
+        {
+            AuthorizeManager.addPolicy(context, item, action, policyGroup);
+        }
+        else
+        {
+            AuthorizeManager.addPolicy(context, item, action, eperson);
+        }
+        context.restoreAuthSystemState();
+
+        List<ResourcePolicy> policies = AuthorizeManager.getPoliciesActionFilter(context, item, action);
+        assertEquals(1, policies.size());
+        return policies.get(0);
+    }
+}
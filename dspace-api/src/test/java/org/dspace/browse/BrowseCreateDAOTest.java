@@ -0,0 +1,219 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the batched writes of the database browse index, on the H2
+ * database of the tests, which DatabaseManager handles as Oracle. The tables
+ * of a single distinct index are created for the test.
+ */
+public class BrowseCreateDAOTest extends AbstractUnitTest
+{
+    private static final String DISTINCT_TABLE = "bi_test_dis";
+
+    private static final String MAP_TABLE = "bi_test_dmap";
+
+    private BrowseCreateDAO dao;
+
+    private Item item;
+
+    private Item otherItem;
+
+    private int alpha;
+
+    private int beta;
+
+    private int gamma;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            DatabaseManager.updateQuery(context, "CREATE TABLE " + DISTINCT_TABLE
+                    + " (id integer primary key, authority VARCHAR(100), value VARCHAR(1000), sort_value VARCHAR(1000))");
+            DatabaseManager.updateQuery(context, "CREATE SEQUENCE " + DISTINCT_TABLE + "_seq");
+            DatabaseManager.updateQuery(context, "CREATE TABLE " + MAP_TABLE
+                    + " (map_id integer primary key, item_id integer, distinct_id integer)");
+            DatabaseManager.updateQuery(context, "CREATE SEQUENCE " + MAP_TABLE + "_seq");
+
+            context.turnOffAuthorisationSystem();
+            Community community = Community.create(null, context);
+            Collection collection = community.createCollection();
+            item = InstallItem.installItem(context, WorkspaceItem.create(context, collection, false));
+            otherItem = InstallItem.installItem(context, WorkspaceItem.create(context, collection, false));
+            context.restoreAuthSystemState();
+
+            dao = new BrowseCreateDAOOracle(context);
+            alpha = dao.getDistinctID(DISTINCT_TABLE, "Alpha", null, "alpha");
+            beta = dao.getDistinctID(DISTINCT_TABLE, "Beta", null, "beta");
+            gamma = dao.getDistinctID(DISTINCT_TABLE, "Gamma", null, "gamma");
+            context.commit();
+        }
+        catch (Exception e)
+        {
+            fail(e.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        try
+        {
+            DatabaseManager.updateQuery(context, "DROP TABLE " + MAP_TABLE);
+            DatabaseManager.updateQuery(context, "DROP SEQUENCE " + MAP_TABLE + "_seq");
+            DatabaseManager.updateQuery(context, "DROP TABLE " + DISTINCT_TABLE);
+            DatabaseManager.updateQuery(context, "DROP SEQUENCE " + DISTINCT_TABLE + "_seq");
+        }
+        catch (Exception e)
+        {
+            fail(e.getMessage());
+        }
+        dao = null;
+        item = null;
+        otherItem = null;
+        super.destroy();
+    }
+
+    @Test
+    public void testDistinctValueIsReused() throws Exception
+    {
+        assertEquals(alpha, dao.getDistinctID(DISTINCT_TABLE, "Alpha", null, "alpha"));
+        assertEquals(ids(alpha, beta, gamma), distinctValues());
+    }
+
+    @Test
+    public void testMappingsAddedAndRemoved() throws Exception
+    {
+        MappingResults results = dao.updateDistinctMappings(MAP_TABLE, item.getID(), ids(alpha, beta));
+        assertEquals(ids(alpha, beta), new HashSet<Integer>(results.getAddedDistinctIds()));
+        assertTrue(results.getRemovedDistinctIds().isEmpty());
+        assertEquals(ids(alpha, beta), mapped(item));
+
+        results = dao.updateDistinctMappings(MAP_TABLE, item.getID(), ids(beta, gamma));
+        assertEquals(Arrays.asList(gamma), results.getAddedDistinctIds());
+        assertEquals(Arrays.asList(beta), results.getRetainedDistinctIds());
+        assertEquals(Arrays.asList(alpha), results.getRemovedDistinctIds());
+        assertEquals(ids(beta, gamma), mapped(item));
+
+        // the mapping ids are taken from the sequence, one per row
+        assertEquals(2, countRows("SELECT COUNT(DISTINCT map_id) AS n FROM " + MAP_TABLE));
+    }
+
+    @Test
+    public void testDeleteMappingsByItemID() throws Exception
+    {
+        dao.updateDistinctMappings(MAP_TABLE, item.getID(), ids(alpha, beta));
+        dao.updateDistinctMappings(MAP_TABLE, otherItem.getID(), ids(beta));
+
+        assertEquals(ids(alpha, beta), new HashSet<Integer>(dao.deleteMappingsByItemID(MAP_TABLE, item.getID())));
+        assertEquals(ids(), mapped(item));
+        assertEquals(ids(beta), mapped(otherItem));
+    }
+
+    @Test
+    public void testPruneDistinct() throws Exception
+    {
+        dao.updateDistinctMappings(MAP_TABLE, otherItem.getID(), ids(beta));
+
+        // only the unmapped values among those given are removed
+        dao.pruneDistinct(DISTINCT_TABLE, MAP_TABLE, Arrays.asList(alpha, beta));
+        assertEquals(ids(beta, gamma), distinctValues());
+
+        // without values, all the unmapped ones are
+        dao.pruneDistinct(DISTINCT_TABLE, MAP_TABLE, null);
+        assertEquals(ids(beta), distinctValues());
+    }
+
+    @Test
+    public void testPruneMapExcess() throws Exception
+    {
+        dao.updateDistinctMappings(MAP_TABLE, item.getID(), ids(alpha, beta));
+        dao.updateDistinctMappings(MAP_TABLE, otherItem.getID(), ids(alpha, beta));
+        withdraw(otherItem);
+
+        // only the mappings of items no longer in the archive, to the given values, are removed
+        dao.pruneMapExcess(MAP_TABLE, false, Arrays.asList(alpha));
+        assertEquals(ids(alpha, beta), mapped(item));
+        assertEquals(ids(beta), mapped(otherItem));
+
+        dao.pruneMapExcess(MAP_TABLE, false, null);
+        assertEquals(ids(alpha, beta), mapped(item));
+        assertEquals(ids(), mapped(otherItem));
+    }
+
+    private static HashSet<Integer> ids(Integer... ids)
+    {
+        return new HashSet<Integer>(Arrays.asList(ids));
+    }
+
+    private void withdraw(Item withdrawn) throws Exception
+    {
+        DatabaseManager.updateQuery(context, "UPDATE item SET withdrawn = true WHERE item_id = ?",
+                withdrawn.getID());
+    }
+
+    private Set<Integer> mapped(Item mappedItem) throws Exception
+    {
+        return column("SELECT distinct_id AS id FROM " + MAP_TABLE + " WHERE item_id = " + mappedItem.getID());
+    }
+
+    private Set<Integer> distinctValues() throws Exception
+    {
+        return column("SELECT id FROM " + DISTINCT_TABLE);
+    }
+
+    private Set<Integer> column(String query) throws Exception
+    {
+        Set<Integer> ids = new HashSet<Integer>();
+        TableRowIterator tri = DatabaseManager.query(context, query);
+        try
+        {
+            while (tri.hasNext())
+            {
+                ids.add(tri.next().getIntColumn("id"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        return ids;
+    }
+
+    private int countRows(String query) throws Exception
+    {
+        TableRow row = DatabaseManager.querySingle(context, query);
+        return (int) row.getLongColumn("n");
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.checker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mockit.Invocation;
+import mockit.Mock;
+import mockit.MockUp;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Bitstream;
+import org.dspace.content.Bundle;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link CheckerCommand} checking bitstreams on several threads,
+ * and writing their results in batches of two.
+ */
+public class CheckerCommandTest extends AbstractUnitTest
+{
+    /** An ID no bitstream has */
+    private static final int MISSING_ID = Integer.MAX_VALUE;
+
+    private List<Integer> bitstreamIds;
+
+    /** The results collected, in any order */
+    private final List<BitstreamInfo> collected = Collections.synchronizedList(new ArrayList<BitstreamInfo>());
+
+    /**
+     * Writes the results of a parallel run in batches of two.
+     */
+    public static class MockConfiguration extends MockUp<ConfigurationManager>
+    {
+        @Mock
+        public String getProperty(Invocation inv, String module, String property)
+        {
+            if (module == null && "checker.batch-size".equals(property))
+            {
+                return "2";
+            }
+            return inv.proceed(module, property);
+        }
+    }
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            Community community = Community.create(null, context);
+            Collection collection = community.createCollection();
+            Item item = InstallItem.installItem(context, WorkspaceItem.create(context, collection, false));
+            Bundle bundle = item.createBundle("ORIGINAL");
+            bitstreamIds = new ArrayList<Integer>();
+            for (int i = 0; i < 7; i++)
+            {
+                Bitstream bitstream = bundle.createBitstream(new FileInputStream(testFile()));
+                bitstreamIds.add(bitstream.getID());
+            }
+            context.commit();
+            context.restoreAuthSystemState();
+        }
+        catch (Exception e)
+        {
+            fail(e.getMessage());
+        }
+
+        new MockConfiguration();
+        new BitstreamInfoDAO().updateMissingBitstreams();
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        bitstreamIds = null;
+        collected.clear();
+        super.destroy();
+    }
+
+    @Test
+    public void testParallelRun() throws Exception
+    {
+        int history = countHistory();
+        run(3, bitstreamIds);
+
+        // each bitstream is checked once, and its result recorded once
+        assertEquals(bitstreamIds.size(), collected.size());
+        for (int id : bitstreamIds)
+        {
+            assertEquals(ChecksumCheckResults.CHECKSUM_MATCH, result(id));
+            assertEquals(ChecksumCheckResults.CHECKSUM_MATCH, recordedResult(id));
+        }
+        assertEquals(history + bitstreamIds.size(), countHistory());
+    }
+
+    @Test
+    public void testParallelRunAsSingleThreaded() throws Exception
+    {
+        List<Integer> ids = new ArrayList<Integer>(bitstreamIds);
+        ids.add(MISSING_ID);
+
+        run(1, ids);
+        Map<Integer, String> single = results();
+        collected.clear();
+        run(3, ids);
+
+        assertEquals(single, results());
+        assertEquals(ChecksumCheckResults.BITSTREAM_INFO_NOT_FOUND, single.get(MISSING_ID));
+    }
+
+    @Test
+    public void testChangedBitstreamIsReported() throws Exception
+    {
+        int changed = bitstreamIds.get(3);
+        DatabaseManager.updateQuery(context,
+                "UPDATE most_recent_checksum SET expected_checksum = ? WHERE bitstream_id = ?",
+                "0123456789abcdef0123456789abcdef", changed);
+        context.commit();
+
+        run(3, bitstreamIds);
+
+        for (int id : bitstreamIds)
+        {
+            String expected = id == changed ? ChecksumCheckResults.CHECKSUM_NO_MATCH
+                    : ChecksumCheckResults.CHECKSUM_MATCH;
+            assertEquals(expected, result(id));
+            assertEquals(expected, recordedResult(id));
+        }
+    }
+
+    private static File testFile()
+    {
+        return new File(testProps.get("test.bitstream").toString());
+    }
+
+    private void run(int threads, List<Integer> ids)
+    {
+        CheckerCommand checker = new CheckerCommand();
+        checker.setThreads(threads);
+        checker.setReportVerbose(true);
+        checker.setProcessStartDate(new Date());
+        checker.setDispatcher(new ListDispatcher(new ArrayList<Integer>(ids)));
+        checker.setCollector(new ChecksumResultsCollector()
+        {
+            public void collect(BitstreamInfo info)
+            {
+                collected.add(info);
+            }
+        });
+        checker.process(context);
+    }
+
+    /**
+     * @return the results collected, by bitstream id
+     */
+    private Map<Integer, String> results()
+    {
+        Map<Integer, String> results = new HashMap<Integer, String>();
+        synchronized (collected)
+        {
+            for (BitstreamInfo info : collected)
+            {
+                assertTrue(results.put(info.getBitstreamId(), info.getChecksumCheckResult()) == null);
+            }
+        }
+        return results;
+    }
+
+    private String result(int id)
+    {
+        return results().get(id);
+    }
+
+    private String recordedResult(int id) throws Exception
+    {
+        TableRow row = DatabaseManager.querySingle(context,
+                "SELECT result FROM most_recent_checksum WHERE bitstream_id = ?", id);
+        return row.getStringColumn("result");
+    }
+
+    private int countHistory() throws Exception
+    {
+        StringBuilder query = new StringBuilder("SELECT COUNT(*) AS n FROM checksum_history WHERE bitstream_id IN (");
+        for (int i = 0; i < bitstreamIds.size(); i++)
+        {
+            query.append(i == 0 ? "?" : ",?");
+        }
+        query.append(")");
+        TableRow row = DatabaseManager.querySingle(context, query.toString(), bitstreamIds.toArray());
+        return (int) row.getLongColumn("n");
+    }
+}
@@ -11,6 +11,7 @@ package org.dspace.content;
 import java.io.File;
 import java.io.FileInputStream;
 import java.sql.SQLException;
+import java.util.Arrays;
 import org.apache.log4j.Logger;
 import org.dspace.app.util.AuthorizeUtil;
 import org.dspace.authorize.AuthorizeException;
@@ -278,6 +279,38 @@ public class CommunityTest extends AbstractDSpaceObjectTest
         assertTrue("testFindAll 2",added);
     }
 
+    /**
+     * Test of findAll method with keyset paging, of class Community.
+     */
+    @Test
+    public void testFindAllAfter() throws Exception
+    {
+        Community[] all = Community.findAll(context);
+        int pages = 0;
+        int found = 0;
+        boolean added = false;
+        int after = 0;
+        Community[] page;
+        do
+        {
+            page = Community.findAll(context, after, 1);
+            assertTrue("testFindAllAfter 0", page.length <= 1);
+            for (Community cm : page)
+            {
+                assertTrue("testFindAllAfter 1", cm.getID() > after);
+                after = cm.getID();
+                found++;
+                added |= cm.equals(c);
+            }
+            pages++;
+        }
+        while (page.length > 0 && pages <= all.length);
+
+        assertThat("testFindAllAfter 2", found, equalTo(all.length));
+        assertTrue("testFindAllAfter 3", added);
+        assertThat("testFindAllAfter 4", Community.findAll(context, 0, 0).length, equalTo(0));
+    }
+
     /**
      * Test of findAllTop method, of class Community.
      */
@@ -1481,6 +1514,170 @@ public class CommunityTest extends AbstractDSpaceObjectTest
         assertTrue("testCountItems 0", c.countItems() == 0);
     }
 
+    /**
+     * Enable the community tree for a test, and drop the snapshot left by
+     * other tests.
+     */
+    private void enableCommunityTree()
+    {
+        new NonStrictExpectations(CommunityTree.class)
+        {{
+            CommunityTree.isEnabled(); result = true;
+        }};
+        CommunityTree.invalidate();
+    }
+
+    /**
+     * Create and install an item in the given collection.
+     */
+    private Item installItem(Collection collection) throws Exception
+    {
+        WorkspaceItem wsItem = WorkspaceItem.create(context, collection, false);
+        return InstallItem.installItem(context, wsItem);
+    }
+
+    /**
+     * Test that the community tree orders sub-communities and collections
+     * by title.
+     */
+    @Test
+    public void testCommunityTreeOrder() throws Exception
+    {
+        enableCommunityTree();
+
+        context.turnOffAuthorisationSystem();
+        Community beta = c.createSubcommunity();
+        beta.setMetadata("name", "Beta");
+        beta.update();
+        Community alpha = c.createSubcommunity();
+        alpha.setMetadata("name", "Alpha");
+        alpha.update();
+        Collection zeta = c.createCollection();
+        zeta.setMetadata("name", "Zeta");
+        zeta.update();
+        Collection eta = c.createCollection();
+        eta.setMetadata("name", "Eta");
+        eta.update();
+        context.restoreAuthSystemState();
+        context.commit();
+
+        Community[] subcommunities = CommunityTree.findSubcommunities(context, c);
+        assertThat("testCommunityTreeOrder 0", subcommunities.length, equalTo(2));
+        assertThat("testCommunityTreeOrder 1", subcommunities[0], equalTo(alpha));
+        assertThat("testCommunityTreeOrder 2", subcommunities[1], equalTo(beta));
+
+        Collection[] collections = CommunityTree.findCollections(context, c);
+        assertThat("testCommunityTreeOrder 3", collections.length, equalTo(2));
+        assertThat("testCommunityTreeOrder 4", collections[0], equalTo(eta));
+        assertThat("testCommunityTreeOrder 5", collections[1], equalTo(zeta));
+
+        assertTrue("testCommunityTreeOrder 6",
+                Arrays.asList(CommunityTree.findAllTop(context)).contains(c));
+        assertFalse("testCommunityTreeOrder 7",
+                Arrays.asList(CommunityTree.findAllTop(context)).contains(alpha));
+    }
+
+    /**
+     * Test that the community tree sums the items of the collections and
+     * sub-communities of a community.
+     */
+    @Test
+    public void testCommunityTreeCountItems() throws Exception
+    {
+        enableCommunityTree();
+
+        context.turnOffAuthorisationSystem();
+        Community child = c.createSubcommunity();
+        Collection collection = c.createCollection();
+        Collection childCollection = child.createCollection();
+        installItem(collection);
+        installItem(childCollection);
+        installItem(childCollection);
+        context.restoreAuthSystemState();
+        context.commit();
+
+        assertThat("testCommunityTreeCountItems 0", CommunityTree.countItems(context, collection), equalTo(1));
+        assertThat("testCommunityTreeCountItems 1", CommunityTree.countItems(context, childCollection), equalTo(2));
+        assertThat("testCommunityTreeCountItems 2", child.countItems(), equalTo(2));
+        assertThat("testCommunityTreeCountItems 3", c.countItems(), equalTo(3));
+    }
+
+    /**
+     * Test that the community tree recounts the collections items are added
+     * to, removed from or withdrawn in.
+     */
+    @Test
+    public void testCommunityTreeRecount() throws Exception
+    {
+        enableCommunityTree();
+
+        context.turnOffAuthorisationSystem();
+        try
+        {
+            Collection collection = c.createCollection();
+            Collection other = c.createCollection();
+            Item item = installItem(collection);
+            context.commit();
+            assertThat("testCommunityTreeRecount 0", CommunityTree.countItems(context, other), equalTo(0));
+            assertThat("testCommunityTreeRecount 1", c.countItems(), equalTo(1));
+
+            other.addItem(item);
+            context.commit();
+            assertThat("testCommunityTreeRecount 2", CommunityTree.countItems(context, other), equalTo(1));
+            assertThat("testCommunityTreeRecount 3", c.countItems(), equalTo(2));
+
+            other.removeItem(item);
+            context.commit();
+            assertThat("testCommunityTreeRecount 4", CommunityTree.countItems(context, other), equalTo(0));
+            assertThat("testCommunityTreeRecount 5", c.countItems(), equalTo(1));
+
+            item.withdraw();
+            context.commit();
+            assertThat("testCommunityTreeRecount 6", CommunityTree.countItems(context, collection), equalTo(0));
+            assertThat("testCommunityTreeRecount 7", c.countItems(), equalTo(0));
+        }
+        finally
+        {
+            context.restoreAuthSystemState();
+        }
+    }
+
+    /**
+     * Test that the community tree is reloaded when communities are created
+     * or moved, and that uncommitted changes are read from the database.
+     */
+    @Test
+    public void testCommunityTreeStructureChange() throws Exception
+    {
+        enableCommunityTree();
+        assertThat("testCommunityTreeStructureChange 0",
+                CommunityTree.findSubcommunities(context, c).length, equalTo(0));
+
+        context.turnOffAuthorisationSystem();
+        try
+        {
+            Community child = c.createSubcommunity();
+            assertThat("testCommunityTreeStructureChange 1",
+                    CommunityTree.findSubcommunities(context, c).length, equalTo(1));
+            context.commit();
+            assertThat("testCommunityTreeStructureChange 2",
+                    CommunityTree.findSubcommunities(context, c)[0], equalTo(child));
+
+            Community other = Community.create(null, context);
+            other.addSubcommunity(child);
+            c.removeSubcommunity(child);
+            context.commit();
+            assertThat("testCommunityTreeStructureChange 3",
+                    CommunityTree.findSubcommunities(context, c).length, equalTo(0));
+            assertThat("testCommunityTreeStructureChange 4",
+                    CommunityTree.findSubcommunities(context, other)[0], equalTo(child));
+        }
+        finally
+        {
+            context.restoreAuthSystemState();
+        }
+    }
+
     /**
      * Test of getAdminObject method, of class Community.
      */
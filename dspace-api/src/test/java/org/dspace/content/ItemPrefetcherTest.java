@@ -0,0 +1,198 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dspace.AbstractUnitTest;
+import org.dspace.core.Context;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link ItemPrefetcher}. The items are read from a new context,
+ * so that none of them is cached yet and all of them are prefetched.
+ */
+public class ItemPrefetcherTest extends AbstractUnitTest
+{
+    /** An ID no item has */
+    private static final int MISSING_ID = Integer.MAX_VALUE;
+
+    private Item first;
+
+    private Item second;
+
+    private Item third;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            Community community = Community.create(null, context);
+            Collection collection = community.createCollection();
+            first = createItem(collection, "First");
+            second = createItem(collection, "Second");
+            third = createItem(collection, "Third");
+
+            Bundle bundle = first.createBundle("ORIGINAL");
+            for (String name : Arrays.asList("b.txt", "a.txt"))
+            {
+                Bitstream bitstream = bundle.createBitstream(new FileInputStream(testFile()));
+                bitstream.setName(name);
+                bitstream.update();
+            }
+            first.createBundle("LICENSE");
+            context.commit();
+            context.restoreAuthSystemState();
+        }
+        catch (Exception e)
+        {
+            fail(e.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        first = null;
+        second = null;
+        third = null;
+        super.destroy();
+    }
+
+    @Test
+    public void testItemsInGivenOrder() throws Exception
+    {
+        assertEquals(Arrays.asList(third.getID(), first.getID(), second.getID()),
+                prefetchedIds(Arrays.asList(third.getID(), first.getID(), second.getID())));
+    }
+
+    @Test
+    public void testMissingIdsAreSkipped() throws Exception
+    {
+        assertEquals(Arrays.asList(second.getID(), first.getID()),
+                prefetchedIds(Arrays.asList(MISSING_ID, second.getID(), MISSING_ID - 1, first.getID())));
+    }
+
+    @Test
+    public void testMoreIdsThanOneQuery() throws Exception
+    {
+        // the IN lists are split at 1000 IDs, the items are on both sides
+        List<Integer> ids = new ArrayList<Integer>();
+        ids.add(second.getID());
+        for (int i = 0; i < 1500; i++)
+        {
+            ids.add(MISSING_ID - i);
+        }
+        ids.add(1200, first.getID());
+        ids.add(third.getID());
+
+        assertEquals(Arrays.asList(second.getID(), first.getID(), third.getID()), prefetchedIds(ids));
+    }
+
+    @Test
+    public void testPrefetchedAsLoadedLazily() throws Exception
+    {
+        Context reader = new Context();
+        try
+        {
+            List<Item> items = ItemPrefetcher.findItems(reader,
+                    Arrays.asList(first.getID(), second.getID(), third.getID()));
+            assertEquals(3, items.size());
+            for (Item item : items)
+            {
+                assertEquals(lazilyLoaded(item.getID()), describe(item));
+            }
+        }
+        finally
+        {
+            reader.abort();
+        }
+    }
+
+    private Item createItem(Collection collection, String title) throws Exception
+    {
+        WorkspaceItem workspaceItem = WorkspaceItem.create(context, collection, false);
+        Item item = workspaceItem.getItem();
+        item.addMetadata("dc", "title", null, null, title);
+        item.addMetadata("dc", "subject", null, null, title + " 1");
+        item.addMetadata("dc", "subject", null, null, title + " 2");
+        return InstallItem.installItem(context, workspaceItem);
+    }
+
+    private static File testFile()
+    {
+        return new File(testProps.get("test.bitstream").toString());
+    }
+
+    private List<Integer> prefetchedIds(List<Integer> ids) throws Exception
+    {
+        Context reader = new Context();
+        try
+        {
+            List<Integer> found = new ArrayList<Integer>();
+            for (Item item : ItemPrefetcher.findItems(reader, ids))
+            {
+                found.add(item.getID());
+            }
+            return found;
+        }
+        finally
+        {
+            reader.abort();
+        }
+    }
+
+    private String lazilyLoaded(int id) throws Exception
+    {
+        Context reader = new Context();
+        try
+        {
+            return describe(Item.find(reader, id));
+        }
+        finally
+        {
+            reader.abort();
+        }
+    }
+
+    /**
+     * The handle, metadata, bundles and bitstreams of an item, in order.
+     */
+    private static String describe(Item item) throws Exception
+    {
+        StringBuilder description = new StringBuilder();
+        description.append(item.getID()).append(' ').append(item.getHandle());
+        for (Metadatum dcv : item.getMetadata(Item.ANY, Item.ANY, Item.ANY, Item.ANY))
+        {
+            description.append('\n').append(dcv.getField()).append('=').append(dcv.value);
+        }
+        for (Bundle bundle : item.getBundles())
+        {
+            description.append('\n').append(bundle.getName()).append(':');
+            for (Bitstream bitstream : bundle.getBitstreams())
+            {
+                description.append(' ').append(bitstream.getName());
+            }
+        }
+        return description.toString();
+    }
+}
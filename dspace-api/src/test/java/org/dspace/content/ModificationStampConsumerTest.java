@@ -0,0 +1,170 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+import org.dspace.AbstractUnitTest;
+import org.dspace.core.Context;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link ModificationStampConsumer}: each committed change of an
+ * item, or of its bundles and bitstreams, increments the stamp of the item.
+ * The stamps are read from a new context, as a page cached by another
+ * request would be checked.
+ */
+public class ModificationStampConsumerTest extends AbstractUnitTest
+{
+    private Collection collection;
+
+    private Item item;
+
+    private Bundle bundle;
+
+    private Bitstream bitstream;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            Community community = Community.create(null, context);
+            collection = community.createCollection();
+            WorkspaceItem workspaceItem = WorkspaceItem.create(context, collection, false);
+            item = InstallItem.installItem(context, workspaceItem);
+            bundle = item.createBundle("ORIGINAL");
+            bitstream = bundle.createBitstream(new FileInputStream(testFile()));
+            bitstream.setName("first.txt");
+            bitstream.update();
+            context.commit();
+        }
+        catch (Exception e)
+        {
+            fail(e.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        context.restoreAuthSystemState();
+        collection = null;
+        item = null;
+        bundle = null;
+        bitstream = null;
+        super.destroy();
+    }
+
+    @Test
+    public void testItemChange() throws Exception
+    {
+        long stamp = itemStamp();
+        item.addMetadata("dc", "title", null, null, "Stamped item");
+        item.update();
+        context.commit();
+        assertEquals(stamp + 1, itemStamp());
+    }
+
+    @Test
+    public void testBundleChange() throws Exception
+    {
+        long stamp = itemStamp();
+        bundle.setName("CONTENT");
+        bundle.update();
+        context.commit();
+        assertEquals(stamp + 1, itemStamp());
+
+        bundle.setPrimaryBitstreamID(bitstream.getID());
+        bundle.update();
+        context.commit();
+        assertEquals(stamp + 2, itemStamp());
+    }
+
+    @Test
+    public void testBitstreamChange() throws Exception
+    {
+        long stamp = itemStamp();
+        bitstream.setName("renamed.txt");
+        bitstream.update();
+        context.commit();
+        assertEquals(stamp + 1, itemStamp());
+
+        bitstream.setDescription("A description");
+        bitstream.update();
+        context.commit();
+        assertEquals(stamp + 2, itemStamp());
+    }
+
+    @Test
+    public void testBitstreamAddedAndRemoved() throws Exception
+    {
+        long stamp = itemStamp();
+        Bitstream second = bundle.createBitstream(new FileInputStream(testFile()));
+        context.commit();
+        assertEquals(stamp + 1, itemStamp());
+
+        bundle.removeBitstream(second);
+        context.commit();
+        assertEquals(stamp + 2, itemStamp());
+    }
+
+    @Test
+    public void testCollectionChange() throws Exception
+    {
+        long itemStamp = itemStamp();
+        long collectionStamp = collectionStamp();
+        collection.setMetadata("name", "Stamped collection");
+        collection.update();
+        context.commit();
+
+        assertEquals(collectionStamp + 1, collectionStamp());
+        assertEquals(itemStamp, itemStamp());
+    }
+
+    private static File testFile()
+    {
+        return new File(testProps.get("test.bitstream").toString());
+    }
+
+    private long itemStamp() throws Exception
+    {
+        Context reader = new Context();
+        try
+        {
+            return Item.find(reader, item.getID()).getModificationStamp();
+        }
+        finally
+        {
+            reader.abort();
+        }
+    }
+
+    private long collectionStamp() throws Exception
+    {
+        Context reader = new Context();
+        try
+        {
+            return Collection.find(reader, collection.getID()).getModificationStamp();
+        }
+        finally
+        {
+            reader.abort();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import mockit.Deencapsulation;
+import org.databene.contiperf.PerfTest;
+import org.databene.contiperf.junit.ContiPerfRule;
+import org.dspace.AbstractUnitTest;
+import org.dspace.sort.OrderFormatDelegate;
+import org.dspace.sort.OrderFormatTitleMarc21;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the lookups of {@link ConfigurationManager} and
+ * {@link PluginManager} from several threads at once. ContiPerf reports
+ * their throughput.
+ */
+public class ConfigurationManagerTest extends AbstractUnitTest
+{
+    @Rule
+    public ContiPerfRule contiperfRules = new ContiPerfRule();
+
+    private static final int READERS = 8;
+
+    @Test
+    @PerfTest(invocations = 100000, threads = 8)
+    public void testConcurrentGetProperty()
+    {
+        assertNotNull(ConfigurationManager.getProperty("dspace.dir"));
+        assertNotNull(ConfigurationManager.getProperty("db.url"));
+        ConfigurationManager.getProperty("discovery", "search.server");
+    }
+
+    @Test
+    @PerfTest(invocations = 100000, threads = 8)
+    public void testConcurrentGetNamedPlugin()
+    {
+        Object plugin = PluginManager.getNamedPlugin(OrderFormatDelegate.class, "title");
+        assertTrue(plugin instanceof OrderFormatTitleMarc21);
+    }
+
+    @Test
+    public void testReusablePluginIsShared() throws Exception
+    {
+        List<Object> plugins = readConcurrently(new Callable<Object>()
+        {
+            public Object call()
+            {
+                return PluginManager.getNamedPlugin(OrderFormatDelegate.class, "title");
+            }
+        });
+        for (Object plugin : plugins)
+        {
+            assertSame(plugins.get(0), plugin);
+        }
+    }
+
+    /**
+     * Drop the loaded configuration, as the removed flush() did, and check
+     * that readers racing with the reload all see the complete configuration.
+     */
+    @Test
+    public void testReloadIsSeenByReaders() throws Exception
+    {
+        final String dspaceDir = ConfigurationManager.getProperty("dspace.dir");
+        assertNotNull(dspaceDir);
+
+        Deencapsulation.setField(ConfigurationManager.class, "properties", null);
+        Deencapsulation.setField(ConfigurationManager.class, "values", null);
+
+        List<Object> values = readConcurrently(new Callable<Object>()
+        {
+            public Object call()
+            {
+                return ConfigurationManager.getProperty("dspace.dir");
+            }
+        });
+        for (Object value : values)
+        {
+            assertEquals(dspaceDir, value);
+        }
+        assertTrue(ConfigurationManager.isConfigured());
+    }
+
+    /**
+     * A module configuration which can not be read has no properties.
+     */
+    @Test
+    public void testUnreadableModule() throws Exception
+    {
+        File modFile = new File(ConfigurationManager.getProperty("dspace.dir") + File.separator + "config"
+                + File.separator + "modules" + File.separator + "unreadable-test.cfg");
+        // a directory exists, but reading it fails
+        assertTrue(modFile.mkdirs());
+        try
+        {
+            assertNull(ConfigurationManager.getProperty("unreadable-test", "some.property"));
+            assertNull(ConfigurationManager.getProperty("unreadable-test", "some.property"));
+        }
+        finally
+        {
+            modFile.delete();
+        }
+    }
+
+    /**
+     * Run the reader on {@link #READERS} threads started at the same time.
+     *
+     * @return what each reader returned
+     */
+    private static List<Object> readConcurrently(final Callable<Object> reader) throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(READERS);
+        try
+        {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < READERS; i++)
+            {
+                futures.add(executor.submit(new Callable<Object>()
+                {
+                    public Object call() throws Exception
+                    {
+                        start.await();
+                        return reader.call();
+                    }
+                }));
+            }
+            start.countDown();
+
+            List<Object> results = new ArrayList<Object>();
+            for (Future<Object> future : futures)
+            {
+                results.add(future.get(30, TimeUnit.SECONDS));
+            }
+            return results;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
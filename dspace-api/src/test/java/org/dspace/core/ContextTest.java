@@ -572,6 +572,35 @@ public class ContextTest extends AbstractUnitTest
         cleanupContext(instance);
     }
 
+    /**
+     * Test of the authorization and group membership caches of class Context.
+     */
+    @Test
+    public void testAuthorizationCache() throws SQLException
+    {
+        // We need a new Context object
+        Context instance = new Context();
+
+        instance.cacheAuthorizationResult("key", true);
+        instance.cacheGroupMembership(0, new java.util.HashSet<Integer>(java.util.Arrays.asList(0)));
+        assertThat("testAuthorizationCache 0", instance.getCachedAuthorizationResult("key"), equalTo(Boolean.TRUE));
+        assertThat("testAuthorizationCache 1", instance.getCachedGroupMembership(0), notNullValue());
+
+        // Policy changes only invalidate the decisions
+        instance.clearAuthorizationCache();
+        assertThat("testAuthorizationCache 2", instance.getCachedAuthorizationResult("key"), nullValue());
+        assertThat("testAuthorizationCache 3", instance.getCachedGroupMembership(0), notNullValue());
+
+        // Special groups change the memberships, and so the decisions
+        instance.cacheAuthorizationResult("key", false);
+        instance.setSpecialGroup(10000);
+        assertThat("testAuthorizationCache 4", instance.getCachedAuthorizationResult("key"), nullValue());
+        assertThat("testAuthorizationCache 5", instance.getCachedGroupMembership(0), nullValue());
+
+        // Cleanup our context
+        cleanupContext(instance);
+    }
+
     /**
      * Test of finalize method, of class Context.
      */
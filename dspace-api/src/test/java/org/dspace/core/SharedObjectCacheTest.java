@@ -0,0 +1,154 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import mockit.Deencapsulation;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Community;
+import org.dspace.storage.rdbms.TableRow;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link SharedObjectCache}, enabled for each test.
+ */
+public class SharedObjectCacheTest extends AbstractUnitTest
+{
+    private Community community;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        Deencapsulation.setField(SharedObjectCache.class, "enabled", Boolean.TRUE);
+        SharedObjectCache.invalidateAll();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            community = Community.create(null, context);
+            community.setMetadata("name", "Cached community");
+            community.update();
+            context.commit();
+            context.restoreAuthSystemState();
+        }
+        catch (Exception e)
+        {
+            fail(e.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        SharedObjectCache.invalidateAll();
+        Deencapsulation.setField(SharedObjectCache.class, "enabled", (Boolean) null);
+        community = null;
+        super.destroy();
+    }
+
+    @Test
+    public void testFindIsCached() throws Exception
+    {
+        long hits = SharedObjectCache.getHitCount();
+        long misses = SharedObjectCache.getMissCount();
+
+        TableRow first = SharedObjectCache.find(context, "community", community.getID());
+        TableRow second = SharedObjectCache.find(context, "community", community.getID());
+        assertEquals(misses + 1, SharedObjectCache.getMissCount());
+        assertEquals(hits + 1, SharedObjectCache.getHitCount());
+        assertEquals(community.getID(), second.getIntColumn("community_id"));
+
+        // each caller gets its own copy
+        assertNotSame(first, second);
+        second.setColumn("logo_bitstream_id", 42);
+        TableRow third = SharedObjectCache.find(context, "community", community.getID());
+        assertTrue(third.isColumnNull("logo_bitstream_id"));
+    }
+
+    @Test
+    public void testMissingRowIsCached() throws Exception
+    {
+        assertNull(SharedObjectCache.find(context, "community", Integer.MAX_VALUE));
+        long hits = SharedObjectCache.getHitCount();
+        assertNull(SharedObjectCache.find(context, "community", Integer.MAX_VALUE));
+        assertEquals(hits + 1, SharedObjectCache.getHitCount());
+    }
+
+    @Test
+    public void testCommittedChangeInvalidates() throws Exception
+    {
+        Context reader = new Context();
+        try
+        {
+            assertEquals("Cached community", Community.find(reader, community.getID()).getName());
+        }
+        finally
+        {
+            reader.abort();
+        }
+        assertNotNull(SharedObjectCache.getMetadata(context, Constants.COMMUNITY, community.getID()));
+
+        context.turnOffAuthorisationSystem();
+        community.setMetadata("name", "Renamed community");
+        community.update();
+        context.commit();
+        context.restoreAuthSystemState();
+        assertNull(SharedObjectCache.getMetadata(context, Constants.COMMUNITY, community.getID()));
+
+        reader = new Context();
+        try
+        {
+            assertEquals("Renamed community", Community.find(reader, community.getID()).getName());
+        }
+        finally
+        {
+            reader.abort();
+        }
+    }
+
+    @Test
+    public void testLoadRacingWithInvalidationIsNotCached() throws Exception
+    {
+        long loadedAt = SharedObjectCache.getGeneration();
+        SharedObjectCache.invalidate(Constants.COMMUNITY, community.getID(), null);
+        SharedObjectCache.putHandle(context, Constants.COMMUNITY, community.getID(), "123456789/1", loadedAt);
+        assertNull(SharedObjectCache.getHandle(context, Constants.COMMUNITY, community.getID()));
+
+        SharedObjectCache.putHandle(context, Constants.COMMUNITY, community.getID(), "123456789/1",
+                SharedObjectCache.getGeneration());
+        assertEquals("123456789/1", SharedObjectCache.getHandle(context, Constants.COMMUNITY, community.getID()));
+    }
+
+    @Test
+    public void testUncommittedChangesBypassTheCache() throws Exception
+    {
+        SharedObjectCache.putHandle(context, Constants.COMMUNITY, community.getID(), "123456789/1",
+                SharedObjectCache.getGeneration());
+
+        SharedObjectCache.invalidateHandle(context, Constants.COMMUNITY, community.getID(), "123456789/1");
+        SharedObjectCache.putHandle(context, Constants.COMMUNITY, community.getID(), "123456789/2",
+                SharedObjectCache.getGeneration());
+        assertNull(SharedObjectCache.getHandle(context, Constants.COMMUNITY, community.getID()));
+
+        context.commit();
+        assertNull(SharedObjectCache.getHandle(context, Constants.COMMUNITY, community.getID()));
+        SharedObjectCache.putHandle(context, Constants.COMMUNITY, community.getID(), "123456789/2",
+                SharedObjectCache.getGeneration());
+        assertEquals("123456789/2", SharedObjectCache.getHandle(context, Constants.COMMUNITY, community.getID()));
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import mockit.Invocation;
+import mockit.Mock;
+import mockit.MockUp;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.SolrParams;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the removal of orphans by {@link SolrServiceImpl#cleanIndex}.
+ * The index is a sorted map of documents, paged through by cursor marks as
+ * Solr does, two documents at a time.
+ */
+public class SolrServiceImplTest extends AbstractUnitTest
+{
+    /** An ID no object has */
+    private static final int MISSING_ID = Integer.MAX_VALUE;
+
+    private MockSolrServer server;
+
+    private SolrServiceImpl service;
+
+    private Community community;
+
+    private Collection collection;
+
+    private Item item;
+
+    /**
+     * Pages through the index two documents at a time.
+     */
+    public static class MockConfiguration extends MockUp<ConfigurationManager>
+    {
+        @Mock
+        public String getProperty(Invocation inv, String module, String property)
+        {
+            if ("discovery".equals(module) && "index.clean.batch-size".equals(property))
+            {
+                return "2";
+            }
+            return inv.proceed(module, property);
+        }
+    }
+
+    /**
+     * Answers cursor queries from the documents added, and records the
+     * requests which would change the index.
+     */
+    private static class MockSolrServer extends HttpSolrServer
+    {
+        /** Documents by unique id, in the order of the cursor */
+        final Map<String, SolrDocument> documents = new TreeMap<String, SolrDocument>();
+
+        /** Number of queries answered */
+        int queries = 0;
+
+        /** IDs passed to each deleteById */
+        final List<List<String>> deletions = new ArrayList<List<String>>();
+
+        int commits = 0;
+
+        MockSolrServer()
+        {
+            super("http://localhost:8983/solr/search");
+        }
+
+        void add(int type, Integer id)
+        {
+            SolrDocument doc = new SolrDocument();
+            String uniqueId = type + "-" + id;
+            doc.addField("search.uniqueid", uniqueId);
+            doc.addField(SolrServiceImpl.RESOURCE_TYPE_FIELD, type);
+            if (id != null)
+            {
+                doc.addField(SolrServiceImpl.RESOURCE_ID_FIELD, id);
+            }
+            doc.addField(SolrServiceImpl.HANDLE_FIELD, "123456789/" + id);
+            documents.put(uniqueId, doc);
+        }
+
+        @Override
+        public QueryResponse query(SolrParams params)
+        {
+            queries++;
+            String cursorMark = params.get(CursorMarkParams.CURSOR_MARK_PARAM);
+            int start = CursorMarkParams.CURSOR_MARK_START.equals(cursorMark) ? 0 : Integer.parseInt(cursorMark);
+            int rows = params.getInt("rows");
+
+            List<SolrDocument> all = new ArrayList<SolrDocument>(documents.values());
+            final SolrDocumentList page = new SolrDocumentList();
+            page.addAll(all.subList(Math.min(start, all.size()), Math.min(start + rows, all.size())));
+            final String nextCursorMark = page.isEmpty() ? cursorMark : String.valueOf(start + page.size());
+
+            return new QueryResponse()
+            {
+                @Override
+                public SolrDocumentList getResults()
+                {
+                    return page;
+                }
+
+                @Override
+                public String getNextCursorMark()
+                {
+                    return nextCursorMark;
+                }
+            };
+        }
+
+        @Override
+        public UpdateResponse deleteById(List<String> ids)
+        {
+            deletions.add(new ArrayList<String>(ids));
+            return new UpdateResponse();
+        }
+
+        @Override
+        public UpdateResponse commit()
+        {
+            commits++;
+            return new UpdateResponse();
+        }
+    }
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            community = Community.create(null, context);
+            collection = community.createCollection();
+            item = InstallItem.installItem(context, WorkspaceItem.create(context, collection, false));
+            context.commit();
+            context.restoreAuthSystemState();
+        }
+        catch (Exception e)
+        {
+            fail(e.getMessage());
+        }
+
+        new MockConfiguration();
+        server = new MockSolrServer();
+        service = new SolrServiceImpl()
+        {
+            @Override
+            protected HttpSolrServer getSolr()
+            {
+                return server;
+            }
+        };
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        server = null;
+        service = null;
+        community = null;
+        collection = null;
+        item = null;
+        super.destroy();
+    }
+
+    @Test
+    public void testOrphansAreRemoved() throws Exception
+    {
+        server.add(Constants.ITEM, item.getID());
+        server.add(Constants.ITEM, MISSING_ID);
+        server.add(Constants.COLLECTION, collection.getID());
+        server.add(Constants.COLLECTION, MISSING_ID);
+        server.add(Constants.COMMUNITY, community.getID());
+        server.add(Constants.COMMUNITY, MISSING_ID);
+        server.add(Constants.COMMUNITY, null);
+
+        service.cleanIndex(false);
+
+        // every page is read, until an empty one
+        assertEquals(5, server.queries);
+
+        List<String> deleted = new ArrayList<String>();
+        for (List<String> deletion : server.deletions)
+        {
+            assertTrue(deletion.size() <= 2);
+            deleted.addAll(deletion);
+        }
+        assertEquals(new HashSet<String>(Arrays.asList(Constants.ITEM + "-" + MISSING_ID,
+                Constants.COLLECTION + "-" + MISSING_ID, Constants.COMMUNITY + "-" + MISSING_ID,
+                Constants.COMMUNITY + "-null")), new HashSet<String>(deleted));
+        assertEquals(4, deleted.size());
+        assertEquals(1, server.commits);
+    }
+
+    @Test
+    public void testNothingToRemove() throws Exception
+    {
+        server.add(Constants.ITEM, item.getID());
+        server.add(Constants.COLLECTION, collection.getID());
+        server.add(Constants.COMMUNITY, community.getID());
+
+        service.cleanIndex(false);
+
+        assertTrue(server.deletions.isEmpty());
+        assertEquals(0, server.commits);
+    }
+
+    @Test
+    public void testEmptyIndex() throws Exception
+    {
+        service.cleanIndex(false);
+
+        assertEquals(1, server.queries);
+        assertTrue(server.deletions.isEmpty());
+        assertEquals(0, server.commits);
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.dspace.AbstractUnitTest;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRowIterator;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the incremental maintenance of group2groupcache by {@link GroupCache}.
+ */
+public class GroupCacheTest extends AbstractUnitTest
+{
+    @Test
+    public void testAddAndRemoveSubgroups() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        try
+        {
+            Group top = Group.create(context);
+            Group middle = Group.create(context);
+            Group bottom = Group.create(context);
+            bottom.addMember(eperson);
+            bottom.update();
+            assertFalse(Group.allMemberGroupIDs(context, eperson).contains(top.getID()));
+
+            middle.addMember(bottom);
+            middle.update();
+            top.addMember(middle);
+            top.update();
+
+            assertEquals(0, GroupCache.verify(context, false));
+            assertEquals(ids(middle, bottom), cachedChildren(top));
+            assertEquals(ids(bottom), cachedChildren(middle));
+            assertEquals(ids(), cachedChildren(bottom));
+            assertTrue(Group.allMemberGroupIDs(context, eperson).containsAll(ids(top, middle, bottom)));
+
+            // Still reachable from top through middle
+            top.addMember(bottom);
+            top.update();
+            assertEquals(ids(middle, bottom), cachedChildren(top));
+
+            middle.removeMember(bottom);
+            middle.update();
+            assertEquals(0, GroupCache.verify(context, false));
+            assertEquals(ids(middle, bottom), cachedChildren(top));
+            assertEquals(ids(), cachedChildren(middle));
+            Set<Integer> memberships = Group.allMemberGroupIDs(context, eperson);
+            assertTrue(memberships.contains(top.getID()));
+            assertFalse(memberships.contains(middle.getID()));
+
+            top.removeMember(bottom);
+            top.update();
+            assertEquals(0, GroupCache.verify(context, false));
+            assertEquals(ids(middle), cachedChildren(top));
+            memberships = Group.allMemberGroupIDs(context, eperson);
+            assertFalse(memberships.contains(top.getID()));
+            assertTrue(memberships.contains(bottom.getID()));
+        }
+        finally
+        {
+            context.restoreAuthSystemState();
+        }
+    }
+
+    @Test
+    public void testDeleteIntermediateGroup() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        try
+        {
+            Group top = Group.create(context);
+            Group middle = Group.create(context);
+            Group bottom = Group.create(context);
+            bottom.addMember(eperson);
+            bottom.update();
+
+            middle.addMember(bottom);
+            middle.update();
+            top.addMember(middle);
+            top.update();
+            assertTrue(Group.allMemberGroupIDs(context, eperson).contains(top.getID()));
+
+            int middleID = middle.getID();
+            middle.delete();
+            assertEquals(0, GroupCache.verify(context, false));
+            assertFalse(GroupCache.computeClosure(context).containsKey(top.getID()));
+            assertEquals(ids(), cachedChildren(top));
+            assertEquals(0, count("SELECT COUNT(*) AS n FROM group2groupcache WHERE parent_id = ? OR child_id = ?",
+                    middleID, middleID));
+            Set<Integer> memberships = Group.allMemberGroupIDs(context, eperson);
+            assertFalse(memberships.contains(top.getID()));
+            assertFalse(memberships.contains(middleID));
+            assertTrue(memberships.contains(bottom.getID()));
+        }
+        finally
+        {
+            context.restoreAuthSystemState();
+        }
+    }
+
+    @Test
+    public void testDeleteMemberGroup() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        try
+        {
+            Group top = Group.create(context);
+            Group middle = Group.create(context);
+            Group bottom = Group.create(context);
+
+            middle.addMember(bottom);
+            middle.update();
+            top.addMember(middle);
+            top.update();
+
+            int bottomID = bottom.getID();
+            bottom.delete();
+            assertEquals(0, GroupCache.verify(context, false));
+            assertEquals(ids(middle), cachedChildren(top));
+            assertEquals(ids(), cachedChildren(middle));
+            assertEquals(0, count("SELECT COUNT(*) AS n FROM group2groupcache WHERE child_id = ?", bottomID));
+        }
+        finally
+        {
+            context.restoreAuthSystemState();
+        }
+    }
+
+    /**
+     * @return the groups below a group, as stored in group2groupcache
+     */
+    private Set<Integer> cachedChildren(Group parent) throws Exception
+    {
+        Set<Integer> children = new HashSet<Integer>();
+        TableRowIterator tri = DatabaseManager.query(context,
+                "SELECT child_id FROM group2groupcache WHERE parent_id = ?", parent.getID());
+        try
+        {
+            while (tri.hasNext())
+            {
+                children.add(tri.next().getIntColumn("child_id"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        return children;
+    }
+
+    private long count(String query, Object... parameters) throws Exception
+    {
+        return DatabaseManager.querySingle(context, query, parameters).getLongColumn("n");
+    }
+
+    private static Set<Integer> ids(Group... groups)
+    {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (Group group : groups)
+        {
+            ids.add(group.getID());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.handle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import mockit.Invocation;
+import mockit.Mock;
+import mockit.MockUp;
+import net.handle.hdllib.Encoder;
+import net.handle.hdllib.HandleValue;
+import net.handle.hdllib.Util;
+import org.dspace.AbstractUnitTest;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for the resolutions cached by {@link HandlePlugin}. The handles are
+ * added to and removed from the handle table directly, behind the back of
+ * the plugin, so that a cached resolution can be told from a fresh one.
+ */
+public class HandlePluginTest extends AbstractUnitTest
+{
+    /** Configuration overriding dspace.cfg, for the plugin of each test */
+    private static final Map<String, String> overrides = new HashMap<String, String>();
+
+    private HandlePlugin plugin;
+
+    private String handle;
+
+    /**
+     * Answers the handle.plugin properties of the test, and reads the others
+     * from dspace.cfg.
+     */
+    public static class MockConfiguration extends MockUp<ConfigurationManager>
+    {
+        @Mock
+        public String getProperty(Invocation inv, String module, String property)
+        {
+            if (module == null && overrides.containsKey(property))
+            {
+                return overrides.get(property);
+            }
+            return inv.proceed(module, property);
+        }
+    }
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        new MockConfiguration();
+        overrides.clear();
+        overrides.put("handle.plugin.cache.ttl", "3600");
+        overrides.put("handle.plugin.cache.check-interval", "3600");
+        handle = "123456789/plugin-" + System.nanoTime();
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        if (plugin != null)
+        {
+            plugin.shutdown();
+            plugin = null;
+        }
+        overrides.clear();
+        super.destroy();
+    }
+
+    @Test
+    public void testResolutionIsCached() throws Exception
+    {
+        addHandle();
+        plugin = new HandlePlugin();
+        assertEquals(url(), resolve());
+
+        removeHandle();
+        assertEquals(url(), resolve());
+    }
+
+    @Test
+    public void testResolutionExpires() throws Exception
+    {
+        overrides.put("handle.plugin.cache.ttl", "1");
+        addHandle();
+        plugin = new HandlePlugin();
+        assertEquals(url(), resolve());
+
+        removeHandle();
+        Thread.sleep(1100);
+        assertNull(resolve());
+    }
+
+    @Test
+    public void testUnknownHandleIsCached() throws Exception
+    {
+        plugin = new HandlePlugin();
+        assertNull(resolve());
+
+        // within the check interval, the new handle is not seen
+        addHandle();
+        assertNull(resolve());
+    }
+
+    @Test
+    public void testNewHandleIsFound() throws Exception
+    {
+        overrides.put("handle.plugin.cache.check-interval", "0");
+        plugin = new HandlePlugin();
+        assertNull(resolve());
+
+        addHandle();
+        assertEquals(url(), resolve());
+    }
+
+    @Test
+    public void testCacheDisabled() throws Exception
+    {
+        overrides.put("handle.plugin.cache.size", "0");
+        addHandle();
+        plugin = new HandlePlugin();
+        assertEquals(url(), resolve());
+
+        removeHandle();
+        assertNull(resolve());
+    }
+
+    private String url()
+    {
+        return ConfigurationManager.getProperty("dspace.url") + "/handle/" + handle;
+    }
+
+    /**
+     * @return the URL the plugin resolves the handle to, or null if unknown
+     */
+    private String resolve() throws Exception
+    {
+        byte[][] rawValues = plugin.getRawHandleValues(Util.encodeString(handle), null, null);
+        if (rawValues == null)
+        {
+            return null;
+        }
+
+        assertEquals(1, rawValues.length);
+        HandleValue value = new HandleValue();
+        Encoder.decodeHandleValue(rawValues[0], 0, value);
+        return value.getDataAsString();
+    }
+
+    private void addHandle() throws Exception
+    {
+        TableRow row = DatabaseManager.create(context, "Handle");
+        row.setColumn("handle", handle);
+        DatabaseManager.update(context, row);
+        context.commit();
+    }
+
+    private void removeHandle() throws Exception
+    {
+        DatabaseManager.updateQuery(context, "DELETE FROM handle WHERE handle = ?", handle);
+        context.commit();
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.harvest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Read the pages of a ListRecords response served by a local stand-in for
+ * an OAI-PMH provider.
+ */
+public class ListRecordsReaderTest
+{
+    private static final Namespace OAI_NS = Namespace.getNamespace("http://www.openarchives.org/OAI/2.0/");
+
+    private HttpServer server;
+
+    private String baseURL;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/oai", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                String query = exchange.getRequestURI().getQuery();
+                String body;
+                if (query.contains("resumptionToken=page2"))
+                {
+                    body = page(record("oai:test:3"), "");
+                }
+                else if (query.contains("resumptionToken="))
+                {
+                    body = "<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\">"
+                            + "<error code=\"badResumptionToken\">expired</error></OAI-PMH>";
+                }
+                else
+                {
+                    body = page(record("oai:test:1") + record("oai:test:2"), "page2");
+                }
+
+                byte[] bytes = body.getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.start();
+        baseURL = "http://localhost:" + server.getAddress().getPort() + "/oai";
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+    }
+
+    @Test
+    public void testPages() throws Exception
+    {
+        ListRecordsReader reader = new ListRecordsReader(baseURL);
+        try
+        {
+            ListRecordsReader.Page page = reader.first(null, null, null, "oai_dc");
+            assertTrue(page.getErrors().isEmpty());
+            assertEquals(2, page.getRecordCount());
+            assertEquals("page2", page.getResumptionToken());
+            assertEquals("oai:test:1", identifier(page.nextRecord()));
+            assertEquals("oai:test:2", identifier(page.nextRecord()));
+            assertNull(page.nextRecord());
+            page.close();
+
+            page = reader.next();
+            assertNotNull(page);
+            assertEquals(1, page.getRecordCount());
+            assertNull(page.getResumptionToken());
+            Element record = page.nextRecord();
+            assertEquals("oai:test:3", identifier(record));
+            assertEquals("Title oai:test:3", record.getChild("metadata", OAI_NS)
+                    .getChild("dc", Namespace.getNamespace("http://www.openarchives.org/OAI/2.0/oai_dc/"))
+                    .getChildText("title", Namespace.getNamespace("http://purl.org/dc/elements/1.1/")));
+            page.close();
+
+            assertNull(reader.next());
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testBadResumptionToken() throws Exception
+    {
+        ListRecordsReader reader = new ListRecordsReader(baseURL);
+        try
+        {
+            ListRecordsReader.Page page = reader.first("expired");
+            assertEquals(1, page.getErrors().size());
+            assertEquals("badResumptionToken", page.getErrors().get(0));
+            assertEquals(0, page.getRecordCount());
+            assertNull(page.nextRecord());
+            page.close();
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private static String identifier(Element record)
+    {
+        assertNotNull(record);
+        return record.getChild("header", OAI_NS).getChildText("identifier", OAI_NS);
+    }
+
+    private static String record(String identifier)
+    {
+        return "<record><header><identifier>" + identifier + "</identifier>"
+                + "<datestamp>2016-01-01T00:00:00Z</datestamp></header>"
+                + "<metadata><oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\""
+                + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\"><dc:title>Title " + identifier
+                + "</dc:title></oai_dc:dc></metadata></record>";
+    }
+
+    private static String page(String records, String token)
+    {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\">"
+                + "<responseDate>2016-01-01T00:00:00Z</responseDate>"
+                + "<request verb=\"ListRecords\">http://localhost/oai</request>"
+                + "<ListRecords>" + records + "<resumptionToken>" + token + "</resumptionToken></ListRecords>"
+                + "</OAI-PMH>";
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.dspace.core.Constants;
+import org.dspace.statistics.AsyncUsageEventWriter.OverflowPolicy;
+import org.dspace.statistics.AsyncUsageEventWriter.PendingUsageEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link AsyncUsageEventWriter}. The events are handed to a list
+ * instead of being sent to Solr.
+ */
+public class AsyncUsageEventWriterTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File spillFile;
+
+    /** The batches sent, in order */
+    private final List<List<PendingUsageEvent>> sent
+            = Collections.synchronizedList(new ArrayList<List<PendingUsageEvent>>());
+
+    /** The writer of the test, stopped after it */
+    private AsyncUsageEventWriter current;
+
+    @Before
+    public void setUp()
+    {
+        spillFile = new File(folder.getRoot(), "usage-events.spill");
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (current != null)
+        {
+            current.shutdown();
+        }
+    }
+
+    private AsyncUsageEventWriter writer(int queueSize, int batchSize, OverflowPolicy policy)
+    {
+        current = new AsyncUsageEventWriter(queueSize, batchSize, 1, policy, spillFile, 0)
+        {
+            @Override
+            void send(List<PendingUsageEvent> batch)
+            {
+                sent.add(new ArrayList<PendingUsageEvent>(batch));
+            }
+        };
+        return current;
+    }
+
+    private static PendingUsageEvent event(int id)
+    {
+        return new PendingUsageEvent(Constants.ITEM, id, "10.0.0." + id, null, "Agent\t" + id + "\n",
+                false, id % 2 == 0 ? null : id, "2016-01-01T00:00:00.000Z");
+    }
+
+    private void awaitWritten(AsyncUsageEventWriter writer, long count) throws InterruptedException
+    {
+        for (int i = 0; i < 100 && writer.getWritten() < count; i++)
+        {
+            Thread.sleep(50);
+        }
+        assertEquals(count, writer.getWritten());
+    }
+
+    @Test
+    public void testQueuedEventsAreSentInBatches() throws Exception
+    {
+        AsyncUsageEventWriter writer = writer(100, 10, OverflowPolicy.DROP);
+        for (int i = 0; i < 25; i++)
+        {
+            writer.enqueue(event(i));
+        }
+        writer.start();
+        awaitWritten(writer, 25);
+
+        assertEquals(3, sent.size());
+        assertEquals(10, sent.get(0).size());
+        assertEquals(10, sent.get(1).size());
+        assertEquals(5, sent.get(2).size());
+        assertEquals(0, sent.get(0).get(0).objectId);
+        assertEquals(24, sent.get(2).get(4).objectId);
+        assertEquals(25, writer.getEnqueued());
+        assertEquals(0, writer.getQueueDepth());
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception
+    {
+        AsyncUsageEventWriter writer = writer(2, 10, OverflowPolicy.DROP);
+        writer.enqueue(event(1));
+        writer.enqueue(event(2));
+        writer.enqueue(event(3));
+
+        assertEquals(2, writer.getQueueDepth());
+        assertEquals(1, writer.getDropped());
+        assertFalse(spillFile.exists());
+    }
+
+    @Test
+    public void testSpillAndReplay() throws Exception
+    {
+        AsyncUsageEventWriter writer = writer(1, 10, OverflowPolicy.SPILL);
+        writer.enqueue(event(1));
+        writer.enqueue(event(2));
+        writer.enqueue(event(3));
+
+        assertEquals(1, writer.getQueueDepth());
+        assertEquals(2, writer.getSpilled());
+        assertEquals(2, FileUtils.readLines(spillFile, "UTF-8").size());
+
+        writer.recoverSpilled();
+        assertEquals(1, sent.size());
+        List<PendingUsageEvent> replayed = sent.get(0);
+        assertEquals(2, replayed.size());
+        assertEquals(2, replayed.get(0).objectId);
+        assertEquals("10.0.0.2", replayed.get(0).ip);
+        assertNull(replayed.get(0).referrer);
+        assertEquals("Agent\t2\n", replayed.get(0).userAgent);
+        assertNull(replayed.get(0).epersonId);
+        assertEquals(Integer.valueOf(3), replayed.get(1).epersonId);
+        assertEquals(2, writer.getWritten());
+        assertFalse(spillFile.exists());
+        assertFalse(new File(spillFile.getPath() + ".processing").exists());
+
+        // spilling starts again in a new file
+        writer.enqueue(event(4));
+        assertEquals(3, writer.getSpilled());
+        assertEquals(1, FileUtils.readLines(spillFile, "UTF-8").size());
+    }
+
+    @Test
+    public void testShutdownSpillsQueuedEvents() throws Exception
+    {
+        AsyncUsageEventWriter writer = writer(10, 10, OverflowPolicy.SPILL);
+        writer.enqueue(event(1));
+        writer.enqueue(event(2));
+        writer.shutdown();
+
+        assertTrue(sent.isEmpty());
+        assertEquals(2, writer.getSpilled());
+        assertEquals(2, FileUtils.readLines(spillFile, "UTF-8").size());
+
+        // stopping again does nothing
+        writer.shutdown();
+        assertEquals(2, writer.getSpilled());
+    }
+
+    @Test
+    public void testShutdownWritesQueuedEvents() throws Exception
+    {
+        AsyncUsageEventWriter writer = writer(10, 10, OverflowPolicy.BLOCK);
+        writer.enqueue(event(1));
+        writer.enqueue(event(2));
+        writer.shutdown();
+
+        assertEquals(1, sent.size());
+        assertEquals(2, writer.getWritten());
+        assertFalse(spillFile.exists());
+    }
+
+    @Test
+    public void testLineRoundTrip() throws Exception
+    {
+        PendingUsageEvent event = new PendingUsageEvent(-1, -1, null, "http://example.com/?a=b&c=d", "",
+                true, 7, "2016-01-01T00:00:00.000Z");
+        PendingUsageEvent copy = PendingUsageEvent.fromLine(event.toLine());
+
+        assertEquals(Arrays.asList(-1, -1), Arrays.asList(copy.objectType, copy.objectId));
+        assertNull(copy.ip);
+        assertEquals("http://example.com/?a=b&c=d", copy.referrer);
+        assertEquals("", copy.userAgent);
+        assertTrue(copy.isBot);
+        assertEquals(Integer.valueOf(7), copy.epersonId);
+        assertEquals("2016-01-01T00:00:00.000Z", copy.time);
+    }
+}
@@ -0,0 +1,633 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import mockit.Mock;
+import mockit.MockUp;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateFormatUtils;
+import org.apache.commons.lang.time.DateUtils;
+import org.apache.solr.client.solrj.response.PivotField;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.NamedList;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.statistics.content.DatasetDSpaceObjectGenerator;
+import org.dspace.statistics.content.DatasetGenerator;
+import org.dspace.statistics.content.DatasetTimeGenerator;
+import org.dspace.statistics.content.DatasetTypeGenerator;
+import org.dspace.statistics.content.StatisticsDataVisits;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link StatisticsRollup}: the reports of
+ * {@link StatisticsDataVisits} on an item are built once from the rollups and
+ * once from Solr alone, and must be the same. Solr is replaced by a list of
+ * views, which the mocked {@link SolrLogger} filters and facets.
+ */
+public class StatisticsRollupTest extends AbstractUnitTest
+{
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static final int FIRST_BITSTREAM = 9001;
+
+    private static final int SECOND_BITSTREAM = 9002;
+
+    private MockSolrLogger solr;
+
+    /** Whether the reports are built from the rollups */
+    private boolean rollupEnabled;
+
+    private TimeZone defaultTimeZone;
+
+    private Item item;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        // the date filters of the reports are in local time, Solr reads them as UTC
+        defaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(UTC);
+
+        solr = new MockSolrLogger();
+        new MockUp<StatisticsRollup>()
+        {
+            @Mock
+            public boolean isEnabled()
+            {
+                return rollupEnabled;
+            }
+        };
+        rollupEnabled = true;
+
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            Community community = Community.create(null, context);
+            Collection collection = community.createCollection();
+            WorkspaceItem workspaceItem = WorkspaceItem.create(context, collection, false);
+            item = InstallItem.installItem(context, workspaceItem);
+            DatabaseManager.updateQuery(context, "DELETE FROM statistics_rollup");
+            context.commit();
+            context.restoreAuthSystemState();
+
+            int itemId = item.getID();
+            solr.view(Constants.ITEM, itemId, null, "US", -40);
+            solr.view(Constants.ITEM, itemId, null, "FR", -40);
+            solr.view(Constants.ITEM, itemId, null, "US", -8);
+            solr.view(Constants.ITEM, itemId, null, "US", -6);
+            solr.view(Constants.ITEM, itemId, null, "US", -6);
+            solr.view(Constants.ITEM, itemId, null, null, -6);
+            solr.view(Constants.ITEM, itemId, null, "FR", -3);
+            solr.view(Constants.ITEM, itemId, null, "US", -1);
+            // today, not aggregated yet
+            solr.view(Constants.ITEM, itemId, null, "US", 0);
+            solr.view(Constants.ITEM, itemId, null, "DE", 0);
+
+            solr.view(Constants.BITSTREAM, FIRST_BITSTREAM, itemId, "US", -6);
+            solr.view(Constants.BITSTREAM, FIRST_BITSTREAM, itemId, "US", -1);
+            solr.view(Constants.BITSTREAM, FIRST_BITSTREAM, itemId, null, -1);
+            solr.view(Constants.BITSTREAM, FIRST_BITSTREAM, itemId, "US", 0);
+            solr.view(Constants.BITSTREAM, SECOND_BITSTREAM, itemId, "DE", -40);
+            solr.view(Constants.BITSTREAM, SECOND_BITSTREAM, itemId, "DE", -3);
+            solr.view(Constants.BITSTREAM, SECOND_BITSTREAM, itemId, "DE", 0);
+            solr.view(Constants.BITSTREAM, SECOND_BITSTREAM, itemId, "DE", 0);
+            solr.view(Constants.BITSTREAM, SECOND_BITSTREAM, itemId, null, 0);
+
+            StatisticsRollup.update(context, false);
+        }
+        catch (Exception e)
+        {
+            fail(e.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        try
+        {
+            DatabaseManager.updateQuery(context, "DELETE FROM statistics_rollup");
+            context.commit();
+        }
+        catch (Exception e)
+        {
+            fail(e.getMessage());
+        }
+        TimeZone.setDefault(defaultTimeZone);
+        item = null;
+        solr = null;
+        super.destroy();
+    }
+
+    @Test
+    public void testItemViewsPerDay() throws Exception
+    {
+        Dataset direct = assertSameReport(timeAxis("DAY", "-6", "+1"), objectAxis(Constants.ITEM));
+
+        // the views of the last week, today's included
+        List<String> row = Arrays.asList(direct.getMatrix()[0]);
+        assertEquals("7", row.get(row.size() - 1));
+        assertEquals("2", row.get(row.size() - 2));
+    }
+
+    @Test
+    public void testItemViewsPerMonth() throws Exception
+    {
+        assertSameReport(timeAxis("MONTH", "-6", "+1"), objectAxis(Constants.ITEM));
+    }
+
+    @Test
+    public void testItemViewsPerYear() throws Exception
+    {
+        assertSameReport(timeAxis("YEAR", "-1", "+1"), objectAxis(Constants.ITEM));
+    }
+
+    @Test
+    public void testBitstreamViewsPerDay() throws Exception
+    {
+        assertSameReport(timeAxis("DAY", "-6", "+1"), objectAxis(Constants.BITSTREAM));
+    }
+
+    @Test
+    public void testAllTimeViews() throws Exception
+    {
+        Dataset direct = assertSameReport(objectAxis(Constants.ITEM));
+        assertEquals("10", direct.getMatrix()[0][0]);
+    }
+
+    @Test
+    public void testAllTimeBitstreamViews() throws Exception
+    {
+        Dataset direct = assertSameReport(objectAxis(Constants.BITSTREAM));
+        assertEquals(Arrays.asList(String.valueOf(SECOND_BITSTREAM), String.valueOf(FIRST_BITSTREAM)),
+                direct.getColLabels());
+    }
+
+    @Test
+    public void testAllTimeCountries() throws Exception
+    {
+        DatasetTypeGenerator countryAxis = new DatasetTypeGenerator();
+        countryAxis.setType("countryCode");
+        countryAxis.setMax(10);
+        Dataset direct = assertSameReport(countryAxis);
+        assertEquals(3, direct.getColLabels().size());
+    }
+
+    @Test
+    public void testUpdateAggregatesEndedDaysOnce() throws Exception
+    {
+        long rows = count("SELECT COUNT(*) AS n FROM statistics_rollup");
+        StatisticsRollup.update(context, false);
+        assertEquals(rows, count("SELECT COUNT(*) AS n FROM statistics_rollup"));
+
+        // one row for the views from the US, one for those without a country
+        assertEquals(2, count("SELECT COUNT(*) AS n FROM statistics_rollup"
+                + " WHERE dso_type = ? AND dso_id = ? AND view_day = ?", Constants.BITSTREAM, FIRST_BITSTREAM, day(-1)));
+        assertEquals(item.getID(), count("SELECT MAX(owning_item) AS n FROM statistics_rollup"
+                + " WHERE dso_type = ? AND dso_id = ?", Constants.BITSTREAM, SECOND_BITSTREAM));
+        assertEquals(0, count("SELECT COUNT(*) AS n FROM statistics_rollup WHERE view_day = ?", day(0)));
+    }
+
+    /**
+     * Views logged late, or flagged as spiders, on days already aggregated
+     * are only counted once the rollups are rebuilt.
+     */
+    @Test
+    public void testLateViewsNeedRebuild() throws Exception
+    {
+        DatasetGenerator[] report = { timeAxis("DAY", "-6", "+1"), objectAxis(Constants.ITEM) };
+
+        // replayed from the spill file
+        solr.view(Constants.ITEM, item.getID(), null, "US", -3);
+        // flagged as a spider
+        solr.remove(Constants.ITEM, item.getID(), -1);
+
+        StatisticsRollup.update(context, false);
+        Dataset direct = report(false, report);
+        Dataset rolledUp = report(true, report);
+        assertEquals(direct.getColLabels(), rolledUp.getColLabels());
+        assertFalse(Arrays.equals(direct.getMatrix()[0], rolledUp.getMatrix()[0]));
+        assertEquals(direct.getMatrix()[0][direct.getNbCols() - 1], rolledUp.getMatrix()[0][rolledUp.getNbCols() - 1]);
+
+        StatisticsRollup.update(context, true);
+        assertSameReport(report);
+    }
+
+    /**
+     * Build the report from Solr, then from the rollups, and compare them.
+     *
+     * @return the report built from Solr
+     */
+    private Dataset assertSameReport(DatasetGenerator... generators) throws Exception
+    {
+        assertNotNull(StatisticsRollup.open(context, null, null, null));
+        Dataset direct = report(false, generators);
+        Dataset rolledUp = report(true, generators);
+
+        assertEquals(direct.getColLabels(), rolledUp.getColLabels());
+        assertEquals(direct.getRowLabels(), rolledUp.getRowLabels());
+        assertArrayEquals(direct.getMatrix(), rolledUp.getMatrix());
+        return direct;
+    }
+
+    private Dataset report(boolean fromRollup, DatasetGenerator... generators) throws Exception
+    {
+        rollupEnabled = fromRollup;
+        try
+        {
+            StatisticsDataVisits visits = new StatisticsDataVisits(item);
+            for (DatasetGenerator generator : generators)
+            {
+                visits.addDatasetGenerator(generator);
+            }
+            return visits.createDataset(context);
+        }
+        finally
+        {
+            rollupEnabled = true;
+        }
+    }
+
+    private static DatasetTimeGenerator timeAxis(String type, String start, String end)
+    {
+        DatasetTimeGenerator timeAxis = new DatasetTimeGenerator();
+        timeAxis.setDateInterval(type, start, end);
+        timeAxis.setIncludeTotal(true);
+        return timeAxis;
+    }
+
+    private static DatasetDSpaceObjectGenerator objectAxis(int type)
+    {
+        DatasetDSpaceObjectGenerator objectAxis = new DatasetDSpaceObjectGenerator();
+        objectAxis.addDsoChild(type, 10, false, -1);
+        return objectAxis;
+    }
+
+    private long count(String query, Object... parameters) throws Exception
+    {
+        return DatabaseManager.querySingle(context, query, parameters).getLongColumn("n");
+    }
+
+    /**
+     * @return the UTC day at the offset from today, as stored in the rollups
+     */
+    private static int day(int offset)
+    {
+        Calendar day = DateUtils.truncate(Calendar.getInstance(UTC), Calendar.DATE);
+        day.add(Calendar.DATE, offset);
+        return day.get(Calendar.YEAR) * 10000 + (day.get(Calendar.MONTH) + 1) * 100
+                + day.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Solr statistics made of a list of views, queried by field, with the
+     * time ranges and the facets of the reports and of the rollups.
+     */
+    static class MockSolrLogger extends MockUp<SolrLogger>
+    {
+        private static final Pattern TIME_RANGE = Pattern.compile("time:([\\[{])(\\S+) TO (\\S+)([\\]}])");
+
+        private final List<Map<String, Object>> views = new ArrayList<Map<String, Object>>();
+
+        @Mock
+        public void $clinit() {}
+
+        /**
+         * Log a view at noon (UTC), days from today.
+         */
+        void view(int type, int id, Integer owningItem, String countryCode, int days)
+        {
+            Calendar time = DateUtils.truncate(Calendar.getInstance(UTC), Calendar.DATE);
+            time.add(Calendar.DATE, days);
+            time.add(Calendar.HOUR_OF_DAY, 12);
+
+            Map<String, Object> view = new HashMap<String, Object>();
+            view.put("type", type);
+            view.put("id", id);
+            view.put("owningItem", owningItem);
+            view.put("countryCode", countryCode);
+            view.put("time", time.getTime());
+            views.add(view);
+        }
+
+        /**
+         * Drop one view of an object, days from today.
+         */
+        void remove(int type, int id, int days)
+        {
+            for (Iterator<Map<String, Object>> it = views.iterator(); it.hasNext();)
+            {
+                Map<String, Object> view = it.next();
+                Calendar time = Calendar.getInstance(UTC);
+                time.setTime((Date) view.get("time"));
+                time.add(Calendar.DATE, -days);
+                if (view.get("type").equals(type) && view.get("id").equals(id)
+                        && DateUtils.isSameDay(time, Calendar.getInstance(UTC)))
+                {
+                    it.remove();
+                    return;
+                }
+            }
+            fail("No view to remove");
+        }
+
+        @Mock
+        public QueryResponse queryFacetPivot(String query, String filterQuery, String... pivots)
+        {
+            final NamedList<List<PivotField>> facets = new NamedList<List<PivotField>>();
+            List<Map<String, Object>> matching = select(query, filterQuery);
+            for (String pivot : pivots)
+            {
+                facets.add(pivot, pivot(matching, pivot.split(","), 0));
+            }
+            return new QueryResponse()
+            {
+                @Override
+                public NamedList<List<PivotField>> getFacetPivot()
+                {
+                    return facets;
+                }
+            };
+        }
+
+        @Mock
+        public QueryResponse query(String query, String filterQuery, String facetField, int rows, int max,
+                String dateType, String dateStart, String dateEnd, List<String> facetQueries, String sort,
+                boolean ascending)
+        {
+            List<Map<String, Object>> matching = select(query, filterQuery);
+            Collections.sort(matching, new Comparator<Map<String, Object>>()
+            {
+                public int compare(Map<String, Object> first, Map<String, Object> second)
+                {
+                    return ((Date) first.get("time")).compareTo((Date) second.get("time"));
+                }
+            });
+
+            final SolrDocumentList results = new SolrDocumentList();
+            results.setNumFound(matching.size());
+            for (int i = 0; i < rows && i < matching.size(); i++)
+            {
+                SolrDocument document = new SolrDocument();
+                for (Map.Entry<String, Object> field : matching.get(i).entrySet())
+                {
+                    document.setField(field.getKey(), field.getValue());
+                }
+                results.add(document);
+            }
+            return new QueryResponse()
+            {
+                @Override
+                public SolrDocumentList getResults()
+                {
+                    return results;
+                }
+            };
+        }
+
+        @Mock
+        public ObjectCount[] queryFacetDate(String query, String filterQuery, int max, String dateType,
+                String dateStart, String dateEnd, boolean showTotal, Context context)
+        {
+            int field = "DAY".equals(dateType) ? Calendar.DATE
+                    : "MONTH".equals(dateType) ? Calendar.MONTH : Calendar.YEAR;
+            Calendar now = DateUtils.truncate(Calendar.getInstance(UTC), field);
+            Calendar end = (Calendar) now.clone();
+            end.add(field, Integer.parseInt(dateEnd));
+
+            List<Map<String, Object>> matching = select(query, filterQuery);
+            List<ObjectCount> counts = new ArrayList<ObjectCount>();
+            for (int i = Integer.parseInt(dateStart); ; i++)
+            {
+                Calendar bucket = (Calendar) now.clone();
+                bucket.add(field, i);
+                Calendar next = (Calendar) bucket.clone();
+                next.add(field, 1);
+                if (next.after(end))
+                {
+                    break;
+                }
+
+                int views = 0;
+                for (Map<String, Object> view : matching)
+                {
+                    Date time = (Date) view.get("time");
+                    if (!time.before(bucket.getTime()) && time.before(next.getTime()))
+                    {
+                        views++;
+                    }
+                }
+                ObjectCount count = new ObjectCount();
+                count.setValue(SolrLogger.getDateView(
+                        DateFormatUtils.format(bucket.getTime(), SolrLogger.DATE_FORMAT_DCDATE, UTC),
+                        dateType, context));
+                count.setCount(views);
+                counts.add(count);
+            }
+            if (showTotal)
+            {
+                ObjectCount total = new ObjectCount();
+                total.setValue("total");
+                total.setCount(matching.size());
+                counts.add(total);
+            }
+            return counts.toArray(new ObjectCount[counts.size()]);
+        }
+
+        @Mock
+        public ObjectCount[] queryFacetField(String query, String filterQuery, String facetField, int max,
+                boolean showTotal, List<String> facetQueries)
+        {
+            List<Map<String, Object>> matching = select(query, filterQuery);
+            List<ObjectCount> counts = new ArrayList<ObjectCount>();
+            for (Map.Entry<Object, List<Map<String, Object>>> group : group(matching, facetField).entrySet())
+            {
+                ObjectCount count = new ObjectCount();
+                count.setValue(String.valueOf(group.getKey()));
+                count.setCount(group.getValue().size());
+                counts.add(count);
+            }
+            Collections.sort(counts, new Comparator<ObjectCount>()
+            {
+                public int compare(ObjectCount first, ObjectCount second)
+                {
+                    if (first.getCount() != second.getCount())
+                    {
+                        return first.getCount() > second.getCount() ? -1 : 1;
+                    }
+                    return first.getValue().compareTo(second.getValue());
+                }
+            });
+            if (max != -1 && max < counts.size())
+            {
+                counts = counts.subList(0, max);
+            }
+            if (showTotal)
+            {
+                ObjectCount total = new ObjectCount();
+                total.setValue("total");
+                total.setCount(matching.size());
+                counts.add(total);
+            }
+            return counts.toArray(new ObjectCount[counts.size()]);
+        }
+
+        private static List<PivotField> pivot(List<Map<String, Object>> views, String[] fields, int level)
+        {
+            List<PivotField> pivot = new ArrayList<PivotField>();
+            for (Map.Entry<Object, List<Map<String, Object>>> group : group(views, fields[level]).entrySet())
+            {
+                pivot.add(new PivotField(fields[level], group.getKey(), group.getValue().size(),
+                        level + 1 < fields.length ? pivot(group.getValue(), fields, level + 1) : null));
+            }
+            return pivot;
+        }
+
+        /**
+         * Group the views on the values of a field, leaving out those
+         * without a value as Solr does.
+         */
+        private static Map<Object, List<Map<String, Object>>> group(List<Map<String, Object>> views, String field)
+        {
+            Map<Object, List<Map<String, Object>>> groups = new LinkedHashMap<Object, List<Map<String, Object>>>();
+            for (Map<String, Object> view : views)
+            {
+                Object value = view.get(field);
+                if (value != null)
+                {
+                    if (!groups.containsKey(value))
+                    {
+                        groups.put(value, new ArrayList<Map<String, Object>>());
+                    }
+                    groups.get(value).add(view);
+                }
+            }
+            return groups;
+        }
+
+        private List<Map<String, Object>> select(String query, String filterQuery)
+        {
+            List<Map<String, Object>> matching = new ArrayList<Map<String, Object>>();
+            for (Map<String, Object> view : views)
+            {
+                if (matches(view, query) && matches(view, filterQuery))
+                {
+                    matching.add(view);
+                }
+            }
+            return matching;
+        }
+
+        /**
+         * Match a view against the time ranges and the "field:value" clauses
+         * of a query. The negative clauses (on the statistics type) and the
+         * match-all query are left out: all the views are views.
+         */
+        private static boolean matches(Map<String, Object> view, String query)
+        {
+            if (StringUtils.isBlank(query))
+            {
+                return true;
+            }
+
+            Date time = (Date) view.get("time");
+            Matcher range = TIME_RANGE.matcher(query);
+            while (range.find())
+            {
+                if (!"*".equals(range.group(2)))
+                {
+                    int compared = time.compareTo(parse(range.group(2)));
+                    if (compared < 0 || (compared == 0 && "{".equals(range.group(1))))
+                    {
+                        return false;
+                    }
+                }
+                if (!"*".equals(range.group(3)))
+                {
+                    int compared = time.compareTo(parse(range.group(3)));
+                    if (compared > 0 || (compared == 0 && "}".equals(range.group(4))))
+                    {
+                        return false;
+                    }
+                }
+            }
+
+            for (String clause : TIME_RANGE.matcher(query).replaceAll("").split(" AND "))
+            {
+                clause = clause.trim();
+                if (clause.isEmpty() || clause.startsWith("-") || clause.startsWith("(") || "*:*".equals(clause))
+                {
+                    continue;
+                }
+                String field = clause.substring(0, clause.indexOf(':')).trim();
+                String value = clause.substring(clause.indexOf(':') + 1).trim().replace("\\", "");
+                if (!value.equals(String.valueOf(view.get(field))))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static Date parse(String date)
+        {
+            for (String format : new String[] { SolrLogger.DATE_FORMAT_8601, SolrLogger.DATE_FORMAT_DCDATE })
+            {
+                SimpleDateFormat parser = new SimpleDateFormat(format);
+                parser.setTimeZone(UTC);
+                try
+                {
+                    return parser.parse(date);
+                }
+                catch (ParseException e)
+                {
+                    // try the next format
+                }
+            }
+            throw new IllegalArgumentException("Not a Solr date: " + date);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.Set;
+
+import org.databene.contiperf.PerfTest;
+import org.databene.contiperf.junit.ContiPerfRule;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link IPTable}.
+ */
+public class IPTableTest
+{
+    @Rule
+    public ContiPerfRule contiperfRules = new ContiPerfRule();
+
+    private static final IPTable LARGE = new IPTable();
+
+    @BeforeClass
+    public static void setUpLargeTable() throws Exception
+    {
+        for (int i = 0; i < 50000; i++)
+        {
+            LARGE.add((i >> 8 & 0xff) + "." + (i & 0xff) + "." + (i % 7) + ".0/28");
+        }
+    }
+
+    @Test
+    public void testSingleAddressAndSubnet() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("10.0.0.1");
+        table.add("192.168.1");
+
+        assertTrue(table.contains("10.0.0.1"));
+        assertFalse(table.contains("10.0.0.2"));
+        assertTrue(table.contains("192.168.1.0"));
+        assertTrue(table.contains("192.168.1.255"));
+        assertFalse(table.contains("192.168.2.0"));
+    }
+
+    @Test
+    public void testRanges() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("1.2.3.5-1.2.4.7");
+        table.add("5.5.5.1/24 - 5.5.5.3/24");
+
+        assertFalse(table.contains("1.2.3.4"));
+        assertTrue(table.contains("1.2.3.5"));
+        assertTrue(table.contains("1.2.3.255"));
+        assertTrue(table.contains("1.2.4.7"));
+        assertFalse(table.contains("1.2.4.8"));
+        assertTrue(table.contains("5.5.5.3"));
+        assertFalse(table.contains("5.5.5.4"));
+    }
+
+    @Test
+    public void testCIDR() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("172.16.0.0/12");
+
+        assertFalse(table.contains("172.15.255.255"));
+        assertTrue(table.contains("172.16.0.0"));
+        assertTrue(table.contains("172.31.255.255"));
+        assertFalse(table.contains("172.32.0.0"));
+    }
+
+    @Test
+    public void testIPv6() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("2001:db8::/32");
+        table.add("::1");
+        table.add("fe80::1 - fe80::ff");
+        table.add("10.0.0.1");
+
+        assertTrue(table.contains("2001:db8:ffff::1"));
+        assertTrue(table.contains("2001:DB8::"));
+        assertFalse(table.contains("2001:db9::"));
+        assertTrue(table.contains("0:0:0:0:0:0:0:1"));
+        assertFalse(table.contains("::2"));
+        assertTrue(table.contains("fe80::10"));
+        assertFalse(table.contains("fe80::100"));
+        assertTrue(table.contains("::ffff:10.0.0.1"));
+    }
+
+    @Test(expected = IPTable.IPFormatException.class)
+    public void testContainsPartialAddress() throws Exception
+    {
+        new IPTable().contains("1.2.3");
+    }
+
+    @Test(expected = IPTable.IPFormatException.class)
+    public void testContainsInvalidIPv6() throws Exception
+    {
+        new IPTable().contains("1::2::3");
+    }
+
+    @Test(expected = IPTable.IPFormatException.class)
+    public void testAddMixedRange() throws Exception
+    {
+        new IPTable().add("1.2.3.4-::1");
+    }
+
+    @Test(expected = IPTable.IPFormatException.class)
+    public void testAddInvalidPrefix() throws Exception
+    {
+        new IPTable().add("1.2.3.4/33");
+    }
+
+    @Test
+    public void testToSet() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("1.2.3.4");
+        table.add("9.9.9");
+        table.add("7.7.7.254-7.7.8.1");
+
+        Set<String> set = table.toSet();
+        assertEquals(6, set.size());
+        assertTrue(set.contains("1.2.3.4"));
+        assertTrue(set.contains("9.9.9"));
+        assertTrue(set.contains("7.7.7.254"));
+        assertTrue(set.contains("7.7.8.1"));
+    }
+
+    @Test
+    public void testToSetLargeRange() throws Exception
+    {
+        IPTable table = new IPTable();
+        table.add("10.0.0.0/8");
+        table.add("192.168.0.0/16");
+
+        Set<String> set = table.toSet();
+        assertEquals(257, set.size());
+        assertTrue(set.contains("10.0.0.0-10.255.255.255"));
+        assertTrue(set.contains("192.168.255"));
+    }
+
+    @Test
+    @PerfTest(invocations = 100000, threads = 4)
+    public void testLargeTableLookup() throws Exception
+    {
+        LARGE.contains("12.34.5.6");
+        LARGE.contains("200.1.2.3");
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.databene.contiperf.PerfTest;
+import org.databene.contiperf.junit.ContiPerfRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SpiderPatternMatcher}. The performance tests compare the
+ * combined matcher with the pattern-by-pattern loop it replaces in
+ * {@link SpiderDetector}; ContiPerf reports the throughput of both.
+ */
+public class SpiderPatternMatcherTest
+{
+    @Rule
+    public ContiPerfRule contiperfRules = new ContiPerfRule();
+
+    private static final List<String> PATTERNS = Arrays.asList(
+            "^msnbot",
+            "Googlebot",
+            "Brutus\\/AET",
+            "China\\sLocal\\sBrowse\\s2\\.6",
+            "Alexandria(\\s|\\+)prototype(\\s|\\+)project",
+            "Pingdom\\.com_bot_version_1\\.4_\\(http://www\\.pingdom\\.com/\\)",
+            "(ab)\\1bot",
+            "(?i)crawler");
+
+    private static final String[] AGENTS = {
+            "Mozilla/5.0 (X11; Linux x86_64; rv:45.0) Gecko/20100101 Firefox/45.0",
+            "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)",
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/51.0",
+            "msnbot/2.0b (+http://search.msn.com/msnbot.htm)"
+    };
+
+    private static final SpiderPatternMatcher MATCHER = new SpiderPatternMatcher(PATTERNS, 0);
+
+    private static final List<Pattern> COMPILED = new ArrayList<Pattern>();
+    static
+    {
+        for (String pattern : PATTERNS)
+        {
+            COMPILED.add(Pattern.compile(pattern));
+        }
+    }
+
+    @Test
+    public void testMatchesLikeEachPattern()
+    {
+        String[] candidates = {
+                "msnbot is watching you", "I am not msnbot", "Firefox", "Googlebot/2.1",
+                "Brutus/AET", "China Local Browse 2.6", "Alexandria+prototype project",
+                "Pingdom.com_bot_version_1.4_(http://www.pingdom.com/)", "ababbot", "abbot",
+                "Some CRAWLER", "", "Brutus"
+        };
+        for (String candidate : candidates)
+        {
+            assertEquals(candidate, loop(candidate), MATCHER.matches(candidate));
+        }
+    }
+
+    @Test
+    public void testOverlappingLiterals()
+    {
+        SpiderPatternMatcher matcher = new SpiderPatternMatcher(Arrays.asList("abcd", "bcx", "cd"), 0);
+        assertTrue(matcher.matches("xxabcx"));
+        assertTrue(matcher.matches("abce cd"));
+        assertFalse(matcher.matches("abcabc"));
+    }
+
+    @Test
+    public void testToLiteral()
+    {
+        assertEquals("Brutus/AET", SpiderPatternMatcher.toLiteral("Brutus\\/AET"));
+        assertEquals("a.b", SpiderPatternMatcher.toLiteral("a\\.b"));
+        assertNull(SpiderPatternMatcher.toLiteral("a.b"));
+        assertNull(SpiderPatternMatcher.toLiteral("a\\sb"));
+        assertNull(SpiderPatternMatcher.toLiteral("^msnbot"));
+    }
+
+    @Test
+    public void testInvalidPatternIgnored()
+    {
+        SpiderPatternMatcher matcher = new SpiderPatternMatcher(Arrays.asList("bot(", "spider"), 10);
+        assertEquals(1, matcher.size());
+        assertTrue(matcher.matches("a spider"));
+        assertTrue(matcher.matches("a spider"));
+        assertFalse(matcher.matches("bot("));
+        assertFalse(matcher.matches(null));
+    }
+
+    @Test
+    public void testNamedGroupsNotCombined()
+    {
+        // the same group name twice would not compile as one alternation
+        SpiderPatternMatcher matcher = new SpiderPatternMatcher(
+                Arrays.asList("(?<v>bot)\\d", "(?<v>spider)x", "crawl.r"), 0);
+        assertEquals(3, matcher.size());
+        assertTrue(matcher.matches("bot1"));
+        assertTrue(matcher.matches("spiderx"));
+        assertTrue(matcher.matches("crawler"));
+        assertFalse(matcher.matches("spider1"));
+    }
+
+    @Test
+    public void testUncombinablePatternsTriedOneByOne()
+    {
+        // \Q quotes up to the end, closing parenthesis of the alternation included
+        SpiderPatternMatcher matcher = new SpiderPatternMatcher(Arrays.asList("\\Qbot.v", "spi.er"), 0);
+        assertEquals(2, matcher.size());
+        assertTrue(matcher.matches("a bot.v1"));
+        assertFalse(matcher.matches("a botxv1"));
+        assertTrue(matcher.matches("spider"));
+    }
+
+    @Test
+    @PerfTest(invocations = 20000, threads = 4)
+    public void testCombinedMatcherThroughput()
+    {
+        for (String agent : AGENTS)
+        {
+            MATCHER.matches(agent);
+        }
+    }
+
+    @Test
+    @PerfTest(invocations = 20000, threads = 4)
+    public void testPatternLoopThroughput()
+    {
+        for (String agent : AGENTS)
+        {
+            loop(agent);
+        }
+    }
+
+    private static boolean loop(String agent)
+    {
+        for (Pattern candidate : COMPILED)
+        {
+            if (candidate.matcher(agent).find())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -485,6 +485,35 @@ public class TableRowTest
     }
 */
 
+    /**
+     * Test of copy method, of class TableRow.
+     */
+    @Test
+    public void testCopy()
+    {
+        List<String> columns = new ArrayList<String>();
+        columns.add("id");
+        columns.add("name");
+        columns.add("date");
+        TableRow instance = new TableRow("test", columns);
+        instance.setColumn("id", 1);
+        instance.setColumn("name", "one");
+        instance.setColumn("date", new java.util.Date(1000L));
+        instance.resetChanged();
+
+        TableRow copy = instance.copy();
+        assertEquals("test", copy.getTable());
+        assertEquals(instance, copy);
+        assertFalse(copy.hasColumnChanged("name"));
+
+        // Changes to the copy don't show in the original
+        copy.setColumn("name", "two");
+        copy.getDateColumn("date").setTime(2000L);
+        assertTrue(copy.hasColumnChanged("name"));
+        assertEquals("one", instance.getStringColumn("name"));
+        assertEquals(1000L, instance.getDateColumn("date").getTime());
+    }
+
     /**
      * Test of resetChanged method, of class TableRow.
      */
@@ -23,6 +23,7 @@ import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.AuthorizeManager;
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
+import org.dspace.content.CommunityTree;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
 
@@ -56,11 +57,11 @@ public class CommunityListServlet extends DSpaceServlet
 
             log.info(LogManager.getHeader(context, "view_community_list", ""));
 
-            Community[] communities = Community.findAllTop(context);
+            Community[] communities = CommunityTree.findAllTop(context);
 
             for (int com = 0; com < communities.length; com++) 
             {
-                build(communities[com]);
+                build(context, communities[com]);
             }
 
             // can they admin communities?
@@ -79,16 +80,16 @@ public class CommunityListServlet extends DSpaceServlet
     /*
      * Get all subcommunities and collections from a community
      */
-    private void build(Community c) throws SQLException {
+    private void build(Context context, Community c) throws SQLException {
 
         Integer comID = Integer.valueOf(c.getID());
 
         // Find collections in community
-        Collection[] colls = c.getCollections();
+        Collection[] colls = CommunityTree.findCollections(context, c);
         colMap.put(comID, colls);
 
         // Find subcommunties in community
-        Community[] comms = c.getSubcommunities();
+        Community[] comms = CommunityTree.findSubcommunities(context, c);
         
         // Get all subcommunities for each communities if they have some
         if (comms.length > 0) 
@@ -97,7 +98,7 @@ public class CommunityListServlet extends DSpaceServlet
             
             for (int sub = 0; sub < comms.length; sub++) {
                 
-                build(comms[sub]);
+                build(context, comms[sub]);
             }
         }
     }
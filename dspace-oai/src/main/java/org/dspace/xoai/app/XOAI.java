@@ -31,6 +31,7 @@ import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRowIterator;
+import org.dspace.xoai.data.DSpaceItem;
 import org.dspace.xoai.exceptions.CompilingException;
 import org.dspace.xoai.services.api.cache.XOAICacheService;
 import org.dspace.xoai.services.api.cache.XOAIItemCacheService;
@@ -54,11 +55,16 @@ import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.lyncode.xoai.dataprovider.core.Granularity.Second;
-import static org.dspace.content.Item.find;
 import static org.dspace.xoai.util.ItemUtils.retrieveMetadata;
 
 /**
@@ -72,6 +78,8 @@ public class XOAI {
     private boolean optimize;
     private boolean verbose;
     private boolean clean;
+    private int threads = atLeastOne("import.threads", ConfigurationManager.getIntProperty("oai", "import.threads", 1));
+    private int batchSize = atLeastOne("import.batch-size", ConfigurationManager.getIntProperty("oai", "import.batch-size", 100));
 
     @Autowired
     private SolrServerResolver solrServerResolver;
@@ -89,6 +97,9 @@ public class XOAI {
     private CollectionsService collectionsService;
 
 
+    /** OAI identifiers of the items indexed by an incremental import */
+    private List<String> indexedIdentifiers = null;
+
     private static List<String> getFileFormats(Item item) {
         List<String> formats = new ArrayList<String>();
         try {
@@ -112,6 +123,25 @@ public class XOAI {
         this.verbose = verbose;
     }
 
+    public void setThreads(int threads) {
+        this.threads = atLeastOne("threads", threads);
+    }
+
+    /**
+     * @return the value, or 1 with a warning if it is below 1
+     */
+    private static int atLeastOne(String name, int value) {
+        if (value < 1) {
+            log.warn("Invalid " + name + ": " + value + ", using 1");
+            return 1;
+        }
+        return value;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
     public XOAI(Context ctx, boolean hasOption) {
         context = ctx;
         verbose = hasOption;
@@ -179,6 +209,7 @@ public class XOAI {
                     .query(context,
                             sqlQuery,
                             new java.sql.Timestamp(last.getTime()));
+            indexedIdentifiers = Collections.synchronizedList(new ArrayList<String>());
             return this.index(iterator);
         } catch (SQLException ex) {
             throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
@@ -203,45 +234,139 @@ public class XOAI {
         }
     }
 
+    /**
+     * Index the items of the iterator. Batches of item IDs are handed to
+     * a pool of worker threads, each with its own context, which load the
+     * items, build their documents and send each batch to Solr in a single
+     * update. The index is committed by the caller once all is sent.
+     */
     private int index(TableRowIterator iterator)
             throws DSpaceSolrIndexerException {
+        final SolrServer server = solrServerResolver.getServer();
+        final ImportProgress progress = new ImportProgress();
+        final List<Context> workerContexts = Collections.synchronizedList(new ArrayList<Context>());
+        final ThreadLocal<Context> workerContext = new ThreadLocal<Context>();
+        final Semaphore slots = new Semaphore(2 * threads);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        int i = 0;
+
+        System.out.println("Importing on " + threads + " thread(s), in batches of " + batchSize + " items");
         try {
-            int i = 0;
-            SolrServer server = solrServerResolver.getServer();
-            while (iterator.hasNext()) {
-                try {
-                    server.add(this.index(find(context, iterator.next().getIntColumn("item_id"))));
-                    context.clearCache();
-                } catch (SQLException ex) {
-                    log.error(ex.getMessage(), ex);
-                } catch (MetadataBindException e) {
-                    log.error(e.getMessage(), e);
-                } catch (ParseException e) {
-                    log.error(e.getMessage(), e);
-                } catch (XMLStreamException e) {
-                    log.error(e.getMessage(), e);
-                } catch (WritingXmlException e) {
-                    log.error(e.getMessage(), e);
-                }
+            List<Integer> batch = new ArrayList<Integer>(batchSize);
+            while (iterator.hasNext() && progress.failure == null) {
+                batch.add(iterator.next().getIntColumn("item_id"));
                 i++;
-                if (i % 100 == 0) System.out.println(i + " items imported so far...");
+                if (batch.size() == batchSize || !iterator.hasNext()) {
+                    final List<Integer> ids = batch;
+                    batch = new ArrayList<Integer>(batchSize);
+
+                    slots.acquire();
+                    workers.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                Context ctx = workerContext.get();
+                                if (ctx == null) {
+                                    ctx = new Context();
+                                    workerContext.set(ctx);
+                                    workerContexts.add(ctx);
+                                }
+                                indexBatch(ctx, server, ids, progress);
+                            } catch (Exception e) {
+                                progress.failure = e;
+                            } finally {
+                                slots.release();
+                            }
+                        }
+                    });
+                }
             }
+
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (progress.failure != null) {
+                throw new DSpaceSolrIndexerException(progress.failure.getMessage(), progress.failure);
+            }
+
             System.out.println("Total: " + i + " items");
-            server.commit();
+            progress.report();
             return i;
         } catch (SQLException ex) {
             throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
-        } catch (SolrServerException ex) {
-            throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
-        } catch (IOException ex) {
+        } catch (InterruptedException ex) {
             throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
+        } finally {
+            iterator.close();
+            workers.shutdownNow();
+            for (Context ctx : workerContexts) {
+                ctx.abort();
+            }
         }
     }
 
-    private SolrInputDocument index(Item item) throws SQLException, MetadataBindException, ParseException, XMLStreamException, WritingXmlException {
+    /**
+     * Load a batch of items, build their documents and add them to the index
+     * with a single request.
+     */
+    private void indexBatch(Context ctx, SolrServer server, List<Integer> ids, ImportProgress progress)
+            throws SolrServerException, IOException {
+        // load the items with their metadata, bundles and bitstreams in a
+        // few queries for the whole batch
+        long start = System.nanoTime();
+        List<Item> items = new ArrayList<Item>(ids.size());
+        ItemIterator iterator = new ItemIterator(ctx, ids, ids.size());
+        try {
+            while (iterator.hasNext()) {
+                Item item = iterator.next();
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+        } catch (SQLException ex) {
+            log.error(ex.getMessage(), ex);
+        } finally {
+            iterator.close();
+        }
+        progress.loadTime.addAndGet(System.nanoTime() - start);
+
+        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(items.size());
+        for (Item item : items) {
+            try {
+                long built = System.nanoTime();
+                docs.add(this.index(ctx, item));
+                progress.buildTime.addAndGet(System.nanoTime() - built);
+                if (indexedIdentifiers != null) {
+                    indexedIdentifiers.add(DSpaceItem.buildIdentifier(item.getHandle()));
+                }
+            } catch (SQLException ex) {
+                log.error(ex.getMessage(), ex);
+            } catch (MetadataBindException e) {
+                log.error(e.getMessage(), e);
+            } catch (ParseException e) {
+                log.error(e.getMessage(), e);
+            } catch (XMLStreamException e) {
+                log.error(e.getMessage(), e);
+            } catch (WritingXmlException e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+        ctx.clearCache();
+
+        start = System.nanoTime();
+        if (!docs.isEmpty()) {
+            server.add(docs);
+        }
+        progress.sendTime.addAndGet(System.nanoTime() - start);
+
+        long done = progress.items.addAndGet(ids.size());
+        if (done / 1000 > (done - ids.size()) / 1000) {
+            System.out.println(done + " items imported so far (" + progress.getRate() + " items/s)...");
+        }
+    }
+
+    private SolrInputDocument index(Context ctx, Item item) throws SQLException, MetadataBindException, ParseException, XMLStreamException, WritingXmlException {
         SolrInputDocument doc = new SolrInputDocument();
         doc.addField("item.id", item.getID());
-        boolean pub = this.isPublic(item);
+        boolean pub = this.isPublic(ctx, item);
         doc.addField("item.public", pub);
         String handle = item.getHandle();
         doc.addField("item.handle", handle);
@@ -290,11 +415,11 @@ public class XOAI {
         return doc;
     }
 
-    private boolean isPublic(Item item) {
+    private boolean isPublic(Context ctx, Item item) {
         boolean pub = false;
         try {
             //Check if READ access allowed on this Item
-            pub = AuthorizeManager.authorizeActionBoolean(context, item, Constants.READ);
+            pub = AuthorizeManager.authorizeActionBoolean(ctx, item, Constants.READ);
         } catch (SQLException ex) {
             log.error(ex.getMessage());
         }
@@ -334,6 +459,14 @@ public class XOAI {
         }
     }
 
+    /**
+     * @return the OAI identifiers of the items indexed by an incremental
+     *         import, or null after a full import
+     */
+    public List<String> getIndexedIdentifiers() {
+        return indexedIdentifiers;
+    }
+
     private static void cleanCache(XOAIItemCacheService xoaiItemCacheService,  XOAICacheService xoaiCacheService) throws IOException {
         System.out.println("Purging cached OAI responses.");
         xoaiItemCacheService.deleteAll();
@@ -367,6 +500,7 @@ public class XOAI {
             options.addOption("v", "verbose", false, "Verbose output");
             options.addOption("h", "help", false, "Shows some help");
             options.addOption("n", "number", true, "FOR DEVELOPMENT MUST DELETE");
+            options.addOption("t", "threads", true, "Number of threads importing items");
             CommandLine line = parser.parse(options, argv);
 
             String[] validSolrCommands = {COMMAND_IMPORT, COMMAND_CLEAN_CACHE};
@@ -404,9 +538,25 @@ public class XOAI {
                             line.hasOption('v'));
 
                     applicationContext.getAutowireCapableBeanFactory().autowireBean(indexer);
+                    if (line.hasOption('t')) {
+                        try {
+                            indexer.setThreads(Integer.parseInt(line.getOptionValue('t').trim()));
+                        } catch (NumberFormatException e) {
+                            log.warn("Invalid number of threads: " + line.getOptionValue('t')
+                                    + ", using " + indexer.getThreads());
+                        }
+                    }
 
                     int imported = indexer.index();
-                    if (imported > 0) cleanCache(itemCacheService, cacheService);
+                    if (imported > 0) {
+                        if (indexer.getIndexedIdentifiers() != null) {
+                            // only drop what the indexed items may have changed
+                            System.out.println("Purging cached OAI responses affected by the imported items.");
+                            cacheService.deleteAffectedBy(indexer.getIndexedIdentifiers());
+                        } else {
+                            cleanCache(itemCacheService, cacheService);
+                        }
+                    }
                 } else if (COMMAND_CLEAN_CACHE.equals(command)) {
                     cleanCache(itemCacheService, cacheService);
                 } else if (COMMAND_COMPILE_ITEMS.equals(command)) {
@@ -478,6 +628,32 @@ public class XOAI {
         System.out.println("Items compiled");
     }
 
+    /**
+     * Counts the items imported and the time spent in each stage, summed
+     * over the worker threads.
+     */
+    private static class ImportProgress {
+        final long start = System.currentTimeMillis();
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong loadTime = new AtomicLong();
+        final AtomicLong buildTime = new AtomicLong();
+        final AtomicLong sendTime = new AtomicLong();
+        volatile Exception failure;
+
+        long getRate() {
+            long elapsed = System.currentTimeMillis() - start;
+            return elapsed > 0 ? items.get() * 1000 / elapsed : 0;
+        }
+
+        void report() {
+            long count = Math.max(1, items.get());
+            System.out.println("Imported " + items.get() + " items in "
+                    + ((System.currentTimeMillis() - start) / 1000) + " seconds (" + getRate() + " items/s)");
+            System.out.println("Per item: loading " + (loadTime.get() / count / 1000) + " us, building "
+                    + (buildTime.get() / count / 1000) + " us, sending " + (sendTime.get() / count / 1000) + " us");
+        }
+    }
+
     private static void usage() {
         boolean solr = true; // Assuming solr by default
         solr = !("database").equals(ConfigurationManager.getProperty("oai", "storage"));
@@ -491,6 +667,7 @@ public class XOAI {
             System.out.println("> Parameters:");
             System.out.println("     -o Optimize index after indexing (" + COMMAND_IMPORT + " only)");
             System.out.println("     -c Clear index (" + COMMAND_IMPORT + " only)");
+            System.out.println("     -t <threads> Number of threads importing items (" + COMMAND_IMPORT + " only)");
             System.out.println("     -v Verbose output");
             System.out.println("     -h Shows this text");
         } else {
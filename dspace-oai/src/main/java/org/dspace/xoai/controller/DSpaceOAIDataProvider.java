@@ -103,7 +103,9 @@ public class DSpaceOAIDataProvider
                 if (!cacheService.hasCache(identification))
                     cacheService.store(identification, dataProvider.handle(parameters));
 
-                cacheService.handle(identification, out);
+                // the response may have been evicted or dropped by an import since
+                if (!cacheService.handle(identification, out))
+                    dataProvider.handle(parameters, out);
             } else dataProvider.handle(parameters, out);
 
 
@@ -11,13 +11,19 @@ import com.lyncode.xoai.dataprovider.xml.oaipmh.OAIPMH;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
 
 
 public interface XOAICacheService {
     boolean isActive ();
     boolean hasCache (String requestID);
-    void handle (String requestID, OutputStream out) throws IOException;
+    /**
+     * Write the cached response to the output.
+     * @return false, without writing anything, if the response is no longer cached
+     */
+    boolean handle (String requestID, OutputStream out) throws IOException;
     void store (String requestID, OAIPMH response) throws IOException;
     void delete (String requestID);
     void deleteAll () throws IOException;
+    void deleteAffectedBy (List<String> identifiers) throws IOException;
 }
@@ -12,6 +12,7 @@ import org.dspace.xoai.services.api.cache.XOAICacheService;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
 
 public class DSpaceEmptyCacheService implements XOAICacheService {
     @Override
@@ -25,8 +26,8 @@ public class DSpaceEmptyCacheService implements XOAICacheService {
     }
 
     @Override
-    public void handle(String requestID, OutputStream out) throws IOException {
-
+    public boolean handle(String requestID, OutputStream out) throws IOException {
+        return false;
     }
 
     @Override
@@ -43,4 +44,9 @@ public class DSpaceEmptyCacheService implements XOAICacheService {
     public void deleteAll() {
 
     }
+
+    @Override
+    public void deleteAffectedBy(List<String> identifiers) {
+
+    }
 }
@@ -7,12 +7,15 @@
  */
 package org.dspace.xoai.services.impl.cache;
 
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
 import com.lyncode.xoai.dataprovider.core.XOAIManager;
 import com.lyncode.xoai.dataprovider.exceptions.WritingXmlException;
 import com.lyncode.xoai.dataprovider.xml.XmlOutputContext;
 import com.lyncode.xoai.dataprovider.xml.oaipmh.OAIPMH;
-import com.lyncode.xoai.util.Base64Utils;
 import org.apache.commons.io.FileUtils;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.xoai.services.api.cache.XOAICacheService;
 import org.dspace.xoai.services.api.config.ConfigurationService;
@@ -22,25 +25,56 @@ import org.springframework.beans.factory.annotation.Autowired;
 import javax.xml.stream.XMLStreamException;
 import java.io.*;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static com.lyncode.xoai.dataprovider.core.Granularity.Second;
 import static org.apache.commons.io.FileUtils.deleteDirectory;
 import static org.apache.commons.io.IOUtils.copy;
 import static org.apache.commons.io.IOUtils.write;
 
-
+/**
+ * Caches OAI-PMH responses in files, under the SHA-1 hash of the request.
+ * <p>
+ * Responses about a single item (GetRecord and ListMetadataFormats with an
+ * identifier) are stored under <code>requests/items/&lt;item hash&gt;/</code>,
+ * all others under <code>requests/lists/</code>, both sharded by the first
+ * characters of the hashes. What is cached is kept in memory, so requests do
+ * not touch the file system unless they are served from the cache. Entries
+ * expire after <code>cache.ttl</code> seconds, and the least recently used
+ * ones are removed when the cache grows beyond <code>cache.max-size</code>
+ * megabytes.
+ * <p>
+ * An import only drops the list responses and the responses about the items
+ * it indexed, as list pages are positional and any change may shift them.
+ * It deletes the files itself and appends what it dropped to a journal, which
+ * the web application reads to update its view of the cache.
+ */
 public class DSpaceXOAICacheService implements XOAICacheService {
+    private static Logger log = LogManager.getLogger(DSpaceXOAICacheService.class);
+
     private static final String REQUEST_DIR = File.separator + "requests";
-    private static String baseDir;
-    private static String staticHead;
+    private static final String LISTS_DIR = "lists";
+    private static final String ITEMS_DIR = "items";
+    private static final String JOURNAL_FILE = "invalidated";
 
-    private static String getBaseDir() {
-        if (baseDir == null) {
-            String dir = ConfigurationManager.getProperty("oai", "cache.dir") + REQUEST_DIR;
-            baseDir = dir;
-        }
-        return baseDir;
-    }
+    /** Size of the journal beyond which an import drops the whole cache */
+    private static final long MAX_JOURNAL_SIZE = 10 * 1024 * 1024;
+
+    /** How often the journal is checked for imports */
+    private static final long JOURNAL_CHECK_INTERVAL = 10 * 1000;
+
+    private static final Pattern REQUEST_PATTERN = Pattern.compile("<request\\s([^>]*)>");
+    private static final Pattern VERB_PATTERN = Pattern.compile("\\bverb=\"([^\"]*)\"");
+    private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("\\bidentifier=\"([^\"]*)\"");
+
+    private static String staticHead;
 
     private static String getStaticHead(XOAIManager manager, Date date) {
         if (staticHead == null)
@@ -53,22 +87,76 @@ public class DSpaceXOAICacheService implements XOAICacheService {
         return staticHead + "<responseDate>" + DateUtils.format(date) + "</responseDate>";
     }
 
+    private static String hash(String value) {
+        return Hashing.sha1().hashString(value, Charsets.UTF_8).toString();
+    }
+
     @Autowired
     ConfigurationService configurationService;
 
     private XOAIManager manager;
 
+    private final String baseDir;
+
+    /** Cached responses by request hash, least recently used first */
+    private final LinkedHashMap<String, CachedResponse> entries
+            = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true);
+
+    private long totalSize = 0;
+
+    private boolean loaded = false;
+
+    private final long ttl;
+
+    private final long maxSize;
+
+    private final long journalCheckInterval;
+
+    /** First line of the journal when last read, identifying it */
+    private String journalHeader;
+
+    /** Length of the journal when last read */
+    private long journalOffset = 0;
+
+    private long lastJournalCheck = 0;
+
     public DSpaceXOAICacheService(XOAIManager manager) {
+        this(manager, ConfigurationManager.getProperty("oai", "cache.dir") + REQUEST_DIR,
+                ConfigurationManager.getLongProperty("oai", "cache.ttl", 86400) * 1000,
+                ConfigurationManager.getLongProperty("oai", "cache.max-size", 1024) * 1024 * 1024,
+                JOURNAL_CHECK_INTERVAL);
+    }
+
+    /**
+     * @param baseDir directory of the cached responses
+     * @param ttl time to live of the responses in milliseconds, 0 for ever
+     * @param maxSize maximum size of the responses in bytes, 0 for no limit
+     * @param journalCheckInterval milliseconds between two reads of the journal
+     */
+    DSpaceXOAICacheService(XOAIManager manager, String baseDir, long ttl, long maxSize, long journalCheckInterval) {
         this.manager = manager;
+        this.baseDir = baseDir;
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+        this.journalCheckInterval = journalCheckInterval;
     }
 
-    private File getCacheFile(String id) {
-        File dir = new File(getBaseDir());
-        if (!dir.exists())
-            dir.mkdirs();
+    private String getBaseDir() {
+        return baseDir;
+    }
+
+    private File getListFile(String key) {
+        return new File(getBaseDir() + File.separator + LISTS_DIR + File.separator + key.substring(0, 2)
+                + File.separator + key.substring(2, 4) + File.separator + key);
+    }
 
-        String name = File.separator + Base64Utils.encode(id);
-        return new File(getBaseDir() + name);
+    private File getItemDir(String itemKey) {
+        return new File(getBaseDir() + File.separator + ITEMS_DIR + File.separator + itemKey.substring(0, 2)
+                + File.separator + itemKey);
+    }
+
+    private File getJournal() {
+        return new File(getBaseDir() + File.separator + JOURNAL_FILE);
     }
 
     @Override
@@ -77,16 +165,51 @@ public class DSpaceXOAICacheService implements XOAICacheService {
     }
 
     @Override
-    public boolean hasCache(String requestID) {
-        return this.getCacheFile(requestID).exists();
+    public synchronized boolean hasCache(String requestID) {
+        refresh();
+
+        String key = hash(requestID);
+        CachedResponse entry = entries.get(key);
+        if (entry == null)
+            return false;
+
+        if (ttl > 0 && entry.stored + ttl < System.currentTimeMillis()) {
+            remove(key);
+            return false;
+        }
+        return true;
     }
 
     @Override
-    public void handle(String requestID, OutputStream out) throws IOException {
-        InputStream in = new FileInputStream(this.getCacheFile(requestID));
-        write(getStaticHead(manager, new Date()), out);
-        copy(in, out);
-        in.close();
+    public boolean handle(String requestID, OutputStream out) throws IOException {
+        String key = hash(requestID);
+        CachedResponse entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        // evicted by a concurrent store
+        if (entry == null)
+            return false;
+
+        InputStream in;
+        try {
+            in = new FileInputStream(entry.file);
+        } catch (FileNotFoundException e) {
+            // removed by an import since the journal was last read, unless
+            // another thread stored the response again meanwhile
+            synchronized (this) {
+                if (entries.get(key) == entry)
+                    remove(key);
+            }
+            return false;
+        }
+        try {
+            write(getStaticHead(manager, new Date()), out);
+            copy(in, out);
+        } finally {
+            in.close();
+        }
+        return true;
     }
 
     @Override
@@ -98,15 +221,7 @@ public class DSpaceXOAICacheService implements XOAICacheService {
             context.getWriter().flush();
             context.getWriter().close();
 
-            String xoaiResponse = output.toString();
-
-            // Cutting the header (to allow one to change the response time)
-            String end = "</responseDate>";
-            int pos = xoaiResponse.indexOf(end);
-            if (pos > 0)
-                xoaiResponse = xoaiResponse.substring(pos + (end.length()));
-
-            FileUtils.write(this.getCacheFile(requestID), xoaiResponse);
+            storeResponse(requestID, output.toString());
         } catch (XMLStreamException e) {
             throw new IOException(e);
         } catch (WritingXmlException e) {
@@ -114,14 +229,259 @@ public class DSpaceXOAICacheService implements XOAICacheService {
         }
     }
 
+    /**
+     * Store a serialized response.
+     */
+    void storeResponse(String requestID, String xoaiResponse) throws IOException {
+        // Cutting the header (to allow one to change the response time)
+        String end = "</responseDate>";
+        int pos = xoaiResponse.indexOf(end);
+        if (pos > 0)
+            xoaiResponse = xoaiResponse.substring(pos + (end.length()));
+
+        String key = hash(requestID);
+        String item = getItemIdentifier(xoaiResponse);
+        String itemKey = item != null ? hash(item) : null;
+        File file = itemKey != null ? new File(getItemDir(itemKey), key) : getListFile(key);
+
+        // written aside first, so that a partial response is never served
+        file.getParentFile().mkdirs();
+        File temp = File.createTempFile(key, ".tmp", file.getParentFile());
+        FileUtils.write(temp, xoaiResponse);
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Unable to store cached response in " + file.getPath());
+            }
+        }
+
+        synchronized (this) {
+            refresh();
+            put(key, new CachedResponse(file, file.length(), System.currentTimeMillis(), itemKey));
+        }
+    }
+
     @Override
-    public void delete(String requestID) {
-        this.getCacheFile(requestID).delete();
+    public synchronized void delete(String requestID) {
+        refresh();
+        remove(hash(requestID));
     }
 
     @Override
     public void deleteAll() throws IOException {
         deleteDirectory(new File(getBaseDir()));
+        synchronized (this) {
+            clear();
+            // a new journal tells the web application the cache is gone
+            String header = "# " + System.currentTimeMillis();
+            FileUtils.write(getJournal(), header + "\n");
+            journalHeader = header;
+            journalOffset = getJournal().length();
+        }
     }
 
+    /**
+     * Delete the cached responses which may be affected by changes to the
+     * given items: all list responses, and the responses about these items.
+     *
+     * @param identifiers OAI identifiers of the items
+     */
+    @Override
+    public void deleteAffectedBy(List<String> identifiers) throws IOException {
+        File journal = getJournal();
+        if (!journal.exists() || journal.length() > MAX_JOURNAL_SIZE) {
+            deleteAll();
+            return;
+        }
+
+        deleteDirectory(new File(getBaseDir() + File.separator + LISTS_DIR));
+        StringBuilder dropped = new StringBuilder("lists\n");
+        for (String identifier : identifiers) {
+            String itemKey = hash(identifier);
+            deleteDirectory(getItemDir(itemKey));
+            dropped.append("item ").append(itemKey).append('\n');
+        }
+        FileUtils.writeStringToFile(journal, dropped.toString(), "UTF-8", true);
+    }
+
+    /**
+     * Load what is in the cache on first use, then apply what imports have
+     * dropped since the journal was last read.
+     */
+    private void refresh() {
+        if (!loaded) {
+            loaded = true;
+            load();
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastJournalCheck < journalCheckInterval)
+            return;
+        lastJournalCheck = now;
+        checkJournal();
+    }
+
+    /**
+     * Apply what imports have dropped since the journal was last read.
+     */
+    synchronized void checkJournal() {
+        try {
+            readJournal();
+        } catch (IOException e) {
+            log.warn("Unable to read the OAI cache journal, clearing the cache: " + e.getMessage());
+            clear();
+        }
+    }
+
+    private void load() {
+        File[] shards = new File(getBaseDir() + File.separator + LISTS_DIR).listFiles();
+        for (File shard : shards != null ? shards : new File[0]) {
+            File[] subShards = shard.listFiles();
+            for (File subShard : subShards != null ? subShards : new File[0]) {
+                loadFiles(subShard, null);
+            }
+        }
+
+        shards = new File(getBaseDir() + File.separator + ITEMS_DIR).listFiles();
+        for (File shard : shards != null ? shards : new File[0]) {
+            File[] itemDirs = shard.listFiles();
+            for (File itemDir : itemDirs != null ? itemDirs : new File[0]) {
+                loadFiles(itemDir, itemDir.getName());
+            }
+        }
+
+        File journal = getJournal();
+        journalHeader = readJournalHeader(journal);
+        journalOffset = journal.length();
+        log.info("Loaded " + entries.size() + " cached OAI responses (" + totalSize + " bytes)");
+    }
+
+    private void loadFiles(File dir, String itemKey) {
+        File[] files = dir.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            if (file.isFile() && !file.getName().endsWith(".tmp"))
+                put(file.getName(), new CachedResponse(file, file.length(), file.lastModified(), itemKey));
+        }
+    }
+
+    private void readJournal() throws IOException {
+        File journal = getJournal();
+        String header = readJournalHeader(journal);
+        if (header == null ? journalHeader != null : !header.equals(journalHeader)) {
+            // the whole cache was dropped
+            clear();
+            journalHeader = header;
+            journalOffset = journal.length();
+            return;
+        }
+        if (header == null || journal.length() <= journalOffset)
+            return;
+
+        boolean lists = false;
+        Set<String> itemKeys = new HashSet<String>();
+        RandomAccessFile in = new RandomAccessFile(journal, "r");
+        try {
+            in.seek(journalOffset);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.equals("lists"))
+                    lists = true;
+                else if (line.startsWith("item "))
+                    itemKeys.add(line.substring("item ".length()));
+            }
+            journalOffset = in.getFilePointer();
+        } finally {
+            in.close();
+        }
+
+        // the import deleted the files it knew of, but responses may have
+        // been stored again since, from what was indexed before the import
+        Iterator<CachedResponse> it = entries.values().iterator();
+        while (it.hasNext()) {
+            CachedResponse entry = it.next();
+            if (entry.itemKey == null ? lists : itemKeys.contains(entry.itemKey)) {
+                it.remove();
+                totalSize -= entry.size;
+                entry.file.delete();
+            }
+        }
+    }
+
+    private String readJournalHeader(File journal) {
+        if (!journal.exists())
+            return null;
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(journal));
+            try {
+                return in.readLine();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the identifier of the item a response is about, or null if it
+     *         is not about a single item
+     */
+    private String getItemIdentifier(String xoaiResponse) {
+        Matcher request = REQUEST_PATTERN.matcher(xoaiResponse);
+        if (!request.find())
+            return null;
+
+        Matcher verb = VERB_PATTERN.matcher(request.group(1));
+        Matcher identifier = IDENTIFIER_PATTERN.matcher(request.group(1));
+        if (verb.find() && ("GetRecord".equals(verb.group(1)) || "ListMetadataFormats".equals(verb.group(1)))
+                && identifier.find())
+            return identifier.group(1);
+        return null;
+    }
+
+    private void put(String key, CachedResponse entry) {
+        CachedResponse previous = entries.put(key, entry);
+        if (previous != null)
+            totalSize -= previous.size;
+        totalSize += entry.size;
+
+        Iterator<Map.Entry<String, CachedResponse>> eldest = entries.entrySet().iterator();
+        while (maxSize > 0 && totalSize > maxSize && eldest.hasNext()) {
+            CachedResponse evicted = eldest.next().getValue();
+            eldest.remove();
+            totalSize -= evicted.size;
+            evicted.file.delete();
+        }
+    }
+
+    private void remove(String key) {
+        CachedResponse entry = entries.remove(key);
+        if (entry != null) {
+            totalSize -= entry.size;
+            entry.file.delete();
+        }
+    }
+
+    private void clear() {
+        for (CachedResponse entry : entries.values())
+            entry.file.delete();
+        entries.clear();
+        totalSize = 0;
+    }
+
+    private static class CachedResponse {
+        final File file;
+        final long size;
+        final long stored;
+        /** Hash of the identifier of the item the response is about, null for lists */
+        final String itemKey;
+
+        CachedResponse(File file, long size, long stored, String itemKey) {
+            this.file = file;
+            this.size = size;
+            this.stored = stored;
+            this.itemKey = itemKey;
+        }
+    }
 }
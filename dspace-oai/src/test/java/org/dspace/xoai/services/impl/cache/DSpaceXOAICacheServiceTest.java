@@ -0,0 +1,189 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.xoai.services.impl.cache;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.lyncode.xoai.dataprovider.core.XOAIManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class DSpaceXOAICacheServiceTest {
+    private static final String LIST_REQUEST = "verb=ListRecords&metadataPrefix=oai_dc";
+    private static final String ITEM_ID = "oai:localhost:123456789/1";
+    private static final String ITEM_REQUEST = "verb=GetRecord&identifier=" + ITEM_ID;
+    private static final String OTHER_ID = "oai:localhost:123456789/2";
+    private static final String OTHER_REQUEST = "verb=GetRecord&identifier=" + OTHER_ID;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private XOAIManager manager = mock(XOAIManager.class);
+    private String baseDir;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = folder.newFolder("requests").getPath();
+    }
+
+    private DSpaceXOAICacheService service(long ttl, long maxSize) {
+        return new DSpaceXOAICacheService(manager, baseDir, ttl, maxSize, Long.MAX_VALUE);
+    }
+
+    private static String hash(String value) {
+        return Hashing.sha1().hashString(value, Charsets.UTF_8).toString();
+    }
+
+    private static String response(String verb, String identifier, String body) {
+        return "<responseDate>2016-01-01T00:00:00Z</responseDate><request verb=\"" + verb + "\""
+                + (identifier != null ? " identifier=\"" + identifier + "\"" : "")
+                + ">http://localhost/oai/request</request>" + body;
+    }
+
+    private static String listResponse(String body) {
+        return response("ListRecords", null, body);
+    }
+
+    private static String itemResponse(String identifier) {
+        return response("GetRecord", identifier, "<GetRecord/>");
+    }
+
+    private File listFile(String request) {
+        String key = hash(request);
+        return new File(baseDir, "lists" + File.separator + key.substring(0, 2) + File.separator
+                + key.substring(2, 4) + File.separator + key);
+    }
+
+    private File itemFile(String identifier, String request) {
+        String itemKey = hash(identifier);
+        return new File(baseDir, "items" + File.separator + itemKey.substring(0, 2) + File.separator
+                + itemKey + File.separator + hash(request));
+    }
+
+    @Test
+    public void storesListsAndItemsInTheirShards() throws Exception {
+        DSpaceXOAICacheService cache = service(0, 0);
+        cache.storeResponse(LIST_REQUEST, listResponse("<ListRecords/>"));
+        cache.storeResponse(ITEM_REQUEST, itemResponse(ITEM_ID));
+
+        assertTrue(listFile(LIST_REQUEST).isFile());
+        assertTrue(itemFile(ITEM_ID, ITEM_REQUEST).isFile());
+        assertTrue(cache.hasCache(LIST_REQUEST));
+        assertTrue(cache.hasCache(ITEM_REQUEST));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(cache.handle(LIST_REQUEST, out));
+        String served = out.toString("UTF-8");
+        assertTrue(served.contains("<responseDate>"));
+        assertTrue(served.endsWith("<ListRecords/>"));
+        assertFalse(served.contains("2016-01-01"));
+    }
+
+    @Test
+    public void reloadsWhatIsOnDisk() throws Exception {
+        service(0, 0).storeResponse(ITEM_REQUEST, itemResponse(ITEM_ID));
+
+        DSpaceXOAICacheService restarted = service(0, 0);
+        assertTrue(restarted.hasCache(ITEM_REQUEST));
+        assertFalse(restarted.hasCache(OTHER_REQUEST));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed() throws Exception {
+        String body = "<ListRecords>" + new String(new char[100]).replace('\0', 'x') + "</ListRecords>";
+        long size = listResponse(body).length() - "<responseDate>2016-01-01T00:00:00Z</responseDate>".length();
+        DSpaceXOAICacheService cache = service(0, 2 * size + size / 2);
+
+        cache.storeResponse("a", listResponse(body));
+        cache.storeResponse("b", listResponse(body));
+        // used, so "b" is now the least recently used
+        assertTrue(cache.hasCache("a"));
+        cache.storeResponse("c", listResponse(body));
+
+        assertTrue(cache.hasCache("a"));
+        assertFalse(cache.hasCache("b"));
+        assertTrue(cache.hasCache("c"));
+        assertFalse(listFile("b").exists());
+    }
+
+    @Test
+    public void expiresAfterTheTimeToLive() throws Exception {
+        DSpaceXOAICacheService cache = service(50, 0);
+        cache.storeResponse(LIST_REQUEST, listResponse("<ListRecords/>"));
+        assertTrue(cache.hasCache(LIST_REQUEST));
+
+        Thread.sleep(100);
+        assertFalse(cache.hasCache(LIST_REQUEST));
+        assertFalse(listFile(LIST_REQUEST).exists());
+    }
+
+    @Test
+    public void missingFileIsAMiss() throws Exception {
+        DSpaceXOAICacheService cache = service(0, 0);
+        cache.storeResponse(LIST_REQUEST, listResponse("<ListRecords/>"));
+        assertTrue(listFile(LIST_REQUEST).delete());
+
+        assertFalse(cache.handle(LIST_REQUEST, new ByteArrayOutputStream()));
+        assertFalse(cache.hasCache(LIST_REQUEST));
+    }
+
+    @Test
+    public void importDropsListsAndIndexedItems() throws Exception {
+        DSpaceXOAICacheService importer = service(0, 0);
+        importer.deleteAll();
+
+        DSpaceXOAICacheService webapp = service(0, 0);
+        webapp.storeResponse(LIST_REQUEST, listResponse("<ListRecords/>"));
+        webapp.storeResponse(ITEM_REQUEST, itemResponse(ITEM_ID));
+        webapp.storeResponse(OTHER_REQUEST, itemResponse(OTHER_ID));
+
+        importer.deleteAffectedBy(Arrays.asList(ITEM_ID));
+        assertFalse(listFile(LIST_REQUEST).exists());
+        assertFalse(itemFile(ITEM_ID, ITEM_REQUEST).exists());
+
+        // stored again from the old index before the journal is read
+        webapp.storeResponse(ITEM_REQUEST, itemResponse(ITEM_ID));
+        assertTrue(itemFile(ITEM_ID, ITEM_REQUEST).exists());
+
+        webapp.checkJournal();
+        assertFalse(webapp.hasCache(LIST_REQUEST));
+        assertFalse(webapp.hasCache(ITEM_REQUEST));
+        assertTrue(webapp.hasCache(OTHER_REQUEST));
+        // no orphan left to be loaded again after a restart
+        assertFalse(itemFile(ITEM_ID, ITEM_REQUEST).exists());
+        assertFalse(service(0, 0).hasCache(ITEM_REQUEST));
+    }
+
+    @Test
+    public void deleteAllDropsEverything() throws Exception {
+        DSpaceXOAICacheService importer = service(0, 0);
+        importer.deleteAll();
+
+        DSpaceXOAICacheService webapp = service(0, 0);
+        webapp.storeResponse(LIST_REQUEST, listResponse("<ListRecords/>"));
+        webapp.storeResponse(ITEM_REQUEST, itemResponse(ITEM_ID));
+        assertTrue(webapp.hasCache(ITEM_REQUEST));
+
+        // the journal header is the time of the import
+        Thread.sleep(10);
+        importer.deleteAll();
+        webapp.checkJournal();
+        assertFalse(webapp.hasCache(LIST_REQUEST));
+        assertFalse(webapp.hasCache(ITEM_REQUEST));
+    }
+}
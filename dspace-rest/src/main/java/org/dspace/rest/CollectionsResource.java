@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
@@ -28,6 +29,7 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
 import org.apache.log4j.Logger;
 import org.dspace.authorize.AuthorizeException;
@@ -221,6 +223,11 @@ public class CollectionsResource extends Resource
      * @param offset
      *            Offset of start index in array of items of collection. Default
      *            value is 0.
+     * @param after
+     *            If set, items are returned in order of id, starting after
+     *            the item with this id (0 for the first page), and offset is
+     *            ignored. The response then carries a "Link" header with
+     *            rel="next" to the next page, unless this is the last one.
      * @param headers
      *            If you want to access to collection under logged user into
      *            context. In headers must be set header "rest-dspace-token"
@@ -240,9 +247,11 @@ public class CollectionsResource extends Resource
     @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
     public org.dspace.rest.common.Item[] getCollectionItems(@PathParam("collection_id") Integer collectionId,
             @QueryParam("expand") String expand, @QueryParam("limit") @DefaultValue("100") Integer limit,
-            @QueryParam("offset") @DefaultValue("0") Integer offset, @QueryParam("userIP") String user_ip,
+            @QueryParam("offset") @DefaultValue("0") Integer offset, @QueryParam("after") Integer after,
+            @QueryParam("userIP") String user_ip,
             @QueryParam("userAgent") String user_agent, @QueryParam("xforwardedfor") String xforwardedfor,
-            @Context HttpHeaders headers, @Context HttpServletRequest request) throws WebApplicationException
+            @Context HttpHeaders headers, @Context HttpServletRequest request, @Context HttpServletResponse response,
+            @Context UriInfo uriInfo) throws WebApplicationException
     {
 
         log.info("Reading collection(id=" + collectionId + ") items.");
@@ -258,12 +267,27 @@ public class CollectionsResource extends Resource
                     headers, request, context);
 
             items = new ArrayList<Item>();
-            org.dspace.content.ItemIterator dspaceItems = dspaceCollection.getItems();
+            org.dspace.content.ItemIterator dspaceItems;
+            if (after != null && limit != null && limit >= 0)
+            {
+                // Keyset paging: the database skips the preceding items
+                dspaceItems = dspaceCollection.getItemsAfter(Math.max(after, 0), limit);
+                offset = 0;
+            }
+            else
+            {
+                dspaceItems = dspaceCollection.getItems();
+            }
+
+            int lastId = 0;
+            int read = 0;
             for (int i = 0; (dspaceItems.hasNext()) && (i < (limit + offset)); i++)
             {
+                read++;
                 if (i >= offset)
                 {
                     org.dspace.content.Item dspaceItem = dspaceItems.next();
+                    lastId = dspaceItem.getID();
                     if (ItemService.isItemListedForUser(context, dspaceItem))
                     {
                         items.add(new Item(dspaceItem, expand, context));
@@ -275,6 +299,12 @@ public class CollectionsResource extends Resource
                     dspaceItems.nextID();
                 }
             }
+            dspaceItems.close();
+
+            if (after != null && limit > 0 && read == limit)
+            {
+                setNextPageLink(response, uriInfo, lastId);
+            }
 
             context.complete();
         }
@@ -12,6 +12,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
@@ -27,10 +28,12 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
 import org.apache.log4j.Logger;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.AuthorizeManager;
+import org.dspace.content.CommunityTree;
 import org.dspace.rest.common.Collection;
 import org.dspace.rest.common.Community;
 import org.dspace.rest.exceptions.ContextException;
@@ -125,6 +128,12 @@ public class CommunitiesResource extends Resource
      *            Maximum communities in array. Default value is 100.
      * @param offset
      *            Index from which will start array of communities.
+     * @param after
+     *            If set, communities are returned in order of id instead of
+     *            name, starting after the community with this id (0 for the
+     *            first page), and offset is ignored. The response then
+     *            carries a "Link" header with rel="next" to the next page,
+     *            unless this is the last one.
      * @param headers
      *            If you want to access to community under logged user into
      *            context. In headers must be set header "rest-dspace-token"
@@ -138,12 +147,14 @@ public class CommunitiesResource extends Resource
     @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
     public Community[] getCommunities(@QueryParam("expand") String expand,
             @QueryParam("limit") @DefaultValue("100") Integer limit, @QueryParam("offset") @DefaultValue("0") Integer offset,
+            @QueryParam("after") Integer after,
             @QueryParam("userIP") String user_ip, @QueryParam("userAgent") String user_agent,
-            @QueryParam("xforwardedfor") String xforwardedfor, @Context HttpHeaders headers, @Context HttpServletRequest request)
+            @QueryParam("xforwardedfor") String xforwardedfor, @Context HttpHeaders headers, @Context HttpServletRequest request,
+            @Context HttpServletResponse response, @Context UriInfo uriInfo)
             throws WebApplicationException
     {
 
-        log.info("Reading all communities.(offset=" + offset + " ,limit=" + limit + ").");
+        log.info("Reading all communities.(offset=" + offset + " ,after=" + after + " ,limit=" + limit + ").");
         org.dspace.core.Context context = null;
         ArrayList<Community> communities = null;
 
@@ -151,7 +162,6 @@ public class CommunitiesResource extends Resource
         {
             context = createContext(getUser(headers));
 
-            org.dspace.content.Community[] dspaceCommunities = org.dspace.content.Community.findAll(context);
             communities = new ArrayList<Community>();
 
             if (!((limit != null) && (limit >= 0) && (offset != null) && (offset >= 0)))
@@ -161,6 +171,22 @@ public class CommunitiesResource extends Resource
                 offset = 0;
             }
 
+            org.dspace.content.Community[] dspaceCommunities;
+            if (after != null)
+            {
+                // Keyset paging: the database skips the preceding communities
+                dspaceCommunities = org.dspace.content.Community.findAll(context, Math.max(after, 0), limit);
+                offset = 0;
+                if (limit > 0 && dspaceCommunities.length == limit)
+                {
+                    setNextPageLink(response, uriInfo, dspaceCommunities[limit - 1].getID());
+                }
+            }
+            else
+            {
+                dspaceCommunities = org.dspace.content.Community.findAll(context);
+            }
+
             for (int i = offset; (i < (offset + limit)) && i < dspaceCommunities.length; i++)
             {
                 if (AuthorizeManager.authorizeActionBoolean(context, dspaceCommunities[i], org.dspace.core.Constants.READ))
@@ -233,7 +259,7 @@ public class CommunitiesResource extends Resource
         {
             context = createContext(getUser(headers));
 
-            org.dspace.content.Community[] dspaceCommunities = org.dspace.content.Community.findAllTop(context);
+            org.dspace.content.Community[] dspaceCommunities = CommunityTree.findAllTop(context);
             communities = new ArrayList<Community>();
 
             if (!((limit != null) && (limit >= 0) && (offset != null) && (offset >= 0)))
@@ -327,7 +353,7 @@ public class CommunitiesResource extends Resource
             }
 
             collections = new ArrayList<Collection>();
-            org.dspace.content.Collection[] dspaceCollections = dspaceCommunity.getCollections();
+            org.dspace.content.Collection[] dspaceCollections = CommunityTree.findCollections(context, dspaceCommunity);
             for (int i = offset; (i < (offset + limit)) && (i < dspaceCollections.length); i++)
             {
                 if (AuthorizeManager.authorizeActionBoolean(context, dspaceCollections[i], org.dspace.core.Constants.READ))
@@ -413,7 +439,7 @@ public class CommunitiesResource extends Resource
             }
 
             communities = new ArrayList<Community>();
-            org.dspace.content.Community[] dspaceCommunities = dspaceCommunity.getSubcommunities();
+            org.dspace.content.Community[] dspaceCommunities = CommunityTree.findSubcommunities(context, dspaceCommunity);
             for (int i = offset; (i < (offset + limit)) && (i < dspaceCommunities.length); i++)
             {
                 if (AuthorizeManager.authorizeActionBoolean(context, dspaceCommunities[i], org.dspace.core.Constants.READ))
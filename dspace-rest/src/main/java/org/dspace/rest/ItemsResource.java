@@ -16,6 +16,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
@@ -32,6 +33,7 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriInfo;
 
 import org.apache.log4j.Logger;
 import org.dspace.authorize.AuthorizeException;
@@ -138,6 +140,13 @@ public class ItemsResource extends Resource
      *            How many items in array will be. Default value is 100.
      * @param offset
      *            On which index will array start. Default value is 0.
+     * @param after
+     *            If set, items are returned in order of id, starting after
+     *            the item with this id (0 for the first page), and offset is
+     *            ignored. The response then carries a "Link" header with
+     *            rel="next" to the next page, unless this is the last one.
+     *            Unlike offset, reading a page does not get slower the
+     *            further the page is.
      * @param headers
      *            If you want to access to item under logged user into context.
      *            In headers must be set header "rest-dspace-token" with passed
@@ -152,12 +161,14 @@ public class ItemsResource extends Resource
     @GET
     @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
     public Item[] getItems(@QueryParam("expand") String expand, @QueryParam("limit") @DefaultValue("100") Integer limit,
-            @QueryParam("offset") @DefaultValue("0") Integer offset, @QueryParam("userIP") String user_ip,
+            @QueryParam("offset") @DefaultValue("0") Integer offset, @QueryParam("after") Integer after,
+            @QueryParam("userIP") String user_ip,
             @QueryParam("userAgent") String user_agent, @QueryParam("xforwardedfor") String xforwardedfor,
-            @Context HttpHeaders headers, @Context HttpServletRequest request) throws WebApplicationException
+            @Context HttpHeaders headers, @Context HttpServletRequest request, @Context HttpServletResponse response,
+            @Context UriInfo uriInfo) throws WebApplicationException
     {
 
-        log.info("Reading items.(offset=" + offset + ",limit=" + limit + ").");
+        log.info("Reading items.(offset=" + offset + ",after=" + after + ",limit=" + limit + ").");
         org.dspace.core.Context context = null;
         List<Item> items = null;
 
@@ -165,7 +176,6 @@ public class ItemsResource extends Resource
         {
             context = createContext(getUser(headers));
 
-            ItemIterator dspaceItems = org.dspace.content.Item.findAllUnfiltered(context);
             items = new ArrayList<Item>();
 
             if (!((limit != null) && (limit >= 0) && (offset != null) && (offset >= 0)))
@@ -175,9 +185,25 @@ public class ItemsResource extends Resource
                 offset = 0;
             }
 
+            ItemIterator dspaceItems;
+            if (after != null)
+            {
+                // Keyset paging: the database skips the preceding items
+                dspaceItems = org.dspace.content.Item.findAllUnfiltered(context, Math.max(after, 0), limit);
+                offset = 0;
+            }
+            else
+            {
+                dspaceItems = org.dspace.content.Item.findAllUnfiltered(context);
+            }
+
+            int lastId = 0;
+            int read = 0;
             for (int i = 0; (dspaceItems.hasNext()) && (i < (limit + offset)); i++)
             {
                 org.dspace.content.Item dspaceItem = dspaceItems.next();
+                lastId = dspaceItem.getID();
+                read++;
                 if (i >= offset)
                 {
                     if (ItemService.isItemListedForUser(context, dspaceItem))
@@ -188,6 +214,12 @@ public class ItemsResource extends Resource
                     }
                 }
             }
+            dspaceItems.close();
+
+            if (after != null && limit > 0 && read == limit)
+            {
+                setNextPageLink(response, uriInfo, lastId);
+            }
             context.complete();
         }
         catch (SQLException e)
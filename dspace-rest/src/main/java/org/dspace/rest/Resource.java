@@ -13,9 +13,11 @@ import java.util.List;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
 import org.apache.log4j.Logger;
 import org.dspace.content.DSpaceObject;
@@ -170,6 +172,29 @@ public class Resource
         }
     }
 
+    /**
+     * Point the client to the next page of a listing paged by ID with a
+     * "Link" header (rel="next"). The link is the requested URI with its
+     * "after" parameter set to the ID of the last object read for this page
+     * and without "offset".
+     * 
+     * @param response
+     *            Response to which the header is added.
+     * @param uriInfo
+     *            Information about the requested URI.
+     * @param lastId
+     *            ID of the last object read for this page, including objects
+     *            the user may not read.
+     */
+    protected void setNextPageLink(HttpServletResponse response, UriInfo uriInfo, int lastId)
+    {
+        String next = uriInfo.getRequestUriBuilder()
+                .replaceQueryParam("offset", (Object[]) null)
+                .replaceQueryParam("after", lastId)
+                .build().toString();
+        response.setHeader("Link", "<" + next + ">; rel=\"next\"");
+    }
+
     /**
      * Split string with regex ".".
      * 
@@ -8,6 +8,7 @@
 package org.dspace.rest.common;
 
 import org.apache.log4j.Logger;
+import org.dspace.content.CommunityTree;
 import org.dspace.content.ItemIterator;
 import org.dspace.content.service.ItemService;
 import org.dspace.core.Context;
@@ -118,7 +119,7 @@ public class Collection extends DSpaceObject {
             this.addExpand("all");
         }
 
-        this.setNumberItems(collection.countItems());
+        this.setNumberItems(CommunityTree.countItems(context, collection));
     }
 
     public Bitstream getLogo() {
@@ -9,6 +9,7 @@ package org.dspace.rest.common;
 
 import org.apache.log4j.Logger;
 import org.dspace.authorize.AuthorizeManager;
+import org.dspace.content.CommunityTree;
 import org.dspace.core.Context;
 
 import javax.ws.rs.WebApplicationException;
@@ -71,7 +72,7 @@ public class Community extends DSpaceObject{
         }
 
         if(expandFields.contains("collections") || expandFields.contains("all")) {
-            org.dspace.content.Collection[] collectionArray = community.getCollections();
+            org.dspace.content.Collection[] collectionArray = CommunityTree.findCollections(context, community);
             collections = new ArrayList<Collection>();
             for(org.dspace.content.Collection collection : collectionArray) {
                 if(AuthorizeManager.authorizeActionBoolean(context, collection, org.dspace.core.Constants.READ)) {
@@ -85,7 +86,7 @@ public class Community extends DSpaceObject{
         }
 
         if(expandFields.contains("subCommunities") || expandFields.contains("all")) {
-            org.dspace.content.Community[] communityArray = community.getSubcommunities();
+            org.dspace.content.Community[] communityArray = CommunityTree.findSubcommunities(context, community);
             subcommunities = new ArrayList<Community>();
             for(org.dspace.content.Community subCommunity : communityArray) {
                 if(AuthorizeManager.authorizeActionBoolean(context, subCommunity, org.dspace.core.Constants.READ)) {
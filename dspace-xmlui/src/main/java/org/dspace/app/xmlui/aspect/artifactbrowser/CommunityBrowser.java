@@ -37,6 +37,7 @@ import org.dspace.browse.ItemCountException;
 import org.dspace.browse.ItemCounter;
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
+import org.dspace.content.CommunityTree;
 import org.dspace.content.DSpaceObject;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
@@ -127,7 +128,7 @@ public class CommunityBrowser extends AbstractDSpaceTransformer implements Cache
 	        try {
 	            DSpaceValidity validity = new DSpaceValidity();
 	            
-	            TreeNode root = buildTree(Community.findAllTop(context));
+	            TreeNode root = buildTree(CommunityTree.findAllTop(context));
 	            
 	            Stack<TreeNode> stack = new Stack<TreeNode>();
 	            stack.push(root);
@@ -201,7 +202,7 @@ public class CommunityBrowser extends AbstractDSpaceTransformer implements Cache
         division.setHead(T_head);
         division.addPara(T_select);
 
-        TreeNode root = buildTree(Community.findAllTop(context));
+        TreeNode root = buildTree(CommunityTree.findAllTop(context));
         
         boolean full = ConfigurationManager.getBooleanProperty("xmlui.community-list.render.full", true);
         
@@ -373,7 +374,7 @@ public class CommunityBrowser extends AbstractDSpaceTransformer implements Cache
             // Only communities nodes are pushed on the stack.
             Community community = (Community) node.getDSO();
 
-            for (Community subcommunity : community.getSubcommunities())
+            for (Community subcommunity : CommunityTree.findSubcommunities(context, community))
             {
                 stack.push(node.addChild(subcommunity));
             }
@@ -381,7 +382,7 @@ public class CommunityBrowser extends AbstractDSpaceTransformer implements Cache
             // Add any collections to the document.
             if (!excludeCollections)
             {
-                for (Collection collection : community.getCollections())
+                for (Collection collection : CommunityTree.findCollections(context, community))
                 {
                     node.addChild(collection);
                 }
@@ -30,6 +30,7 @@ import org.dspace.browse.ItemCountException;
 import org.dspace.browse.ItemCounter;
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
+import org.dspace.content.CommunityTree;
 import org.dspace.content.DSpaceObject;
 import org.dspace.core.ConfigurationManager;
 import org.xml.sax.SAXException;
@@ -116,8 +117,8 @@ public class CommunityViewer extends AbstractDSpaceTransformer implements Cachea
 	            DSpaceValidity validity = new DSpaceValidity();
 	            validity.add(community);
 	            
-	            Community[] subCommunities = community.getSubcommunities();
-	            Collection[] collections = community.getCollections();
+	            Community[] subCommunities = CommunityTree.findSubcommunities(context, community);
+	            Collection[] collections = CommunityTree.findCollections(context, community);
 	            // Sub communities
 	            for (Community subCommunity : subCommunities)
 	            {
@@ -228,8 +229,8 @@ public class CommunityViewer extends AbstractDSpaceTransformer implements Cachea
 
         // Set up the major variables
         Community community = (Community) dso;
-        Community[] subCommunities = community.getSubcommunities();
-        Collection[] collections = community.getCollections();
+        Community[] subCommunities = CommunityTree.findSubcommunities(context, community);
+        Collection[] collections = CommunityTree.findCollections(context, community);
 
         // Build the community viewer division.
         Division home = body.addDivision("community-home", "primary repository community");
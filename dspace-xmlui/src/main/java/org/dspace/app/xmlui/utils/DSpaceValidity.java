@@ -20,6 +20,7 @@ import org.dspace.content.Community;
 import org.dspace.content.Metadatum;
 import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
 
@@ -64,6 +65,8 @@ public class DSpaceValidity implements SourceValidity
     /** The length of time that a cache is assumed to be valid */
     protected long assumedValidityDelay = 0;
 
+    private static volatile Boolean useModificationStamps;
+
     /**
      * Create a new DSpace validity object. 
      * 
@@ -219,6 +222,10 @@ public class DSpaceValidity implements SourceValidity
      * Bundles -> bitstreams
      * EPeople -> groups
      * 
+     * Communities, collections and items are only represented by their
+     * modification stamp, which covers all of the above, unless this is
+     * disabled in the configuration.
+     * 
      * @param dso
      *          The object to add to the validity.
      */
@@ -233,6 +240,15 @@ public class DSpaceValidity implements SourceValidity
         {
           this.validityKey.append("null");  
         }
+        else if (useModificationStamps() && dso.getModificationStamp() >= 0)
+        {
+            // Communities, collections and items carry a stamp which changes
+            // whenever they, or the bundles and bitstreams of an item, change.
+            validityKey.append("Stamp:");
+            validityKey.append(dso.getType()).append(":");
+            validityKey.append(dso.getID()).append(":");
+            validityKey.append(dso.getModificationStamp());
+        }
         else if (dso instanceof Community)
         {
             Community community = (Community) dso;
@@ -366,6 +382,24 @@ public class DSpaceValidity implements SourceValidity
         }    
     }
     
+    /**
+     * Whether communities, collections and items are represented by their
+     * modification stamp rather than by their contents; see
+     * xmlui.validity.modification-stamps in dspace.cfg.
+     */
+    private static boolean useModificationStamps()
+    {
+        Boolean value = useModificationStamps;
+        if (value == null)
+        {
+            // racing threads read the same configuration, so no lock needed
+            value = ConfigurationManager.getBooleanProperty(
+                    "xmlui.validity.modification-stamps", true);
+            useModificationStamps = value;
+        }
+        return value;
+    }
+
     /**
      * Add a non-DSpaceObject to the validity, the object should be 
      * serialized into a string form. The order in which objects 
@@ -0,0 +1,139 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.xmlui.utils;
+
+import java.lang.reflect.Field;
+
+import org.apache.excalibur.source.SourceValidity;
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the validity keys of stamped objects: a cached page stays valid
+ * as long as the stamps of its objects do not change, and is invalid after
+ * each committed change, which increments the stamp.
+ */
+public class DSpaceValidityTest
+{
+    private Field useModificationStamps;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        useModificationStamps = DSpaceValidity.class.getDeclaredField("useModificationStamps");
+        useModificationStamps.setAccessible(true);
+        useModificationStamps.set(null, Boolean.TRUE);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        useModificationStamps.set(null, null);
+    }
+
+    @Test
+    public void testUnchangedObjectsAreValid() throws Exception
+    {
+        StampedObject item = new StampedObject(Constants.ITEM, 1, 3);
+        StampedObject collection = new StampedObject(Constants.COLLECTION, 2, 0);
+
+        assertEquals(SourceValidity.VALID, validity(item, collection).isValid(validity(item, collection)));
+    }
+
+    @Test
+    public void testEachChangeInvalidates() throws Exception
+    {
+        StampedObject item = new StampedObject(Constants.ITEM, 1, 3);
+        DSpaceValidity cached = validity(item);
+        for (int i = 0; i < 3; i++)
+        {
+            // a change of the item, or of one of its bundles or bitstreams
+            item.stamp++;
+            DSpaceValidity current = validity(item);
+            assertEquals(SourceValidity.INVALID, cached.isValid(current));
+            cached = current;
+        }
+    }
+
+    @Test
+    public void testObjectsAreToldApart() throws Exception
+    {
+        DSpaceValidity item = validity(new StampedObject(Constants.ITEM, 1, 3));
+
+        assertEquals(SourceValidity.INVALID, item.isValid(validity(new StampedObject(Constants.ITEM, 2, 3))));
+        assertEquals(SourceValidity.INVALID, item.isValid(validity(new StampedObject(Constants.COLLECTION, 1, 3))));
+    }
+
+    private static DSpaceValidity validity(DSpaceObject... objects) throws Exception
+    {
+        DSpaceValidity validity = new DSpaceValidity();
+        for (DSpaceObject dso : objects)
+        {
+            validity.add(dso);
+        }
+        return validity.complete();
+    }
+
+    /**
+     * An object read with its stamp, as DSpaceValidity only uses its type,
+     * id and stamp.
+     */
+    private static class StampedObject extends DSpaceObject
+    {
+        private final int type;
+
+        private final int id;
+
+        private long stamp;
+
+        StampedObject(int type, int id, long stamp)
+        {
+            this.type = type;
+            this.id = id;
+            this.stamp = stamp;
+        }
+
+        public int getType()
+        {
+            return type;
+        }
+
+        public int getID()
+        {
+            return id;
+        }
+
+        public String getHandle()
+        {
+            return null;
+        }
+
+        public String getName()
+        {
+            return null;
+        }
+
+        public long getModificationStamp()
+        {
+            return stamp;
+        }
+
+        public void update()
+        {
+        }
+
+        public void updateLastModified()
+        {
+        }
+    }
+}